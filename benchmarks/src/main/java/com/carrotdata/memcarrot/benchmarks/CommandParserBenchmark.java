@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.carrotdata.cache.util.UnsafeAccess;
+import com.carrotdata.memcarrot.commands.CommandParser;
+import com.carrotdata.memcarrot.commands.MemcachedCommand;
+
+/**
+ * Text protocol parser benchmarks: full parse (command name dispatch + command parse) and command
+ * parse only, over short and long keys, multi-gets of 10 - 500 keys, noreply variants and partial
+ * (incomplete) inputs. Run with "-prof gc" to see allocation rate per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CommandParserBenchmark {
+
+  @Param({ "get_short", "get_long", "mget_10", "mget_100", "mget_500", "gets_10", "gat",
+      "set_short", "set_long", "set_noreply", "cas", "incr", "touch", "delete_noreply",
+      "partial_set", "partial_mget" })
+  public String request;
+
+  private long ptr;
+
+  private int size;
+
+  /* Command name and its length */
+  private String name;
+
+  private int nameLength;
+
+  @Setup
+  public void setup() {
+    byte[] b = Requests.build(request).getBytes();
+    ptr = UnsafeAccess.allocAndCopy(b, 0, b.length);
+    size = b.length;
+    nameLength = new String(b).indexOf(' ');
+    name = new String(b, 0, nameLength);
+  }
+
+  @TearDown
+  public void tearDown() {
+    UnsafeAccess.free(ptr);
+  }
+
+  @Benchmark
+  public MemcachedCommand parse() throws Exception {
+    // null for partial inputs
+    return CommandParser.parse(ptr, size);
+  }
+
+  @Benchmark
+  public boolean parseCommand() throws Exception {
+    MemcachedCommand cmd = Requests.command(name);
+    return cmd.parse(ptr + nameLength + 1, size - nameLength - 1);
+  }
+}
@@ -0,0 +1,233 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.benchmarks;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.carrotdata.cache.Builder;
+import com.carrotdata.cache.support.Memcached;
+import com.carrotdata.cache.support.Memcached.Record;
+import com.carrotdata.cache.util.UnsafeAccess;
+import com.carrotdata.memcarrot.CommandProcessor;
+import com.carrotdata.memcarrot.CommandProcessor.OutputConsumer;
+
+/**
+ * End-to-end command execution benchmarks: pre-built off-heap requests are passed to
+ * {@link CommandProcessor#process} against an in-memory storage, so numbers include parsing,
+ * storage access and response serialization, but no network I/O. Covers GET hit and miss,
+ * multi-get, SET, CAS, INCR, APPEND and TOUCH with different value sizes, compression on and off.
+ * <p>
+ * Thread scaling: run with "-t 1", "-t 2", ... "-t 64" (or "-t max"), the storage is shared by all
+ * benchmark threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx1g", "-XX:MaxDirectMemorySize=1g" })
+public class CommandProcessorBenchmark {
+
+  /* Number of preloaded items */
+  static final int KEYS = 100_000;
+
+  /* Number of pre-built requests per thread, used round robin */
+  static final int REQUESTS = 1024;
+
+  /* Number of keys in a multi-get request */
+  static final int MGET_KEYS = 10;
+
+  /* Number of appends to a key before it is reset to its original value */
+  static final int APPEND_LIMIT = 16;
+
+  /* Output buffer size */
+  static final int OUT_SIZE = 1 << 20;
+
+  static final OutputConsumer NO_OP = upto -> {
+  };
+
+  @State(Scope.Benchmark)
+  public static class Store {
+
+    @Param({ "false", "true" })
+    public boolean compression;
+
+    @Param({ "100", "1000", "10000" })
+    public int valueSize;
+
+    Memcached support;
+
+    /* Benchmark thread counter, gives every thread its own keys for read-modify-write commands */
+    final AtomicInteger threads = new AtomicInteger();
+
+    @Setup
+    public void setup() throws IOException {
+      long maxSize = Math.max(256L << 20, 2L * KEYS * (valueSize + Requests.SHORT_KEY + 64));
+      Builder b = new Builder("bench");
+      b.withCacheMaximumSize(maxSize).withCacheDataSegmentSize(4 << 20)
+          .withCacheCompressionEnabled(compression).withTLSSupported(true);
+      support = new Memcached(b.buildMemoryCache());
+      byte[] value = Requests.value(valueSize).getBytes();
+      for (int i = 0; i < KEYS; i++) {
+        byte[] key = Requests.key(i, Requests.SHORT_KEY).getBytes();
+        support.set(key, 0, key.length, value, 0, value.length, 0, 0);
+      }
+    }
+
+    @TearDown
+    public void tearDown() {
+      support.dispose();
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Input {
+
+    @Param({ "get_hit", "get_miss", "mget_10", "set", "cas", "incr", "append", "touch" })
+    public String op;
+
+    long[] ptrs = new long[REQUESTS];
+
+    int[] sizes = new int[REQUESTS];
+
+    int next;
+
+    /* APPEND: reset request and number of appends since last reset */
+    long resetPtr;
+
+    int resetSize;
+
+    int appends;
+
+    long outPtr;
+
+    @Setup
+    public void setup(Store store) throws IOException {
+      Random r = new Random(store.threads.get());
+      String own = "thread:" + store.threads.getAndIncrement();
+      String value = Requests.value(store.valueSize);
+      String chunk = value.substring(0, Math.max(1, value.length() / APPEND_LIMIT));
+      long cas = 0;
+      if (op.equals("cas")) {
+        cas = casUnique(store, own, value);
+      } else if (op.equals("incr")) {
+        store.support.set(own.getBytes(), 0, own.length(), "0".getBytes(), 0, 1, 0, 0);
+      }
+      for (int i = 0; i < REQUESTS; i++) {
+        String req;
+        String key = Requests.key(r.nextInt(KEYS), Requests.SHORT_KEY);
+        switch (op) {
+          case "get_hit":
+            req = "get " + key + "\r\n";
+            break;
+          case "get_miss":
+            req = "get " + Requests.key(KEYS + r.nextInt(KEYS), Requests.SHORT_KEY) + "\r\n";
+            break;
+          case "mget_10": {
+            StringBuilder sb = new StringBuilder("get");
+            for (int k = 0; k < MGET_KEYS; k++) {
+              sb.append(' ').append(Requests.key(r.nextInt(KEYS), Requests.SHORT_KEY));
+            }
+            req = sb.append("\r\n").toString();
+            break;
+          }
+          case "set":
+            req = Requests.set("set", key, store.valueSize, false);
+            break;
+          case "touch":
+            req = "touch " + key + " 3600\r\n";
+            break;
+          case "cas":
+            // same request over and over, the value does not change
+            req = "cas " + own + " 0 0 " + value.length() + " " + cas + "\r\n" + value + "\r\n";
+            break;
+          case "incr":
+            req = "incr " + own + " 1\r\n";
+            break;
+          case "append":
+            // appends a small fraction of the value, the key is reset every APPEND_LIMIT
+            // operations to keep the value size bounded
+            req = "append " + own + " 0 0 " + chunk.length() + "\r\n" + chunk + "\r\n";
+            break;
+          default:
+            throw new IllegalArgumentException(op);
+        }
+        byte[] b = req.getBytes();
+        ptrs[i] = UnsafeAccess.allocAndCopy(b, 0, b.length);
+        sizes[i] = b.length;
+      }
+      if (op.equals("append")) {
+        byte[] b = Requests.set("set", own, store.valueSize, true).getBytes();
+        resetPtr = UnsafeAccess.allocAndCopy(b, 0, b.length);
+        resetSize = b.length;
+      }
+      outPtr = UnsafeAccess.malloc(OUT_SIZE);
+      if (resetPtr != 0) {
+        CommandProcessor.process(store.support, resetPtr, resetSize, outPtr, OUT_SIZE, NO_OP);
+      }
+    }
+
+    private static long casUnique(Store store, String key, String value) {
+      byte[] k = key.getBytes();
+      store.support.set(k, 0, k.length, value.getBytes(), 0, value.length(), 0, 0);
+      long ptr = UnsafeAccess.allocAndCopy(k, 0, k.length);
+      Record r = store.support.gets(ptr, k.length);
+      UnsafeAccess.free(ptr);
+      return r.cas;
+    }
+
+    @TearDown
+    public void tearDown() {
+      for (long ptr : ptrs) {
+        UnsafeAccess.free(ptr);
+      }
+      if (resetPtr != 0) {
+        UnsafeAccess.free(resetPtr);
+      }
+      UnsafeAccess.free(outPtr);
+    }
+  }
+
+  @Benchmark
+  public int process(Store store, Input input) throws Exception {
+    int i = input.next;
+    input.next = (i + 1) & (REQUESTS - 1);
+    if (input.resetPtr != 0 && ++input.appends == APPEND_LIMIT) {
+      input.appends = 0;
+      return CommandProcessor.process(store.support, input.resetPtr, input.resetSize,
+        input.outPtr, OUT_SIZE, NO_OP);
+    }
+    return CommandProcessor.process(store.support, input.ptrs[i], input.sizes[i],
+      input.outPtr, OUT_SIZE, NO_OP);
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.benchmarks;
+
+import java.util.Arrays;
+
+import com.carrotdata.memcarrot.commands.CAS;
+import com.carrotdata.memcarrot.commands.DELETE;
+import com.carrotdata.memcarrot.commands.GAT;
+import com.carrotdata.memcarrot.commands.GET;
+import com.carrotdata.memcarrot.commands.GETS;
+import com.carrotdata.memcarrot.commands.INCR;
+import com.carrotdata.memcarrot.commands.MemcachedCommand;
+import com.carrotdata.memcarrot.commands.SET;
+import com.carrotdata.memcarrot.commands.TOUCH;
+
+/**
+ * Realistic text protocol requests used by benchmarks
+ */
+final class Requests {
+
+  static final int SHORT_KEY = 16;
+  static final int LONG_KEY = 200;
+
+  private Requests() {
+  }
+
+  /**
+   * Key of a given size: "key:" prefix followed by zero padded number
+   * @param n key number
+   * @param size key size
+   * @return key
+   */
+  static String key(long n, int size) {
+    String num = Long.toString(n);
+    char[] pad = new char[Math.max(0, size - 4 - num.length())];
+    Arrays.fill(pad, '0');
+    return "key:" + new String(pad) + num;
+  }
+
+  static String value(int size) {
+    char[] v = new char[size];
+    for (int i = 0; i < size; i++) {
+      v[i] = (char) ('a' + i % 26);
+    }
+    return new String(v);
+  }
+
+  static String get(String cmd, int keys, int keySize) {
+    StringBuilder sb = new StringBuilder(cmd);
+    for (int i = 0; i < keys; i++) {
+      sb.append(' ').append(key(i, keySize));
+    }
+    return sb.append("\r\n").toString();
+  }
+
+  static String set(String cmd, String key, int valueSize, boolean noreply) {
+    return cmd + " " + key + " 0 0 " + valueSize + (noreply ? " noreply" : "") + "\r\n"
+        + value(valueSize) + "\r\n";
+  }
+
+  /**
+   * Builds request of a named kind
+   * @param kind request kind
+   * @return request
+   */
+  static String build(String kind) {
+    String shortKey = key(1, SHORT_KEY);
+    switch (kind) {
+      case "get_short":
+        return get("get", 1, SHORT_KEY);
+      case "get_long":
+        return get("get", 1, LONG_KEY);
+      case "mget_10":
+        return get("get", 10, SHORT_KEY);
+      case "mget_100":
+        return get("get", 100, SHORT_KEY);
+      case "mget_500":
+        return get("get", 500, SHORT_KEY);
+      case "gets_10":
+        return get("gets", 10, SHORT_KEY);
+      case "gat":
+        return "gat 3600 " + shortKey + "\r\n";
+      case "set_short":
+        return set("set", shortKey, 100, false);
+      case "set_long":
+        return set("set", key(1, LONG_KEY), 4096, false);
+      case "set_noreply":
+        return set("set", shortKey, 100, true);
+      case "cas":
+        return "cas " + shortKey + " 0 0 100 12345\r\n" + value(100) + "\r\n";
+      case "incr":
+        return "incr " + shortKey + " 1\r\n";
+      case "touch":
+        return "touch " + shortKey + " 3600\r\n";
+      case "delete_noreply":
+        return "delete " + shortKey + " noreply\r\n";
+      case "partial_set": {
+        // value is not received completely
+        String s = set("set", shortKey, 4096, false);
+        return s.substring(0, s.length() / 2);
+      }
+      case "partial_mget": {
+        String s = get("get", 100, SHORT_KEY);
+        return s.substring(0, s.length() - 2);
+      }
+      default:
+        throw new IllegalArgumentException(kind);
+    }
+  }
+
+  /**
+   * New command instance
+   * @param name command name
+   * @return command
+   */
+  static MemcachedCommand command(String name) {
+    switch (name) {
+      case "get":
+        return new GET();
+      case "gets":
+        return new GETS();
+      case "gat":
+        return new GAT();
+      case "set":
+        return new SET();
+      case "cas":
+        return new CAS();
+      case "incr":
+        return new INCR();
+      case "touch":
+        return new TOUCH();
+      case "delete":
+        return new DELETE();
+      default:
+        throw new IllegalArgumentException(name);
+    }
+  }
+}
@@ -14,3 +14,6 @@ if [ -z "${JMX_EXPORTER_ENABLED}" ]; then
   export JMX_EXPORTER_ENABLED=false
 fi
 export JMX_EXPORTER="-javaagent:lib/jmx_prometheus_javaagent-1.0.1.jar=9191:conf/jmxconfig.yml"
+# JFR continuous recording with Memcarrot events (conf/memcarrot.jfc)
+#export MEMCARROT_APP_OPTS="${MEMCARROT_APP_OPTS} \
+#-XX:StartFlightRecording:settings=default,settings=conf/memcarrot.jfc,maxage=1h,disk=true"
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot;
+
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.carrotdata.cache.support.Memcached;
+import com.carrotdata.cache.util.UnsafeAccess;
+
+/**
+ * Executes retrieval commands which require file tier reads in a dedicated I/O thread pool, so
+ * that worker threads keep serving RAM tier hits. The connection is served by I/O thread starting
+ * with the pending command until its input is exhausted, then it is released back to the selector.
+ */
+class AsyncReadExecutor {
+
+  private static final Logger log = LogManager.getLogger(AsyncReadExecutor.class);
+
+  private final ExecutorService pool;
+
+  private final ThreadLocal<RequestProcessor> processors;
+
+  private final AtomicLong submitted = new AtomicLong();
+
+  /**
+   * Constructor
+   * @param store data store
+   * @param poolSize I/O pool size
+   * @param bufferSize I/O buffer size
+   */
+  AsyncReadExecutor(Memcached store, int poolSize, int bufferSize) {
+    AtomicInteger counter = new AtomicInteger();
+    this.pool = Executors.newFixedThreadPool(poolSize, r -> {
+      Thread t = new Thread(r, "mc-io-thread-" + counter.getAndIncrement());
+      t.setDaemon(true);
+      return t;
+    });
+    // I/O threads execute everything synchronously
+    this.processors =
+        ThreadLocal.withInitial(() -> new RequestProcessor(store, null, null, bufferSize));
+  }
+
+  /**
+   * Submits connection for processing, the key must be in use
+   * @param key selection key
+   * @param ptr pending input address
+   * @param size pending input size
+   */
+  void submit(SelectionKey key, long ptr, int size) {
+    byte[] pending = new byte[size];
+    UnsafeAccess.copy(ptr, pending, 0, size);
+    submitted.incrementAndGet();
+    try {
+      pool.execute(() -> {
+        try {
+          processors.get().process(key, pending);
+        } catch (Throwable t) {
+          log.error("I/O thread error:", t);
+        } finally {
+          WorkThread.release(key);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // Shutdown in progress
+      WorkThread.release(key);
+    }
+  }
+
+  /**
+   * Number of requests executed asynchronously
+   * @return number of requests
+   */
+  long getSubmitted() {
+    return submitted.get();
+  }
+
+  void shutdown() {
+    pool.shutdownNow();
+  }
+}
@@ -28,184 +28,355 @@
  */
 package com.carrotdata.memcarrot;
 
-import java.io.IOException;
-import java.net.InetSocketAddress;
+import java.net.InetAddress;
 import java.nio.ByteBuffer;
-import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.carrotdata.cache.util.UnsafeAccess;
+import com.carrotdata.memcarrot.util.AddressTable;
+import com.carrotdata.memcarrot.util.CidrList;
 import com.carrotdata.memcarrot.util.HashUtil;
 
+/**
+ * Connection handshake: optional PROXY protocol (v1, v2) header from a local proxy, followed by
+ * the login command ("set &lt;user&gt; &lt;flags&gt; &lt;exptime&gt; &lt;bytes&gt; [noreply]" with
+ * password as a data block) from a client host which is not authorized yet. Handshake is driven
+ * by a worker thread directly from the connection's input buffer, incomplete input is re-parsed
+ * after next read. Client hosts from the allowed networks and hosts which have logged in
+ * recently (within time to live) are authorized without login.
+ */
 public class AuthorizationHandler {
-  
+
   private static final Logger log = LogManager.getLogger(AuthorizationHandler.class);
 
+  /* Handshake states */
+
+  /** Handshake is complete, connection serves commands */
+  static final int READY = 0;
+
+  /** PROXY header is expected (connection from a local proxy) */
+  static final int PROXY = 1;
+
+  /** Login command is expected */
+  static final int LOGIN = 2;
+
+  /* Handshake results */
+
+  /** Input is incomplete */
+  static final int INCOMPLETE = -1;
+
+  /** Handshake failed, connection must be closed */
+  static final int FAILED = -2;
+
+  static final byte[] STORED = "STORED\r\n".getBytes();
+
+  static final byte[] AUTH_REQUIRED = "CLIENT_ERROR Authorization required\r\n".getBytes();
+
+  static final byte[] AUTH_FAILED = "CLIENT_ERROR Authorization failed\r\n".getBytes();
+
+  static final byte[] PROXY_V1 = "PROXY ".getBytes();
 
-  ConcurrentHashMap<SocketChannel, SocketChannel> pendingConns = new ConcurrentHashMap<>();
+  static final byte[] PROXY_V2 =
+      new byte[] { 0x0D, 0x0A, 0x0D, 0x0A, 0x00, 0x0D, 0x0A, 0x51, 0x55, 0x49, 0x54, 0x0A };
 
-  ConcurrentHashMap<String, String> authHosts = new ConcurrentHashMap<String, String>();
+  /* Maximum length of PROXY v1 header (including CRLF) */
+  static final int PROXY_V1_MAX = 107;
 
-  AuthorizationHandler() {
+  /* Maximum length of a login command line (including CRLF) */
+  static final int LOGIN_LINE_MAX = 1024;
+
+  /* Maximum password length */
+  static final int PASSWORD_MAX = 1024;
+
+  private static volatile AuthorizationHandler handler;
+
+  /**
+   * Initializes authorization, it is enabled when both user name and password hash are set
+   * @param loginName user login name
+   * @param passwordSHA256 SHA-256 of user password (hex)
+   */
+  public static void init(String loginName, String passwordSHA256) {
+    init(loginName, passwordSHA256, null, MemcarrotConf.DEFAULT_AUTH_CLIENTS_MAX,
+      MemcarrotConf.DEFAULT_AUTH_CLIENT_TTL * 1000);
   }
 
-  public void addPendingConnection(SocketChannel channel) {
-    this.pendingConns.put(channel,  channel);
+  /**
+   * Initializes authorization, it is enabled when user name and password hash are set or allowed
+   * networks list is not empty
+   * @param loginName user login name
+   * @param passwordSHA256 SHA-256 of user password (hex)
+   * @param allow comma-separated list of allowed networks (CIDR)
+   * @param clientsMax maximum number of authorized client hosts
+   * @param ttl authorized client host time to live in ms, 0 - forever
+   */
+  public static void init(String loginName, String passwordSHA256, String allow, int clientsMax,
+      long ttl) {
+    boolean login = loginName != null && !loginName.isEmpty() && passwordSHA256 != null
+        && !passwordSHA256.isEmpty();
+    CidrList networks = CidrList.parse(allow);
+    if (!login && networks.size() == 0) {
+      handler = null;
+      return;
+    }
+    handler = login
+        ? new AuthorizationHandler(loginName, passwordSHA256, networks, clientsMax, ttl)
+        : new AuthorizationHandler(null, null, networks, clientsMax, ttl);
+    log.info("Authorization enabled: user={} allowed networks={} clients max={} ttl={}ms",
+      loginName, networks.size(), clientsMax, ttl);
   }
-  
+
   /**
-   * @param channel
-   * @return
+   * Get authorization handler
+   * @return handler or null, if authorization is disabled
    */
-  public boolean authorizeConnection(SocketChannel channel) {
-    
-    if (!pendingConns.containsKey(channel)) {
-      return false;// 
-    }
-    String remoteIp;
-    String username;
-    String password;
-    
-    try {
-      // Step 1: Check if connection is local
-      InetSocketAddress remoteAddr = (InetSocketAddress) channel.getRemoteAddress();
-      boolean localAddress = remoteAddr.getAddress().isLoopbackAddress();
-      log.debug("remote={} local={}", remoteAddr, localAddress); 
-      if (localAddress) {
-        // Step 2: Read PROXY header and extract remote IP
-        String proxyLine = readLine(channel);
-        log.debug("proxyLine={}", proxyLine);
-        
-        if (proxyLine == null || !proxyLine.startsWith("PROXY ")) {
-          sendErrorAndClose(channel, "CLIENT_ERROR Authorization required\r\n");
-          return true;
-        }
-        String[] proxyTokens = proxyLine.split(" ");
-        if (proxyTokens.length < 6) {
-          sendErrorAndClose(channel, "CLIENT_ERROR Authorization required\r\n");
-          return true;
-        }
-        remoteIp = proxyTokens[2];
-      } else {
-        remoteIp = remoteAddr.getHostString();
-      }
-      
-      if (authHosts.containsKey(remoteIp)) {
-        // Authorized host
-        return false;
-      }
-      // Step 3: Read Memcached SET command
-      String commandLine = readLine(channel);
-      if (commandLine == null || !commandLine.startsWith("set ")) {
-        sendErrorAndClose(channel, "CLIENT_ERROR Authorization required\r\n");
-        return true;
-      }
-      
-      log.debug("cmd={}", commandLine);
-      String[] cmdTokens = commandLine.split(" ");
-      if (cmdTokens.length < 5) {
-        sendErrorAndClose(channel, "CLIENT_ERROR Authorization required\r\n");
-        return true;
-      }
+  public static AuthorizationHandler get() {
+    return handler;
+  }
 
-      username = cmdTokens[1];
-      boolean noreply = cmdTokens.length == 6 && cmdTokens[5].equals("noreply");
-      password = readLine(channel);
-      if (password == null) {
-        sendErrorAndClose(channel, "CLIENT_ERROR Authorization required\r\n");
-        return true;
-      }
-      
-      String hash = HashUtil.hashString(password);
-      String loginName = MemcarrotConf.getConf().getUserLoginName();
-      String hashedPassword = MemcarrotConf.getConf().getUserPasswordSHA256();
-      
-      if (loginName == null || hashedPassword == null) {
-        sendErrorAndClose(channel, "SERVER_ERROR Authorization not configured\r\n");
-        return true;
-      }
-      
-      // (Optional) Here you'd typically verify username/password...
-      if (username.equals(loginName) && hash.equals(hashedPassword)) {
-        // Step 5: Send success response
-        authHosts.put(remoteIp,  remoteIp);
-        if (!noreply) {
-          writeString(channel, "STORED\r\n");
-        }
-      } else {
-        sendErrorAndClose(channel, "CLIENT_ERROR Authorization failed\r\n");
-      }
+  private final String loginName;
+
+  private final String passwordSHA256;
+
+  /* Allowed networks */
+  private final CidrList allowed;
+
+  /* Client hosts which have logged in */
+  private final AddressTable clients;
+
+  AuthorizationHandler(String loginName, String passwordSHA256) {
+    this(loginName, passwordSHA256, CidrList.parse(null), MemcarrotConf.DEFAULT_AUTH_CLIENTS_MAX,
+      MemcarrotConf.DEFAULT_AUTH_CLIENT_TTL * 1000);
+  }
+
+  AuthorizationHandler(String loginName, String passwordSHA256, CidrList allowed,
+      int clientsMax, long ttl) {
+    this.loginName = loginName;
+    this.passwordSHA256 = passwordSHA256;
+    this.allowed = allowed;
+    this.clients = new AddressTable(clientsMax, ttl);
+  }
+
+  /**
+   * Is client host authorized
+   * @param high client address high word
+   * @param low client address low word
+   * @return true or false
+   */
+  public boolean isAuthorized(long high, long low) {
+    return allowed.contains(high, low) || clients.contains(high, low);
+  }
 
-      // For demonstration purposes, print extracted data
-      log.debug("Authorized connection from IP: {}", remoteIp);
-      log.debug("Username: {}", username);
-      log.debug("Password: {}", password);
+  /**
+   * Is client host authorized
+   * @param client client address
+   * @return true or false
+   */
+  public boolean isAuthorized(InetAddress client) {
+    byte[] addr = client.getAddress();
+    return isAuthorized(AddressTable.high(addr), AddressTable.low(addr));
+  }
 
-    } catch (IOException e) {
-      sendErrorAndClose(channel, "CLIENT_ERROR Authorization required\r\n");
-    } finally {
-      pendingConns.remove(channel);
+  /**
+   * Sets handshake state of a newly accepted connection
+   * @param att connection attachment
+   * @param remote remote address of the connection
+   */
+  void accepted(RequestHandlers.Attachment att, InetAddress remote) {
+    byte[] addr = remote.getAddress();
+    att.setClient(AddressTable.high(addr), AddressTable.low(addr));
+    if (remote.isLoopbackAddress()) {
+      att.setHandshake(PROXY);
+    } else {
+      att.setHandshake(isAuthorized(att.clientHigh(), att.clientLow()) ? READY : LOGIN);
     }
-    return true;
   }
 
-  // Helper method to read a line from a non-blocking channel
-  private String readLine(SocketChannel channel) throws IOException {
-    ByteBuffer buffer = ByteBuffer.allocate(1);
-    StringBuilder line = new StringBuilder();
-    boolean gotCR = false;
+  /**
+   * Runs next handshake step on the input
+   * @param att connection attachment
+   * @param ptr input address
+   * @param size input size
+   * @param out output buffer for the response, if any
+   * @return number of bytes consumed (handshake state changed), INCOMPLETE or FAILED
+   */
+  int handshake(RequestHandlers.Attachment att, long ptr, int size, ByteBuffer out) {
+    switch (att.handshake()) {
+      case PROXY:
+        return proxy(att, ptr, size);
+      case LOGIN:
+        return login(att, ptr, size, out);
+      default:
+        return 0;
+    }
+  }
 
-    long timeout = System.currentTimeMillis() + 500; // 500ms timeout
+  private int proxy(RequestHandlers.Attachment att, long ptr, int size) {
+    int result;
+    if (startsWith(ptr, size, PROXY_V2)) {
+      result = size < PROXY_V2.length ? INCOMPLETE : proxyV2(att, ptr, size);
+    } else if (startsWith(ptr, size, PROXY_V1)) {
+      result = size < PROXY_V1.length ? INCOMPLETE : proxyV1(att, ptr, size);
+    } else {
+      // Direct local connection, no header
+      result = 0;
+    }
+    if (result >= 0) {
+      att.setHandshake(isAuthorized(att.clientHigh(), att.clientLow()) ? READY : LOGIN);
+    }
+    return result;
+  }
 
-    while (System.currentTimeMillis() < timeout) {
-      int bytesRead = channel.read(buffer);
-      if (bytesRead > 0) {
-        buffer.flip();
-        char ch = (char) buffer.get();
-        buffer.clear();
+  /* "PROXY TCP4|TCP6|UNKNOWN src dst sport dport\r\n" */
+  private int proxyV1(RequestHandlers.Attachment att, long ptr, int size) {
+    int len = lineLength(ptr, Math.min(size, PROXY_V1_MAX));
+    if (len < 0) {
+      return size < PROXY_V1_MAX ? INCOMPLETE : FAILED;
+    }
+    String[] tokens = toString(ptr, len - 2).split(" ");
+    if (tokens.length >= 2 && tokens[1].equals("UNKNOWN")) {
+      return len;
+    }
+    if (tokens.length != 6 || !(tokens[1].equals("TCP4") || tokens[1].equals("TCP6"))
+        || tokens[1].equals("TCP4") != (tokens[2].indexOf(':') < 0)) {
+      return FAILED;
+    }
+    byte[] addr = AddressTable.parseAddress(tokens[2]);
+    if (addr == null) {
+      return FAILED;
+    }
+    att.setClient(AddressTable.high(addr), AddressTable.low(addr));
+    return len;
+  }
 
-        if (ch == '\r') {
-          gotCR = true;
-        } else if (gotCR && ch == '\n') {
-          return line.toString();
-        } else {
-          line.append(ch);
+  /* 12 bytes signature, version/command, family, length (big endian), addresses */
+  private int proxyV2(RequestHandlers.Attachment att, long ptr, int size) {
+    if (size < 16) {
+      return INCOMPLETE;
+    }
+    int verCmd = UnsafeAccess.toByte(ptr + 12) & 0xff;
+    int family = UnsafeAccess.toByte(ptr + 13) & 0xff;
+    int len = (int) bigEndian(ptr + 14, 2);
+    if ((verCmd >> 4) != 2) {
+      return FAILED;
+    }
+    if (size < 16 + len) {
+      return INCOMPLETE;
+    }
+    // PROXY command carries client's source address, LOCAL (health checks) keeps the proxy's
+    if ((verCmd & 0xf) == 1) {
+      int af = family >> 4;
+      if (af == 1) {
+        // AF_INET
+        if (len < 12) {
+          return FAILED;
+        }
+        att.setClient(0, (0xffffL << 32) | bigEndian(ptr + 16, 4));
+      } else if (af == 2) {
+        // AF_INET6
+        if (len < 36) {
+          return FAILED;
         }
-      } else if (bytesRead == -1) {
-        /*DEBUG*/ log.info("End-Of-Stream");
-        return null; // End-of-stream
-      } else {
-        sleepBriefly();
+        att.setClient(bigEndian(ptr + 16, 8), bigEndian(ptr + 24, 8));
       }
     }
-    throw new IOException("Timeout while reading line");
+    return 16 + len;
   }
 
-  // Helper to write a string fully
-  private void writeString(SocketChannel channel, String data) throws IOException {
-    ByteBuffer buffer = ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8));
-    while (buffer.hasRemaining()) {
-      channel.write(buffer);
+  private int login(RequestHandlers.Attachment att, long ptr, int size, ByteBuffer out) {
+    int len = lineLength(ptr, Math.min(size, LOGIN_LINE_MAX));
+    if (len < 0) {
+      if (size < LOGIN_LINE_MAX) {
+        return INCOMPLETE;
+      }
+      out.put(AUTH_REQUIRED);
+      return FAILED;
+    }
+    String[] tokens = toString(ptr, len - 2).split(" ");
+    if (tokens.length < 5 || tokens.length > 6 || !tokens[0].equals("set")) {
+      out.put(AUTH_REQUIRED);
+      return FAILED;
     }
+    boolean noreply = tokens.length == 6 && tokens[5].equals("noreply");
+    int bytes;
+    try {
+      bytes = Integer.parseInt(tokens[4]);
+    } catch (NumberFormatException e) {
+      bytes = -1;
+    }
+    if (bytes < 0 || bytes > PASSWORD_MAX) {
+      out.put(AUTH_REQUIRED);
+      return FAILED;
+    }
+    int total = len + bytes + 2;
+    if (size < total) {
+      return INCOMPLETE;
+    }
+    if (UnsafeAccess.toByte(ptr + len + bytes) != '\r'
+        || UnsafeAccess.toByte(ptr + len + bytes + 1) != '\n') {
+      out.put(AUTH_REQUIRED);
+      return FAILED;
+    }
+    String password = toString(ptr + len, bytes);
+    InetAddress client = AddressTable.toInetAddress(att.clientHigh(), att.clientLow());
+    if (loginName == null || !tokens[1].equals(loginName)
+        || !HashUtil.hashString(password).equalsIgnoreCase(passwordSHA256)) {
+      log.warn("Authorization failed: client={} user={}", client.getHostAddress(), tokens[1]);
+      out.put(AUTH_FAILED);
+      return FAILED;
+    }
+    if (!clients.add(att.clientHigh(), att.clientLow())) {
+      log.warn("Authorized clients table is full, client={} is not remembered",
+        client.getHostAddress());
+    }
+    att.setHandshake(READY);
+    log.debug("Authorized client: {}", client);
+    if (!noreply) {
+      out.put(STORED);
+    }
+    return total;
   }
 
-  // Helper method to send error message and close connection
-  private void sendErrorAndClose(SocketChannel channel, String errorMsg) {
-    try {
-      writeString(channel, errorMsg);
-      channel.close();
-    } catch (IOException ignored) {
+  /**
+   * Checks if input starts with a given prefix, incomplete input matches if its available bytes
+   * match
+   */
+  private static boolean startsWith(long ptr, int size, byte[] prefix) {
+    int n = Math.min(size, prefix.length);
+    for (int i = 0; i < n; i++) {
+      if (UnsafeAccess.toByte(ptr + i) != prefix[i]) {
+        return false;
+      }
     }
+    return n > 0;
   }
 
-  // Helper to sleep briefly for non-blocking reads
-  private void sleepBriefly() {
-    try {
-      Thread.sleep(10);
-    } catch (InterruptedException ignored) {
+  private static long bigEndian(long ptr, int len) {
+    long v = 0;
+    for (int i = 0; i < len; i++) {
+      v = (v << 8) | (UnsafeAccess.toByte(ptr + i) & 0xffL);
     }
+    return v;
+  }
+
+  /**
+   * Length of a line including CRLF
+   * @return length or -1, if CRLF not found
+   */
+  private static int lineLength(long ptr, int size) {
+    for (int i = 0; i < size - 1; i++) {
+      if (UnsafeAccess.toByte(ptr + i) == '\r' && UnsafeAccess.toByte(ptr + i + 1) == '\n') {
+        return i + 2;
+      }
+    }
+    return -1;
+  }
+
+  private static String toString(long ptr, int len) {
+    byte[] b = new byte[len];
+    UnsafeAccess.copy(ptr, b, 0, len);
+    return new String(b, StandardCharsets.US_ASCII);
   }
 }
@@ -28,7 +28,16 @@ import com.carrotdata.cache.util.UnsafeAccess;
 import com.carrotdata.memcarrot.commands.AbstractMemcachedCommand;
 import com.carrotdata.memcarrot.commands.CommandParser;
 import com.carrotdata.memcarrot.commands.MemcachedCommand;
+import com.carrotdata.memcarrot.commands.RetrievalCommand;
+import com.carrotdata.memcarrot.commands.StorageCommand;
+import com.carrotdata.memcarrot.metrics.CommandEvent;
+import com.carrotdata.memcarrot.metrics.HotKeys;
+import com.carrotdata.memcarrot.metrics.ItemSizes;
+import com.carrotdata.memcarrot.metrics.Latency;
+import com.carrotdata.memcarrot.metrics.MissRatioCurve;
+import com.carrotdata.memcarrot.metrics.ServerMetrics;
 import com.carrotdata.memcarrot.support.IllegalFormatException;
+import com.carrotdata.memcarrot.support.MultiGetExecutor;
 import com.carrotdata.memcarrot.support.UnsupportedCommand;
 
 public class CommandProcessor {
@@ -43,6 +52,11 @@ public class CommandProcessor {
     int produced;
   }
 
+  /**
+   * Return code: command must be executed asynchronously (data resides in a file tier)
+   */
+  public static final int ASYNC = -2;
+
   static ThreadLocal<MemcachedCommand> lastCommand = new ThreadLocal<MemcachedCommand>();
   /**
    * Main method
@@ -56,10 +70,35 @@ public class CommandProcessor {
 
   public static int process(Memcached storage, long inputPtr, int inputSize, long outPtr,
       int outSize, OutputConsumer consumer) throws IllegalFormatException, BufferOverflowException, IOException {
+    return process(storage, inputPtr, inputSize, outPtr, outSize, consumer, false);
+  }
+
+  /**
+   * Process command
+   * @param storage data store
+   * @param inputPtr input buffer address
+   * @param inputSize input size
+   * @param outPtr output buffer address
+   * @param outSize output buffer size
+   * @param consumer output consumer
+   * @param allowAsync if true, retrieval commands which hit file tier are not executed and
+   *        {@link #ASYNC} is returned instead
+   * @return size of response, -1 if input is incomplete or {@link #ASYNC}
+   */
+  public static int process(Memcached storage, long inputPtr, int inputSize, long outPtr,
+      int outSize, OutputConsumer consumer, boolean allowAsync)
+      throws IllegalFormatException, BufferOverflowException, IOException {
     try {
 
       // Execute Memcached command
       lastCommand.set(null);
+      boolean latency = Latency.isEnabled();
+      boolean jfr = CommandEvent.enabled();
+      boolean timed = latency || jfr;
+      if (jfr) {
+        CommandEvent.start();
+      }
+      long start = timed ? System.nanoTime() : 0;
       MemcachedCommand cmd = CommandParser.parse(inputPtr, inputSize);
       if (cmd == null) {
         return -1; // input is incomplete
@@ -68,27 +107,69 @@ public class CommandProcessor {
       boolean safe = isMemorySafe(cmd, inputPtr, inputSize);
       if (!safe) {
         logger.error("SERVER_ERROR memory not safe, cmd={}", cmd.getClass().getName());
+        ServerMetrics.error();
         byte[] buf = "SERVER_ERROR internal error\r\n".getBytes();
         UnsafeAccess.copy(buf, 0, outPtr, buf.length);
         return buf.length;
       }
+      if (allowAsync && cmd instanceof RetrievalCommand
+          && needsFileIO(storage, (RetrievalCommand) cmd)) {
+        return ASYNC;
+      }
+      long parsed = timed ? System.nanoTime() : 0;
       int result = cmd.execute(storage, outPtr, outSize, consumer);
+      if (timed) {
+        long end = System.nanoTime();
+        if (latency) {
+          Latency.record(cmd, parsed - start, end - parsed);
+        }
+        if (jfr) {
+          CommandEvent.executed(cmd, parsed - start, end - parsed, result);
+        }
+      }
+      ServerMetrics.command(cmd);
+      sample(cmd);
       return result;
     } catch (UnsupportedCommand ee) {
       byte[] buf = "ERROR\r\n".getBytes();
       logger.error("UnsupportedCommand:", ee);
+      ServerMetrics.error();
       UnsafeAccess.copy(buf, 0, outPtr, buf.length);
       return buf.length;
     } catch (IllegalFormatException eee) {
       String msg = "CLIENT_ERROR " + eee.getMessage() + "\r\n";
       logger.error(msg, eee);
+      ServerMetrics.error();
       byte[] buf = msg.getBytes();
       UnsafeAccess.copy(buf, 0, outPtr, buf.length);
       return buf.length;
     }
   }
 
-  private static boolean isMemorySafe(MemcachedCommand cmd, long in, int size) {
+  /**
+   * Samples command keys for hot keys detection and miss ratio curve, records storage commands key
+   * and value sizes
+   * @param cmd executed command
+   */
+  private static void sample(MemcachedCommand cmd) {
+    if (cmd instanceof RetrievalCommand) {
+      RetrievalCommand rc = (RetrievalCommand) cmd;
+      long[] keys = rc.getKeys();
+      int[] sizes = rc.getKeySizes();
+      for (int i = 0; i < keys.length; i++) {
+        HotKeys.read(keys[i], sizes[i]);
+        MissRatioCurve.access(keys[i], sizes[i]);
+      }
+    } else if (cmd instanceof AbstractMemcachedCommand) {
+      AbstractMemcachedCommand c = (AbstractMemcachedCommand) cmd;
+      HotKeys.write(c.getKeyPtr(), c.getKeySize());
+      if (cmd instanceof StorageCommand) {
+        ItemSizes.storage(c.getKeyPtr(), c.getKeySize(), c.getValueSize());
+      }
+    }
+  }
+
+  static boolean isMemorySafe(MemcachedCommand cmd, long in, int size) {
     if (!(cmd instanceof AbstractMemcachedCommand)) {
       return true;
     }
@@ -96,6 +177,23 @@ public class CommandProcessor {
     return c.isMemorySafe(in, size);
   }
 
+  /**
+   * Checks if any of the command's keys is not in RAM tier, but is in the file tier
+   * @param storage data store
+   * @param cmd retrieval command
+   * @return true - if file I/O is required
+   */
+  static boolean needsFileIO(Memcached storage, RetrievalCommand cmd) {
+    long[] keys = cmd.getKeys();
+    int[] sizes = cmd.getKeySizes();
+    for (int i = 0; i < keys.length; i++) {
+      if (MultiGetExecutor.inFileTier(storage, keys[i], sizes[i])) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   public static MemcachedCommand getLastExecutedCommand() {
     return lastCommand.get();
   }
@@ -28,11 +28,38 @@ public class MemcarrotConf {
   public static final String MEMCARROT_VERSION = "MEMCARROT_VERSION";
   public static final String CONF_SERVER_PORT = "server.port";
   public static final String CONF_SERVER_ADDRESS = "server.address";
+  public static final String CONF_SERVER_UNIX_SOCKET = "server.unix.socket";
+  public static final String CONF_SERVER_UDP_PORT = "server.udp.port";
+  public static final String CONF_UDP_WORKERS = "udp.workers";
   public static final String CONF_THREAD_POOL_SIZE = "workers.pool.size";
   public static final String CONF_KV_SIZE_MAX = "kv.size.max";
   public static final String CONF_SND_RCV_BUFFER_SIZE = "tcp.buffer.size";
   public static final String CONF_USER_NAME = "user.name";
   public static final String CONF_USER_PASSWORD_SHA256 = "user.password.sha256";
+  public static final String CONF_AUTH_ALLOW = "auth.allow";
+  public static final String CONF_AUTH_CLIENTS_MAX = "auth.clients.max";
+  public static final String CONF_AUTH_CLIENT_TTL = "auth.client.ttl";
+  public static final String CONF_PROXY_BACKENDS = "proxy.backends";
+  public static final String CONF_PARTITIONS_COUNT = "partitions.count";
+  public static final String CONF_ASYNC_IO_POOL_SIZE = "async.io.pool.size";
+  public static final String CONF_MULTIGET_PARALLELISM = "multiget.parallelism";
+  public static final String CONF_HOTKEY_CACHE_SIZE = "hotkey.cache.size";
+  public static final String CONF_HOTKEY_ADMIT_FREQUENCY = "hotkey.cache.admit.frequency";
+  public static final String CONF_HOTKEYS_SAMPLE_RATE = "hotkeys.sample.rate";
+  public static final String CONF_HOTKEYS_TOP_K = "hotkeys.top.k";
+  public static final String CONF_JMX_METRICS_DOMAIN_NAME = "jmx.metrics.domain.name";
+  public static final String CONF_LATENCY_HISTOGRAMS_ENABLED = "latency.histograms.enabled";
+  public static final String CONF_METRICS_HTTP_PORT = "metrics.http.port";
+  public static final String CONF_METRICS_HTTP_ADDRESS = "metrics.http.address";
+  public static final String CONF_SLOWLOG_THRESHOLD_US = "slowlog.threshold.us";
+  public static final String CONF_SLOWLOG_SIZE = "slowlog.size";
+  public static final String CONF_SIZES_NAMESPACE_SEPARATOR = "sizes.namespace.separator";
+  public static final String CONF_SIZES_NAMESPACES_MAX = "sizes.namespaces.max";
+  public static final String CONF_MRC_SAMPLE_RATE = "mrc.sample.rate";
+  public static final String CONF_MRC_MAX_KEYS = "mrc.max.keys";
+  public static final String CONF_CAPTURE_FILE = "capture.file";
+  public static final String CONF_CAPTURE_SAMPLE_RATE = "capture.sample.rate";
+  public static final String CONF_CAPTURE_SIZE_MAX = "capture.size.max";
 
 
   public static final int DEFAULT_SERVER_PORT = 11211;
@@ -40,8 +67,31 @@ public class MemcarrotConf {
   public static final int DEFAULT_THREAD_POOL_SIZE =
       Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
 
+  public static final int DEFAULT_SERVER_UDP_PORT = 0;
+  public static final int DEFAULT_UDP_WORKERS = 1;
   public static final int DEFAULT_KV_SIZE_MAX = 4 * 1024 * 1024;
   public static final int DEFAULT_SNDRCV_BUFFER_SIZE = 32 * 1024;
+  public static final int DEFAULT_PARTITIONS_COUNT = 1;
+  public static final int DEFAULT_AUTH_CLIENTS_MAX = 65536;
+  public static final long DEFAULT_AUTH_CLIENT_TTL = 3600;
+  public static final int DEFAULT_ASYNC_IO_POOL_SIZE = 0;
+  public static final int DEFAULT_MULTIGET_PARALLELISM = 0;
+  public static final long DEFAULT_HOTKEY_CACHE_SIZE = 0;
+  public static final int DEFAULT_HOTKEY_ADMIT_FREQUENCY = 4;
+  public static final int DEFAULT_HOTKEYS_SAMPLE_RATE = 16;
+  public static final int DEFAULT_HOTKEYS_TOP_K = 10;
+  public static final String DEFAULT_JMX_METRICS_DOMAIN_NAME = "memcarrot";
+  public static final boolean DEFAULT_LATENCY_HISTOGRAMS_ENABLED = true;
+  public static final int DEFAULT_METRICS_HTTP_PORT = 0;
+  public static final String DEFAULT_METRICS_HTTP_ADDRESS = "0.0.0.0";
+  public static final long DEFAULT_SLOWLOG_THRESHOLD_US = 10_000;
+  public static final int DEFAULT_SLOWLOG_SIZE = 128;
+  public static final String DEFAULT_SIZES_NAMESPACE_SEPARATOR = "";
+  public static final int DEFAULT_SIZES_NAMESPACES_MAX = 16;
+  public static final double DEFAULT_MRC_SAMPLE_RATE = 0;
+  public static final int DEFAULT_MRC_MAX_KEYS = 16384;
+  public static final double DEFAULT_CAPTURE_SAMPLE_RATE = 0;
+  public static final long DEFAULT_CAPTURE_SIZE_MAX = 1L << 30;
 
   private static MemcarrotConf conf;
   private CacheConfig cacheConfig;
@@ -123,6 +173,47 @@ public class MemcarrotConf {
     return saddress;
   }
 
+  /**
+   * Get Unix domain socket path, server accepts local connections on it in addition to TCP
+   * @return socket file path, null - disabled
+   */
+  public String getServerUnixSocket() {
+    String s = System.getenv(CONF_SERVER_UNIX_SOCKET);
+    if (s == null) {
+      Properties props = this.cacheConfig.getProperties();
+      s = (String) props.getOrDefault(CONF_SERVER_UNIX_SOCKET, "");
+    }
+    s = s.trim();
+    return s.length() > 0 ? s : null;
+  }
+
+  /**
+   * Get UDP port for retrieval commands (get, gets)
+   * @return port, 0 - UDP is disabled
+   */
+  public int getServerUdpPort() {
+    String s = System.getenv(CONF_SERVER_UDP_PORT);
+    if (s == null) {
+      Properties props = this.cacheConfig.getProperties();
+      s = (String) props.getOrDefault(CONF_SERVER_UDP_PORT,
+        Integer.toString(DEFAULT_SERVER_UDP_PORT));
+    }
+    return Integer.parseInt(s);
+  }
+
+  /**
+   * Get number of UDP worker threads
+   * @return number of threads
+   */
+  public int getUdpWorkers() {
+    String s = System.getenv(CONF_UDP_WORKERS);
+    if (s == null) {
+      Properties props = this.cacheConfig.getProperties();
+      s = (String) props.getOrDefault(CONF_UDP_WORKERS, Integer.toString(DEFAULT_UDP_WORKERS));
+    }
+    return Integer.parseInt(s);
+  }
+
   /**
    * Sets TCP send/receive buffer sizes
    * @param size
@@ -225,5 +316,422 @@ public class MemcarrotConf {
     }
     return pass;
   }
-  
+
+  /**
+   * Get networks (CIDR, comma-separated) whose hosts are authorized without login
+   * @return list of networks, empty - none
+   */
+  public String getAuthAllow() {
+    String s = System.getenv(CONF_AUTH_ALLOW);
+    if (s == null) {
+      Properties props = this.cacheConfig.getProperties();
+      s = (String) props.getOrDefault(CONF_AUTH_ALLOW, "");
+    }
+    return s;
+  }
+
+  /**
+   * Get maximum number of authorized client hosts which are remembered after login
+   * @return maximum number of hosts
+   */
+  public int getAuthClientsMax() {
+    String s = System.getenv(CONF_AUTH_CLIENTS_MAX);
+    if (s == null) {
+      Properties props = this.cacheConfig.getProperties();
+      s = (String) props.getOrDefault(CONF_AUTH_CLIENTS_MAX,
+        Integer.toString(DEFAULT_AUTH_CLIENTS_MAX));
+    }
+    return Integer.parseInt(s);
+  }
+
+  /**
+   * Get time to live of an authorized client host, it must login again after that
+   * @return time to live in seconds, 0 - forever
+   */
+  public long getAuthClientTtl() {
+    String s = System.getenv(CONF_AUTH_CLIENT_TTL);
+    if (s == null) {
+      Properties props = this.cacheConfig.getProperties();
+      s = (String) props.getOrDefault(CONF_AUTH_CLIENT_TTL,
+        Long.toString(DEFAULT_AUTH_CLIENT_TTL));
+    }
+    return Long.parseLong(s);
+  }
+
+  /**
+   * Get proxy backend nodes. When this list is not empty, server runs in a proxy mode: it does
+   * not keep any data locally and routes requests to backends using consistent hashing
+   * @return array of nodes (host:port), empty if proxy mode is disabled
+   */
+  public String[] getProxyBackends() {
+    String backends = System.getenv(CONF_PROXY_BACKENDS);
+    if (backends == null) {
+      Properties props = this.cacheConfig.getProperties();
+      backends = (String) props.getOrDefault(CONF_PROXY_BACKENDS, "");
+    }
+    backends = backends.trim();
+    if (backends.length() == 0) {
+      return new String[0];
+    }
+    String[] nodes = backends.split(",");
+    for (int i = 0; i < nodes.length; i++) {
+      nodes[i] = nodes[i].trim();
+    }
+    return nodes;
+  }
+
+  /**
+   * Sets proxy backend nodes
+   * @param nodes comma-separated list of host:port
+   */
+  public void setProxyBackends(String nodes) {
+    Properties props = this.cacheConfig.getProperties();
+    props.setProperty(CONF_PROXY_BACKENDS, nodes);
+  }
+
+  /**
+   * Number of independent cache partitions. When greater than 1, server creates this number of
+   * caches, each of 1/N of the maximum size, and routes keys by hash
+   * @return number of partitions
+   */
+  public int getPartitionsCount() {
+    String scount = System.getenv(CONF_PARTITIONS_COUNT);
+    if (scount == null) {
+      Properties props = this.cacheConfig.getProperties();
+      scount = (String) props.getOrDefault(CONF_PARTITIONS_COUNT,
+        Integer.toString(DEFAULT_PARTITIONS_COUNT));
+    }
+    return Integer.parseInt(scount);
+  }
+
+  /**
+   * Sets number of cache partitions
+   * @param count number of partitions
+   */
+  public void setPartitionsCount(int count) {
+    Properties props = this.cacheConfig.getProperties();
+    props.setProperty(CONF_PARTITIONS_COUNT, Integer.toString(count));
+  }
+
+  /**
+   * Get size of I/O thread pool for asynchronous file tier reads
+   * @return pool size, 0 - disabled
+   */
+  public int getAsyncIOPoolSize() {
+    String ssize = System.getenv(CONF_ASYNC_IO_POOL_SIZE);
+    if (ssize == null) {
+      Properties props = this.cacheConfig.getProperties();
+      ssize = (String) props.getOrDefault(CONF_ASYNC_IO_POOL_SIZE,
+        Integer.toString(DEFAULT_ASYNC_IO_POOL_SIZE));
+    }
+    return Integer.parseInt(ssize);
+  }
+
+  /**
+   * Sets size of I/O thread pool for asynchronous file tier reads
+   * @param size pool size, 0 - disabled
+   */
+  public void setAsyncIOPoolSize(int size) {
+    Properties props = this.cacheConfig.getProperties();
+    props.setProperty(CONF_ASYNC_IO_POOL_SIZE, Integer.toString(size));
+  }
+
+  /**
+   * Get maximum number of concurrent file tier reads for a single multi-get command
+   * @return parallelism, 0 - disabled
+   */
+  public int getMultiGetParallelism() {
+    String sp = System.getenv(CONF_MULTIGET_PARALLELISM);
+    if (sp == null) {
+      Properties props = this.cacheConfig.getProperties();
+      sp = (String) props.getOrDefault(CONF_MULTIGET_PARALLELISM,
+        Integer.toString(DEFAULT_MULTIGET_PARALLELISM));
+    }
+    return Integer.parseInt(sp);
+  }
+
+  /**
+   * Sets maximum number of concurrent file tier reads for a single multi-get command
+   * @param parallelism parallelism, 0 - disabled
+   */
+  public void setMultiGetParallelism(int parallelism) {
+    Properties props = this.cacheConfig.getProperties();
+    props.setProperty(CONF_MULTIGET_PARALLELISM, Integer.toString(parallelism));
+  }
+
+  /**
+   * Get maximum size of the hot key cache (decompressed values of the hottest keys)
+   * @return size in bytes, 0 - disabled
+   */
+  public long getHotKeyCacheSize() {
+    String ssize = System.getenv(CONF_HOTKEY_CACHE_SIZE);
+    if (ssize == null) {
+      Properties props = this.cacheConfig.getProperties();
+      ssize = (String) props.getOrDefault(CONF_HOTKEY_CACHE_SIZE,
+        Long.toString(DEFAULT_HOTKEY_CACHE_SIZE));
+    }
+    return Long.parseLong(ssize);
+  }
+
+  /**
+   * Sets maximum size of the hot key cache
+   * @param size size in bytes, 0 - disabled
+   */
+  public void setHotKeyCacheSize(long size) {
+    Properties props = this.cacheConfig.getProperties();
+    props.setProperty(CONF_HOTKEY_CACHE_SIZE, Long.toString(size));
+  }
+
+  /**
+   * Get minimum estimated access frequency of a key to be admitted to the hot key cache
+   * @return frequency
+   */
+  public int getHotKeyAdmitFrequency() {
+    String sfreq = System.getenv(CONF_HOTKEY_ADMIT_FREQUENCY);
+    if (sfreq == null) {
+      Properties props = this.cacheConfig.getProperties();
+      sfreq = (String) props.getOrDefault(CONF_HOTKEY_ADMIT_FREQUENCY,
+        Integer.toString(DEFAULT_HOTKEY_ADMIT_FREQUENCY));
+    }
+    return Integer.parseInt(sfreq);
+  }
+
+  /**
+   * Sets minimum estimated access frequency of a key to be admitted to the hot key cache
+   * @param freq frequency
+   */
+  public void setHotKeyAdmitFrequency(int freq) {
+    Properties props = this.cacheConfig.getProperties();
+    props.setProperty(CONF_HOTKEY_ADMIT_FREQUENCY, Integer.toString(freq));
+  }
+
+  /**
+   * Get hot keys tracker sample rate (1 of N keys is sampled)
+   * @return sample rate, 0 - tracker is disabled
+   */
+  public int getHotKeysSampleRate() {
+    String srate = System.getenv(CONF_HOTKEYS_SAMPLE_RATE);
+    if (srate == null) {
+      Properties props = this.cacheConfig.getProperties();
+      srate = (String) props.getOrDefault(CONF_HOTKEYS_SAMPLE_RATE,
+        Integer.toString(DEFAULT_HOTKEYS_SAMPLE_RATE));
+    }
+    return Integer.parseInt(srate);
+  }
+
+  /**
+   * Sets hot keys tracker sample rate
+   * @param rate sample rate, 0 - disabled
+   */
+  public void setHotKeysSampleRate(int rate) {
+    Properties props = this.cacheConfig.getProperties();
+    props.setProperty(CONF_HOTKEYS_SAMPLE_RATE, Integer.toString(rate));
+  }
+
+  /**
+   * Get number of hottest keys reported by hot keys tracker
+   * @return number of keys
+   */
+  public int getHotKeysTopK() {
+    String sk = System.getenv(CONF_HOTKEYS_TOP_K);
+    if (sk == null) {
+      Properties props = this.cacheConfig.getProperties();
+      sk = (String) props.getOrDefault(CONF_HOTKEYS_TOP_K, Integer.toString(DEFAULT_HOTKEYS_TOP_K));
+    }
+    return Integer.parseInt(sk);
+  }
+
+  /**
+   * Get JMX metrics domain name
+   * @return domain name
+   */
+  public String getJMXMetricsDomainName() {
+    String name = System.getenv(CONF_JMX_METRICS_DOMAIN_NAME);
+    if (name == null) {
+      Properties props = this.cacheConfig.getProperties();
+      name = props.getProperty(CONF_JMX_METRICS_DOMAIN_NAME, DEFAULT_JMX_METRICS_DOMAIN_NAME);
+    }
+    return name;
+  }
+
+  /**
+   * Are per-command latency histograms enabled
+   * @return true or false
+   */
+  public boolean isLatencyHistogramsEnabled() {
+    String s = System.getenv(CONF_LATENCY_HISTOGRAMS_ENABLED);
+    if (s == null) {
+      Properties props = this.cacheConfig.getProperties();
+      s = (String) props.getOrDefault(CONF_LATENCY_HISTOGRAMS_ENABLED,
+        Boolean.toString(DEFAULT_LATENCY_HISTOGRAMS_ENABLED));
+    }
+    return Boolean.parseBoolean(s);
+  }
+
+  /**
+   * Get port of the built-in Prometheus metrics HTTP endpoint
+   * @return port, 0 - disabled
+   */
+  public int getMetricsHttpPort() {
+    String sport = System.getenv(CONF_METRICS_HTTP_PORT);
+    if (sport == null) {
+      Properties props = this.cacheConfig.getProperties();
+      sport = (String) props.getOrDefault(CONF_METRICS_HTTP_PORT,
+        Integer.toString(DEFAULT_METRICS_HTTP_PORT));
+    }
+    return Integer.parseInt(sport);
+  }
+
+  /**
+   * Sets port of the built-in Prometheus metrics HTTP endpoint
+   * @param port port, 0 - disabled
+   */
+  public void setMetricsHttpPort(int port) {
+    Properties props = this.cacheConfig.getProperties();
+    props.setProperty(CONF_METRICS_HTTP_PORT, Integer.toString(port));
+  }
+
+  /**
+   * Get address of the built-in Prometheus metrics HTTP endpoint
+   * @return address
+   */
+  public String getMetricsHttpAddress() {
+    String address = System.getenv(CONF_METRICS_HTTP_ADDRESS);
+    if (address == null) {
+      Properties props = this.cacheConfig.getProperties();
+      address = props.getProperty(CONF_METRICS_HTTP_ADDRESS, DEFAULT_METRICS_HTTP_ADDRESS);
+    }
+    return address;
+  }
+
+  /**
+   * Get slow log threshold: commands whose parse + execute + write time exceeds it are logged
+   * @return threshold in microseconds, negative - slow log is disabled
+   */
+  public long getSlowLogThresholdUs() {
+    String s = System.getenv(CONF_SLOWLOG_THRESHOLD_US);
+    if (s == null) {
+      Properties props = this.cacheConfig.getProperties();
+      s = (String) props.getOrDefault(CONF_SLOWLOG_THRESHOLD_US,
+        Long.toString(DEFAULT_SLOWLOG_THRESHOLD_US));
+    }
+    return Long.parseLong(s);
+  }
+
+  /**
+   * Sets slow log threshold
+   * @param threshold threshold in microseconds, negative - disabled
+   */
+  public void setSlowLogThresholdUs(long threshold) {
+    Properties props = this.cacheConfig.getProperties();
+    props.setProperty(CONF_SLOWLOG_THRESHOLD_US, Long.toString(threshold));
+  }
+
+  /**
+   * Get slow log size (number of entries per worker thread)
+   * @return size
+   */
+  public int getSlowLogSize() {
+    String s = System.getenv(CONF_SLOWLOG_SIZE);
+    if (s == null) {
+      Properties props = this.cacheConfig.getProperties();
+      s = (String) props.getOrDefault(CONF_SLOWLOG_SIZE, Integer.toString(DEFAULT_SLOWLOG_SIZE));
+    }
+    return Integer.parseInt(s);
+  }
+
+  /**
+   * Get key namespace separator for size distributions
+   * @return separator, empty - no namespaces
+   */
+  public String getSizesNamespaceSeparator() {
+    String s = System.getenv(CONF_SIZES_NAMESPACE_SEPARATOR);
+    if (s == null) {
+      Properties props = this.cacheConfig.getProperties();
+      s = props.getProperty(CONF_SIZES_NAMESPACE_SEPARATOR, DEFAULT_SIZES_NAMESPACE_SEPARATOR);
+    }
+    return s;
+  }
+
+  /**
+   * Get maximum number of namespaces tracked by size distributions
+   * @return maximum number of namespaces
+   */
+  public int getSizesNamespacesMax() {
+    String s = System.getenv(CONF_SIZES_NAMESPACES_MAX);
+    if (s == null) {
+      Properties props = this.cacheConfig.getProperties();
+      s = (String) props.getOrDefault(CONF_SIZES_NAMESPACES_MAX,
+        Integer.toString(DEFAULT_SIZES_NAMESPACES_MAX));
+    }
+    return Integer.parseInt(s);
+  }
+
+  /**
+   * Get miss ratio curve estimator key sample rate
+   * @return sample rate (0 - 1], 0 - disabled
+   */
+  public double getMissRatioCurveSampleRate() {
+    String s = System.getenv(CONF_MRC_SAMPLE_RATE);
+    if (s == null) {
+      Properties props = this.cacheConfig.getProperties();
+      s = (String) props.getOrDefault(CONF_MRC_SAMPLE_RATE,
+        Double.toString(DEFAULT_MRC_SAMPLE_RATE));
+    }
+    return Double.parseDouble(s);
+  }
+
+  /**
+   * Get maximum number of keys tracked by miss ratio curve estimator
+   * @return maximum number of keys
+   */
+  public int getMissRatioCurveMaxKeys() {
+    String s = System.getenv(CONF_MRC_MAX_KEYS);
+    if (s == null) {
+      Properties props = this.cacheConfig.getProperties();
+      s = (String) props.getOrDefault(CONF_MRC_MAX_KEYS, Integer.toString(DEFAULT_MRC_MAX_KEYS));
+    }
+    return Integer.parseInt(s);
+  }
+
+  /**
+   * Get traffic capture file path
+   * @return path, null - capture is disabled
+   */
+  public String getCaptureFile() {
+    String s = System.getenv(CONF_CAPTURE_FILE);
+    if (s == null) {
+      Properties props = this.cacheConfig.getProperties();
+      s = (String) props.get(CONF_CAPTURE_FILE);
+    }
+    return s;
+  }
+
+  /**
+   * Get traffic capture connection sample rate
+   * @return sample rate (0 - 1], 0 - disabled
+   */
+  public double getCaptureSampleRate() {
+    String s = System.getenv(CONF_CAPTURE_SAMPLE_RATE);
+    if (s == null) {
+      Properties props = this.cacheConfig.getProperties();
+      s = (String) props.getOrDefault(CONF_CAPTURE_SAMPLE_RATE,
+        Double.toString(DEFAULT_CAPTURE_SAMPLE_RATE));
+    }
+    return Double.parseDouble(s);
+  }
+
+  /**
+   * Get maximum traffic capture file size
+   * @return maximum size in bytes
+   */
+  public long getCaptureSizeMax() {
+    String s = System.getenv(CONF_CAPTURE_SIZE_MAX);
+    if (s == null) {
+      Properties props = this.cacheConfig.getProperties();
+      s = (String) props.getOrDefault(CONF_CAPTURE_SIZE_MAX,
+        Long.toString(DEFAULT_CAPTURE_SIZE_MAX));
+    }
+    return Long.parseLong(s);
+  }
 }
@@ -18,6 +18,7 @@
 package com.carrotdata.memcarrot;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.StandardSocketOptions;
 import java.nio.channels.CancelledKeyException;
@@ -26,6 +27,9 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.function.Consumer;
 
 import org.apache.logging.log4j.LogManager;
@@ -36,6 +40,22 @@ import org.apache.logging.log4j.Logger;
 import com.carrotdata.cache.Cache;
 import com.carrotdata.cache.support.Memcached;
 import com.carrotdata.cache.util.CacheConfig;
+import com.carrotdata.memcarrot.metrics.ConnectionStats;
+import com.carrotdata.memcarrot.metrics.HotKeys;
+import com.carrotdata.memcarrot.metrics.ItemSizes;
+import com.carrotdata.memcarrot.metrics.JMX;
+import com.carrotdata.memcarrot.metrics.Latency;
+import com.carrotdata.memcarrot.metrics.MissRatioCurve;
+import com.carrotdata.memcarrot.metrics.PrometheusExporter;
+import com.carrotdata.memcarrot.metrics.ServerMetrics;
+import com.carrotdata.memcarrot.metrics.SnapshotEvent;
+import com.carrotdata.memcarrot.metrics.SlowLog;
+import com.carrotdata.memcarrot.metrics.WorkerStats;
+import com.carrotdata.memcarrot.support.HotKeyMemcached;
+import com.carrotdata.memcarrot.support.MultiGetExecutor;
+import com.carrotdata.memcarrot.support.PartitionedMemcached;
+import com.carrotdata.memcarrot.util.TrafficCapture;
+import com.carrotdata.memcarrot.util.UnixDomainSockets;
 
 /** Memcarrot node server */
 public class MemcarrotServer {
@@ -45,6 +65,11 @@ public class MemcarrotServer {
    **/
   RequestHandlers service;
 
+  /*
+   * Prometheus metrics endpoint (optional)
+   */
+  PrometheusExporter exporter;
+
   /**
    * Host name
    */
@@ -58,6 +83,11 @@ public class MemcarrotServer {
    */
   Memcached memcached;
 
+  /**
+   * Proxy backends (proxy mode only)
+   */
+  String[] proxyBackends;
+
   /**
    * Buffer size
    */
@@ -78,6 +108,26 @@ public class MemcarrotServer {
    */
   ServerSocketChannel serverSocket;
 
+  /**
+   * Unix domain socket path, null - disabled
+   */
+  String unixSocketPath;
+
+  /**
+   * Unix domain server socket
+   */
+  ServerSocketChannel unixSocket;
+
+  /**
+   * UDP port, 0 - disabled
+   */
+  int udpPort;
+
+  /**
+   * UDP listener
+   */
+  UdpServer udpServer;
+
   /**
    * Server runner thread
    */
@@ -103,7 +153,9 @@ public class MemcarrotServer {
     this.host = host;
     this.bufferSize = MemcarrotConf.getConf().getKeyValueMaxSize();
     this.tcpSndRcvBufferSize = MemcarrotConf.getConf().getSndRcvBufferSize();
-
+    this.proxyBackends = MemcarrotConf.getConf().getProxyBackends();
+    this.unixSocketPath = MemcarrotConf.getConf().getServerUnixSocket();
+    this.udpPort = MemcarrotConf.getConf().getServerUdpPort();
   }
 
   public MemcarrotServer() throws IOException {
@@ -112,7 +164,9 @@ public class MemcarrotServer {
     this.host = config.getServerAddress();
     this.bufferSize = config.getKeyValueMaxSize();
     this.tcpSndRcvBufferSize = MemcarrotConf.getConf().getSndRcvBufferSize();
-
+    this.proxyBackends = config.getProxyBackends();
+    this.unixSocketPath = config.getServerUnixSocket();
+    this.udpPort = config.getServerUdpPort();
   }
 
   public MemcarrotServer(MemcarrotConf config) throws IOException {
@@ -120,6 +174,9 @@ public class MemcarrotServer {
     this.host = config.getServerAddress();
     this.bufferSize = config.getKeyValueMaxSize();
     this.tcpSndRcvBufferSize = config.getSndRcvBufferSize();
+    this.proxyBackends = config.getProxyBackends();
+    this.unixSocketPath = config.getServerUnixSocket();
+    this.udpPort = config.getServerUdpPort();
   }
 
   /**
@@ -130,6 +187,54 @@ public class MemcarrotServer {
     this.memcached = m;
   }
 
+  /**
+   * Used for testing only
+   * @param backends proxy backends
+   */
+  void setProxyBackends(String[] backends) {
+    this.proxyBackends = backends;
+  }
+
+  /**
+   * Used for testing only
+   * @param path Unix domain socket path
+   */
+  void setUnixSocketPath(String path) {
+    this.unixSocketPath = path;
+  }
+
+  /**
+   * Get Unix domain socket path
+   * @return path or null
+   */
+  public String getUnixSocketPath() {
+    return unixSocketPath;
+  }
+
+  /**
+   * Used for testing only
+   * @param port UDP port, -1 - any free port, 0 - disabled
+   */
+  void setUdpPort(int port) {
+    this.udpPort = port;
+  }
+
+  /**
+   * Get UDP port
+   * @return bound UDP port if UDP listener is running, configured port otherwise
+   */
+  public int getUdpPort() {
+    return udpServer != null ? udpServer.getPort() : udpPort;
+  }
+
+  /**
+   * Is server running in a proxy mode
+   * @return true or false
+   */
+  public boolean isProxyMode() {
+    return proxyBackends != null && proxyBackends.length > 0;
+  }
+
   public String getHost() {
     return host;
   }
@@ -172,10 +277,22 @@ public class MemcarrotServer {
 
   public void stop() {
     service.shutdown();
+    if (exporter != null) {
+      exporter.stop();
+    }
+    MultiGetExecutor.shutdown();
+    TrafficCapture.stop();
+    if (udpServer != null) {
+      udpServer.stop();
+    }
     try {
       // this should interrupt main I/O loop thread
       selector.close();
       serverSocket.close();
+      if (unixSocket != null) {
+        unixSocket.close();
+        Files.deleteIfExists(Paths.get(unixSocketPath));
+      }
     } catch (IOException e) {
       // TODO Auto-generated catch block
     }
@@ -189,6 +306,16 @@ public class MemcarrotServer {
     } else {
       msgStart = "Server error. ";
     }
+    if (memcached == null) {
+      // Proxy mode - no local data
+      String msg = msgStart + "Exited.";
+      if (e == null) {
+        log.info(msg);
+      } else {
+        log.error(msg);
+      }
+      return;
+    }
     Cache c = memcached.getCache();
     CacheConfig config = c.getCacheConfig();
     if (!config.isSaveOnShutdown(c.getName())) {
@@ -213,12 +340,34 @@ public class MemcarrotServer {
 
     try {
       // Create memcached support instance if not null
-      // It is not null in tests
-      if (memcached == null) {
-        memcached = new Memcached();
+      // It is not null in tests, we do not need it in a proxy mode
+      if (memcached == null && !isProxyMode()) {
+        MemcarrotConf conf = MemcarrotConf.getConf();
+        int partitions = conf.getPartitionsCount();
+        // Storage is loaded from snapshot, if exists
+        SnapshotEvent event = new SnapshotEvent();
+        event.operation = SnapshotEvent.LOAD;
+        event.begin();
+        if (partitions > 1) {
+          memcached = PartitionedMemcached.create(conf.getCacheConfig(), partitions);
+        } else {
+          memcached = new Memcached();
+        }
+        event.success = true;
+        event.commit();
+        long hotKeyCacheSize = conf.getHotKeyCacheSize();
+        if (hotKeyCacheSize > 0) {
+          memcached = new HotKeyMemcached(memcached, hotKeyCacheSize,
+              conf.getHotKeyAdmitFrequency());
+        }
       }
+      initMetrics();
+      MemcarrotConf conf = MemcarrotConf.getConf();
+      AuthorizationHandler.init(conf.getUserLoginName(), conf.getUserPasswordSHA256(),
+        conf.getAuthAllow(), conf.getAuthClientsMax(), conf.getAuthClientTtl() * 1000);
       // Start request handlers
       startRequestHandlers();
+      startMetricsEndpoint();
 
       selector = Selector.open(); // selector is open here
       log.debug("Selector started");
@@ -237,8 +386,19 @@ public class MemcarrotServer {
       serverSocket.configureBlocking(false);
       int ops = serverSocket.validOps();
       serverSocket.register(selector, ops, null);
+      if (unixSocketPath != null) {
+        bindUnixSocket();
+      }
+      if (udpPort != 0) {
+        startUdpServer();
+      }
 
-      log.info("Memcarrot Server started on: {}. Ready to accept new connections.", serverAddr);
+      if (isProxyMode()) {
+        log.info("Memcarrot Proxy started on: {}, backends: {}. Ready to accept new connections.",
+          serverAddr, String.join(",", proxyBackends));
+      } else {
+        log.info("Memcarrot Server started on: {}. Ready to accept new connections.", serverAddr);
+      }
 
       this.started = true;
 
@@ -255,8 +415,7 @@ public class MemcarrotServer {
         } catch (IOException e) {
           log.error(e.getMessage());
           try {
-            key.cancel();
-            key.channel().close();
+            RequestProcessor.close(key, (SocketChannel) key.channel());
           } catch (IOException ee) {
             // FIXME: is this correct?
             log.error("Error during select: ", e);
@@ -265,6 +424,7 @@ public class MemcarrotServer {
           // swallow
         }
       };
+      WorkerStats.selector(Thread.currentThread());
       // Infinite loop..
       // Keep server running
       while (true) {
@@ -279,14 +439,63 @@ public class MemcarrotServer {
     }
   }
 
+  private void startUdpServer() throws IOException {
+    if (isProxyMode()) {
+      log.warn("UDP is not supported in a proxy mode, {} is ignored",
+        MemcarrotConf.CONF_SERVER_UDP_PORT);
+      return;
+    }
+    if (AuthorizationHandler.get() != null) {
+      // UDP requests can not be authenticated, the listener would bypass access control
+      log.error("UDP is not supported when authorization is enabled, {} is ignored",
+        MemcarrotConf.CONF_SERVER_UDP_PORT);
+      return;
+    }
+    udpServer = new UdpServer(memcached, host, Math.max(0, udpPort),
+        MemcarrotConf.getConf().getUdpWorkers(), bufferSize);
+    udpServer.start();
+  }
+
+  private void bindUnixSocket() throws IOException {
+    Path path = Paths.get(unixSocketPath);
+    // Socket file left by a previous run prevents binding, a live one belongs to another server
+    if (Files.exists(path) && !Files.isRegularFile(path) && !Files.isDirectory(path)) {
+      if (UnixDomainSockets.isListening(unixSocketPath)) {
+        throw new IOException("Unix domain socket is in use by another server: " + unixSocketPath);
+      }
+      Files.delete(path);
+    }
+    unixSocket = UnixDomainSockets.openServer();
+    unixSocket.bind(UnixDomainSockets.address(unixSocketPath), Integer.MAX_VALUE);
+    unixSocket.configureBlocking(false);
+    unixSocket.register(selector, SelectionKey.OP_ACCEPT, null);
+    log.info("Memcarrot Server listens on Unix domain socket: {}", unixSocketPath);
+  }
+
   private void accept(SelectionKey key) throws IOException {
     ServerSocketChannel serverSocketChannel = (ServerSocketChannel) key.channel();
     SocketChannel client = serverSocketChannel.accept();
+    if (client == null) {
+      return;
+    }
+    boolean unix = serverSocketChannel == unixSocket;
     client.configureBlocking(false);
-    client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    if (!unix) {
+      client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    }
     client.setOption(StandardSocketOptions.SO_SNDBUF, this.tcpSndRcvBufferSize);
     client.setOption(StandardSocketOptions.SO_RCVBUF, this.tcpSndRcvBufferSize);
-    client.register(selector, SelectionKey.OP_READ);
+    ConnectionStats stats = ConnectionStats
+        .open(unix ? "unix:" + unixSocketPath : String.valueOf(client.getRemoteAddress()));
+    RequestHandlers.Attachment att = new RequestHandlers.Attachment(stats);
+    AuthorizationHandler auth = AuthorizationHandler.get();
+    if (auth != null) {
+      // Unix domain socket clients are local, as loopback TCP clients
+      auth.accepted(att, unix ? InetAddress.getLoopbackAddress()
+          : ((InetSocketAddress) client.getRemoteAddress()).getAddress());
+    }
+    client.register(selector, SelectionKey.OP_READ, att);
+    ServerMetrics.connectionOpened();
     log.debug("Connection Accepted: remote={}]", client.getRemoteAddress());
   }
 
@@ -300,10 +509,42 @@ public class MemcarrotServer {
     }
   }
 
+  private void initMetrics() throws IOException {
+    MemcarrotConf conf = MemcarrotConf.getConf();
+    JMX.setDomain(conf.getJMXMetricsDomainName());
+    HotKeys.init(conf.getHotKeysSampleRate(), conf.getHotKeysTopK());
+    Latency.init(conf.isLatencyHistogramsEnabled());
+    SlowLog.init(conf.getSlowLogThresholdUs(), conf.getSlowLogSize());
+    ItemSizes.init(conf.getSizesNamespaceSeparator(), conf.getSizesNamespacesMax());
+    MissRatioCurve.init(conf.getMissRatioCurveSampleRate(), conf.getMissRatioCurveMaxKeys());
+    TrafficCapture.init(conf.getCaptureFile(), conf.getCaptureSampleRate(),
+      conf.getCaptureSizeMax());
+  }
+
+  private void startMetricsEndpoint() throws IOException {
+    MemcarrotConf conf = MemcarrotConf.getConf();
+    int port = conf.getMetricsHttpPort();
+    if (port <= 0) {
+      return;
+    }
+    exporter = new PrometheusExporter(conf.getMetricsHttpAddress(), port, memcached,
+        conf.getJMXMetricsDomainName());
+    exporter.start();
+  }
+
   private void startRequestHandlers() throws IOException {
     MemcarrotConf conf = MemcarrotConf.getConf();
     int numThreads = conf.getThreadPoolSize();
-    service = RequestHandlers.create(memcached, numThreads, bufferSize);
+    if (isProxyMode()) {
+      service = RequestHandlers.createProxy(proxyBackends, numThreads, bufferSize,
+        tcpSndRcvBufferSize);
+    } else {
+      MultiGetExecutor.init(conf.getMultiGetParallelism());
+      service = RequestHandlers.create(memcached, numThreads, bufferSize,
+        conf.getAsyncIOPoolSize());
+      // Keep connections on the same worker when cache is partitioned
+      service.setAffinity(HotKeyMemcached.unwrap(memcached) instanceof PartitionedMemcached);
+    }
     service.start();
   }
 
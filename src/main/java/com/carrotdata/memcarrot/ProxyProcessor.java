@@ -0,0 +1,773 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.carrotdata.cache.util.UnsafeAccess;
+import com.carrotdata.memcarrot.CommandProcessor.OutputConsumer;
+import com.carrotdata.memcarrot.commands.AbstractMemcachedCommand;
+import com.carrotdata.memcarrot.commands.CommandParser;
+import com.carrotdata.memcarrot.commands.FLUSH_ALL;
+import com.carrotdata.memcarrot.commands.MemcachedCommand;
+import com.carrotdata.memcarrot.commands.QUIT;
+import com.carrotdata.memcarrot.commands.RetrievalCommand;
+import com.carrotdata.memcarrot.commands.VERSION;
+import com.carrotdata.memcarrot.metrics.ServerMetrics;
+import com.carrotdata.memcarrot.support.IllegalFormatException;
+import com.carrotdata.memcarrot.support.UnsupportedCommand;
+import com.carrotdata.memcarrot.util.Errors;
+import com.carrotdata.memcarrot.util.KetamaRing;
+
+/**
+ * Request processor for a proxy mode. Client requests are parsed with {@link CommandParser} and
+ * routed to backend nodes using ketama consistent hashing. All complete key commands of the input
+ * are batched per backend and sent with a single write per backend (pipelined), multi-key
+ * retrievals are split per backend. Responses are then read back in the order of requests, split
+ * retrievals are merged into a single reply. Every worker thread has its own instance with its own
+ * persistent backend connections, therefore this class is not thread-safe.
+ */
+public class ProxyProcessor {
+  private static final Logger log = LogManager.getLogger(ProxyProcessor.class);
+
+  static final byte[] BACKEND_ERROR = "SERVER_ERROR backend is not available\r\n".getBytes();
+
+  static final byte[] NOT_SUPPORTED =
+      "SERVER_ERROR command is not supported in proxy mode\r\n".getBytes();
+
+  static final byte[] END = "END\r\n".getBytes();
+
+  static final byte[] VALUE = "VALUE ".getBytes();
+
+  static final byte[] NOREPLY = " noreply".getBytes();
+
+  /*
+   * Maximum time to wait for a backend response
+   */
+  static final long BACKEND_TIMEOUT_NS = 1_000_000_000L;
+
+  /*
+   * Maximum time to wait for a backend connection
+   */
+  static final int BACKEND_CONNECT_TIMEOUT_MS = 1000;
+
+  /*
+   * Maximum number of commands in a pipelined batch
+   */
+  static final int MAX_BATCH = 1024;
+
+  /** Persistent connection to a backend node */
+  static class Backend {
+    final String node;
+    final String host;
+    final int port;
+    final int tcpBufferSize;
+
+    SocketChannel channel;
+
+    /* Waits for backend socket readiness */
+    Selector selector;
+
+    SelectionKey key;
+
+    /* Request buffer */
+    final ByteBuffer wbuf;
+    final long wptr;
+    int wsize;
+
+    /*
+     * Maximum size of pending requests. It does not exceed TCP send buffer size, so that a batch
+     * is written without waiting for the backend to read it, while responses are not read yet
+     */
+    final int wlimit;
+
+    /* Response buffer, data from rpos up to buffer's position is not consumed yet */
+    final ByteBuffer rbuf;
+    final long rptr;
+    int rpos;
+
+    Backend(String node, int bufferSize, int tcpBufferSize) {
+      this.node = node;
+      String[] parts = node.split(":");
+      if (parts.length != 2) {
+        throw new IllegalArgumentException("illegal backend node: " + node);
+      }
+      this.host = parts[0];
+      this.port = Integer.parseInt(parts[1]);
+      this.tcpBufferSize = tcpBufferSize;
+      this.wbuf = ByteBuffer.allocateDirect(bufferSize);
+      this.wptr = UnsafeAccess.address(wbuf);
+      this.wlimit = Math.min(bufferSize, tcpBufferSize);
+      this.rbuf = ByteBuffer.allocateDirect(bufferSize);
+      this.rptr = UnsafeAccess.address(rbuf);
+    }
+
+    void ensureConnected() throws IOException {
+      if (channel != null && channel.isOpen()) {
+        return;
+      }
+      SocketChannel sc = SocketChannel.open();
+      try {
+        sc.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        sc.setOption(StandardSocketOptions.SO_SNDBUF, tcpBufferSize);
+        sc.setOption(StandardSocketOptions.SO_RCVBUF, tcpBufferSize);
+        // Blocking connect with a timeout, unreachable backend must not hang the worker
+        sc.socket().connect(new InetSocketAddress(host, port), BACKEND_CONNECT_TIMEOUT_MS);
+        sc.configureBlocking(false);
+        selector = Selector.open();
+        key = sc.register(selector, SelectionKey.OP_READ);
+      } catch (IOException e) {
+        sc.close();
+        if (selector != null) {
+          selector.close();
+          selector = null;
+        }
+        throw e;
+      }
+      channel = sc;
+      log.debug("Proxy connected to backend: {}", node);
+    }
+
+    /**
+     * Can a request be added to the current batch
+     * @param size request size
+     * @return true or false
+     */
+    boolean fits(int size) {
+      return wsize + size <= wlimit;
+    }
+
+    void append(long ptr, int size) {
+      UnsafeAccess.copy(ptr, wptr + wsize, size);
+      wsize += size;
+    }
+
+    void append(byte b) {
+      UnsafeAccess.putByte(wptr + wsize, b);
+      wsize++;
+    }
+
+    /** Sends request buffer and prepares response buffer */
+    void flush() throws IOException {
+      ensureConnected();
+      wbuf.limit(wsize);
+      wbuf.position(0);
+      long deadline = System.nanoTime() + BACKEND_TIMEOUT_NS;
+      while (wbuf.hasRemaining()) {
+        if (channel.write(wbuf) == 0) {
+          await(SelectionKey.OP_WRITE, deadline);
+        }
+      }
+      wbuf.clear();
+      wsize = 0;
+      rbuf.clear();
+      rpos = 0;
+    }
+
+    /** End of response data */
+    int limit() {
+      return rbuf.position();
+    }
+
+    /** Reads next portion of a response, waits up to a backend timeout */
+    void fill() throws IOException {
+      if (rpos == rbuf.position()) {
+        rbuf.clear();
+        rpos = 0;
+      } else if (!rbuf.hasRemaining()) {
+        if (rpos == 0) {
+          throw new IOException("backend response is too large: " + node);
+        }
+        // compact response buffer
+        int limit = rbuf.position();
+        UnsafeAccess.copy(rptr + rpos, rptr, limit - rpos);
+        rbuf.position(limit - rpos);
+        rpos = 0;
+      }
+      long deadline = System.nanoTime() + BACKEND_TIMEOUT_NS;
+      while (true) {
+        int n = channel.read(rbuf);
+        if (n > 0) {
+          return;
+        } else if (n < 0) {
+          throw new IOException("connection closed by backend: " + node);
+        }
+        await(SelectionKey.OP_READ, deadline);
+      }
+    }
+
+    private void await(int ops, long deadline) throws IOException {
+      long waitMs = (deadline - System.nanoTime()) / 1_000_000;
+      if (waitMs <= 0) {
+        throw new IOException("backend timeout: " + node);
+      }
+      key.interestOps(ops);
+      selector.select(waitMs);
+      selector.selectedKeys().clear();
+    }
+
+    void close() {
+      wsize = 0;
+      if (channel == null) {
+        return;
+      }
+      try {
+        channel.close();
+        selector.close();
+      } catch (IOException e) {
+        // swallow
+      }
+      channel = null;
+      selector = null;
+      key = null;
+    }
+  }
+
+  private final Backend[] backends;
+
+  private final KetamaRing ring;
+
+  /* Failed backends during current batch */
+  private final boolean[] failed;
+
+  /* Current batch commands */
+  private final MemcachedCommand[] batch = new MemcachedCommand[MAX_BATCH];
+
+  /* Backend of a single key command */
+  private final int[] batchNode = new int[MAX_BATCH];
+
+  /* Backends of a retrieval command */
+  private final boolean[][] batchUsed;
+
+  /* Sub-request start offsets of a retrieval command */
+  private final int[] starts;
+
+  /* Number of commands processed by the last call */
+  private int commandCount;
+
+  /* Input consumed by the last call */
+  private int inputConsumed;
+
+  /**
+   * Constructor
+   * @param nodes backend nodes (host:port)
+   * @param bufferSize I/O buffer size
+   * @param tcpBufferSize TCP send/receive buffer size
+   */
+  public ProxyProcessor(String[] nodes, int bufferSize, int tcpBufferSize) {
+    this.backends = new Backend[nodes.length];
+    for (int i = 0; i < nodes.length; i++) {
+      this.backends[i] = new Backend(nodes[i], bufferSize, tcpBufferSize);
+    }
+    this.failed = new boolean[nodes.length];
+    this.batchUsed = new boolean[MAX_BATCH][nodes.length];
+    this.starts = new int[nodes.length];
+    this.ring = new KetamaRing(nodes);
+  }
+
+  /**
+   * Main method. Processes the first command of the input and all complete key commands which
+   * follow it, see {@link #getInputConsumed()} and {@link #getCommandCount()}.
+   * @param inputPtr input buffer contains incoming Memcached commands
+   * @param inputSize input size
+   * @param outPtr output buffer to return to a client (command response)
+   * @param outSize output buffer size
+   * @param consumer output consumer
+   * @return size of response or -1 if input is incomplete
+   * @throws IOException
+   */
+  public int process(long inputPtr, int inputSize, long outPtr, int outSize,
+      OutputConsumer consumer) throws IOException {
+    CommandProcessor.lastCommand.set(null);
+    commandCount = 0;
+    inputConsumed = 0;
+    MemcachedCommand cmd = null;
+    try {
+      cmd = CommandParser.parse(inputPtr, inputSize);
+    } catch (UnsupportedCommand ee) {
+      log.error("UnsupportedCommand:", ee);
+      ServerMetrics.error();
+      return copy(Errors.ERROR, outPtr);
+    } catch (IllegalFormatException eee) {
+      String msg = "CLIENT_ERROR " + eee.getMessage() + "\r\n";
+      log.error(msg, eee);
+      ServerMetrics.error();
+      return copy(msg.getBytes(), outPtr);
+    }
+    if (cmd == null) {
+      return -1; // input is incomplete
+    }
+    CommandProcessor.lastCommand.set(cmd);
+    commandCount = 1;
+    inputConsumed = cmd.inputConsumed();
+    if (!CommandProcessor.isMemorySafe(cmd, inputPtr, inputSize)) {
+      log.error("SERVER_ERROR memory not safe, cmd={}", cmd.getClass().getName());
+      ServerMetrics.error();
+      return copy("SERVER_ERROR internal error\r\n".getBytes(), outPtr);
+    }
+    if (isPipelined(cmd)) {
+      return pipeline(cmd, inputPtr, inputSize, outPtr, outSize, consumer);
+    }
+    ServerMetrics.command(cmd);
+    if (cmd instanceof FLUSH_ALL) {
+      return broadcast(inputPtr, cmd.inputConsumed(), ((FLUSH_ALL) cmd).isNoReply(), outPtr);
+    } else if (cmd instanceof VERSION || cmd instanceof QUIT) {
+      // Local commands, they do not access data store
+      return cmd.execute(null, outPtr, outSize, consumer);
+    }
+    ServerMetrics.error();
+    return copy(NOT_SUPPORTED, outPtr);
+  }
+
+  /**
+   * Number of commands processed by the last {@link #process} call
+   * @return number of commands
+   */
+  public int getCommandCount() {
+    return commandCount;
+  }
+
+  /**
+   * Input consumed by the last {@link #process} call
+   * @return number of bytes
+   */
+  public int getInputConsumed() {
+    return inputConsumed;
+  }
+
+  /**
+   * Key commands are routed to backends and can be pipelined
+   */
+  private static boolean isPipelined(MemcachedCommand cmd) {
+    return cmd instanceof RetrievalCommand || cmd instanceof AbstractMemcachedCommand;
+  }
+
+  /**
+   * Parses next command of a batch
+   * @return command or null if the command is incomplete, malformed or can not be pipelined
+   */
+  private static MemcachedCommand next(long ptr, int size) {
+    try {
+      MemcachedCommand cmd = CommandParser.parse(ptr, size);
+      if (cmd == null || !isPipelined(cmd) || !CommandProcessor.isMemorySafe(cmd, ptr, size)) {
+        return null;
+      }
+      return cmd;
+    } catch (IllegalFormatException e) {
+      // it will be reported as the first command of the next call
+      return null;
+    }
+  }
+
+  /**
+   * Batches key commands per backend, sends each backend's requests with a single write and
+   * writes responses in the order of commands
+   */
+  private int pipeline(MemcachedCommand cmd, long inputPtr, int inputSize, long outPtr,
+      int outSize, OutputConsumer consumer) throws IOException {
+    int count = 0;
+    int consumed = 0;
+    while (true) {
+      long ptr = inputPtr + consumed;
+      int size = cmd.inputConsumed();
+      if (count > 0 && !fits(cmd, size)) {
+        break;
+      }
+      if (cmd instanceof RetrievalCommand) {
+        split((RetrievalCommand) cmd, ptr, batchUsed[count]);
+      } else {
+        AbstractMemcachedCommand c = (AbstractMemcachedCommand) cmd;
+        int n = node(c.getKeyPtr(), c.getKeySize());
+        if (c.isNoReply()) {
+          appendWithoutNoReply(backends[n], ptr, size);
+        } else {
+          backends[n].append(ptr, size);
+        }
+        batchNode[count] = n;
+      }
+      batch[count++] = cmd;
+      consumed += size;
+      if (count == MAX_BATCH || consumed >= inputSize) {
+        break;
+      }
+      cmd = next(inputPtr + consumed, inputSize - consumed);
+      if (cmd == null) {
+        break;
+      }
+    }
+    // Send all requests first
+    for (int i = 0; i < backends.length; i++) {
+      Backend b = backends[i];
+      failed[i] = false;
+      if (b.wsize == 0) {
+        continue;
+      }
+      try {
+        b.flush();
+      } catch (IOException e) {
+        fail(i, e);
+      }
+    }
+    // Now read responses in the order of requests
+    int off = 0;
+    for (int k = 0; k < count; k++) {
+      MemcachedCommand c = batch[k];
+      batch[k] = null;
+      if (c instanceof RetrievalCommand) {
+        off = retrieve(batchUsed[k], outPtr, outSize, off, consumer);
+      } else {
+        off = reply(batchNode[k], ((AbstractMemcachedCommand) c).isNoReply(), outPtr, outSize,
+          off, consumer);
+      }
+      ServerMetrics.command(c);
+      CommandProcessor.lastCommand.set(c);
+    }
+    commandCount = count;
+    inputConsumed = consumed;
+    return off;
+  }
+
+  private int node(long keyPtr, int keySize) {
+    return backends.length == 1 ? 0 : ring.getNode(keyPtr, keySize);
+  }
+
+  /**
+   * Can a command be added to the current batch
+   */
+  private boolean fits(MemcachedCommand cmd, int size) {
+    if (cmd instanceof RetrievalCommand) {
+      // sub-request can not be larger than the command (plus CRLF)
+      for (Backend b : backends) {
+        if (!b.fits(size + 2)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    AbstractMemcachedCommand c = (AbstractMemcachedCommand) cmd;
+    return backends[node(c.getKeyPtr(), c.getKeySize())].fits(size);
+  }
+
+  /**
+   * Splits retrieval command into sub-requests per backend
+   * @param cmd command
+   * @param ptr command address
+   * @param used backends which got a sub-request
+   */
+  private void split(RetrievalCommand cmd, long ptr, boolean[] used) {
+    long[] keys = cmd.getKeys();
+    int[] keySizes = cmd.getKeySizes();
+    for (int i = 0; i < backends.length; i++) {
+      starts[i] = backends[i].wsize;
+    }
+    // "get ", "gats <exptime> " etc
+    int prefix = keys.length > 0 ? (int) (keys[0] - ptr) : 0;
+    for (int i = 0; i < keys.length; i++) {
+      int n = node(keys[i], keySizes[i]);
+      Backend b = backends[n];
+      if (b.wsize == starts[n]) {
+        b.append(ptr, prefix);
+      } else {
+        b.append((byte) ' ');
+      }
+      b.append(keys[i], keySizes[i]);
+    }
+    for (int i = 0; i < backends.length; i++) {
+      Backend b = backends[i];
+      used[i] = b.wsize > starts[i];
+      if (used[i]) {
+        b.append((byte) '\r');
+        b.append((byte) '\n');
+      }
+    }
+  }
+
+  /**
+   * Merges retrieval sub-responses, failed backends are reported as misses
+   * @return new output offset
+   */
+  private int retrieve(boolean[] used, long outPtr, int outSize, int off,
+      OutputConsumer consumer) throws IOException {
+    for (int i = 0; i < backends.length; i++) {
+      if (!used[i] || failed[i]) {
+        continue;
+      }
+      try {
+        off = drain(backends[i], outPtr, outSize, off, consumer);
+      } catch (IOException e) {
+        fail(i, e);
+      }
+    }
+    return put(END, outPtr, outSize, off, consumer);
+  }
+
+  /**
+   * Copies backend's single line response of a key command
+   * @return new output offset
+   */
+  private int reply(int n, boolean noreply, long outPtr, int outSize, int off,
+      OutputConsumer consumer) throws IOException {
+    Backend b = backends[n];
+    if (!failed[n]) {
+      try {
+        int len = readLine(b);
+        if (!noreply) {
+          off = copyOut(b.rptr + b.rpos, len, outPtr, outSize, off, consumer);
+        }
+        b.rpos += len;
+        return off;
+      } catch (IOException e) {
+        fail(n, e);
+      }
+    }
+    ServerMetrics.error();
+    return noreply ? off : put(BACKEND_ERROR, outPtr, outSize, off, consumer);
+  }
+
+  private void fail(int n, IOException e) {
+    Backend b = backends[n];
+    log.error("Backend {} error: {}", b.node, e.getMessage());
+    b.close();
+    failed[n] = true;
+  }
+
+  /**
+   * Forwards command to a backend and copies backend's single line response. A noreply command
+   * is forwarded without noreply and its response is discarded: backends reply with an error line
+   * even to noreply commands, unread error would be taken as a response to the next request.
+   */
+  private int forward(Backend b, long inputPtr, int size, boolean noreply, long outPtr) {
+    try {
+      if (noreply) {
+        appendWithoutNoReply(b, inputPtr, size);
+      } else {
+        b.append(inputPtr, size);
+      }
+      b.flush();
+      int len = readLine(b);
+      if (noreply) {
+        return 0;
+      }
+      UnsafeAccess.copy(b.rptr + b.rpos, outPtr, len);
+      b.rpos += len;
+      return len;
+    } catch (IOException e) {
+      log.error("Backend {} error: {}", b.node, e.getMessage());
+      b.close();
+      ServerMetrics.error();
+      return noreply ? 0 : copy(BACKEND_ERROR, outPtr);
+    }
+  }
+
+  /**
+   * Appends command with noreply token removed from its command line
+   */
+  private static void appendWithoutNoReply(Backend b, long inputPtr, int size) {
+    int eol = findCRLF(inputPtr, 0, size);
+    int start = eol - NOREPLY.length;
+    if (start < 0 || !startsWith(inputPtr + start, NOREPLY.length, NOREPLY)) {
+      b.append(inputPtr, size);
+      return;
+    }
+    b.append(inputPtr, start);
+    b.append(inputPtr + eol, size - eol);
+  }
+
+  /**
+   * Sends command to all backends, returns first non-OK response or OK
+   */
+  private int broadcast(long inputPtr, int size, boolean noreply, long outPtr) {
+    int len = 0;
+    for (Backend b : backends) {
+      int n = forward(b, inputPtr, size, noreply, outPtr + len);
+      if (len == 0 && n > 0 && UnsafeAccess.toByte(outPtr) != 'O') {
+        // keep the first error at the beginning of the output buffer
+        len = n;
+      }
+    }
+    if (noreply) {
+      return 0;
+    }
+    if (len > 0) {
+      return len;
+    }
+    return copy("OK\r\n".getBytes(), outPtr);
+  }
+
+  /**
+   * Copies complete items of a retrieval response to the output buffer, flushing output when it
+   * is full. Terminating END (or error) line is consumed, but not copied.
+   * @return new output offset
+   */
+  private int drain(Backend b, long outPtr, int outSize, int off, OutputConsumer consumer)
+      throws IOException {
+    while (true) {
+      int limit = b.limit();
+      int pos = b.rpos;
+      int end = -1;
+      while (true) {
+        int eol = findCRLF(b.rptr, pos, limit);
+        if (eol < 0) {
+          break;
+        }
+        if (startsWith(b.rptr + pos, eol - pos, VALUE)) {
+          int itemEnd = eol + 2 + valueSize(b.rptr + pos, eol - pos) + 2;
+          if (itemEnd > limit) {
+            break;
+          }
+          pos = itemEnd;
+        } else {
+          if (!startsWith(b.rptr + pos, eol - pos, END)) {
+            log.error("Backend {} error: {}", b.node,
+              new String(com.carrotdata.cache.util.Utils.toBytes(b.rptr + pos, eol - pos)));
+          }
+          end = eol + 2;
+          break;
+        }
+      }
+      off = copyOut(b.rptr + b.rpos, pos - b.rpos, outPtr, outSize, off, consumer);
+      b.rpos = pos;
+      if (end >= 0) {
+        b.rpos = end;
+        return off;
+      }
+      b.fill();
+    }
+  }
+
+  /**
+   * Copies data to the output buffer, flushing output when it is full
+   */
+  private static int copyOut(long ptr, int size, long outPtr, int outSize, int off,
+      OutputConsumer consumer) throws IOException {
+    while (size > 0) {
+      int avail = outSize - off;
+      if (avail <= 0) {
+        consumer.consume(off);
+        off = 0;
+        continue;
+      }
+      int n = Math.min(avail, size);
+      UnsafeAccess.copy(ptr, outPtr + off, n);
+      off += n;
+      ptr += n;
+      size -= n;
+    }
+    return off;
+  }
+
+  /**
+   * Copies short message to the output buffer, flushing output when there is no space for it
+   */
+  private static int put(byte[] buf, long outPtr, int outSize, int off, OutputConsumer consumer)
+      throws IOException {
+    if (outSize - off < buf.length) {
+      consumer.consume(off);
+      off = 0;
+    }
+    return off + copy(buf, outPtr + off);
+  }
+
+  /**
+   * Reads single line response
+   * @return line length including CRLF, the line starts at the backend's response position
+   */
+  private static int readLine(Backend b) throws IOException {
+    while (true) {
+      int eol = findCRLF(b.rptr, b.rpos, b.limit());
+      if (eol >= 0) {
+        return eol + 2 - b.rpos;
+      }
+      b.fill();
+    }
+  }
+
+  /**
+   * Finds CR LF
+   * @return offset of CR or -1
+   */
+  private static int findCRLF(long ptr, int from, int limit) {
+    for (int i = from; i < limit - 1; i++) {
+      if (UnsafeAccess.toByte(ptr + i) == '\r' && UnsafeAccess.toByte(ptr + i + 1) == '\n') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean startsWith(long ptr, int size, byte[] prefix) {
+    // prefix may include CRLF (END\r\n) - compare only printable part
+    int len = prefix[prefix.length - 1] == '\n' ? prefix.length - 2 : prefix.length;
+    if (size < len) {
+      return false;
+    }
+    for (int i = 0; i < len; i++) {
+      if (UnsafeAccess.toByte(ptr + i) != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Parses data block size from VALUE key flags bytes [cas]
+   */
+  private static int valueSize(long ptr, int size) throws IOException {
+    int tokens = 0;
+    int i = 0;
+    // skip VALUE, key and flags
+    for (; i < size && tokens < 3; i++) {
+      if (UnsafeAccess.toByte(ptr + i) == ' ') {
+        tokens++;
+      }
+    }
+    int v = 0;
+    for (; i < size; i++) {
+      byte b = UnsafeAccess.toByte(ptr + i);
+      if (b == ' ') {
+        break;
+      }
+      if (b < '0' || b > '9') {
+        throw new IOException("malformed backend response");
+      }
+      v = v * 10 + (b - '0');
+    }
+    return v;
+  }
+
+  private static int copy(byte[] buf, long outPtr) {
+    UnsafeAccess.copy(buf, 0, outPtr, buf.length);
+    return buf.length;
+  }
+
+  /** Closes all backend connections */
+  public void close() {
+    for (Backend b : backends) {
+      b.close();
+    }
+  }
+}
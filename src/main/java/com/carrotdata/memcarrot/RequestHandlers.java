@@ -17,11 +17,7 @@
  */
 package com.carrotdata.memcarrot;
 
-import java.io.IOException;
-import java.nio.BufferOverflowException;
-import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.SocketChannel;
 import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
@@ -31,11 +27,9 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import com.carrotdata.cache.support.Memcached;
-import com.carrotdata.cache.util.UnsafeAccess;
-import com.carrotdata.memcarrot.CommandProcessor.OutputConsumer;
-import com.carrotdata.memcarrot.commands.MemcachedCommand;
-import com.carrotdata.memcarrot.commands.QUIT;
-import com.carrotdata.memcarrot.util.Errors;
+import com.carrotdata.memcarrot.metrics.ConnectionStats;
+import com.carrotdata.memcarrot.metrics.WorkerEvent;
+import com.carrotdata.memcarrot.metrics.WorkerStats;
 
 public class RequestHandlers {
 
@@ -46,16 +40,61 @@ public class RequestHandlers {
   static class Attachment {
     private long accessTime;
     private volatile boolean inUse = false;
+    /* Home worker index, -1 - not assigned yet */
+    private int worker = -1;
+    /* Time (ns) the selector reported connection ready, written before hand off to a worker */
+    private long readyTime;
+    /* Connection statistics, can be null */
+    private ConnectionStats stats;
+    /* Handshake state, see AuthorizationHandler */
+    private int handshake = AuthorizationHandler.READY;
+    /* Client address words (see AddressTable), set only when authorization is enabled */
+    private long clientHigh;
+    private long clientLow;
 
     Attachment() {
       accessTime = System.nanoTime() - epochStartNanos;
       setInUse(true);
     }
 
+    /**
+     * Attachment of a newly accepted connection (not in use)
+     * @param stats connection statistics
+     */
+    Attachment(ConnectionStats stats) {
+      accessTime = System.nanoTime() - epochStartNanos;
+      this.stats = stats;
+    }
+
+    ConnectionStats stats() {
+      return stats;
+    }
+
     boolean inUse() {
       return inUse;
     }
 
+    int handshake() {
+      return handshake;
+    }
+
+    void setHandshake(int state) {
+      this.handshake = state;
+    }
+
+    long clientHigh() {
+      return clientHigh;
+    }
+
+    long clientLow() {
+      return clientLow;
+    }
+
+    void setClient(long high, long low) {
+      this.clientHigh = high;
+      this.clientLow = low;
+    }
+
     void setInUse(boolean b) {
       this.inUse = b;
     }
@@ -67,6 +106,22 @@ public class RequestHandlers {
     void access() {
       accessTime = System.nanoTime() - epochStartNanos;
     }
+
+    int worker() {
+      return worker;
+    }
+
+    void setWorker(int worker) {
+      this.worker = worker;
+    }
+
+    long readyTime() {
+      return readyTime;
+    }
+
+    void setReadyTime(long time) {
+      this.readyTime = time;
+    }
   }
 
   /*
@@ -76,15 +131,73 @@ public class RequestHandlers {
 
   volatile boolean shutdown;
 
-  private RequestHandlers(Memcached store, int numThreads, int bufferSize) {
+  /*
+   * Connection to worker affinity: connection is served by its home worker, unless it is busy
+   */
+  boolean affinity;
+
+  /* Next home worker, accessed by a selector thread only */
+  private int nextHome;
+
+  /*
+   * Asynchronous file tier reads executor (can be null)
+   */
+  AsyncReadExecutor async;
+
+  private RequestHandlers(Memcached store, int numThreads, int bufferSize, int ioPoolSize) {
+    if (ioPoolSize > 0) {
+      async = new AsyncReadExecutor(store, ioPoolSize, bufferSize);
+    }
     workers = new WorkThread[numThreads];
     for (int i = 0; i < numThreads; i++) {
-      workers[i] = new WorkThread(store, bufferSize);
+      workers[i] = new WorkThread(store, async, bufferSize);
+    }
+  }
+
+  private RequestHandlers(String[] backends, int numThreads, int bufferSize, int tcpBufferSize) {
+    workers = new WorkThread[numThreads];
+    for (int i = 0; i < numThreads; i++) {
+      workers[i] = new WorkThread(new ProxyProcessor(backends, bufferSize, tcpBufferSize),
+          bufferSize);
     }
   }
 
   public static RequestHandlers create(Memcached store, int numThreads, int bufferSize) {
-    return new RequestHandlers(store, numThreads, bufferSize);
+    return new RequestHandlers(store, numThreads, bufferSize, 0);
+  }
+
+  /**
+   * Creates request handlers with asynchronous file tier reads
+   * @param store data store
+   * @param numThreads number of worker threads
+   * @param bufferSize I/O buffer size
+   * @param ioPoolSize I/O pool size, 0 - disables asynchronous reads
+   * @return request handlers
+   */
+  public static RequestHandlers create(Memcached store, int numThreads, int bufferSize,
+      int ioPoolSize) {
+    return new RequestHandlers(store, numThreads, bufferSize, ioPoolSize);
+  }
+
+  /**
+   * Creates request handlers for a proxy mode
+   * @param backends backend nodes (host:port)
+   * @param numThreads number of worker threads
+   * @param bufferSize I/O buffer size
+   * @param tcpBufferSize TCP send/receive buffer size for backend connections
+   * @return request handlers
+   */
+  public static RequestHandlers createProxy(String[] backends, int numThreads, int bufferSize,
+      int tcpBufferSize) {
+    return new RequestHandlers(backends, numThreads, bufferSize, tcpBufferSize);
+  }
+
+  /**
+   * Enables/disables connection to worker affinity
+   * @param b true - enable
+   */
+  public void setAffinity(boolean b) {
+    this.affinity = b;
   }
 
   public void start() {
@@ -100,6 +213,25 @@ public class RequestHandlers {
     if (this.shutdown) {
       return;
     }
+    Attachment att = (Attachment) key.attachment();
+    if (att == null) {
+      att = new Attachment();
+      key.attach(att);
+    }
+    att.setReadyTime(System.nanoTime());
+    int home = -1;
+    if (affinity) {
+      home = att.worker();
+      if (home < 0) {
+        // assign home worker round robin
+        home = nextHome++ % workers.length;
+        att.setWorker(home);
+      }
+      if (!workers[home].isBusy()) {
+        workers[home].nextKey(key);
+        return;
+      }
+    }
     while (true) {
       for (int i = 0; i < workers.length; i++) {
         if (workers[i].isBusy()) continue;
@@ -113,26 +245,14 @@ public class RequestHandlers {
   public void shutdown() {
     this.shutdown = true;
     Arrays.stream(workers).forEach(Thread::interrupt);
+    if (async != null) {
+      async.shutdown();
+    }
     log.debug("Stopped request handlers: count={}", workers.length);
   }
 }
 
 class WorkThread extends Thread {
-  static class ChannelOutputConsumer implements OutputConsumer {
-
-    SocketChannel channel;
-    ByteBuffer out;
-
-    @Override
-    public void consume(int upto) throws IOException {
-      out.limit(upto);
-      out.position(0);
-      while (out.hasRemaining()) {
-        channel.write(out);
-      }
-    }
-
-  }
 
   private static final Logger log = LogManager.getLogger(WorkThread.class);
 
@@ -142,29 +262,9 @@ class WorkThread extends Thread {
   private long busyLoopMax = 250000;
 
   /*
-   * Input buffer
-   */
-  ByteBuffer inBuf;
-
-  /**
-   * Address of input buffer
+   * Connection request processor
    */
-  long in_ptr;
-
-  /*
-   * Output buffer
-   */
-  ByteBuffer outBuf;
-
-  /**
-   * Output buffer address
-   */
-  long out_ptr;
-
-  /*
-   * Data store
-   */
-  private final Memcached store;
+  private final RequestProcessor processor;
 
   /** Next selection key atomic reference */
   private final AtomicReference<SelectionKey> nextKey = new AtomicReference<>();
@@ -174,37 +274,34 @@ class WorkThread extends Thread {
    */
   private volatile boolean busy = false;
 
-  private int bufferSize;
+  /*
+   * Utilization and scheduling statistics
+   */
+  private final WorkerStats stats;
 
   private static AtomicInteger counter = new AtomicInteger();
 
   /**
    * Default constructor
    * @param store data store
+   * @param async asynchronous reads executor (can be null)
    */
-  WorkThread(Memcached store, int bufferSize) {
+  WorkThread(Memcached store, AsyncReadExecutor async, int bufferSize) {
     super("mc-pool-thread-" + counter.getAndIncrement());
-    this.store = store;
-    this.bufferSize = bufferSize;
+    this.processor = new RequestProcessor(store, null, async, bufferSize);
+    this.stats = WorkerStats.register(getName());
     setDaemon(true);
   }
 
-  private ByteBuffer getInputBuffer() {
-    if (inBuf == null) {
-      inBuf = ByteBuffer.allocateDirect(bufferSize);
-      in_ptr = UnsafeAccess.address(inBuf);
-      UnsafeAccess.mallocStats.allocEvent(in_ptr, bufferSize);
-    }
-    return inBuf;
-  }
-
-  private ByteBuffer getOutputBuffer() {
-    if (outBuf == null) {
-      outBuf = ByteBuffer.allocateDirect(bufferSize);
-      out_ptr = UnsafeAccess.address(outBuf);
-      UnsafeAccess.mallocStats.allocEvent(out_ptr, bufferSize);
-    }
-    return outBuf;
+  /**
+   * Proxy mode constructor
+   * @param proxy proxy processor
+   */
+  WorkThread(ProxyProcessor proxy, int bufferSize) {
+    super("mc-proxy-thread-" + counter.getAndIncrement());
+    this.processor = new RequestProcessor(null, proxy, null, bufferSize);
+    this.stats = WorkerStats.register(getName());
+    setDaemon(true);
   }
 
   /**
@@ -237,7 +334,7 @@ class WorkThread extends Thread {
    * Release key - mark it not in use
    * @param key
    */
-  void release(SelectionKey key) {
+  static void release(SelectionKey key) {
     RequestHandlers.Attachment att = (RequestHandlers.Attachment) key.attachment();
     att.setInUse(false);
   }
@@ -249,6 +346,8 @@ class WorkThread extends Thread {
     long idleTimeout = 50000000; // 50ms
     SelectionKey key = null;
     long idleTimeStart = 0;
+    long waitStart = System.nanoTime();
+    long parked = 0;
     // wait for next task
     while ((key = nextKey.get()) == null) {
       if (Thread.interrupted()) {
@@ -263,14 +362,18 @@ class WorkThread extends Thread {
           idleTimeStart = System.nanoTime();
         }
         long tout = 0;
-        if (System.nanoTime() - idleTimeStart > idleTimeout) {
+        long parkStart = System.nanoTime();
+        if (parkStart - idleTimeStart > idleTimeout) {
           tout = 200 * timeout; // 0.5ms
         } else {
           tout = timeout;
         }
         LockSupport.parkNanos(tout);
+        parked += System.nanoTime() - parkStart;
       }
     }
+    stats.parkNanos += parked;
+    stats.spinNanos += System.nanoTime() - waitStart - parked;
     return key;
   }
 
@@ -279,7 +382,6 @@ class WorkThread extends Thread {
    */
   public void run() {
     try {
-      final ChannelOutputConsumer consumer = new ChannelOutputConsumer();
       // infinite loop
       log.info("Thread {} started.", Thread.currentThread().getName());
 
@@ -288,135 +390,44 @@ class WorkThread extends Thread {
 
         if (key == null) {
           log.info("Thread {} got interrupt signal, exiting", Thread.currentThread().getName());
+          WorkerStats.unregister(stats);
+          if (processor.getProxy() != null) {
+            processor.getProxy().close();
+          }
           return;
         }
         // We are busy now
-        final SocketChannel channel = (SocketChannel) key.channel();
-
-        // Read request first
-        ByteBuffer in = getInputBuffer();
-        ByteBuffer out = getOutputBuffer();
-        in.clear();
-        out.clear();
-
-        consumer.channel = channel;
-        consumer.out = out;
-
+        long start = System.nanoTime();
+        long commands = processor.getCommandsExecuted();
+        RequestHandlers.Attachment att = (RequestHandlers.Attachment) key.attachment();
+        long readyTime = att.readyTime();
+        long queueWait = readyTime > 0 && readyTime < start ? start - readyTime : 0;
+        stats.queueWaitNanos += queueWait;
+        WorkerEvent event = null;
+        if (WorkerEvent.enabled()) {
+          event = new WorkerEvent();
+          event.begin();
+        }
+        boolean handedOff = false;
         try {
-          long startCounter = 0;
-          long max_wait_ns = 500_000_000; // 500ms - FIXME - make it configurable
-          int inputSize = 0;
-
-          outer: while (true) {
-            // Before read check input size
-            if (inputSize == bufferSize) {
-              // Input is too large
-              out.clear();
-              out.put(Errors.INPUT_TOO_LARGE);
-              out.flip();
-              // send response back
-              while (out.hasRemaining()) {
-                // FIXME: Can we stuck here?
-                channel.write(out);
-              }
-              // We need to close channel
-              // because now we are not able to restore
-              // correct position of the next command
-              key.cancel();
-              channel.close();
-              break;
-            }
-            int num = channel.read(in);
-            if (num < 0) {
-              // End-Of-Stream - socket was closed, cancel the key
-              log.debug("Connection closed:{}", channel.getRemoteAddress());
-              key.cancel();
-              channel.close();
-              break;
-            } else if (num == 0) {
-              if (startCounter == 0) {
-                startCounter = System.nanoTime();
-              }
-              if (System.nanoTime() - startCounter > max_wait_ns) {
-                // FIXME: Request timeout
-                // timeout
-                key.cancel();
-                channel.close();
-                break;
-              }
-              Thread.onSpinWait();
-              continue;
-            }
-            startCounter = 0;
-            int consumed = 0;
-            inputSize += num;
-
-            while (consumed < inputSize) {
-              // Try to parse
-              // Process request using buffer's addresses
-              int responseLength = CommandProcessor.process(store, in_ptr + consumed,
-                inputSize - consumed, out_ptr, bufferSize, consumer);
-              if (responseLength < 0) {
-                // command is incomplete
-                // check if we consumed something, then compact input buffer
-                if (consumed > 0) {
-                  // compact input buffer
-                  UnsafeAccess.copy(in_ptr + consumed, in_ptr, inputSize - consumed);
-                  inputSize -= consumed;
-                  in.position(inputSize);
-                }
-                continue outer;
-              }
-              if (responseLength > 0) {
-                out.limit(responseLength);
-                out.position(0);
-                // send response back
-                while (out.hasRemaining()) {
-                  // FIXME: Can we stuck here?
-                  channel.write(out);
-                }
-              }
-              MemcachedCommand cmd = CommandProcessor.getLastExecutedCommand();
-              if (cmd != null) {
-                consumed += CommandProcessor.getLastExecutedCommand().inputConsumed();
-              } else {
-                // cmd == null - ERROR, close connection
-              }
-              if (cmd instanceof QUIT || cmd == null) {
-                key.cancel();
-                channel.close();
-                break;
-              }
-            }
-            break;
-          }
-        } catch (IOException e) {
-          String msg = e.getMessage();
-          if ( msg != null && msg.indexOf("Connection reset") < 0 && msg.indexOf("Broken pipe") < 0) {
-            log.error("Error:", e);
-          }
-          if (channel.isOpen()) {
-              log.debug("Connection {} closed, reason:{}", channel.getRemoteAddress(), e.getMessage());
+          handedOff = processor.process(key);
+        } finally {
+          // Release selection key - ready for the next request,
+          // unless connection is being served by I/O pool
+          if (!handedOff) {
+            release(key);
           }
-          key.cancel();
-          channel.close();
-        } catch (BufferOverflowException ee) {
-          out.clear();
-          out.put(Errors.OUTPUT_TOO_LARGE);
-          out.flip();
-          // send response back
-          while (out.hasRemaining()) {
-            // FIXME: Can we stuck here?
-            try {
-              channel.write(out);
-            } catch (IOException eee) {
-              key.cancel();
-              // what to do with channel?
-            }
+          long executed = processor.getCommandsExecuted() - commands;
+          stats.keys++;
+          stats.commands += executed;
+          stats.busyNanos += System.nanoTime() - start;
+          if (event != null) {
+            event.worker = getName();
+            event.queueWait = queueWait;
+            event.commands = executed;
+            event.handedOff = handedOff;
+            event.commit();
           }
-        } finally {
-          // Release selection key - ready for the next request
-          release(key);
           nextKey.set(null);
           // set busy flag to false
           busy = false;
@@ -0,0 +1,458 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.carrotdata.cache.support.Memcached;
+import com.carrotdata.cache.util.UnsafeAccess;
+import com.carrotdata.memcarrot.CommandProcessor.OutputConsumer;
+import com.carrotdata.memcarrot.commands.MemcachedCommand;
+import com.carrotdata.memcarrot.commands.QUIT;
+import com.carrotdata.memcarrot.metrics.CommandEvent;
+import com.carrotdata.memcarrot.metrics.ConnectionStats;
+import com.carrotdata.memcarrot.metrics.Latency;
+import com.carrotdata.memcarrot.metrics.ServerMetrics;
+import com.carrotdata.memcarrot.metrics.SlowLog;
+import com.carrotdata.memcarrot.util.Errors;
+import com.carrotdata.memcarrot.util.TrafficCapture;
+
+/**
+ * Serves a single connection: reads available requests, processes them and writes responses
+ * back. Every thread which serves connections (worker or I/O pool thread) owns its own instance.
+ */
+class RequestProcessor {
+
+  static class ChannelOutputConsumer implements OutputConsumer {
+
+    SocketChannel channel;
+    ByteBuffer out;
+
+    @Override
+    public void consume(int upto) throws IOException {
+      out.limit(upto);
+      out.position(0);
+      while (out.hasRemaining()) {
+        channel.write(out);
+      }
+      ServerMetrics.bytesWritten(upto);
+    }
+
+  }
+
+  private static final Logger log = LogManager.getLogger(RequestProcessor.class);
+
+  /*
+   * Input buffer
+   */
+  ByteBuffer inBuf;
+
+  /**
+   * Address of input buffer
+   */
+  long in_ptr;
+
+  /*
+   * Output buffer
+   */
+  ByteBuffer outBuf;
+
+  /**
+   * Output buffer address
+   */
+  long out_ptr;
+
+  /*
+   * Data store
+   */
+  private final Memcached store;
+
+  /*
+   * Proxy processor (proxy mode only)
+   */
+  private final ProxyProcessor proxy;
+
+  /*
+   * Asynchronous reads executor, null - if disabled or this processor runs in I/O pool
+   */
+  private final AsyncReadExecutor async;
+
+  private final int bufferSize;
+
+  private final ChannelOutputConsumer consumer = new ChannelOutputConsumer();
+
+  /*
+   * Slow commands log of this processor
+   */
+  private final SlowLog.Ring slowlog = SlowLog.newRing();
+
+  /*
+   * Number of commands executed by this processor (single writer)
+   */
+  private long commandsExecuted;
+
+  /*
+   * Id of the connection being served, 0 - unknown
+   */
+  private long connection;
+
+  /**
+   * Constructor
+   * @param store data store
+   * @param proxy proxy processor (proxy mode)
+   * @param async asynchronous reads executor
+   * @param bufferSize I/O buffer size
+   */
+  RequestProcessor(Memcached store, ProxyProcessor proxy, AsyncReadExecutor async,
+      int bufferSize) {
+    this.store = store;
+    this.proxy = proxy;
+    this.async = async;
+    this.bufferSize = bufferSize;
+  }
+
+  ProxyProcessor getProxy() {
+    return proxy;
+  }
+
+  /**
+   * Number of commands executed by this processor
+   * @return number of commands
+   */
+  long getCommandsExecuted() {
+    return commandsExecuted;
+  }
+
+  private ByteBuffer getInputBuffer() {
+    if (inBuf == null) {
+      inBuf = ByteBuffer.allocateDirect(bufferSize);
+      in_ptr = UnsafeAccess.address(inBuf);
+      UnsafeAccess.mallocStats.allocEvent(in_ptr, bufferSize);
+      ServerMetrics.ioBufferAllocated(bufferSize);
+    }
+    return inBuf;
+  }
+
+  private ByteBuffer getOutputBuffer() {
+    if (outBuf == null) {
+      outBuf = ByteBuffer.allocateDirect(bufferSize);
+      out_ptr = UnsafeAccess.address(outBuf);
+      UnsafeAccess.mallocStats.allocEvent(out_ptr, bufferSize);
+      ServerMetrics.ioBufferAllocated(bufferSize);
+    }
+    return outBuf;
+  }
+
+  /**
+   * Closes connection
+   * @param key selection key
+   * @param channel channel
+   * @throws IOException
+   */
+  static void close(SelectionKey key, SocketChannel channel) throws IOException {
+    key.cancel();
+    if (channel.isOpen()) {
+      channel.close();
+      ServerMetrics.connectionClosed();
+      RequestHandlers.Attachment att = (RequestHandlers.Attachment) key.attachment();
+      if (att != null && att.stats() != null) {
+        ConnectionStats.close(att.stats());
+        if (TrafficCapture.isEnabled()) {
+          TrafficCapture.close(att.stats().getId());
+        }
+      }
+    }
+  }
+
+  /**
+   * Serves connection
+   * @param key selection key
+   * @return true if connection was handed off to I/O pool (the key must not be released)
+   * @throws IOException
+   */
+  boolean process(SelectionKey key) throws IOException {
+    return process(key, null);
+  }
+
+  /**
+   * Serves connection, starting with the pending input
+   * @param key selection key
+   * @param pending pending input (not processed yet), can be null
+   * @return true if connection was handed off to I/O pool (the key must not be released)
+   * @throws IOException
+   */
+  boolean process(SelectionKey key, byte[] pending) throws IOException {
+    RequestHandlers.Attachment att = (RequestHandlers.Attachment) key.attachment();
+    ConnectionStats stats = att != null ? att.stats() : null;
+    if (stats != null) {
+      stats.access();
+    }
+    ServerMetrics.setConnection(stats);
+    connection = stats != null ? stats.getId() : 0;
+    try {
+      return serve(key, pending);
+    } finally {
+      ServerMetrics.setConnection(null);
+    }
+  }
+
+  /**
+   * Compacts input buffer: discards consumed input
+   * @param in input buffer
+   * @param consumed number of bytes consumed
+   * @param inputSize input size
+   * @return new input size
+   */
+  private int compact(ByteBuffer in, int consumed, int inputSize) {
+    if (consumed > 0) {
+      UnsafeAccess.copy(in_ptr + consumed, in_ptr, inputSize - consumed);
+      inputSize -= consumed;
+      in.position(inputSize);
+    }
+    return inputSize;
+  }
+
+  /**
+   * Runs next connection handshake step and sends its response
+   * @param channel channel
+   * @param att connection attachment
+   * @param ptr input address
+   * @param size input size
+   * @return number of bytes consumed or AuthorizationHandler.INCOMPLETE or FAILED
+   * @throws IOException
+   */
+  private int handshake(SocketChannel channel, RequestHandlers.Attachment att, long ptr,
+      int size) throws IOException {
+    AuthorizationHandler auth = AuthorizationHandler.get();
+    if (auth == null) {
+      // Authorization was disabled
+      att.setHandshake(AuthorizationHandler.READY);
+      return 0;
+    }
+    ByteBuffer out = outBuf;
+    out.clear();
+    int result = auth.handshake(att, ptr, size, out);
+    if (out.position() > 0) {
+      int len = out.position();
+      out.flip();
+      while (out.hasRemaining()) {
+        channel.write(out);
+      }
+      ServerMetrics.bytesWritten(len);
+    }
+    return result;
+  }
+
+  private boolean serve(SelectionKey key, byte[] pending) throws IOException {
+    final SocketChannel channel = (SocketChannel) key.channel();
+    final RequestHandlers.Attachment att = (RequestHandlers.Attachment) key.attachment();
+
+    // Read request first
+    ByteBuffer in = getInputBuffer();
+    ByteBuffer out = getOutputBuffer();
+    in.clear();
+    out.clear();
+
+    consumer.channel = channel;
+    consumer.out = out;
+
+    int inputSize = 0;
+    if (pending != null) {
+      UnsafeAccess.copy(pending, 0, in_ptr, pending.length);
+      inputSize = pending.length;
+      in.position(inputSize);
+    }
+    boolean needRead = inputSize == 0;
+    try {
+      long startCounter = 0;
+      long max_wait_ns = 500_000_000; // 500ms - FIXME - make it configurable
+
+      outer: while (true) {
+        if (needRead) {
+          // Before read check input size
+          if (inputSize == bufferSize) {
+            // Input is too large
+            out.clear();
+            out.put(Errors.INPUT_TOO_LARGE);
+            out.flip();
+            // send response back
+            while (out.hasRemaining()) {
+              // FIXME: Can we stuck here?
+              channel.write(out);
+            }
+            // We need to close channel
+            // because now we are not able to restore
+            // correct position of the next command
+            close(key, channel);
+            break;
+          }
+          int num = channel.read(in);
+          if (num < 0) {
+            // End-Of-Stream - socket was closed, cancel the key
+            log.debug("Connection closed:{}", channel.getRemoteAddress());
+            close(key, channel);
+            break;
+          } else if (num == 0) {
+            if (startCounter == 0) {
+              startCounter = System.nanoTime();
+            }
+            if (System.nanoTime() - startCounter > max_wait_ns) {
+              // FIXME: Request timeout
+              // timeout
+              close(key, channel);
+              break;
+            }
+            Thread.onSpinWait();
+            continue;
+          }
+          startCounter = 0;
+          // Login request carries a password, input is captured after the handshake
+          if (TrafficCapture.isEnabled()
+              && (att == null || att.handshake() == AuthorizationHandler.READY)) {
+            TrafficCapture.data(connection, in_ptr + inputSize, num);
+          }
+          inputSize += num;
+          ServerMetrics.bytesRead(num);
+        }
+        needRead = true;
+        int consumed = 0;
+
+        while (consumed < inputSize) {
+          if (att != null && att.handshake() != AuthorizationHandler.READY) {
+            int result = handshake(channel, att, in_ptr + consumed, inputSize - consumed);
+            if (result == AuthorizationHandler.FAILED) {
+              close(key, channel);
+              break;
+            } else if (result >= 0) {
+              consumed += result;
+              if (TrafficCapture.isEnabled() && att.handshake() == AuthorizationHandler.READY
+                  && consumed < inputSize) {
+                // Requests which arrived together with the handshake
+                TrafficCapture.data(connection, in_ptr + consumed, inputSize - consumed);
+              }
+              continue;
+            }
+            // handshake is incomplete
+            inputSize = compact(in, consumed, inputSize);
+            continue outer;
+          }
+          // Try to parse
+          // Process request using buffer's addresses
+          boolean slow = SlowLog.isEnabled();
+          long cmdStart = slow ? System.nanoTime() : 0;
+          int responseLength = proxy == null
+              ? CommandProcessor.process(store, in_ptr + consumed, inputSize - consumed, out_ptr,
+                bufferSize, consumer, async != null)
+              : proxy.process(in_ptr + consumed, inputSize - consumed, out_ptr, bufferSize,
+                consumer);
+          if (responseLength == CommandProcessor.ASYNC) {
+            // Command needs file I/O, continue serving this connection in I/O pool,
+            // starting from this command. Responses order is preserved, because the key
+            // stays in use until I/O pool finishes.
+            async.submit(key, in_ptr + consumed, inputSize - consumed);
+            return true;
+          }
+          if (responseLength < 0) {
+            // command is incomplete
+            inputSize = compact(in, consumed, inputSize);
+            continue outer;
+          }
+          MemcachedCommand cmd = CommandProcessor.getLastExecutedCommand();
+          boolean jfr = cmd != null && CommandEvent.enabled();
+          long writeTime = 0;
+          if (responseLength > 0) {
+            boolean latency = cmd != null && Latency.isEnabled();
+            boolean timed = latency || jfr;
+            long start = timed ? System.nanoTime() : 0;
+            out.limit(responseLength);
+            out.position(0);
+            // send response back
+            while (out.hasRemaining()) {
+              // FIXME: Can we stuck here?
+              channel.write(out);
+            }
+            if (timed) {
+              writeTime = System.nanoTime() - start;
+            }
+            if (latency) {
+              Latency.recordWrite(cmd, writeTime);
+            }
+            ServerMetrics.bytesWritten(responseLength);
+          }
+          if (jfr) {
+            CommandEvent.written(writeTime);
+          }
+          if (slow && cmd != null) {
+            long duration = System.nanoTime() - cmdStart;
+            // resolve client address only for slow commands
+            if (SlowLog.isSlow(duration)) {
+              slowlog.log(cmd, duration, responseLength, channel.getRemoteAddress());
+            }
+          }
+          if (cmd != null && proxy != null) {
+            // proxy pipelines all complete commands of the input
+            commandsExecuted += proxy.getCommandCount();
+            consumed += proxy.getInputConsumed();
+          } else if (cmd != null) {
+            commandsExecuted++;
+            consumed += cmd.inputConsumed();
+          } else {
+            // cmd == null - ERROR, close connection
+          }
+          if (cmd instanceof QUIT || cmd == null) {
+            close(key, channel);
+            break;
+          }
+        }
+        break;
+      }
+    } catch (IOException e) {
+      String msg = e.getMessage();
+      if (msg != null && msg.indexOf("Connection reset") < 0
+          && msg.indexOf("Broken pipe") < 0) {
+        log.error("Error:", e);
+      }
+      if (channel.isOpen()) {
+        log.debug("Connection {} closed, reason:{}", channel.getRemoteAddress(), e.getMessage());
+      }
+      close(key, channel);
+    } catch (BufferOverflowException ee) {
+      out.clear();
+      out.put(Errors.OUTPUT_TOO_LARGE);
+      out.flip();
+      // send response back
+      while (out.hasRemaining()) {
+        // FIXME: Can we stuck here?
+        try {
+          channel.write(out);
+        } catch (IOException eee) {
+          key.cancel();
+          // what to do with channel?
+        }
+      }
+    }
+    return false;
+  }
+}
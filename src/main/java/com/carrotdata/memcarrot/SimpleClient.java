@@ -23,12 +23,16 @@ import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.OptionalLong;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.carrotdata.memcarrot.util.UnixDomainSockets;
+
 import static com.carrotdata.memcarrot.commands.MemcachedCommand.*;
 
 public class SimpleClient {
@@ -78,7 +82,14 @@ public class SimpleClient {
     return openConnection(host, port);
   }
 
-  private SocketChannel openConnection(String host, int port) throws IOException {
+  /**
+   * Opens non-blocking connection with the client socket options (TCP_NODELAY, 64KB buffers)
+   * @param host host
+   * @param port port
+   * @return channel
+   * @throws IOException
+   */
+  public static SocketChannel openConnection(String host, int port) throws IOException {
 
     SocketChannel sc = SocketChannel.open(new InetSocketAddress(host, port));
     sc.configureBlocking(false);
@@ -89,6 +100,21 @@ public class SimpleClient {
     return sc;
   }
 
+  /**
+   * Opens non-blocking Unix domain socket connection (Java 16+) with 64KB buffers
+   * @param path server socket file path
+   * @return channel
+   * @throws IOException
+   */
+  public static SocketChannel openUnixConnection(String path) throws IOException {
+    SocketChannel sc = UnixDomainSockets.connect(path);
+    sc.configureBlocking(false);
+    sc.setOption(StandardSocketOptions.SO_SNDBUF, 64 * 1024);
+    sc.setOption(StandardSocketOptions.SO_RCVBUF, 64 * 1024);
+    logger.debug("Client opened connection to: {}", path);
+    return sc;
+  }
+
   private ResponseCode getStorageResponse(ByteBuffer buf) {
     int pos = buf.position();
     if (pos == 8) {
@@ -724,6 +750,58 @@ public class SimpleClient {
     return response;
   }
 
+  /**
+   * Stats command
+   * @param group stats group, null - general stats
+   * @return statistics name - value, in server order
+   * @throws IOException
+   */
+  public Map<String, String> stats(String group) throws IOException {
+    buf.clear();
+    buf.put("stats".getBytes());
+    if (group != null) {
+      buf.put(SPACE[0]);
+      buf.put(group.getBytes());
+    }
+    buf.put(CRLF);
+    SocketChannel channel = conn;
+    buf.flip();
+    while (buf.hasRemaining()) {
+      channel.write(buf);
+    }
+    buf.clear();
+    do {
+      // Hack
+      if (channel.read(buf) < 0) {
+        throw new IOException("Connection closed");
+      }
+    } while (!endsWith(buf, END));
+    byte[] b = new byte[buf.position()];
+    buf.flip();
+    buf.get(b);
+    Map<String, String> stats = new LinkedHashMap<String, String>();
+    for (String line : new String(b).split("\r\n")) {
+      String[] parts = line.split(" ", 3);
+      if (parts.length == 3 && parts[0].equals("STAT")) {
+        stats.put(parts[1], parts[2]);
+      }
+    }
+    return stats;
+  }
+
+  private static boolean endsWith(ByteBuffer buf, byte[] suffix) {
+    int pos = buf.position();
+    if (pos < suffix.length) {
+      return false;
+    }
+    for (int i = 0; i < suffix.length; i++) {
+      if (buf.get(pos - suffix.length + i) != suffix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   public void close() throws IOException {
     conn.close();
   }
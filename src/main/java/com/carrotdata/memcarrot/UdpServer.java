@@ -0,0 +1,331 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.carrotdata.cache.support.Memcached;
+import com.carrotdata.cache.util.UnsafeAccess;
+import com.carrotdata.memcarrot.CommandProcessor.OutputConsumer;
+import com.carrotdata.memcarrot.commands.MemcachedCommand;
+import com.carrotdata.memcarrot.metrics.UdpMetrics;
+import com.carrotdata.memcarrot.util.Errors;
+
+/**
+ * Memcached UDP protocol listener for retrieval (get, gets) commands. Every datagram starts with
+ * 8 bytes frame header: request id, sequence number, total number of datagrams in the message and
+ * reserved (0), all 16-bit big endian. A request must fit into a single datagram, a response is
+ * split into datagrams of at most {@link #MAX_DATAGRAM_SIZE} bytes, which carry the request's id
+ * and are numbered from 0. UDP keeps no per-client state, requests are served by dedicated
+ * worker threads directly from a shared channel.
+ */
+class UdpServer {
+
+  private static final Logger log = LogManager.getLogger(UdpServer.class);
+
+  /** Frame header size */
+  static final int HEADER_SIZE = 8;
+
+  /** Maximum datagram size (including frame header), as in memcached */
+  static final int MAX_DATAGRAM_SIZE = 1400;
+
+  /** Maximum response payload per datagram */
+  static final int MAX_PAYLOAD = MAX_DATAGRAM_SIZE - HEADER_SIZE;
+
+  /** Maximum number of datagrams in a response (16-bit counter) */
+  static final int MAX_DATAGRAMS = 0xffff;
+
+  /* Maximum request datagram size */
+  static final int MAX_REQUEST_SIZE = 0xffff;
+
+  static final byte[] NOT_SUPPORTED =
+      "CLIENT_ERROR only get and gets are supported over UDP\r\n".getBytes();
+
+  static final byte[] INCOMPLETE = "CLIENT_ERROR incomplete request\r\n".getBytes();
+
+  static final byte[] MULTI_PACKET =
+      "SERVER_ERROR multi-packet request not supported\r\n".getBytes();
+
+  static final byte[] TOO_LARGE = "SERVER_ERROR response is too large for UDP\r\n".getBytes();
+
+  private final Memcached store;
+
+  private final String host;
+
+  private final int numWorkers;
+
+  private final int bufferSize;
+
+  private int port;
+
+  private DatagramChannel channel;
+
+  private Worker[] workers;
+
+  /**
+   * Constructor
+   * @param store data store
+   * @param host address to bind to
+   * @param port port, 0 - any free port
+   * @param workers number of worker threads
+   * @param bufferSize output buffer size (maximum key-value size)
+   */
+  UdpServer(Memcached store, String host, int port, int workers, int bufferSize) {
+    this.store = store;
+    this.host = host;
+    this.port = port;
+    this.numWorkers = workers;
+    this.bufferSize = bufferSize;
+  }
+
+  /**
+   * Binds the channel and starts workers
+   * @throws IOException
+   */
+  void start() throws IOException {
+    channel = DatagramChannel.open();
+    channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+    channel.setOption(StandardSocketOptions.SO_RCVBUF, 4 * 1024 * 1024);
+    channel.setOption(StandardSocketOptions.SO_SNDBUF, 4 * 1024 * 1024);
+    channel.bind(new InetSocketAddress(host, port));
+    port = ((InetSocketAddress) channel.getLocalAddress()).getPort();
+    workers = new Worker[numWorkers];
+    for (int i = 0; i < numWorkers; i++) {
+      workers[i] = new Worker(i);
+      workers[i].start();
+    }
+    UdpMetrics.setPort(port);
+    log.info("Memcarrot UDP listener started on: {}:{}, workers={}", host, port, numWorkers);
+  }
+
+  /** Stops workers */
+  void stop() {
+    UdpMetrics.setPort(-1);
+    try {
+      // Blocked workers exit on closed channel
+      channel.close();
+    } catch (IOException e) {
+      log.error("UDP channel close:", e);
+    }
+  }
+
+  /**
+   * Get UDP port
+   * @return port
+   */
+  int getPort() {
+    return port;
+  }
+
+  /**
+   * Number of datagrams to carry a response
+   * @param size response size
+   * @return number of datagrams
+   */
+  static int datagrams(long size) {
+    return size == 0 ? 1 : (int) ((size + MAX_PAYLOAD - 1) / MAX_PAYLOAD);
+  }
+
+  /**
+   * Is the request a get or gets command
+   * @param ptr request address
+   * @param size request size
+   * @return true or false
+   */
+  static boolean isGet(long ptr, int size) {
+    if (size < 4 || UnsafeAccess.toByte(ptr) != 'g' || UnsafeAccess.toByte(ptr + 1) != 'e'
+        || UnsafeAccess.toByte(ptr + 2) != 't') {
+      return false;
+    }
+    byte b = UnsafeAccess.toByte(ptr + 3);
+    return b == ' ' || (b == 's' && size > 4 && UnsafeAccess.toByte(ptr + 4) == ' ');
+  }
+
+  class Worker extends Thread implements OutputConsumer {
+
+    private final ByteBuffer in = ByteBuffer.allocateDirect(MAX_REQUEST_SIZE);
+
+    private final long inPtr = UnsafeAccess.address(in);
+
+    private final ByteBuffer datagram = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+
+    private final long datagramPtr = UnsafeAccess.address(datagram);
+
+    private final ByteBuffer out = ByteBuffer.allocateDirect(bufferSize);
+
+    private final long outPtr = UnsafeAccess.address(out);
+
+    /* Response being built, grows on demand */
+    private long respPtr;
+
+    private long respCapacity;
+
+    private long respSize;
+
+    private final UdpMetrics.Recorder metrics = UdpMetrics.newRecorder();
+
+    Worker(int id) {
+      super("mc-udp-thread-" + id);
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          in.clear();
+          SocketAddress client = channel.receive(in);
+          if (client == null) {
+            continue;
+          }
+          try {
+            serve(client, in.position());
+          } catch (RuntimeException e) {
+            // Request is lost, worker keeps serving
+            log.error("UDP request from {}:", client, e);
+            metrics.error();
+          }
+        }
+      } catch (ClosedChannelException e) {
+        // stopped
+      } catch (Throwable t) {
+        log.fatal("UDP worker died:", t);
+      } finally {
+        UdpMetrics.release(metrics);
+        if (respPtr != 0) {
+          UnsafeAccess.free(respPtr);
+        }
+      }
+    }
+
+    private void serve(SocketAddress client, int size) throws IOException {
+      metrics.received(size);
+      if (size < HEADER_SIZE) {
+        metrics.dropped();
+        return;
+      }
+      int requestId = in.getShort(0) & 0xffff;
+      int total = in.getShort(4) & 0xffff;
+      respSize = 0;
+      if (total != 1) {
+        append(MULTI_PACKET);
+        metrics.error();
+      } else {
+        execute(inPtr + HEADER_SIZE, size - HEADER_SIZE);
+      }
+      send(client, requestId);
+    }
+
+    /* Executes all commands in a request, appends their responses */
+    private void execute(long ptr, int size) throws IOException {
+      int consumed = 0;
+      while (consumed < size) {
+        if (!isGet(ptr + consumed, size - consumed)) {
+          append(NOT_SUPPORTED);
+          metrics.error();
+          return;
+        }
+        int len;
+        try {
+          len = CommandProcessor.process(store, ptr + consumed, size - consumed, outPtr,
+            bufferSize, this);
+        } catch (BufferOverflowException e) {
+          append(Errors.OUTPUT_TOO_LARGE);
+          metrics.error();
+          return;
+        }
+        if (len < 0) {
+          append(INCOMPLETE);
+          metrics.error();
+          return;
+        }
+        consume(len);
+        MemcachedCommand cmd = CommandProcessor.getLastExecutedCommand();
+        if (cmd == null) {
+          // Malformed request, error response has been added
+          metrics.error();
+          return;
+        }
+        consumed += cmd.inputConsumed();
+      }
+    }
+
+    /* Output buffer chunk is complete */
+    @Override
+    public void consume(int upto) {
+      ensureCapacity(respSize + upto);
+      UnsafeAccess.copy(outPtr, respPtr + respSize, upto);
+      respSize += upto;
+    }
+
+    private void append(byte[] b) {
+      ensureCapacity(respSize + b.length);
+      UnsafeAccess.copy(b, 0, respPtr + respSize, b.length);
+      respSize += b.length;
+    }
+
+    private void ensureCapacity(long size) {
+      if (size <= respCapacity) {
+        return;
+      }
+      long capacity = Math.max(size, Math.max(respCapacity * 2, 64 * 1024));
+      long ptr = UnsafeAccess.malloc(capacity);
+      if (respPtr != 0) {
+        UnsafeAccess.copy(respPtr, ptr, respSize);
+        UnsafeAccess.free(respPtr);
+      }
+      respPtr = ptr;
+      respCapacity = capacity;
+    }
+
+    /* Splits response into sequenced datagrams */
+    private void send(SocketAddress client, int requestId) throws IOException {
+      int total = datagrams(respSize);
+      if (total > MAX_DATAGRAMS) {
+        respSize = 0;
+        append(TOO_LARGE);
+        metrics.error();
+        total = 1;
+      }
+      metrics.responded(total, respSize + (long) total * HEADER_SIZE);
+      for (int seq = 0; seq < total; seq++) {
+        long off = (long) seq * MAX_PAYLOAD;
+        int len = (int) Math.min(MAX_PAYLOAD, respSize - off);
+        datagram.clear();
+        datagram.putShort((short) requestId);
+        datagram.putShort((short) seq);
+        datagram.putShort((short) total);
+        datagram.putShort((short) 0);
+        UnsafeAccess.copy(respPtr + off, datagramPtr + HEADER_SIZE, len);
+        datagram.position(HEADER_SIZE + len);
+        datagram.flip();
+        channel.send(datagram, client);
+      }
+    }
+  }
+}
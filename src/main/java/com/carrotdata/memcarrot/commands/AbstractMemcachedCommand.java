@@ -48,6 +48,38 @@ public abstract class AbstractMemcachedCommand implements MemcachedCommand {
     return consumed + commandLength();
   }
 
+  /**
+   * Key address
+   * @return key address
+   */
+  public long getKeyPtr() {
+    return keyPtr;
+  }
+
+  /**
+   * Key size
+   * @return key size
+   */
+  public int getKeySize() {
+    return keySize;
+  }
+
+  /**
+   * Value size (storage commands)
+   * @return value size
+   */
+  public int getValueSize() {
+    return valSize;
+  }
+
+  /**
+   * Is reply suppressed (noreply)
+   * @return true or false
+   */
+  public boolean isNoReply() {
+    return noreply;
+  }
+
   protected void crlf(long ptr) {
     UnsafeAccess.putByte(ptr, (byte) '\r');
     UnsafeAccess.putByte(ptr + 1, (byte) '\n');
@@ -114,6 +114,14 @@ public class FLUSH_ALL implements MemcachedCommand {
     return 10;
   }
 
+  /**
+   * Is reply suppressed (noreply)
+   * @return true or false
+   */
+  public boolean isNoReply() {
+    return noreply;
+  }
+
   @Override
   public int inputConsumed() {
     return consumed + commandLength();
@@ -24,6 +24,7 @@ import com.carrotdata.cache.support.Memcached;
 import com.carrotdata.cache.support.Memcached.Record;
 import com.carrotdata.cache.util.UnsafeAccess;
 import com.carrotdata.memcarrot.CommandProcessor.OutputConsumer;
+import com.carrotdata.memcarrot.metrics.ItemSizes;
 
 /*
  * The "gat" and "gats" commands are used to fetch items and update the expiration time of an
@@ -64,6 +65,7 @@ public class GAT extends GET {
         }
       }
       outSize += size;
+      ItemSizes.hit(keys[i], keySizes[i], r.size);
     }
     UnsafeAccess.copy(END, outBuffer + outSize, 5);
     outSize += 5;
@@ -24,6 +24,8 @@ import com.carrotdata.cache.support.Memcached;
 import com.carrotdata.cache.support.Memcached.Record;
 import com.carrotdata.cache.util.UnsafeAccess;
 import com.carrotdata.memcarrot.CommandProcessor.OutputConsumer;
+import com.carrotdata.memcarrot.metrics.ItemSizes;
+import com.carrotdata.memcarrot.support.MultiGetExecutor;
 
 public class GET extends RetrievalCommand {
 
@@ -42,15 +44,15 @@ public class GET extends RetrievalCommand {
    * keys (because they were never stored, or stored but deleted to make space for more items, or
    * expired, or explicitly deleted by a client).
    */
-  public static long executeTime = 0;
 
   @Override
   public int execute(Memcached support, long outBuffer, int outBufferSize, OutputConsumer consumer) throws IOException {
-    long t1 = System.nanoTime();
     int outSize = 0;
     int count = this.keys.length;
+    Record[] prefetched = prefetch(support);
     for (int i = 0; i < count; i++) {
-      Record r = support.get(keys[i], keySizes[i]);
+      Record r = prefetched != null && prefetched[i] != null ? prefetched[i]
+          : support.get(keys[i], keySizes[i]);
       if (r.value == null) continue;
       int size = r.write(keys[i], keySizes[i], outBuffer + outSize, outBufferSize - outSize, isCAS);
       if (size > outBufferSize - outSize - 5 /* END\r\n */) {
@@ -66,13 +68,26 @@ public class GET extends RetrievalCommand {
         }
       }
       outSize += size;
+      ItemSizes.hit(keys[i], keySizes[i], r.size);
     }
     UnsafeAccess.copy(END, outBuffer + outSize, 5);
     outSize += 5;
-    executeTime += System.nanoTime() - t1;
     return outSize;
   }
 
+  /**
+   * Reads file tier keys of a multi-key command concurrently
+   * @param support data store
+   * @return prefetched records or null
+   */
+  protected Record[] prefetch(Memcached support) {
+    MultiGetExecutor executor = MultiGetExecutor.get();
+    if (executor == null || keys.length < 2) {
+      return null;
+    }
+    return executor.prefetch(support, keys, keySizes, isCAS);
+  }
+
   @Override
   public int commandLength() {
     return 4;
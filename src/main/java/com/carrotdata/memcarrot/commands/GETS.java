@@ -24,6 +24,7 @@ import com.carrotdata.cache.support.Memcached;
 import com.carrotdata.cache.support.Memcached.Record;
 import com.carrotdata.cache.util.UnsafeAccess;
 import com.carrotdata.memcarrot.CommandProcessor.OutputConsumer;
+import com.carrotdata.memcarrot.metrics.ItemSizes;
 
 public class GETS extends GET {
 
@@ -51,8 +52,10 @@ public class GETS extends GET {
   public int execute(Memcached support, long outBuffer, int outBufferSize, OutputConsumer consumer) throws IOException {
     int outSize = 0;
     int count = this.keys.length;
+    Record[] prefetched = prefetch(support);
     for (int i = 0; i < count; i++) {
-      Record r = support.gets(keys[i], keySizes[i]);
+      Record r = prefetched != null && prefetched[i] != null ? prefetched[i]
+          : support.gets(keys[i], keySizes[i]);
       if (r.value == null) continue;
       int size = r.write(keys[i], keySizes[i], outBuffer + outSize, outBufferSize - outSize, isCAS);
       if (size > outBufferSize - outSize - 5 /* END\r\n */) {
@@ -68,6 +71,7 @@ public class GETS extends GET {
         }
       }
       outSize += size;
+      ItemSizes.hit(keys[i], keySizes[i], r.size);
     }
     UnsafeAccess.copy(END, outBuffer + outSize, 5);
     outSize += 5;
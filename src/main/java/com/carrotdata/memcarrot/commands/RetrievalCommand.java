@@ -31,15 +31,12 @@ public abstract class RetrievalCommand extends AbstractMemcachedCommand {
 
   static final long VALUE = UnsafeAccess.allocAndCopy("VALUE", 0, 5);
   static final long END = UnsafeAccess.allocAndCopy("END\r\n", 0, 5);
-  public static long parseTime = 0;
   boolean isTouch;
   long[] keys;
   int[] keySizes;
 
   @Override
   public boolean parse(long inBuffer, int bufferSize) throws IllegalFormatException {
-    long t1 = System.nanoTime();
-
     try {
       int count = calculateNumberOfKeys(inBuffer, bufferSize);
       if (count < 0) return false;
@@ -94,11 +91,25 @@ public abstract class RetrievalCommand extends AbstractMemcachedCommand {
       return true;
     } catch (NumberFormatException e) {
       throw new IllegalFormatException("not a number");
-    } finally {
-      parseTime += System.nanoTime() - t1;
     }
   }
 
+  /**
+   * Keys addresses
+   * @return keys
+   */
+  public long[] getKeys() {
+    return keys;
+  }
+
+  /**
+   * Keys sizes
+   * @return key sizes
+   */
+  public int[] getKeySizes() {
+    return keySizes;
+  }
+
   public final boolean isMemorySafe(long memptr, int memsize) {
     for (int i = 0; i < keys.length; i++) {
       boolean safe = keys[i] > 0 && keySizes[i] > 0;
@@ -27,6 +27,9 @@ import org.apache.logging.log4j.Logger;
 
 import com.carrotdata.cache.support.Memcached;
 import com.carrotdata.cache.util.UnsafeAccess;
+import com.carrotdata.memcarrot.metrics.SnapshotEvent;
+import com.carrotdata.memcarrot.support.HotKeyMemcached;
+import com.carrotdata.memcarrot.support.PartitionedMemcached;
 
 /**
  * Format : shutdown\r\n Reply: OK shutting down the server\r\n, OK shutdown is in progress\r\
@@ -48,11 +51,22 @@ public class SHUTDOWN implements MemcachedCommand {
     long start = System.currentTimeMillis();
     int size = 0;
     String msg = null;
+    SnapshotEvent event = new SnapshotEvent();
+    event.operation = SnapshotEvent.SAVE;
+    event.begin();
     try {
-      support.getCache().shutdown();
+      support = HotKeyMemcached.unwrap(support);
+      if (support instanceof PartitionedMemcached) {
+        ((PartitionedMemcached) support).shutdown();
+      } else {
+        support.getCache().shutdown();
+      }
+      event.success = true;
+      event.commit();
       log.info("Done in {}ms", System.currentTimeMillis() - start);
       System.exit(0);
     } catch (IOException e) {
+      event.commit();
       msg = "SERVER_ERROR " + e.getMessage() + "\r\n";
       // TODO log the error
       log.error(e);
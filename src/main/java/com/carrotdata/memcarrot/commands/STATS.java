@@ -17,68 +17,545 @@
  */
 package com.carrotdata.memcarrot.commands;
 
-import java.util.Iterator;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
 
+import com.carrotdata.cache.Cache;
 import com.carrotdata.cache.support.Memcached;
 import com.carrotdata.cache.util.UnsafeAccess;
 import com.carrotdata.cache.util.Utils;
 import com.carrotdata.memcarrot.CommandProcessor.OutputConsumer;
+import com.carrotdata.memcarrot.MemcarrotConf;
+import com.carrotdata.memcarrot.metrics.CommandTypes;
+import com.carrotdata.memcarrot.metrics.ConnectionStats;
+import com.carrotdata.memcarrot.metrics.HotKeys;
+import com.carrotdata.memcarrot.metrics.ItemSizes;
+import com.carrotdata.memcarrot.metrics.Latency;
+import com.carrotdata.memcarrot.metrics.MissRatioCurve;
+import com.carrotdata.memcarrot.metrics.ServerMetrics;
+import com.carrotdata.memcarrot.metrics.SlowLog;
+import com.carrotdata.memcarrot.metrics.UdpMetrics;
+import com.carrotdata.memcarrot.metrics.WorkerStats;
+import com.carrotdata.memcarrot.support.HotKeyMemcached;
 import com.carrotdata.memcarrot.support.IllegalFormatException;
+import com.carrotdata.memcarrot.support.PartitionedMemcached;
 import com.carrotdata.memcarrot.support.UnsupportedCommand;
+import com.carrotdata.memcarrot.util.Histogram;
+import com.carrotdata.memcarrot.util.StatsWriter;
+import com.carrotdata.memcarrot.util.TrafficCapture;
 
 /**
- * Format : stats\r\n Reply:STAT attr value\r\n ... END\r\n
+ * Format : stats [group]\r\n Reply:STAT attr value\r\n ... END\r\n
+ * Supported groups: settings, items, sizes, commands, memory, mrc [reset], conns [ops|bytes],
+ * workers, hotkeys, latency, slowlog [reset], capture, udp
  */
 public class STATS implements MemcachedCommand {
-  private static long STAT = UnsafeAccess.allocAndCopy("STAT ", 0, 5);
   private static long CRLF    = UnsafeAccess.allocAndCopy("\r\n", 0, 2);
-  private static long END    = UnsafeAccess.allocAndCopy("END\r\n", 0, 5);
-  
+
+  public static final String HOTKEYS = "hotkeys";
+  public static final String LATENCY = "latency";
+  public static final String SLOWLOG = "slowlog";
+  public static final String WORKERS = "workers";
+  public static final String CONNS = "conns";
+  public static final String SETTINGS = "settings";
+  public static final String ITEMS = "items";
+  public static final String SIZES = "sizes";
+  public static final String COMMANDS = "commands";
+  public static final String MEMORY = "memory";
+  public static final String MRC = "mrc";
+  public static final String CAPTURE = "capture";
+  public static final String UDP = "udp";
+  public static final String OPS = "ops";
+  public static final String BYTES = "bytes";
+
+  /* Storage size multiples reported by "stats mrc" */
+  static final double[] MRC_SIZE_FACTORS = new double[] { 0.25, 0.5, 1, 1.5, 2, 4, 8 };
+
+  /* Number of connections listed by "stats conns ops|bytes" */
+  static final int TOP_CONNECTIONS = 10;
+  public static final String RESET = "reset";
+
+  /*
+   * Statistics group, null - general statistics
+   */
+  private String group;
+
+  /*
+   * Group argument, can be null
+   */
+  private String argument;
+
+  private int consumed;
+
   @Override
   public boolean parse(long inBuffer, int bufferSize) throws IllegalFormatException {
     if (bufferSize < 2) {
       return false;
-    } else if (bufferSize > 2) {
-      throw new UnsupportedCommand("STATS");
     }
-    if (Utils.compareTo(CRLF, 2, inBuffer, 2) != 0) {
+    if (Utils.compareTo(CRLF, 2, inBuffer, 2) == 0) {
+      this.consumed = 7;
+      return true;
+    }
+    int end = nextTokenEnd(inBuffer, bufferSize);
+    if (end < 0) {
+      return false;
+    }
+    this.group = new String(Utils.toBytes(inBuffer, end));
+    if (end < bufferSize && UnsafeAccess.toByte(inBuffer + end) == ' ') {
+      // group argument
+      int start = end + 1;
+      int len = nextTokenEnd(inBuffer + start, bufferSize - start);
+      if (len < 0) {
+        return false;
+      }
+      this.argument = new String(Utils.toBytes(inBuffer + start, len));
+      end = start + len;
+    }
+    if (end + 2 > bufferSize) {
+      return false;
+    }
+    if (Utils.compareTo(CRLF, 2, inBuffer + end, 2) != 0) {
       throw new UnsupportedCommand("STATS");
     }
+    switch (group) {
+      case HOTKEYS:
+      case LATENCY:
+      case WORKERS:
+      case SETTINGS:
+      case ITEMS:
+      case SIZES:
+      case COMMANDS:
+      case MEMORY:
+      case CAPTURE:
+      case UDP:
+        if (argument != null) {
+          throw new UnsupportedCommand("STATS " + group + " " + argument);
+        }
+        break;
+      case SLOWLOG:
+      case MRC:
+        if (argument != null && !RESET.equals(argument)) {
+          throw new UnsupportedCommand("STATS " + group + " " + argument);
+        }
+        break;
+      case CONNS:
+        if (argument != null && !OPS.equals(argument) && !BYTES.equals(argument)) {
+          throw new UnsupportedCommand("STATS " + group + " " + argument);
+        }
+        break;
+      default:
+        throw new UnsupportedCommand("STATS " + group);
+    }
+    // "stats" + ' ' + group [+ ' ' + argument] + "\r\n"
+    this.consumed = 6 + end + 2;
     return true;
   }
 
   @Override
-  public int execute(Memcached support, long outBuffer, int outBufferSize, OutputConsumer consumer) {
-    
-    List<String> stats = support.stats();
-    Iterator<String> it = stats.iterator();
-    int off = 0;
-    
-    while(it.hasNext()) {
-      String name = it.next();
-      String value = it.next();
-      UnsafeAccess.copy(STAT, outBuffer + off, 5);
-      off += 5;
-      byte[] b = name.getBytes();
-      UnsafeAccess.copy(b,  0,  outBuffer + off, b.length);
-      off += b.length;
-      UnsafeAccess.putByte(outBuffer + off, (byte) ' ');
-      off += 1;
-      b = value.getBytes();
-      UnsafeAccess.copy(b,  0,  outBuffer + off, b.length);
-      off += b.length;
-      UnsafeAccess.copy(CRLF, outBuffer + off, 2);
-      off += 2;
-    }
-    UnsafeAccess.copy(END, outBuffer + off, 5);
-    off += 5;
-    return off;
+  public int execute(Memcached support, long outBuffer, int outBufferSize, OutputConsumer consumer)
+      throws IOException {
+    StatsWriter writer = new StatsWriter(outBuffer, outBufferSize, consumer);
+    if (group == null) {
+      List<String> stats = support.stats();
+      for (int i = 0; i < stats.size() - 1; i += 2) {
+        writer.stat(stats.get(i), stats.get(i + 1));
+      }
+      return writer.end();
+    }
+    switch (group) {
+      case HOTKEYS:
+        hotKeys(writer);
+        break;
+      case LATENCY:
+        latency(writer);
+        break;
+      case SLOWLOG:
+        slowlog(writer);
+        break;
+      case WORKERS:
+        workers(writer);
+        break;
+      case CONNS:
+        conns(writer);
+        break;
+      case SETTINGS:
+        settings(writer);
+        break;
+      case ITEMS:
+        items(writer, support);
+        break;
+      case SIZES:
+        sizes(writer);
+        break;
+      case COMMANDS:
+        commands(writer);
+        break;
+      case MEMORY:
+        memory(writer, support);
+        break;
+      case MRC:
+        mrc(writer, support);
+        break;
+      case CAPTURE:
+        capture(writer);
+        break;
+      case UDP:
+        udp(writer);
+        break;
+    }
+    return writer.end();
+  }
+
+  /**
+   * Effective server settings followed by the rest of the configuration properties
+   */
+  private void settings(StatsWriter writer) throws IOException {
+    MemcarrotConf conf = MemcarrotConf.getConf();
+    Set<String> written = new HashSet<String>();
+    setting(writer, written, MemcarrotConf.CONF_SERVER_ADDRESS, conf.getServerAddress());
+    setting(writer, written, MemcarrotConf.CONF_SERVER_PORT, conf.getServerPort());
+    setting(writer, written, MemcarrotConf.CONF_SERVER_UDP_PORT, conf.getServerUdpPort());
+    setting(writer, written, MemcarrotConf.CONF_UDP_WORKERS, conf.getUdpWorkers());
+    setting(writer, written, MemcarrotConf.CONF_THREAD_POOL_SIZE, conf.getThreadPoolSize());
+    setting(writer, written, MemcarrotConf.CONF_KV_SIZE_MAX, conf.getKeyValueMaxSize());
+    setting(writer, written, MemcarrotConf.CONF_SND_RCV_BUFFER_SIZE, conf.getSndRcvBufferSize());
+    setting(writer, written, MemcarrotConf.CONF_PROXY_BACKENDS,
+      String.join(",", conf.getProxyBackends()));
+    setting(writer, written, MemcarrotConf.CONF_PARTITIONS_COUNT, conf.getPartitionsCount());
+    setting(writer, written, MemcarrotConf.CONF_ASYNC_IO_POOL_SIZE, conf.getAsyncIOPoolSize());
+    setting(writer, written, MemcarrotConf.CONF_MULTIGET_PARALLELISM,
+      conf.getMultiGetParallelism());
+    setting(writer, written, MemcarrotConf.CONF_HOTKEY_CACHE_SIZE, conf.getHotKeyCacheSize());
+    setting(writer, written, MemcarrotConf.CONF_HOTKEY_ADMIT_FREQUENCY,
+      conf.getHotKeyAdmitFrequency());
+    setting(writer, written, MemcarrotConf.CONF_HOTKEYS_SAMPLE_RATE, conf.getHotKeysSampleRate());
+    setting(writer, written, MemcarrotConf.CONF_HOTKEYS_TOP_K, conf.getHotKeysTopK());
+    setting(writer, written, MemcarrotConf.CONF_JMX_METRICS_DOMAIN_NAME,
+      conf.getJMXMetricsDomainName());
+    setting(writer, written, MemcarrotConf.CONF_LATENCY_HISTOGRAMS_ENABLED,
+      conf.isLatencyHistogramsEnabled());
+    setting(writer, written, MemcarrotConf.CONF_METRICS_HTTP_ADDRESS,
+      conf.getMetricsHttpAddress());
+    setting(writer, written, MemcarrotConf.CONF_METRICS_HTTP_PORT, conf.getMetricsHttpPort());
+    setting(writer, written, MemcarrotConf.CONF_SLOWLOG_THRESHOLD_US,
+      conf.getSlowLogThresholdUs());
+    setting(writer, written, MemcarrotConf.CONF_SLOWLOG_SIZE, conf.getSlowLogSize());
+    setting(writer, written, MemcarrotConf.CONF_SIZES_NAMESPACE_SEPARATOR,
+      conf.getSizesNamespaceSeparator());
+    setting(writer, written, MemcarrotConf.CONF_SIZES_NAMESPACES_MAX, conf.getSizesNamespacesMax());
+    setting(writer, written, MemcarrotConf.CONF_MRC_SAMPLE_RATE,
+      conf.getMissRatioCurveSampleRate());
+    setting(writer, written, MemcarrotConf.CONF_MRC_MAX_KEYS, conf.getMissRatioCurveMaxKeys());
+    setting(writer, written, MemcarrotConf.CONF_CAPTURE_FILE, conf.getCaptureFile());
+    setting(writer, written, MemcarrotConf.CONF_CAPTURE_SAMPLE_RATE, conf.getCaptureSampleRate());
+    setting(writer, written, MemcarrotConf.CONF_CAPTURE_SIZE_MAX, conf.getCaptureSizeMax());
+    // Never expose credentials
+    written.add(MemcarrotConf.CONF_USER_PASSWORD_SHA256);
+    Properties props = conf.getCacheConfig().getProperties();
+    for (String name : new TreeSet<String>(props.stringPropertyNames())) {
+      if (!written.contains(name)) {
+        writer.stat(name, props.getProperty(name));
+      }
+    }
+  }
+
+  private void setting(StatsWriter writer, Set<String> written, String name, Object value)
+      throws IOException {
+    writer.stat(name, String.valueOf(value));
+    written.add(name);
+  }
+
+  /**
+   * Per cache statistics: main and victim caches of every partition
+   */
+  private void items(StatsWriter writer, Memcached support) throws IOException {
+    int n = 0;
+    for (Memcached m : storages(support)) {
+      for (Cache c = m.getCache(); c != null; c = c.getVictimCache()) {
+        String prefix = "items:" + n++ + ":";
+        writer.stat(prefix + "name", c.getName());
+        writer.stat(prefix + "number", c.size());
+        writer.stat(prefix + "bytes", c.getStorageUsed());
+        writer.stat(prefix + "bytes_allocated", c.getStorageAllocated());
+        writer.stat(prefix + "limit_maxbytes", c.getMaximumCacheSize());
+        writer.stat(prefix + "index_bytes", indexMemory(c));
+        writer.stat(prefix + "gets", c.getTotalGets());
+        writer.stat(prefix + "get_hits", c.getTotalHits());
+        writer.stat(prefix + "sets", c.getTotalWrites());
+      }
+    }
+  }
+
+  /**
+   * Key and value sizes of storage commands and value sizes of retrieval hits,
+   * "STAT [namespace:]key|value|hit:max_size count", non-empty buckets only
+   */
+  private void sizes(StatsWriter writer) throws IOException {
+    sizes(writer, "", null);
+    for (String namespace : ItemSizes.namespaces()) {
+      sizes(writer, namespace + ":", namespace);
+    }
+  }
+
+  private void sizes(StatsWriter writer, String prefix, String namespace) throws IOException {
+    for (ItemSizes.Kind kind : ItemSizes.Kind.values()) {
+      long[] h = ItemSizes.histogram(namespace, kind);
+      for (int b = 0; b < h.length; b++) {
+        if (h[b] > 0) {
+          writer.stat(prefix + kind.label() + ":" + ItemSizes.upperBound(b), h[b]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Server counters: commands by type, errors, network and connections
+   */
+  private void commands(StatsWriter writer) throws IOException {
+    for (int id = 0; id < CommandTypes.count(); id++) {
+      writer.stat("cmd_" + CommandTypes.name(id), ServerMetrics.getCommands(id));
+    }
+    writer.stat("cmd_total", ServerMetrics.getTotalCommands());
+    writer.stat("errors", ServerMetrics.getErrors());
+    writer.stat("bytes_read", ServerMetrics.getBytesRead());
+    writer.stat("bytes_written", ServerMetrics.getBytesWritten());
+    writer.stat("curr_connections", ServerMetrics.getConnectionsCurrent());
+    writer.stat("total_connections", ServerMetrics.getConnectionsTotal());
+  }
+
+  /**
+   * Memory usage breakdown: data segments, index, hot key cache and network I/O buffers, and JVM
+   * heap usage
+   */
+  private void memory(StatsWriter writer, Memcached support) throws IOException {
+    long data = 0;
+    long index = 0;
+    for (Memcached m : storages(support)) {
+      for (Cache c = m.getCache(); c != null; c = c.getVictimCache()) {
+        data += c.getStorageAllocated();
+        index += indexMemory(c);
+      }
+    }
+    long hot = support instanceof HotKeyMemcached ? ((HotKeyMemcached) support).getMemoryUsed()
+        : 0;
+    long io = ServerMetrics.getIOBuffersMemory();
+    writer.stat("data_bytes", data);
+    writer.stat("index_bytes", index);
+    writer.stat("hotkey_cache_bytes", hot);
+    writer.stat("io_buffers_bytes", io);
+    writer.stat("total_bytes", data + index + hot + io);
+    // on-heap, not included in the total
+    Runtime rt = Runtime.getRuntime();
+    writer.stat("heap_used_bytes", rt.totalMemory() - rt.freeMemory());
+  }
+
+  /**
+   * Predicted hit ratio at fractions and multiples of the current storage size (items and bytes),
+   * "stats mrc reset" discards collected data
+   */
+  private void mrc(StatsWriter writer, Memcached support) throws IOException {
+    if (RESET.equals(argument)) {
+      MissRatioCurve.reset();
+      writer.stat("reset", 1);
+      return;
+    }
+    writer.stat("enabled", MissRatioCurve.isEnabled() ? 1 : 0);
+    writer.stat("sample_rate", MissRatioCurve.getSampleRate());
+    writer.stat("tracked_keys", MissRatioCurve.getTrackedKeys());
+    writer.stat("references", MissRatioCurve.getReferences());
+    long items = 0;
+    long bytes = 0;
+    for (Memcached m : storages(support)) {
+      Cache c = m.getCache();
+      items += c.size();
+      bytes += c.getStorageUsed();
+    }
+    writer.stat("items", items);
+    writer.stat("bytes", bytes);
+    for (double f : MRC_SIZE_FACTORS) {
+      String prefix = f + "x:";
+      long n = (long) (items * f);
+      writer.stat(prefix + "items", n);
+      writer.stat(prefix + "bytes", (long) (bytes * f));
+      writer.stat(prefix + "hit_ratio", MissRatioCurve.hitRatio(n));
+    }
+  }
+
+  /**
+   * Traffic capture state: sampled connections are written to the capture file
+   */
+  private void capture(StatsWriter writer) throws IOException {
+    writer.stat("enabled", TrafficCapture.isEnabled() ? 1 : 0);
+    String file = TrafficCapture.getFile();
+    if (file != null) {
+      writer.stat("file", file);
+    }
+    writer.stat("sample_rate", TrafficCapture.getSampleRate());
+    writer.stat("records", TrafficCapture.getRecords());
+    writer.stat("bytes", TrafficCapture.getBytes());
+    writer.stat("dropped", TrafficCapture.getDropped());
+  }
+
+  /**
+   * UDP listener: port (-1 - disabled), traffic in datagrams and bytes
+   */
+  private void udp(StatsWriter writer) throws IOException {
+    writer.stat("port", UdpMetrics.getPort());
+    writer.stat("workers", UdpMetrics.getWorkers());
+    writer.stat("requests", UdpMetrics.getRequests());
+    writer.stat("datagrams_in", UdpMetrics.getDatagramsIn());
+    writer.stat("datagrams_out", UdpMetrics.getDatagramsOut());
+    writer.stat("bytes_in", UdpMetrics.getBytesIn());
+    writer.stat("bytes_out", UdpMetrics.getBytesOut());
+    writer.stat("errors", UdpMetrics.getErrors());
+    writer.stat("dropped", UdpMetrics.getDropped());
+    writer.stat("multi_datagram_responses", UdpMetrics.getMultiDatagramResponses());
+  }
+
+  /**
+   * Storages (partitions) behind the support
+   */
+  private static Memcached[] storages(Memcached support) {
+    Memcached m = HotKeyMemcached.unwrap(support);
+    return m instanceof PartitionedMemcached ? ((PartitionedMemcached) m).getPartitions()
+        : new Memcached[] { m };
+  }
+
+  private static long indexMemory(Cache c) {
+    return c.getEngine().getMemoryIndex().getAllocatedMemory();
+  }
+
+  /**
+   * Latency percentiles (ns) per command and phase, for commands which were executed
+   */
+  private void latency(StatsWriter writer) throws IOException {
+    writer.stat("enabled", Latency.isEnabled() ? 1 : 0);
+    for (int id = 0; id < CommandTypes.count(); id++) {
+      String cmd = CommandTypes.name(id);
+      for (Latency.Phase phase : Latency.Phase.values()) {
+        Histogram h = Latency.snapshot(id, phase);
+        if (h.getCount() == 0) {
+          continue;
+        }
+        String prefix = cmd + "_" + phase.label() + "_";
+        writer.stat(prefix + "count", h.getCount());
+        writer.stat(prefix + "p50", h.getValueAtPercentile(50));
+        writer.stat(prefix + "p99", h.getValueAtPercentile(99));
+        writer.stat(prefix + "p999", h.getValueAtPercentile(99.9));
+        writer.stat(prefix + "max", h.getMax());
+      }
+    }
+  }
+
+  /**
+   * Open connections: all of them, or top connections by number of commands ("stats conns ops") or
+   * by bytes read and written ("stats conns bytes")
+   */
+  private void conns(StatsWriter writer) throws IOException {
+    Collection<ConnectionStats> list = argument == null ? ConnectionStats.all()
+        : ConnectionStats.top(TOP_CONNECTIONS,
+          OPS.equals(argument) ? ConnectionStats.BY_OPS : ConnectionStats.BY_BYTES);
+    for (ConnectionStats c : list) {
+      String prefix = c.getId() + ":";
+      writer.stat(prefix + "addr", c.getRemoteAddress());
+      writer.stat(prefix + "age_s", c.getAgeSeconds());
+      writer.stat(prefix + "idle_ms", c.getIdleMs());
+      writer.stat(prefix + "bytes_read", c.getBytesRead());
+      writer.stat(prefix + "bytes_written", c.getBytesWritten());
+      writer.stat(prefix + "cmd_total", c.getTotalCommands());
+      for (int id = 0; id < CommandTypes.count(); id++) {
+        long n = c.getCommands(id);
+        if (n > 0) {
+          writer.stat(prefix + "cmd_" + CommandTypes.name(id), n);
+        }
+      }
+      writer.stat(prefix + "errors", c.getErrors());
+      String last = c.getLastCommand();
+      if (last != null) {
+        writer.stat(prefix + "last_cmd", last);
+      }
+    }
+  }
+
+  /**
+   * Worker threads utilization and scheduling statistics, per worker and total, and selector thread
+   * CPU time
+   */
+  private void workers(StatsWriter writer) throws IOException {
+    List<WorkerStats> list = WorkerStats.all();
+    writer.stat("count", list.size());
+    int n = 0;
+    for (WorkerStats s : list) {
+      workerStats(writer, n++ + ":", s);
+    }
+    workerStats(writer, "total:", WorkerStats.total());
+    long selector = WorkerStats.getSelectorCpuNanos();
+    if (selector >= 0) {
+      writer.stat("selector:cpu_ms", selector / 1_000_000);
+    }
+  }
+
+  private void workerStats(StatsWriter writer, String prefix, WorkerStats s) throws IOException {
+    writer.stat(prefix + "busy_ms", s.busyNanos / 1_000_000);
+    writer.stat(prefix + "spin_ms", s.spinNanos / 1_000_000);
+    writer.stat(prefix + "park_ms", s.parkNanos / 1_000_000);
+    writer.stat(prefix + "utilization", s.getUtilization());
+    writer.stat(prefix + "wakeups", s.keys);
+    writer.stat(prefix + "queue_wait_avg_us", s.getAverageQueueWaitNanos() / 1000);
+    writer.stat(prefix + "commands_per_wakeup", s.getCommandsPerWakeup());
+  }
+
+  /**
+   * Slow commands (newest first), "stats slowlog reset" discards them
+   */
+  private void slowlog(StatsWriter writer) throws IOException {
+    if (RESET.equals(argument)) {
+      SlowLog.reset();
+      writer.stat("reset", 1);
+      return;
+    }
+    writer.stat("threshold_us", SlowLog.getThresholdUs());
+    int n = 0;
+    for (SlowLog.Record r : SlowLog.records()) {
+      String prefix = n++ + ":";
+      writer.stat(prefix + "time", r.time);
+      writer.stat(prefix + "duration_us", r.durationNs / 1000);
+      writer.stat(prefix + "command", r.command);
+      if (r.key.length() > 0) {
+        writer.stat(prefix + "key", r.key);
+      }
+      writer.stat(prefix + "value_size", r.valueSize);
+      writer.stat(prefix + "response_size", r.responseSize);
+      writer.stat(prefix + "client", r.client);
+    }
+  }
+
+  private void hotKeys(StatsWriter writer) throws IOException {
+    writer.stat("enabled", HotKeys.isEnabled() ? 1 : 0);
+    writer.stat("sample_rate", HotKeys.getSampleRate());
+    writeHotKeys(writer, "read_", HotKeys.topReads());
+    writeHotKeys(writer, "write_", HotKeys.topWrites());
+  }
+
+  private void writeHotKeys(StatsWriter writer, String prefix, List<HotKeys.Item> items)
+      throws IOException {
+    int rank = 1;
+    for (HotKeys.Item item : items) {
+      String name = prefix + rank++;
+      writer.stat(name + "_key", item.key);
+      writer.stat(name + "_count", item.count);
+      writer.stat(name + "_share", item.share);
+    }
   }
 
   @Override
   public int inputConsumed() {
-    return 7;
+    return consumed;
   }
 
   @Override
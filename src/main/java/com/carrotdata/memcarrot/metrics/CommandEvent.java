@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.metrics;
+
+import com.carrotdata.memcarrot.commands.AbstractMemcachedCommand;
+import com.carrotdata.memcarrot.commands.MemcachedCommand;
+import com.carrotdata.memcarrot.commands.RetrievalCommand;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event of a command: from the start of parsing to the end of the response write. Disabled by
+ * default, when disabled the cost is a check of the event type state per command. The event thread
+ * is the worker (or I/O pool) thread which served the command.
+ */
+@Name("memcarrot.Command")
+@Label("Command")
+@Category({ "Memcarrot", "Commands" })
+@Description("Memcached command parse, execute and response write")
+@Enabled(false)
+@StackTrace(false)
+@Threshold("0 ms")
+public final class CommandEvent extends Event {
+
+  private static final EventType TYPE = EventType.getEventType(CommandEvent.class);
+
+  /* Event of the command being processed by the current thread */
+  private static final ThreadLocal<CommandEvent> current = new ThreadLocal<CommandEvent>();
+
+  @Label("Command")
+  String command;
+
+  @Label("Keys")
+  int keys;
+
+  @Label("Key Size")
+  @DataAmount
+  int keySize;
+
+  @Label("Value Size")
+  @Description("Value size of a storage command")
+  @DataAmount
+  int valueSize;
+
+  @Label("Request Size")
+  @DataAmount
+  int requestSize;
+
+  @Label("Response Size")
+  @DataAmount
+  int responseSize;
+
+  @Label("Parse Time")
+  @Timespan
+  long parseTime;
+
+  @Label("Execute Time")
+  @Timespan
+  long executeTime;
+
+  @Label("Write Time")
+  @Timespan
+  long writeTime;
+
+  /**
+   * Is event enabled in any running recording
+   * @return true - enabled
+   */
+  public static boolean enabled() {
+    return TYPE.isEnabled();
+  }
+
+  /** Starts event of the next command of the current thread */
+  public static void start() {
+    CommandEvent e = new CommandEvent();
+    e.begin();
+    current.set(e);
+  }
+
+  /**
+   * Records command execution
+   * @param cmd command
+   * @param parseNanos parse time
+   * @param executeNanos execute time
+   * @param responseSize response size (in the output buffer)
+   */
+  public static void executed(MemcachedCommand cmd, long parseNanos, long executeNanos,
+      int responseSize) {
+    CommandEvent e = current.get();
+    if (e == null) {
+      return;
+    }
+    e.command = CommandTypes.name(CommandTypes.id(cmd));
+    if (cmd instanceof RetrievalCommand) {
+      int[] sizes = ((RetrievalCommand) cmd).getKeySizes();
+      e.keys = sizes.length;
+      e.keySize = sizes.length > 0 ? sizes[0] : 0;
+    } else if (cmd instanceof AbstractMemcachedCommand) {
+      AbstractMemcachedCommand c = (AbstractMemcachedCommand) cmd;
+      e.keys = 1;
+      e.keySize = c.getKeySize();
+      e.valueSize = c.getValueSize();
+    }
+    e.requestSize = cmd.inputConsumed();
+    e.responseSize = responseSize;
+    e.parseTime = parseNanos;
+    e.executeTime = executeNanos;
+  }
+
+  /**
+   * Commits event of the current thread command
+   * @param writeNanos response write time
+   */
+  public static void written(long writeNanos) {
+    CommandEvent e = current.get();
+    if (e == null) {
+      return;
+    }
+    current.set(null);
+    if (e.command == null) {
+      // not executed
+      return;
+    }
+    e.writeTime = writeNanos;
+    e.commit();
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.metrics;
+
+import com.carrotdata.memcarrot.commands.MemcachedCommand;
+
+/**
+ * Command types registry: maps command classes to small integer ids used to index per-command
+ * metrics arrays
+ */
+public final class CommandTypes {
+
+  /*
+   * Known command names (lower case class names), the last one is for everything else
+   */
+  static final String[] NAMES = new String[] { "get", "gets", "gat", "gats", "set", "add",
+      "replace", "append", "prepend", "cas", "touch", "incr", "decr", "delete", "flush_all",
+      "stats", "version", "quit", "save", "bgsave", "shutdown", "other" };
+
+  private static final int OTHER = NAMES.length - 1;
+
+  private static final ClassValue<Integer> ids = new ClassValue<Integer>() {
+    @Override
+    protected Integer computeValue(Class<?> type) {
+      String name = type.getSimpleName().toLowerCase();
+      for (int i = 0; i < OTHER; i++) {
+        if (NAMES[i].equals(name)) {
+          return i;
+        }
+      }
+      return OTHER;
+    }
+  };
+
+  private CommandTypes() {
+  }
+
+  /**
+   * Command type id
+   * @param cmd command
+   * @return id
+   */
+  public static int id(MemcachedCommand cmd) {
+    return ids.get(cmd.getClass());
+  }
+
+  /**
+   * Number of command types
+   * @return number of command types
+   */
+  public static int count() {
+    return NAMES.length;
+  }
+
+  /**
+   * Command type name
+   * @param id command type id
+   * @return name
+   */
+  public static String name(int id) {
+    return NAMES[id];
+  }
+}
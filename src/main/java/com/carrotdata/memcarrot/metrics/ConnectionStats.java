@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+/**
+ * Per-connection counters. A connection is served by one thread at a time (hand off between
+ * selector, workers and I/O pool is ordered by the attachment's in-use flag), so counters are
+ * plain fields updated without synchronization, readers see slightly stale values. Counters are
+ * updated by {@link ServerMetrics} for the connection the current thread serves.
+ */
+public final class ConnectionStats {
+
+  /** Orders connections by number of executed commands */
+  public static final ToLongFunction<ConnectionStats> BY_OPS = ConnectionStats::getTotalCommands;
+
+  /** Orders connections by number of bytes read and written */
+  public static final ToLongFunction<ConnectionStats> BY_BYTES = ConnectionStats::getTotalBytes;
+
+  private static final Set<ConnectionStats> open = ConcurrentHashMap.newKeySet();
+
+  private static final AtomicLong ids = new AtomicLong();
+
+  private final long id;
+
+  private final String remote;
+
+  /* Creation time, ms since epoch */
+  private final long created;
+
+  /* Last access time, ns (System.nanoTime()) */
+  long lastAccess;
+
+  long bytesRead;
+
+  long bytesWritten;
+
+  long errors;
+
+  /* Executed commands by type */
+  final long[] commands = new long[CommandTypes.count()];
+
+  /* Last command type id, -1 - none yet */
+  int lastCommand = -1;
+
+  private ConnectionStats(String remote) {
+    this.id = ids.incrementAndGet();
+    this.remote = remote;
+    this.created = System.currentTimeMillis();
+    this.lastAccess = System.nanoTime();
+  }
+
+  /**
+   * Creates and registers statistics for a new connection
+   * @param remote remote address
+   * @return statistics
+   */
+  public static ConnectionStats open(String remote) {
+    ConnectionStats s = new ConnectionStats(remote);
+    open.add(s);
+    return s;
+  }
+
+  /**
+   * Unregisters statistics of a closed connection
+   * @param s statistics
+   */
+  public static void close(ConnectionStats s) {
+    open.remove(s);
+  }
+
+  /**
+   * Statistics of all open connections
+   * @return collection of statistics
+   */
+  public static Collection<ConnectionStats> all() {
+    return open;
+  }
+
+  /**
+   * Top connections. Counters keep changing while connections are served, therefore sort keys
+   * are read once into a snapshot, which is sorted.
+   * @param n maximum number of connections
+   * @param key sort key, descending order
+   * @return top n connections
+   */
+  public static List<ConnectionStats> top(int n, ToLongFunction<ConnectionStats> key) {
+    List<Snapshot> snapshot = new ArrayList<Snapshot>(open.size());
+    for (ConnectionStats s : open) {
+      snapshot.add(new Snapshot(s, key.applyAsLong(s)));
+    }
+    snapshot.sort(Snapshot.ORDER);
+    int size = Math.min(n, snapshot.size());
+    List<ConnectionStats> list = new ArrayList<ConnectionStats>(size);
+    for (int i = 0; i < size; i++) {
+      list.add(snapshot.get(i).stats);
+    }
+    return list;
+  }
+
+  /** Connection and its sort key */
+  private static final class Snapshot {
+    static final Comparator<Snapshot> ORDER = (a, b) -> a.key != b.key
+        ? Long.compare(b.key, a.key) : Long.compare(a.stats.id, b.stats.id);
+
+    final ConnectionStats stats;
+    final long key;
+
+    Snapshot(ConnectionStats stats, long key) {
+      this.stats = stats;
+      this.key = key;
+    }
+  }
+
+  /** Marks connection as accessed now */
+  public void access() {
+    lastAccess = System.nanoTime();
+  }
+
+  public long getId() {
+    return id;
+  }
+
+  public String getRemoteAddress() {
+    return remote;
+  }
+
+  /**
+   * Connection age
+   * @return age in seconds
+   */
+  public long getAgeSeconds() {
+    return (System.currentTimeMillis() - created) / 1000;
+  }
+
+  /**
+   * Time since connection was served last time
+   * @return idle time in ms
+   */
+  public long getIdleMs() {
+    return (System.nanoTime() - lastAccess) / 1_000_000;
+  }
+
+  public long getBytesRead() {
+    return bytesRead;
+  }
+
+  public long getBytesWritten() {
+    return bytesWritten;
+  }
+
+  public long getErrors() {
+    return errors;
+  }
+
+  /**
+   * Number of executed commands of a type
+   * @param type command type id
+   * @return number of commands
+   */
+  public long getCommands(int type) {
+    return commands[type];
+  }
+
+  public long getTotalCommands() {
+    long sum = 0;
+    for (long c : commands) {
+      sum += c;
+    }
+    return sum;
+  }
+
+  public long getTotalBytes() {
+    return bytesRead + bytesWritten;
+  }
+
+  /**
+   * Last command name
+   * @return name or null
+   */
+  public String getLastCommand() {
+    int type = lastCommand;
+    return type < 0 ? null : CommandTypes.name(type);
+  }
+}
@@ -0,0 +1,296 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.metrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.carrotdata.cache.util.UnsafeAccess;
+import com.carrotdata.cache.util.Utils;
+import com.carrotdata.memcarrot.util.CountMinSketch;
+
+/**
+ * Always-on heavy hitters tracker. Every thread samples 1 of N keys it reads or writes into its own
+ * Count-Min sketch and a small top-K table (no contention between threads). Tables are merged on
+ * demand ("stats hotkeys", JMX). Counts are estimates scaled by the sampling rate and aged (halved)
+ * periodically, so that they reflect recent traffic.
+ */
+public final class HotKeys {
+
+  public static final int DEFAULT_SAMPLE_RATE = 16;
+
+  public static final int DEFAULT_TOP_K = 10;
+
+  /*
+   * Number of samples after which counts are halved
+   */
+  private static final int AGING_PERIOD = 1 << 16;
+
+  private static final int SKETCH_WIDTH = 1 << 12;
+
+  /**
+   * Hot key
+   */
+  public static final class Item {
+    public final String key;
+    public final long count;
+    public final double share;
+
+    Item(String key, long count, double share) {
+      this.key = key;
+      this.count = count;
+      this.share = share;
+    }
+
+    @Override
+    public String toString() {
+      return key + "=" + count;
+    }
+  }
+
+  /**
+   * Per-thread top-K table
+   */
+  static final class TopK {
+    final CountMinSketch sketch = new CountMinSketch(SKETCH_WIDTH, 0);
+    final byte[][] keys;
+    final int[] hashes;
+    final long[] counts;
+    int size;
+    long total;
+    int samples;
+
+    TopK(int k) {
+      keys = new byte[k][];
+      hashes = new int[k];
+      counts = new long[k];
+    }
+
+    synchronized void add(long keyPtr, int keySize) {
+      int hash = Utils.murmurHash(keyPtr, keySize, 0);
+      int est = sketch.increment(hash);
+      total++;
+      if (++samples == AGING_PERIOD) {
+        age();
+      }
+      int min = 0;
+      for (int i = 0; i < size; i++) {
+        if (hashes[i] == hash && keys[i].length == keySize
+            && Utils.compareTo(keys[i], 0, keySize, keyPtr, keySize) == 0) {
+          counts[i] = est;
+          return;
+        }
+        if (counts[i] < counts[min]) {
+          min = i;
+        }
+      }
+      if (size < keys.length) {
+        min = size++;
+      } else if (est <= counts[min]) {
+        return;
+      }
+      byte[] key = new byte[keySize];
+      UnsafeAccess.copy(keyPtr, key, 0, keySize);
+      keys[min] = key;
+      hashes[min] = hash;
+      counts[min] = est;
+    }
+
+    private void age() {
+      samples = 0;
+      sketch.age();
+      total >>>= 1;
+      for (int i = 0; i < size; i++) {
+        counts[i] >>>= 1;
+      }
+    }
+
+    synchronized long collect(Map<String, Long> map) {
+      for (int i = 0; i < size; i++) {
+        map.merge(new String(keys[i]), counts[i], Long::sum);
+      }
+      return total;
+    }
+
+    synchronized void clear() {
+      sketch.clear();
+      size = 0;
+      total = 0;
+      samples = 0;
+    }
+  }
+
+  static final class Shard {
+    final TopK reads;
+    final TopK writes;
+    int readCounter;
+    int writeCounter;
+
+    Shard(int k) {
+      reads = new TopK(k);
+      writes = new TopK(k);
+    }
+  }
+
+  /*
+   * Sampling mask (sample rate - 1), -1 - disabled
+   */
+  private static volatile int sampleMask = DEFAULT_SAMPLE_RATE - 1;
+
+  private static volatile int topK = DEFAULT_TOP_K;
+
+  private static final List<Shard> shards = new CopyOnWriteArrayList<Shard>();
+
+  private static final ThreadLocal<Shard> local = ThreadLocal.withInitial(() -> {
+    Shard s = new Shard(topK);
+    shards.add(s);
+    return s;
+  });
+
+  private HotKeys() {
+  }
+
+  /**
+   * Configures tracker and registers MBean
+   * @param sampleRate sample rate (rounded up to a power of 2), 0 - disabled
+   * @param k number of hottest keys to track
+   */
+  public static void init(int sampleRate, int k) {
+    sampleMask = sampleRate <= 0 ? -1 : Integer.highestOneBit(sampleRate * 2 - 1) - 1;
+    topK = Math.max(1, k);
+    JMX.register("HotKeys", new Bean());
+  }
+
+  /**
+   * Is tracker enabled
+   * @return true or false
+   */
+  public static boolean isEnabled() {
+    return sampleMask >= 0;
+  }
+
+  /**
+   * Sampling rate
+   * @return 1 of N keys is sampled
+   */
+  public static int getSampleRate() {
+    return sampleMask + 1;
+  }
+
+  /**
+   * Records key read
+   * @param keyPtr key address
+   * @param keySize key size
+   */
+  public static void read(long keyPtr, int keySize) {
+    int mask = sampleMask;
+    if (mask < 0) {
+      return;
+    }
+    Shard s = local.get();
+    if ((++s.readCounter & mask) == 0) {
+      s.reads.add(keyPtr, keySize);
+    }
+  }
+
+  /**
+   * Records key write
+   * @param keyPtr key address
+   * @param keySize key size
+   */
+  public static void write(long keyPtr, int keySize) {
+    int mask = sampleMask;
+    if (mask < 0) {
+      return;
+    }
+    Shard s = local.get();
+    if ((++s.writeCounter & mask) == 0) {
+      s.writes.add(keyPtr, keySize);
+    }
+  }
+
+  /**
+   * Hottest keys for reads
+   * @return keys sorted by estimated count, descending
+   */
+  public static List<Item> topReads() {
+    return top(true);
+  }
+
+  /**
+   * Hottest keys for writes
+   * @return keys sorted by estimated count, descending
+   */
+  public static List<Item> topWrites() {
+    return top(false);
+  }
+
+  private static List<Item> top(boolean reads) {
+    Map<String, Long> map = new HashMap<String, Long>();
+    long total = 0;
+    for (Shard s : shards) {
+      total += (reads ? s.reads : s.writes).collect(map);
+    }
+    int scale = getSampleRate();
+    List<Item> list = new ArrayList<Item>(map.size());
+    for (Map.Entry<String, Long> e : map.entrySet()) {
+      long count = e.getValue();
+      list.add(new Item(e.getKey(), count * scale, total == 0 ? 0 : (double) count / total));
+    }
+    list.sort((a, b) -> Long.compare(b.count, a.count));
+    return list.size() > topK ? new ArrayList<Item>(list.subList(0, topK)) : list;
+  }
+
+  /**
+   * Resets all statistics
+   */
+  public static void clear() {
+    for (Shard s : shards) {
+      s.reads.clear();
+      s.writes.clear();
+    }
+  }
+
+  static class Bean implements HotKeysMXBean {
+
+    @Override
+    public String[] getTopReadKeys() {
+      return topReads().stream().map(Item::toString).toArray(String[]::new);
+    }
+
+    @Override
+    public String[] getTopWriteKeys() {
+      return topWrites().stream().map(Item::toString).toArray(String[]::new);
+    }
+
+    @Override
+    public double getTopReadKeyShare() {
+      List<Item> list = topReads();
+      return list.isEmpty() ? 0 : list.get(0).share;
+    }
+
+    @Override
+    public double getTopWriteKeyShare() {
+      List<Item> list = topWrites();
+      return list.isEmpty() ? 0 : list.get(0).share;
+    }
+  }
+}
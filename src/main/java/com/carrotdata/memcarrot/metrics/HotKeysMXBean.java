@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.metrics;
+
+/**
+ * Hot keys JMX interface
+ */
+public interface HotKeysMXBean {
+
+  /**
+   * Hottest keys for reads as "key=estimated_count"
+   * @return keys
+   */
+  public String[] getTopReadKeys();
+
+  /**
+   * Hottest keys for writes as "key=estimated_count"
+   * @return keys
+   */
+  public String[] getTopWriteKeys();
+
+  /**
+   * Share of the hottest read key in all sampled reads
+   * @return share (0 - 1)
+   */
+  public double getTopReadKeyShare();
+
+  /**
+   * Share of the hottest write key in all sampled writes
+   * @return share (0 - 1)
+   */
+  public double getTopWriteKeyShare();
+}
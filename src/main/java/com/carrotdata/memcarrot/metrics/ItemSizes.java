@@ -0,0 +1,377 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.metrics;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.ObjectName;
+
+import com.carrotdata.cache.util.UnsafeAccess;
+import com.carrotdata.cache.util.Utils;
+
+/**
+ * Key and value size distributions: key and value sizes of storage commands and value sizes of
+ * retrieval hits. Sizes are counted in power of two buckets: bucket b holds sizes in
+ * (2^(b-1), 2^b]. When a namespace separator is configured, distributions are also kept per
+ * namespace (key prefix up to the first separator), for up to a maximum number of namespaces,
+ * the rest is counted as {@link #OTHER}. Every thread records into its own counters, they are
+ * merged on demand.
+ */
+public final class ItemSizes {
+
+  /**
+   * Size kind
+   */
+  public static enum Kind {
+    KEY, VALUE, HIT;
+
+    public String label() {
+      return name().toLowerCase();
+    }
+  }
+
+  /* Sizes up to 2^31 */
+  public static final int BUCKETS = 32;
+
+  public static final int DEFAULT_MAX_NAMESPACES = 16;
+
+  /** Name of keys without namespace and namespaces above the maximum */
+  public static final String OTHER = "_other";
+
+  private static final int KINDS = Kind.values().length;
+
+  private static final int SLOT_SIZE = KINDS * BUCKETS;
+
+  /**
+   * Per-thread counters: slot 0 - all keys, slots 1..max - namespaces, slot max + 1 - other
+   */
+  static final class Recorder {
+    long[] counts = new long[slots * SLOT_SIZE];
+
+    long[] counts() {
+      long[] c = counts;
+      if (c.length < slots * SLOT_SIZE) {
+        c = counts = Arrays.copyOf(c, slots * SLOT_SIZE);
+      }
+      return c;
+    }
+  }
+
+  /* Namespace separator, -1 - namespaces are disabled */
+  private static volatile int separator = -1;
+
+  private static volatile int maxNamespaces;
+
+  private static volatile int slots = 1;
+
+  /* Known namespaces, namespace i uses slot i + 1 */
+  private static volatile byte[][] namespaces = new byte[0][];
+
+  private static final List<Recorder> recorders = new CopyOnWriteArrayList<Recorder>();
+
+  private static final ThreadLocal<Recorder> local = ThreadLocal.withInitial(() -> {
+    Recorder r = new Recorder();
+    recorders.add(r);
+    return r;
+  });
+
+  static {
+    JMX.register("ItemSizes", new Bean(null));
+  }
+
+  private ItemSizes() {
+  }
+
+  /**
+   * Configures namespaces
+   * @param sep namespace separator, null or empty - no namespaces
+   * @param max maximum number of namespaces
+   */
+  public static synchronized void init(String sep, int max) {
+    namespaces = new byte[0][];
+    maxNamespaces = max;
+    if (sep == null || sep.isEmpty() || max <= 0) {
+      separator = -1;
+      slots = 1;
+    } else {
+      separator = sep.charAt(0) & 0xff;
+      slots = max + 2;
+    }
+    reset();
+  }
+
+  /**
+   * Bucket index of a size
+   * @param size size
+   * @return bucket index
+   */
+  public static int bucket(int size) {
+    return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+  }
+
+  /**
+   * Upper bound (inclusive) of a bucket
+   * @param bucket bucket index
+   * @return maximum size
+   */
+  public static long upperBound(int bucket) {
+    return 1L << bucket;
+  }
+
+  /**
+   * Records key and value sizes of a storage command
+   * @param keyPtr key address
+   * @param keySize key size
+   * @param valueSize value size
+   */
+  public static void storage(long keyPtr, int keySize, int valueSize) {
+    long[] counts = local.get().counts();
+    int key = Kind.KEY.ordinal() * BUCKETS + bucket(keySize);
+    int value = Kind.VALUE.ordinal() * BUCKETS + bucket(valueSize);
+    counts[key]++;
+    counts[value]++;
+    int slot = slot(keyPtr, keySize);
+    if (slot > 0) {
+      counts[slot * SLOT_SIZE + key]++;
+      counts[slot * SLOT_SIZE + value]++;
+    }
+  }
+
+  /**
+   * Records value size of a retrieval hit
+   * @param keyPtr key address
+   * @param keySize key size
+   * @param valueSize value size
+   */
+  public static void hit(long keyPtr, int keySize, int valueSize) {
+    long[] counts = local.get().counts();
+    int value = Kind.HIT.ordinal() * BUCKETS + bucket(valueSize);
+    counts[value]++;
+    int slot = slot(keyPtr, keySize);
+    if (slot > 0) {
+      counts[slot * SLOT_SIZE + value]++;
+    }
+  }
+
+  /**
+   * Counters slot of a key namespace
+   * @return slot, 0 - namespaces are disabled
+   */
+  private static int slot(long keyPtr, int keySize) {
+    int sep = separator;
+    if (sep < 0) {
+      return 0;
+    }
+    int len = -1;
+    for (int i = 0; i < keySize; i++) {
+      if ((UnsafeAccess.toByte(keyPtr + i) & 0xff) == sep) {
+        len = i;
+        break;
+      }
+    }
+    if (len < 0) {
+      return maxNamespaces + 1;
+    }
+    byte[][] ns = namespaces;
+    for (int i = 0; i < ns.length; i++) {
+      if (ns[i].length == len && Utils.compareTo(ns[i], 0, len, keyPtr, len) == 0) {
+        return i + 1;
+      }
+    }
+    if (ns.length >= maxNamespaces) {
+      // Table is full, do not take the lock on every unknown namespace key
+      return maxNamespaces + 1;
+    }
+    return addNamespace(keyPtr, len);
+  }
+
+  private static synchronized int addNamespace(long keyPtr, int len) {
+    byte[][] ns = namespaces;
+    for (int i = 0; i < ns.length; i++) {
+      if (ns[i].length == len && Utils.compareTo(ns[i], 0, len, keyPtr, len) == 0) {
+        return i + 1;
+      }
+    }
+    if (ns.length >= maxNamespaces) {
+      return maxNamespaces + 1;
+    }
+    byte[] name = new byte[len];
+    UnsafeAccess.copy(keyPtr, name, 0, len);
+    ns = Arrays.copyOf(ns, ns.length + 1);
+    ns[ns.length - 1] = name;
+    namespaces = ns;
+    String s = new String(name);
+    JMX.register("ItemSizes", ObjectName.quote(s), new Bean(s));
+    return ns.length;
+  }
+
+  /**
+   * Known namespaces, followed by {@link #OTHER}
+   * @return namespaces, empty if namespaces are disabled
+   */
+  public static String[] namespaces() {
+    if (separator < 0) {
+      return new String[0];
+    }
+    byte[][] ns = namespaces;
+    String[] names = new String[ns.length + 1];
+    for (int i = 0; i < ns.length; i++) {
+      names[i] = new String(ns[i]);
+    }
+    names[ns.length] = OTHER;
+    return names;
+  }
+
+  private static int slot(String namespace) {
+    if (namespace == null) {
+      return 0;
+    }
+    if (OTHER.equals(namespace)) {
+      return separator < 0 ? -1 : maxNamespaces + 1;
+    }
+    byte[][] ns = namespaces;
+    for (int i = 0; i < ns.length; i++) {
+      if (namespace.equals(new String(ns[i]))) {
+        return i + 1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Merged histogram
+   * @param namespace namespace, null - all keys
+   * @param kind size kind
+   * @return counts by bucket
+   */
+  public static long[] histogram(String namespace, Kind kind) {
+    long[] h = new long[BUCKETS];
+    int slot = slot(namespace);
+    if (slot < 0) {
+      return h;
+    }
+    int off = slot * SLOT_SIZE + kind.ordinal() * BUCKETS;
+    for (Recorder r : recorders) {
+      long[] counts = r.counts;
+      if (off + BUCKETS > counts.length) {
+        continue;
+      }
+      for (int i = 0; i < BUCKETS; i++) {
+        h[i] += counts[off + i];
+      }
+    }
+    return h;
+  }
+
+  /**
+   * Merged bucket count over all keys
+   * @param kind size kind
+   * @param bucket bucket index
+   * @return count
+   */
+  public static long getCount(Kind kind, int bucket) {
+    return histogram(null, kind)[bucket];
+  }
+
+  /**
+   * Size percentile, as an upper bound of the bucket
+   * @param h histogram
+   * @param percentile percentile (0 - 100)
+   * @return size, 0 - empty histogram
+   */
+  public static long percentile(long[] h, double percentile) {
+    long total = 0;
+    for (long c : h) {
+      total += c;
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+    long sum = 0;
+    for (int i = 0; i < h.length; i++) {
+      sum += h[i];
+      if (sum >= rank) {
+        return upperBound(i);
+      }
+    }
+    return upperBound(h.length - 1);
+  }
+
+  /** Resets all counters */
+  public static void reset() {
+    for (Recorder r : recorders) {
+      Arrays.fill(r.counts, 0);
+    }
+  }
+
+  static class Bean implements ItemSizesMXBean {
+    private final String namespace;
+
+    Bean(String namespace) {
+      this.namespace = namespace;
+    }
+
+    @Override
+    public long[] getKeySizes() {
+      return histogram(namespace, Kind.KEY);
+    }
+
+    @Override
+    public long[] getValueSizes() {
+      return histogram(namespace, Kind.VALUE);
+    }
+
+    @Override
+    public long[] getHitValueSizes() {
+      return histogram(namespace, Kind.HIT);
+    }
+
+    @Override
+    public long getKeySizeP50() {
+      return percentile(getKeySizes(), 50);
+    }
+
+    @Override
+    public long getKeySizeP99() {
+      return percentile(getKeySizes(), 99);
+    }
+
+    @Override
+    public long getValueSizeP50() {
+      return percentile(getValueSizes(), 50);
+    }
+
+    @Override
+    public long getValueSizeP99() {
+      return percentile(getValueSizes(), 99);
+    }
+
+    @Override
+    public long getHitValueSizeP50() {
+      return percentile(getHitValueSizes(), 50);
+    }
+
+    @Override
+    public long getHitValueSizeP99() {
+      return percentile(getHitValueSizes(), 99);
+    }
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.metrics;
+
+/**
+ * Key and value size distributions JMX interface. Histograms are counts by power of two buckets
+ * (bucket i holds sizes up to 2^i), percentiles are bucket upper bounds.
+ */
+public interface ItemSizesMXBean {
+
+  public long[] getKeySizes();
+
+  public long[] getValueSizes();
+
+  /**
+   * Value sizes of retrieval hits
+   */
+  public long[] getHitValueSizes();
+
+  public long getKeySizeP50();
+
+  public long getKeySizeP99();
+
+  public long getValueSizeP50();
+
+  public long getValueSizeP99();
+
+  public long getHitValueSizeP50();
+
+  public long getHitValueSizeP99();
+}
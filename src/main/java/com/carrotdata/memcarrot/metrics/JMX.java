@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.metrics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * JMX registration of server MBeans in the metrics domain (jmx.metrics.domain.name), so they are
+ * picked up by the existing jmx_exporter configuration
+ */
+public final class JMX {
+  private static final Logger log = LogManager.getLogger(JMX.class);
+
+  private static volatile String domain = "memcarrot";
+
+  private JMX() {
+  }
+
+  /**
+   * Sets JMX domain name
+   * @param name domain name
+   */
+  public static void setDomain(String name) {
+    domain = name;
+  }
+
+  /**
+   * Registers MBean as "domain:type=name", replaces existing one
+   * @param type type name
+   * @param bean MBean
+   */
+  public static void register(String type, Object bean) {
+    register(type, null, bean);
+  }
+
+  /**
+   * Registers MBean as "domain:type=type,name=name", replaces existing one
+   * @param type type name
+   * @param name MBean name, can be null
+   * @param bean MBean
+   */
+  public static void register(String type, String name, Object bean) {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName oname =
+          new ObjectName(domain + ":type=" + type + (name != null ? ",name=" + name : ""));
+      if (server.isRegistered(oname)) {
+        server.unregisterMBean(oname);
+      }
+      server.registerMBean(bean, oname);
+    } catch (Exception e) {
+      log.error("Failed to register MBean " + type, e);
+    }
+  }
+}
@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.metrics;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.carrotdata.memcarrot.commands.MemcachedCommand;
+import com.carrotdata.memcarrot.util.Histogram;
+
+/**
+ * Per-command latency histograms for parse, execute and write (response send) phases. Every thread
+ * records into its own histograms (no synchronization on the hot path), histograms are merged on
+ * demand ("stats latency", JMX).
+ */
+public final class Latency {
+
+  /**
+   * Command processing phase
+   */
+  public static enum Phase {
+    PARSE, EXECUTE, WRITE;
+
+    public String label() {
+      return name().toLowerCase();
+    }
+  }
+
+  private static final int PHASES = Phase.values().length;
+
+  /**
+   * Per-thread histograms, allocated on the first use of a command type
+   */
+  static final class Recorder {
+    final Histogram[][] histograms = new Histogram[CommandTypes.count()][];
+
+    Histogram[] get(int id) {
+      Histogram[] h = histograms[id];
+      if (h == null) {
+        h = new Histogram[PHASES];
+        for (int i = 0; i < PHASES; i++) {
+          h[i] = new Histogram();
+        }
+        histograms[id] = h;
+      }
+      return h;
+    }
+  }
+
+  private static volatile boolean enabled = true;
+
+  private static final List<Recorder> recorders = new CopyOnWriteArrayList<Recorder>();
+
+  private static final ThreadLocal<Recorder> local = ThreadLocal.withInitial(() -> {
+    Recorder r = new Recorder();
+    recorders.add(r);
+    return r;
+  });
+
+  private Latency() {
+  }
+
+  /**
+   * Enables/disables recording and registers MBeans (one per command)
+   * @param b true - enabled
+   */
+  public static void init(boolean b) {
+    enabled = b;
+    if (b) {
+      for (int i = 0; i < CommandTypes.count(); i++) {
+        JMX.register("Latency", CommandTypes.name(i), new Bean(i));
+      }
+    }
+  }
+
+  /**
+   * Is recording enabled
+   * @return true or false
+   */
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Records parse and execute times
+   * @param cmd command
+   * @param parseTime parse time in ns
+   * @param executeTime execute time in ns
+   */
+  public static void record(MemcachedCommand cmd, long parseTime, long executeTime) {
+    Histogram[] h = local.get().get(CommandTypes.id(cmd));
+    h[Phase.PARSE.ordinal()].record(parseTime);
+    h[Phase.EXECUTE.ordinal()].record(executeTime);
+  }
+
+  /**
+   * Records response write time
+   * @param cmd command
+   * @param writeTime write time in ns
+   */
+  public static void recordWrite(MemcachedCommand cmd, long writeTime) {
+    local.get().get(CommandTypes.id(cmd))[Phase.WRITE.ordinal()].record(writeTime);
+  }
+
+  /**
+   * Merged histogram of all threads
+   * @param id command id
+   * @param phase phase
+   * @return histogram
+   */
+  public static Histogram snapshot(int id, Phase phase) {
+    Histogram result = new Histogram();
+    for (Recorder r : recorders) {
+      Histogram[] h = r.histograms[id];
+      if (h != null) {
+        result.add(h[phase.ordinal()]);
+      }
+    }
+    return result;
+  }
+
+  static class Bean implements LatencyMXBean {
+    private final int id;
+
+    Bean(int id) {
+      this.id = id;
+    }
+
+    @Override
+    public long getCount() {
+      return snapshot(id, Phase.EXECUTE).getCount();
+    }
+
+    @Override
+    public long getParseP50() {
+      return snapshot(id, Phase.PARSE).getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getParseP99() {
+      return snapshot(id, Phase.PARSE).getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getParseP999() {
+      return snapshot(id, Phase.PARSE).getValueAtPercentile(99.9);
+    }
+
+    @Override
+    public long getParseMax() {
+      return snapshot(id, Phase.PARSE).getMax();
+    }
+
+    @Override
+    public long getExecuteP50() {
+      return snapshot(id, Phase.EXECUTE).getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getExecuteP99() {
+      return snapshot(id, Phase.EXECUTE).getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getExecuteP999() {
+      return snapshot(id, Phase.EXECUTE).getValueAtPercentile(99.9);
+    }
+
+    @Override
+    public long getExecuteMax() {
+      return snapshot(id, Phase.EXECUTE).getMax();
+    }
+
+    @Override
+    public long getWriteP50() {
+      return snapshot(id, Phase.WRITE).getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getWriteP99() {
+      return snapshot(id, Phase.WRITE).getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getWriteP999() {
+      return snapshot(id, Phase.WRITE).getValueAtPercentile(99.9);
+    }
+
+    @Override
+    public long getWriteMax() {
+      return snapshot(id, Phase.WRITE).getMax();
+    }
+  }
+}
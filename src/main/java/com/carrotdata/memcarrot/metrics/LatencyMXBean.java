@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.metrics;
+
+/**
+ * Command latency JMX interface, one MBean per command type. All values are in nanoseconds.
+ */
+public interface LatencyMXBean {
+
+  public long getCount();
+
+  public long getParseP50();
+
+  public long getParseP99();
+
+  public long getParseP999();
+
+  public long getParseMax();
+
+  public long getExecuteP50();
+
+  public long getExecuteP99();
+
+  public long getExecuteP999();
+
+  public long getExecuteMax();
+
+  public long getWriteP50();
+
+  public long getWriteP99();
+
+  public long getWriteP999();
+
+  public long getWriteMax();
+}
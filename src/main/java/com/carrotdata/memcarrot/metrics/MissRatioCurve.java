@@ -0,0 +1,262 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.carrotdata.cache.util.Utils;
+
+/**
+ * Online miss ratio curve estimator (SHARDS). Read keys are spatially sampled: a key is tracked if
+ * its hash falls below a threshold, so that every access of a sampled key is seen. Reuse (stack)
+ * distances of sampled keys are computed exactly and scaled by the sample rate, which gives the
+ * hit ratio of an LRU cache of any size. The number of tracked keys is bounded: when it exceeds
+ * the maximum, the threshold is lowered and keys above it are dropped (fixed-size SHARDS). Every
+ * sampled reference is weighted by the inverse of the sample rate at the time of access.
+ */
+public final class MissRatioCurve {
+
+  public static final double DEFAULT_SAMPLE_RATE = 0;
+  public static final int DEFAULT_MAX_KEYS = 16384;
+
+  /* Sampling modulus */
+  private static final int MODULUS = 1 << 24;
+  private static final int MASK = MODULUS - 1;
+
+  /* Distance histogram: 8 sub-buckets per power of two, distances up to 2^63 */
+  private static final int SUB_BUCKETS = 8;
+  private static final int BUCKETS = SUB_BUCKETS + (64 - 3) * SUB_BUCKETS;
+
+  /* Sample threshold, 0 - disabled */
+  private static volatile int threshold;
+
+  private static int maxKeys = DEFAULT_MAX_KEYS;
+
+  /* Sampled key hash -> last access time */
+  private static Map<Long, Integer> lastAccess = new HashMap<Long, Integer>();
+
+  /* Live access times (Fenwick tree over logical time) */
+  private static int[] tree = new int[1];
+
+  private static int time;
+
+  /* Weighted references by scaled distance bucket */
+  private static double[] distances = new double[BUCKETS];
+
+  /* Weighted first references (cold misses) */
+  private static double cold;
+
+  private MissRatioCurve() {
+  }
+
+  /**
+   * Initializes estimator, discards collected data
+   * @param sampleRate sample rate (0 - 1], 0 - disabled
+   * @param max maximum number of tracked keys
+   */
+  public static synchronized void init(double sampleRate, int max) {
+    maxKeys = max;
+    threshold = sampleRate <= 0 ? 0 : (int) Math.max(1, Math.min(MODULUS, sampleRate * MODULUS));
+    reset();
+  }
+
+  /**
+   * Is estimator enabled
+   * @return true - enabled
+   */
+  public static boolean isEnabled() {
+    return threshold > 0;
+  }
+
+  /** Discards collected data */
+  public static synchronized void reset() {
+    lastAccess = new HashMap<Long, Integer>();
+    tree = new int[2 * maxKeys + 2];
+    time = 0;
+    distances = new double[BUCKETS];
+    cold = 0;
+  }
+
+  /**
+   * Records read access of a key
+   * @param keyPtr key address
+   * @param keySize key size
+   */
+  public static void access(long keyPtr, int keySize) {
+    int t = threshold;
+    if (t == 0) {
+      return;
+    }
+    long hash = Utils.hash64(keyPtr, keySize);
+    if ((int) (hash & MASK) >= t) {
+      return;
+    }
+    access(hash);
+  }
+
+  /**
+   * Records access of a key with a given hash
+   * @param hash key hash
+   */
+  static synchronized void access(long hash) {
+    int t = threshold;
+    if ((int) (hash & MASK) >= t) {
+      // threshold was lowered
+      return;
+    }
+    double rate = (double) t / MODULUS;
+    double weight = 1 / rate;
+    if (time == tree.length - 1) {
+      compact();
+    }
+    int now = ++time;
+    Integer prev = lastAccess.put(hash, now);
+    if (prev == null) {
+      cold += weight;
+      if (lastAccess.size() > maxKeys) {
+        lowerThreshold();
+      }
+    } else {
+      // number of distinct keys accessed after the previous access
+      long d = sum(now - 1) - sum(prev);
+      update(prev, -1);
+      distances[bucket((long) (d / rate))] += weight;
+    }
+    if (lastAccess.containsKey(hash)) {
+      update(now, 1);
+    }
+  }
+
+  /**
+   * Lowers sample threshold and drops keys above it
+   */
+  private static void lowerThreshold() {
+    int t = threshold;
+    int newThreshold = Math.max(1, (int) (t * 0.9));
+    Iterator<Map.Entry<Long, Integer>> it = lastAccess.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<Long, Integer> e = it.next();
+      if ((int) (e.getKey() & MASK) >= newThreshold) {
+        int at = e.getValue();
+        // the current access is not in the tree yet
+        if (at != time) {
+          update(at, -1);
+        }
+        it.remove();
+      }
+    }
+    threshold = newThreshold;
+  }
+
+  /**
+   * Renumbers access times of tracked keys starting from 1, rebuilds the tree
+   */
+  private static void compact() {
+    List<Map.Entry<Long, Integer>> entries =
+        new ArrayList<Map.Entry<Long, Integer>>(lastAccess.entrySet());
+    entries.sort(Map.Entry.comparingByValue());
+    Arrays.fill(tree, 0);
+    time = 0;
+    for (Map.Entry<Long, Integer> e : entries) {
+      e.setValue(++time);
+      update(time, 1);
+    }
+  }
+
+  private static void update(int i, int delta) {
+    for (; i < tree.length; i += i & -i) {
+      tree[i] += delta;
+    }
+  }
+
+  private static long sum(int i) {
+    long s = 0;
+    for (; i > 0; i -= i & -i) {
+      s += tree[i];
+    }
+    return s;
+  }
+
+  static int bucket(long d) {
+    if (d < SUB_BUCKETS) {
+      return (int) d;
+    }
+    int e = 63 - Long.numberOfLeadingZeros(d);
+    int sub = (int) (d >>> (e - 3)) & (SUB_BUCKETS - 1);
+    return SUB_BUCKETS + (e - 3) * SUB_BUCKETS + sub;
+  }
+
+  static long lowerBound(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int e = (bucket - SUB_BUCKETS) / SUB_BUCKETS + 3;
+    int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+    return (long) (SUB_BUCKETS + sub) << (e - 3);
+  }
+
+  /**
+   * Predicted hit ratio of an LRU cache
+   * @param items cache size in items
+   * @return hit ratio (0 - 1), 0 - no data
+   */
+  public static synchronized double hitRatio(long items) {
+    double hits = 0;
+    double total = cold;
+    for (int i = 0; i < BUCKETS; i++) {
+      total += distances[i];
+      if (lowerBound(i) < items) {
+        hits += distances[i];
+      }
+    }
+    return total == 0 ? 0 : hits / total;
+  }
+
+  /**
+   * Current sample rate
+   * @return sample rate
+   */
+  public static double getSampleRate() {
+    return (double) threshold / MODULUS;
+  }
+
+  /**
+   * Number of tracked (sampled) keys
+   * @return number of keys
+   */
+  public static synchronized int getTrackedKeys() {
+    return lastAccess.size();
+  }
+
+  /**
+   * Estimated number of references (sampled references scaled by sample rate)
+   * @return number of references
+   */
+  public static synchronized long getReferences() {
+    double total = cold;
+    for (double d : distances) {
+      total += d;
+    }
+    return (long) total;
+  }
+}
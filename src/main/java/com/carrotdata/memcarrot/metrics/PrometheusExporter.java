@@ -0,0 +1,254 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.carrotdata.cache.support.Memcached;
+import com.carrotdata.memcarrot.util.Histogram;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Built-in HTTP listener, which renders server metrics in Prometheus text format on "/metrics".
+ * Metrics are read directly from the counters (no JMX traversal), a single thread serves scrapes.
+ */
+public class PrometheusExporter {
+  private static final Logger log = LogManager.getLogger(PrometheusExporter.class);
+
+  public static final String PATH = "/metrics";
+
+  private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  private static final double NANOS_PER_SECOND = 1e9;
+
+  private static final double[] QUANTILES = new double[] { 0.5, 0.99, 0.999 };
+
+  private final HttpServer server;
+
+  private final Memcached support;
+
+  private final String prefix;
+
+  /*
+   * Reused between scrapes (single serving thread)
+   */
+  private final StringBuilder sb = new StringBuilder(16 * 1024);
+
+  /**
+   * Constructor
+   * @param host address to bind
+   * @param port port
+   * @param support data store (null in proxy mode)
+   * @param prefix metric names prefix (JMX domain name)
+   * @throws IOException
+   */
+  public PrometheusExporter(String host, int port, Memcached support, String prefix)
+      throws IOException {
+    this.support = support;
+    this.prefix = sanitize(prefix) + "_";
+    this.server = HttpServer.create(new InetSocketAddress(host, port), 0);
+    this.server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+      Thread t = new Thread(r, "mc-metrics-http");
+      t.setDaemon(true);
+      return t;
+    }));
+    this.server.createContext(PATH, this::handle);
+  }
+
+  /** Starts listener */
+  public void start() {
+    server.start();
+    log.info("Prometheus metrics endpoint started on: {}{}", server.getAddress(), PATH);
+  }
+
+  /**
+   * Port the listener is bound to
+   * @return port
+   */
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  /** Stops listener */
+  public void stop() {
+    server.stop(0);
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      if (!"GET".equals(exchange.getRequestMethod())) {
+        exchange.sendResponseHeaders(405, -1);
+        return;
+      }
+      byte[] body = render().getBytes();
+      exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream os = exchange.getResponseBody()) {
+        os.write(body);
+      }
+    } catch (RuntimeException e) {
+      log.error("Metrics rendering failed", e);
+      exchange.sendResponseHeaders(500, -1);
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /**
+   * Renders all metrics
+   * @return metrics in Prometheus text format
+   */
+  String render() {
+    sb.setLength(0);
+    type("commands_total", "counter");
+    for (int i = 0; i < CommandTypes.count(); i++) {
+      long n = ServerMetrics.getCommands(i);
+      if (n > 0) {
+        sample("commands_total", "command", CommandTypes.name(i), n);
+      }
+    }
+    counter("command_errors_total", ServerMetrics.getErrors());
+    counter("bytes_read_total", ServerMetrics.getBytesRead());
+    counter("bytes_written_total", ServerMetrics.getBytesWritten());
+    counter("connections_total", ServerMetrics.getConnectionsTotal());
+    gauge("connections_current", ServerMetrics.getConnectionsCurrent());
+    workers();
+    if (Latency.isEnabled()) {
+      latency();
+    }
+    if (support != null) {
+      cache(support.stats());
+    }
+    return sb.toString();
+  }
+
+  private void workers() {
+    List<WorkerStats> list = WorkerStats.all();
+    if (list.isEmpty()) {
+      return;
+    }
+    gauge("workers", list.size());
+    WorkerStats total = WorkerStats.total();
+    gauge("worker_utilization", total.getUtilization());
+    type("worker_time_seconds_total", "counter");
+    sampleSeconds("worker_time_seconds_total", "state", "busy", total.busyNanos);
+    sampleSeconds("worker_time_seconds_total", "state", "spin", total.spinNanos);
+    sampleSeconds("worker_time_seconds_total", "state", "park", total.parkNanos);
+    counter("worker_wakeups_total", total.keys);
+    counter("worker_queue_wait_seconds_total", total.queueWaitNanos / NANOS_PER_SECOND);
+    long selector = WorkerStats.getSelectorCpuNanos();
+    if (selector >= 0) {
+      counter("selector_cpu_seconds_total", selector / NANOS_PER_SECOND);
+    }
+  }
+
+  private void sampleSeconds(String name, String label, String labelValue, long nanos) {
+    sb.append(prefix).append(name).append('{').append(label).append("=\"").append(labelValue)
+        .append("\"} ").append(nanos / NANOS_PER_SECOND).append('\n');
+  }
+
+  private void latency() {
+    String name = "command_latency_seconds";
+    type(name, "summary");
+    for (int i = 0; i < CommandTypes.count(); i++) {
+      for (Latency.Phase phase : Latency.Phase.values()) {
+        Histogram h = Latency.snapshot(i, phase);
+        if (h.getCount() == 0) {
+          continue;
+        }
+        String labels = "command=\"" + CommandTypes.name(i) + "\",phase=\"" + phase.label() + "\"";
+        for (double q : QUANTILES) {
+          sb.append(prefix).append(name).append('{').append(labels).append(",quantile=\"")
+              .append(q).append("\"} ")
+              .append(h.getValueAtPercentile(q * 100) / NANOS_PER_SECOND).append('\n');
+        }
+        sb.append(prefix).append(name).append("_count{").append(labels).append("} ")
+            .append(h.getCount()).append('\n');
+        sb.append(prefix).append(name).append("_sum{").append(labels).append("} ")
+            .append(h.getMean() * h.getCount() / NANOS_PER_SECOND).append('\n');
+      }
+    }
+  }
+
+  /**
+   * Numeric values of the storage statistics list (name, value, name, value ...) as gauges
+   */
+  private void cache(List<String> stats) {
+    for (int i = 0; i < stats.size() - 1; i += 2) {
+      String value = stats.get(i + 1);
+      double v;
+      try {
+        v = Double.parseDouble(value);
+      } catch (NumberFormatException e) {
+        continue;
+      }
+      gauge("cache_" + sanitize(stats.get(i)), v);
+    }
+  }
+
+  private void type(String name, String type) {
+    sb.append("# TYPE ").append(prefix).append(name).append(' ').append(type).append('\n');
+  }
+
+  private void sample(String name, String label, String labelValue, long value) {
+    sb.append(prefix).append(name).append('{').append(label).append("=\"").append(labelValue)
+        .append("\"} ").append(value).append('\n');
+  }
+
+  private void counter(String name, long value) {
+    type(name, "counter");
+    sb.append(prefix).append(name).append(' ').append(value).append('\n');
+  }
+
+  private void counter(String name, double value) {
+    type(name, "counter");
+    sb.append(prefix).append(name).append(' ').append(value).append('\n');
+  }
+
+  private void gauge(String name, long value) {
+    type(name, "gauge");
+    sb.append(prefix).append(name).append(' ').append(value).append('\n');
+  }
+
+  private void gauge(String name, double value) {
+    type(name, "gauge");
+    sb.append(prefix).append(name).append(' ').append(value).append('\n');
+  }
+
+  /**
+   * Converts name to a valid Prometheus metric name
+   */
+  static String sanitize(String name) {
+    StringBuilder b = new StringBuilder(name.length());
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_'
+          || (c >= '0' && c <= '9' && i > 0);
+      b.append(valid ? c : '_');
+    }
+    return b.toString();
+  }
+}
@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.metrics;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.carrotdata.memcarrot.commands.MemcachedCommand;
+
+/**
+ * Server-wide counters: commands by type, errors, bytes read/written and connections. Hot path
+ * counters are per-thread (single writer, no synchronization) and summed up on demand.
+ */
+public final class ServerMetrics {
+
+  static final class Recorder {
+    final long[] commands = new long[CommandTypes.count()];
+    long errors;
+    long bytesRead;
+    long bytesWritten;
+    /* Connection being served by the thread, can be null */
+    ConnectionStats connection;
+  }
+
+  private static final List<Recorder> recorders = new CopyOnWriteArrayList<Recorder>();
+
+  private static final ThreadLocal<Recorder> local = ThreadLocal.withInitial(() -> {
+    Recorder r = new Recorder();
+    recorders.add(r);
+    return r;
+  });
+
+  private static final AtomicLong connectionsTotal = new AtomicLong();
+
+  private static final AtomicLong connectionsCurrent = new AtomicLong();
+
+  private static final AtomicLong ioBuffersMemory = new AtomicLong();
+
+  private ServerMetrics() {
+  }
+
+  /**
+   * Records executed command
+   * @param cmd command
+   */
+  public static void command(MemcachedCommand cmd) {
+    Recorder r = local.get();
+    int type = CommandTypes.id(cmd);
+    r.commands[type]++;
+    ConnectionStats c = r.connection;
+    if (c != null) {
+      c.commands[type]++;
+      c.lastCommand = type;
+    }
+  }
+
+  /** Records command error */
+  public static void error() {
+    Recorder r = local.get();
+    r.errors++;
+    ConnectionStats c = r.connection;
+    if (c != null) {
+      c.errors++;
+    }
+  }
+
+  /**
+   * Records bytes read from network
+   * @param n number of bytes
+   */
+  public static void bytesRead(long n) {
+    Recorder r = local.get();
+    r.bytesRead += n;
+    ConnectionStats c = r.connection;
+    if (c != null) {
+      c.bytesRead += n;
+    }
+  }
+
+  /**
+   * Records bytes written to network
+   * @param n number of bytes
+   */
+  public static void bytesWritten(long n) {
+    Recorder r = local.get();
+    r.bytesWritten += n;
+    ConnectionStats c = r.connection;
+    if (c != null) {
+      c.bytesWritten += n;
+    }
+  }
+
+  /**
+   * Sets connection served by the current thread, its counters are updated along with server-wide
+   * ones
+   * @param c connection statistics, null - none
+   */
+  public static void setConnection(ConnectionStats c) {
+    local.get().connection = c;
+  }
+
+  /** Records new connection */
+  public static void connectionOpened() {
+    connectionsTotal.incrementAndGet();
+    connectionsCurrent.incrementAndGet();
+  }
+
+  /** Records closed connection */
+  public static void connectionClosed() {
+    connectionsCurrent.decrementAndGet();
+  }
+
+  /**
+   * Records I/O buffer allocation
+   * @param size buffer size
+   */
+  public static void ioBufferAllocated(long size) {
+    ioBuffersMemory.addAndGet(size);
+  }
+
+  /**
+   * Memory allocated for network I/O buffers
+   * @return memory size
+   */
+  public static long getIOBuffersMemory() {
+    return ioBuffersMemory.get();
+  }
+
+  /**
+   * Number of executed commands of a type
+   * @param id command type id
+   * @return number of commands
+   */
+  public static long getCommands(int id) {
+    long sum = 0;
+    for (Recorder r : recorders) {
+      sum += r.commands[id];
+    }
+    return sum;
+  }
+
+  /**
+   * Total number of executed commands
+   * @return number of commands
+   */
+  public static long getTotalCommands() {
+    long sum = 0;
+    for (int i = 0; i < CommandTypes.count(); i++) {
+      sum += getCommands(i);
+    }
+    return sum;
+  }
+
+  public static long getErrors() {
+    long sum = 0;
+    for (Recorder r : recorders) {
+      sum += r.errors;
+    }
+    return sum;
+  }
+
+  public static long getBytesRead() {
+    long sum = 0;
+    for (Recorder r : recorders) {
+      sum += r.bytesRead;
+    }
+    return sum;
+  }
+
+  public static long getBytesWritten() {
+    long sum = 0;
+    for (Recorder r : recorders) {
+      sum += r.bytesWritten;
+    }
+    return sum;
+  }
+
+  public static long getConnectionsTotal() {
+    return connectionsTotal.get();
+  }
+
+  public static long getConnectionsCurrent() {
+    return connectionsCurrent.get();
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.metrics;
+
+import java.lang.invoke.VarHandle;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.carrotdata.cache.util.UnsafeAccess;
+import com.carrotdata.memcarrot.commands.AbstractMemcachedCommand;
+import com.carrotdata.memcarrot.commands.MemcachedCommand;
+import com.carrotdata.memcarrot.commands.RetrievalCommand;
+
+/**
+ * Slow commands log. Every worker owns a ring buffer (single writer, no locks) of commands whose
+ * parse + execute + write time exceeded the threshold. Readers merge rings on demand ("stats
+ * slowlog"), entries are protected by per-entry sequence numbers (seqlock), so a reader never sees
+ * a torn entry. Reset does not touch the rings: entries older than the last reset are skipped.
+ */
+public final class SlowLog {
+
+  public static final long DEFAULT_THRESHOLD_US = 10_000;
+
+  public static final int DEFAULT_SIZE = 128;
+
+  /*
+   * Maximum stored key prefix
+   */
+  static final int MAX_KEY_PREFIX = 32;
+
+  /**
+   * Slow command record (a consistent copy of a ring entry)
+   */
+  public static final class Record {
+    public long time;
+    public long durationNs;
+    public String command;
+    public String key;
+    public int valueSize;
+    public int responseSize;
+    public String client;
+  }
+
+  static final class Entry {
+    volatile long seq;
+    long time;
+    long durationNs;
+    int commandId;
+    final byte[] key = new byte[MAX_KEY_PREFIX];
+    int keySize;
+    int valueSize;
+    int responseSize;
+    SocketAddress client;
+  }
+
+  /**
+   * Per-worker ring buffer
+   */
+  public static final class Ring {
+    final Entry[] entries;
+    int next;
+
+    Ring(int size) {
+      entries = new Entry[size];
+      for (int i = 0; i < size; i++) {
+        entries[i] = new Entry();
+      }
+    }
+
+    /**
+     * Logs command if it is slow
+     * @param cmd command
+     * @param durationNs parse + execute + write time
+     * @param responseSize response size
+     * @param client client address
+     */
+    public void log(MemcachedCommand cmd, long durationNs, int responseSize, SocketAddress client) {
+      if (durationNs < thresholdNs || thresholdNs < 0 || entries.length == 0) {
+        return;
+      }
+      Entry e = entries[next];
+      next = (next + 1) % entries.length;
+      long seq = e.seq;
+      e.seq = seq + 1; // odd - entry is being written
+      // entry fields must not become visible before the odd sequence
+      VarHandle.storeStoreFence();
+      e.time = System.currentTimeMillis();
+      e.durationNs = durationNs;
+      e.commandId = CommandTypes.id(cmd);
+      e.keySize = 0;
+      e.valueSize = 0;
+      if (cmd instanceof AbstractMemcachedCommand) {
+        AbstractMemcachedCommand c = (AbstractMemcachedCommand) cmd;
+        long keyPtr = c.getKeyPtr();
+        int keySize = c.getKeySize();
+        if (cmd instanceof RetrievalCommand) {
+          RetrievalCommand rc = (RetrievalCommand) cmd;
+          keyPtr = rc.getKeys()[0];
+          keySize = rc.getKeySizes()[0];
+        }
+        if (keyPtr != 0) {
+          e.keySize = Math.min(keySize, MAX_KEY_PREFIX);
+          UnsafeAccess.copy(keyPtr, e.key, 0, e.keySize);
+        }
+        e.valueSize = c.getValueSize();
+      }
+      e.responseSize = responseSize;
+      e.client = client;
+      e.seq = seq + 2;
+    }
+
+    void collect(List<Record> list, long since) {
+      for (Entry e : entries) {
+        long seq = e.seq;
+        if (seq == 0 || (seq & 1) != 0) {
+          continue;
+        }
+        Record r = new Record();
+        r.time = e.time;
+        r.durationNs = e.durationNs;
+        r.command = CommandTypes.name(e.commandId);
+        r.key = new String(e.key, 0, Math.min(e.keySize, MAX_KEY_PREFIX));
+        r.valueSize = e.valueSize;
+        r.responseSize = e.responseSize;
+        SocketAddress client = e.client;
+        r.client = client != null ? client.toString() : "";
+        VarHandle.loadLoadFence();
+        if (e.seq != seq || r.time <= since) {
+          // entry was overwritten while reading or it is older than last reset
+          continue;
+        }
+        list.add(r);
+      }
+    }
+  }
+
+  private static volatile long thresholdNs = DEFAULT_THRESHOLD_US * 1000;
+
+  private static volatile int size = DEFAULT_SIZE;
+
+  private static volatile long resetTime;
+
+  private static final List<Ring> rings = new CopyOnWriteArrayList<Ring>();
+
+  private SlowLog() {
+  }
+
+  /**
+   * Configures slow log
+   * @param thresholdUs threshold in microseconds, negative - disabled
+   * @param ringSize number of entries per worker
+   */
+  public static void init(long thresholdUs, int ringSize) {
+    thresholdNs = thresholdUs < 0 ? -1 : thresholdUs * 1000;
+    size = Math.max(0, ringSize);
+  }
+
+  /**
+   * Is slow log enabled
+   * @return true or false
+   */
+  public static boolean isEnabled() {
+    return thresholdNs >= 0 && size > 0;
+  }
+
+  /**
+   * Is command slow enough to be logged
+   * @param durationNs command duration
+   * @return true or false
+   */
+  public static boolean isSlow(long durationNs) {
+    long threshold = thresholdNs;
+    return threshold >= 0 && durationNs >= threshold;
+  }
+
+  /**
+   * Threshold
+   * @return threshold in microseconds, negative - disabled
+   */
+  public static long getThresholdUs() {
+    return thresholdNs < 0 ? -1 : thresholdNs / 1000;
+  }
+
+  /**
+   * Creates ring buffer for a worker thread
+   * @return ring
+   */
+  public static Ring newRing() {
+    Ring r = new Ring(size);
+    rings.add(r);
+    return r;
+  }
+
+  /**
+   * Slow commands logged since the last reset, newest first
+   * @return records
+   */
+  public static List<Record> records() {
+    List<Record> list = new ArrayList<Record>();
+    long since = resetTime;
+    for (Ring r : rings) {
+      r.collect(list, since);
+    }
+    list.sort((a, b) -> Long.compare(b.time, a.time));
+    return list;
+  }
+
+  /** Discards all logged commands */
+  public static void reset() {
+    resetTime = System.currentTimeMillis();
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event of a storage snapshot save or load. Disabled by default.
+ */
+@Name("memcarrot.Snapshot")
+@Label("Snapshot")
+@Category({ "Memcarrot", "Storage" })
+@Description("Storage snapshot save or load")
+@Enabled(false)
+@StackTrace(false)
+public final class SnapshotEvent extends Event {
+
+  public static final String SAVE = "save";
+  public static final String LOAD = "load";
+
+  @Label("Operation")
+  public String operation;
+
+  @Label("Success")
+  public boolean success;
+}
@@ -0,0 +1,189 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.metrics;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * UDP listener counters. Every UDP worker thread owns its recorder (single writer, no
+ * synchronization), counters are summed up on demand.
+ */
+public final class UdpMetrics {
+
+  /** Worker counters */
+  public static final class Recorder {
+    long requests;
+    long datagramsIn;
+    long datagramsOut;
+    long bytesIn;
+    long bytesOut;
+    long errors;
+    long dropped;
+    long multiDatagramResponses;
+
+    private Recorder() {
+    }
+
+    /**
+     * Records received datagram
+     * @param bytes datagram size
+     */
+    public void received(int bytes) {
+      datagramsIn++;
+      bytesIn += bytes;
+    }
+
+    /**
+     * Records a served request
+     * @param datagrams number of response datagrams
+     * @param bytes response size (including frame headers)
+     */
+    public void responded(int datagrams, long bytes) {
+      requests++;
+      datagramsOut += datagrams;
+      bytesOut += bytes;
+      if (datagrams > 1) {
+        multiDatagramResponses++;
+      }
+    }
+
+    /** Records request which got an error response */
+    public void error() {
+      errors++;
+    }
+
+    /** Records dropped (malformed) datagram */
+    public void dropped() {
+      dropped++;
+    }
+  }
+
+  private static final List<Recorder> recorders = new CopyOnWriteArrayList<Recorder>();
+
+  private static volatile int port = -1;
+
+  private UdpMetrics() {
+  }
+
+  /**
+   * Creates recorder of a new worker
+   * @return recorder
+   */
+  public static Recorder newRecorder() {
+    Recorder r = new Recorder();
+    recorders.add(r);
+    return r;
+  }
+
+  /**
+   * Removes recorder of a stopped worker
+   * @param r recorder
+   */
+  public static void release(Recorder r) {
+    recorders.remove(r);
+  }
+
+  /**
+   * Sets UDP port the server listens on
+   * @param p port, -1 - UDP is disabled
+   */
+  public static void setPort(int p) {
+    port = p;
+  }
+
+  /**
+   * Get UDP port
+   * @return port, -1 - UDP is disabled
+   */
+  public static int getPort() {
+    return port;
+  }
+
+  /**
+   * Number of UDP workers
+   * @return workers
+   */
+  public static int getWorkers() {
+    return recorders.size();
+  }
+
+  public static long getRequests() {
+    long sum = 0;
+    for (Recorder r : recorders) {
+      sum += r.requests;
+    }
+    return sum;
+  }
+
+  public static long getDatagramsIn() {
+    long sum = 0;
+    for (Recorder r : recorders) {
+      sum += r.datagramsIn;
+    }
+    return sum;
+  }
+
+  public static long getDatagramsOut() {
+    long sum = 0;
+    for (Recorder r : recorders) {
+      sum += r.datagramsOut;
+    }
+    return sum;
+  }
+
+  public static long getBytesIn() {
+    long sum = 0;
+    for (Recorder r : recorders) {
+      sum += r.bytesIn;
+    }
+    return sum;
+  }
+
+  public static long getBytesOut() {
+    long sum = 0;
+    for (Recorder r : recorders) {
+      sum += r.bytesOut;
+    }
+    return sum;
+  }
+
+  public static long getErrors() {
+    long sum = 0;
+    for (Recorder r : recorders) {
+      sum += r.errors;
+    }
+    return sum;
+  }
+
+  public static long getDropped() {
+    long sum = 0;
+    for (Recorder r : recorders) {
+      sum += r.dropped;
+    }
+    return sum;
+  }
+
+  public static long getMultiDatagramResponses() {
+    long sum = 0;
+    for (Recorder r : recorders) {
+      sum += r.multiDatagramResponses;
+    }
+    return sum;
+  }
+}
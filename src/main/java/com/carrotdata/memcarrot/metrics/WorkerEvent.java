@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event of a worker thread wake up: serving of a connection from taking it from the selector
+ * until it is released. Disabled by default.
+ */
+@Name("memcarrot.WorkerWakeup")
+@Label("Worker Wakeup")
+@Category({ "Memcarrot", "Workers" })
+@Description("Worker thread serving a ready connection")
+@Enabled(false)
+@StackTrace(false)
+public final class WorkerEvent extends Event {
+
+  private static final EventType TYPE = EventType.getEventType(WorkerEvent.class);
+
+  @Label("Worker")
+  public String worker;
+
+  @Label("Queue Wait")
+  @Description("Time from the selector reporting the connection ready to the worker start")
+  @Timespan
+  public long queueWait;
+
+  @Label("Commands")
+  public long commands;
+
+  @Label("Handed Off")
+  @Description("Connection was handed off to the I/O pool")
+  public boolean handedOff;
+
+  /**
+   * Is event enabled in any running recording
+   * @return true - enabled
+   */
+  public static boolean enabled() {
+    return TYPE.isEnabled();
+  }
+}
@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Worker thread utilization and scheduling statistics. Every worker updates its own instance (single
+ * writer), readers see slightly stale values.
+ */
+public final class WorkerStats {
+
+  private static final List<WorkerStats> all = new CopyOnWriteArrayList<WorkerStats>();
+
+  static {
+    JMX.register("Workers", new Bean());
+  }
+
+  /* Id of the selector (acceptor and reader) thread, -1 - not started */
+  private static volatile long selectorThreadId = -1;
+
+  private final String name;
+
+  /* Time spent serving connections */
+  public long busyNanos;
+
+  /* Time spent in busy loop waiting for the next connection */
+  public long spinNanos;
+
+  /* Time spent parked waiting for the next connection */
+  public long parkNanos;
+
+  /* Number of connections (selection keys) served, i.e. number of wake ups */
+  public long keys;
+
+  /* Time between selector reported a connection ready and worker started serving it */
+  public long queueWaitNanos;
+
+  /* Number of commands executed */
+  public long commands;
+
+  private WorkerStats(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Creates and registers statistics for a worker
+   * @param name worker name
+   * @return statistics
+   */
+  public static WorkerStats register(String name) {
+    WorkerStats s = new WorkerStats(name);
+    all.add(s);
+    return s;
+  }
+
+  /**
+   * Removes worker statistics
+   * @param s statistics
+   */
+  public static void unregister(WorkerStats s) {
+    all.remove(s);
+  }
+
+  /**
+   * Registers selector thread, its CPU time is reported along with the workers
+   * @param t selector thread
+   */
+  public static void selector(Thread t) {
+    selectorThreadId = t.getId();
+  }
+
+  /**
+   * CPU time of the selector thread
+   * @return CPU time in ns, -1 if not available
+   */
+  public static long getSelectorCpuNanos() {
+    long id = selectorThreadId;
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (id < 0 || !bean.isThreadCpuTimeSupported()) {
+      return -1;
+    }
+    return bean.getThreadCpuTime(id);
+  }
+
+  /**
+   * Statistics of all live workers
+   * @return list of statistics
+   */
+  public static List<WorkerStats> all() {
+    return all;
+  }
+
+  /**
+   * Aggregated statistics of all workers
+   * @return statistics
+   */
+  public static WorkerStats total() {
+    WorkerStats t = new WorkerStats("total");
+    for (WorkerStats s : all) {
+      t.busyNanos += s.busyNanos;
+      t.spinNanos += s.spinNanos;
+      t.parkNanos += s.parkNanos;
+      t.keys += s.keys;
+      t.queueWaitNanos += s.queueWaitNanos;
+      t.commands += s.commands;
+    }
+    return t;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Share of time spent serving connections
+   * @return utilization (0 - 1)
+   */
+  public double getUtilization() {
+    long total = busyNanos + spinNanos + parkNanos;
+    return total == 0 ? 0 : (double) busyNanos / total;
+  }
+
+  /**
+   * Average time from selector to worker
+   * @return average queue wait in ns
+   */
+  public double getAverageQueueWaitNanos() {
+    return keys == 0 ? 0 : (double) queueWaitNanos / keys;
+  }
+
+  /**
+   * Average number of commands executed per wake up
+   * @return commands per wake up
+   */
+  public double getCommandsPerWakeup() {
+    return keys == 0 ? 0 : (double) commands / keys;
+  }
+
+  static class Bean implements WorkersMXBean {
+
+    @Override
+    public int getCount() {
+      return all.size();
+    }
+
+    @Override
+    public double getUtilization() {
+      return total().getUtilization();
+    }
+
+    @Override
+    public long getBusyTimeMs() {
+      return total().busyNanos / 1_000_000;
+    }
+
+    @Override
+    public long getSpinTimeMs() {
+      return total().spinNanos / 1_000_000;
+    }
+
+    @Override
+    public long getParkTimeMs() {
+      return total().parkNanos / 1_000_000;
+    }
+
+    @Override
+    public long getKeysHandled() {
+      return total().keys;
+    }
+
+    @Override
+    public double getAverageQueueWaitUs() {
+      return total().getAverageQueueWaitNanos() / 1000;
+    }
+
+    @Override
+    public double getCommandsPerWakeup() {
+      return total().getCommandsPerWakeup();
+    }
+
+    @Override
+    public long getSelectorCpuTimeMs() {
+      long nanos = getSelectorCpuNanos();
+      return nanos < 0 ? -1 : nanos / 1_000_000;
+    }
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.metrics;
+
+/**
+ * Worker threads JMX interface (all workers aggregated)
+ */
+public interface WorkersMXBean {
+
+  public int getCount();
+
+  /**
+   * Share of time workers spent serving connections (0 - 1)
+   */
+  public double getUtilization();
+
+  public long getBusyTimeMs();
+
+  public long getSpinTimeMs();
+
+  public long getParkTimeMs();
+
+  public long getKeysHandled();
+
+  /**
+   * Average time from selector reporting a connection ready to a worker starting to serve it
+   */
+  public double getAverageQueueWaitUs();
+
+  public double getCommandsPerWakeup();
+
+  /**
+   * CPU time of the selector thread, -1 if not available
+   */
+  public long getSelectorCpuTimeMs();
+}
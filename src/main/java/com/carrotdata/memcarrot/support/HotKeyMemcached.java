@@ -0,0 +1,561 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.support;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.carrotdata.cache.support.Memcached;
+import com.carrotdata.cache.util.UnsafeAccess;
+import com.carrotdata.cache.util.Utils;
+import com.carrotdata.memcarrot.util.CountMinSketch;
+
+/**
+ * Memcached support with a small, bounded, off-heap cache of decompressed values for the hottest
+ * keys in front of the (compressed) storage. Keys are admitted by access frequency estimated with
+ * a Count-Min sketch; when the cache is full, a new key replaces the least frequent key from a
+ * sample only if it is more frequent. Any write, delete or touch of a key invalidates it.
+ * Only "get" is served from the hot cache, all other operations go to the storage.
+ */
+public class HotKeyMemcached extends Memcached {
+  private static final Logger log = LogManager.getLogger(HotKeyMemcached.class);
+
+  /*
+   * Entry header: flags (4) + expire (8) + cas (8)
+   */
+  private static final int HEADER_SIZE = 20;
+
+  /*
+   * Number of entries sampled for eviction
+   */
+  private static final int EVICTION_SAMPLE = 8;
+
+  /*
+   * Number of write version stripes (power of 2)
+   */
+  private static final int STRIPES = 1024;
+
+  /**
+   * Hot cache entry: off-heap header and value, reference counted, so that memory is released
+   * only when the entry is removed from the cache and no reader copies it anymore
+   */
+  static final class Entry {
+    final long ptr;
+    final int size;
+    final AtomicInteger refs = new AtomicInteger(1);
+
+    Entry(long ptr, int size) {
+      this.ptr = ptr;
+      this.size = size;
+    }
+
+    boolean acquire() {
+      int r;
+      do {
+        r = refs.get();
+        if (r == 0) {
+          return false;
+        }
+      } while (!refs.compareAndSet(r, r + 1));
+      return true;
+    }
+
+    void release() {
+      if (refs.decrementAndGet() == 0) {
+        UnsafeAccess.free(ptr);
+      }
+    }
+
+    long memory() {
+      return HEADER_SIZE + size;
+    }
+  }
+
+  /**
+   * Hot cache key: either on-heap copy (stored in the map) or off-heap probe (lookups)
+   */
+  static final class HotKey {
+    byte[] bytes;
+    long address;
+    int length;
+    int hash;
+
+    HotKey(byte[] bytes, int hash) {
+      this.bytes = bytes;
+      this.length = bytes.length;
+      this.hash = hash;
+    }
+
+    HotKey() {
+    }
+
+    HotKey set(long address, int length, int hash) {
+      this.address = address;
+      this.length = length;
+      this.hash = hash;
+      return this;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof HotKey)) {
+        return false;
+      }
+      HotKey k = (HotKey) o;
+      if (hash != k.hash || length != k.length) {
+        return false;
+      }
+      if (bytes != null && k.bytes != null) {
+        return Utils.compareTo(bytes, 0, length, k.bytes, 0, k.length) == 0;
+      } else if (bytes != null) {
+        return Utils.compareTo(bytes, 0, length, k.address, k.length) == 0;
+      } else if (k.bytes != null) {
+        return Utils.compareTo(k.bytes, 0, k.length, address, length) == 0;
+      }
+      return Utils.compareTo(address, length, k.address, k.length) == 0;
+    }
+  }
+
+  private static final ThreadLocal<HotKey> probes = ThreadLocal.withInitial(HotKey::new);
+
+  private static final ThreadLocal<Record> records = ThreadLocal.withInitial(() -> {
+    Record r = new Record();
+    r.value = new byte[4096];
+    return r;
+  });
+
+  private final Memcached delegate;
+
+  private final long maxMemory;
+
+  private final int maxValueSize;
+
+  private final int admitFrequency;
+
+  private final CountMinSketch sketch;
+
+  private final ConcurrentHashMap<HotKey, Entry> map = new ConcurrentHashMap<>();
+
+  /*
+   * Write versions: incremented before and after every write, so that a reader, which fetched a
+   * value concurrently with a write, does not leave a stale copy in the hot cache
+   */
+  private final AtomicLongArray versions = new AtomicLongArray(STRIPES);
+
+  private final AtomicLong memory = new AtomicLong();
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * Constructor
+   * @param delegate storage
+   * @param maxMemory maximum memory for hot values
+   * @param admitFrequency minimum access frequency to admit a key
+   */
+  public HotKeyMemcached(Memcached delegate, long maxMemory, int admitFrequency) {
+    super(delegate.getCache());
+    this.delegate = delegate;
+    this.maxMemory = maxMemory;
+    // A single value can not take more than 1/16 of the cache
+    this.maxValueSize = (int) Math.min(Integer.MAX_VALUE - HEADER_SIZE, maxMemory / 16);
+    this.admitFrequency = Math.max(1, admitFrequency);
+    int width = (int) Math.max(1024, Math.min(1 << 20, maxMemory / 64));
+    this.sketch = new CountMinSketch(width, 10 * width);
+    log.info("Hot key cache: maximum size={} admit frequency={}", maxMemory, admitFrequency);
+  }
+
+  /**
+   * Unwraps storage
+   * @param support support
+   * @return underlying storage if support is a hot key cache, support otherwise
+   */
+  public static Memcached unwrap(Memcached support) {
+    return support instanceof HotKeyMemcached ? ((HotKeyMemcached) support).getDelegate()
+        : support;
+  }
+
+  /**
+   * Get underlying storage
+   * @return storage
+   */
+  public Memcached getDelegate() {
+    return delegate;
+  }
+
+  @Override
+  public Record get(long keyPtr, int keySize) {
+    int hash = Utils.murmurHash(keyPtr, keySize, 0);
+    HotKey probe = probes.get().set(keyPtr, keySize, hash);
+    Record r = lookup(probe);
+    if (r != null) {
+      hits.incrementAndGet();
+      return r;
+    }
+    misses.incrementAndGet();
+    int stripe = hash & (STRIPES - 1);
+    long version = versions.get(stripe);
+    r = delegate.get(keyPtr, keySize);
+    int freq = sketch.increment(hash);
+    if (r.value != null && freq >= admitFrequency && r.size <= maxValueSize) {
+      admit(keyPtr, keySize, hash, r, freq, stripe, version);
+    }
+    return r;
+  }
+
+  private Record lookup(HotKey probe) {
+    Entry e = map.get(probe);
+    if (e == null || !e.acquire()) {
+      return null;
+    }
+    try {
+      long expire = UnsafeAccess.toLong(e.ptr + 4);
+      if (expire > 0 && expire <= System.currentTimeMillis()) {
+        if (map.remove(probe, e)) {
+          removed(e);
+        }
+        return null;
+      }
+      Record r = records.get();
+      if (r.value.length < e.size) {
+        r.value = new byte[Math.max(e.size, 2 * r.value.length)];
+      }
+      UnsafeAccess.copy(e.ptr + HEADER_SIZE, r.value, 0, e.size);
+      r.offset = 0;
+      r.size = e.size;
+      r.flags = UnsafeAccess.toInt(e.ptr);
+      r.expire = expire;
+      r.cas = UnsafeAccess.toLong(e.ptr + 12);
+      r.error = false;
+      return r;
+    } finally {
+      e.release();
+    }
+  }
+
+  private void admit(long keyPtr, int keySize, int hash, Record r, int freq, int stripe,
+      long version) {
+    if ((version & 1) != 0 || versions.get(stripe) != version) {
+      // Write is in progress or value was updated after it had been read
+      return;
+    }
+    long need = HEADER_SIZE + r.size;
+    if (memory.get() + need > maxMemory && !evict(need, freq)) {
+      return;
+    }
+    long ptr = UnsafeAccess.malloc(need);
+    UnsafeAccess.putInt(ptr, r.flags);
+    UnsafeAccess.putLong(ptr + 4, r.expire);
+    UnsafeAccess.putLong(ptr + 12, r.cas);
+    UnsafeAccess.copy(r.value, r.offset, ptr + HEADER_SIZE, r.size);
+    Entry e = new Entry(ptr, r.size);
+    HotKey key = new HotKey(Utils.toBytes(keyPtr, keySize), hash);
+    memory.addAndGet(need);
+    if (versions.get(stripe) != version) {
+      removed(e);
+      return;
+    }
+    Entry old = map.put(key, e);
+    if (old != null) {
+      removed(old);
+    }
+    if (versions.get(stripe) != version) {
+      // Concurrent write after the check above - value can be stale
+      if (map.remove(key, e)) {
+        removed(e);
+      }
+    }
+  }
+
+  /**
+   * Evicts the least frequent keys from a sample until there is enough memory
+   * @param need memory needed
+   * @param freq frequency of a candidate
+   * @return true - if enough memory was freed
+   */
+  private boolean evict(long need, int freq) {
+    while (memory.get() + need > maxMemory) {
+      HotKey victim = null;
+      int victimFreq = Integer.MAX_VALUE;
+      Iterator<HotKey> it = map.keySet().iterator();
+      for (int i = 0; i < EVICTION_SAMPLE && it.hasNext(); i++) {
+        HotKey k = it.next();
+        int f = sketch.estimate(k.hash);
+        if (f < victimFreq) {
+          victimFreq = f;
+          victim = k;
+        }
+      }
+      if (victim == null || victimFreq >= freq) {
+        return false;
+      }
+      Entry e = map.remove(victim);
+      if (e != null) {
+        removed(e);
+        evictions.incrementAndGet();
+      }
+    }
+    return true;
+  }
+
+  private void removed(Entry e) {
+    memory.addAndGet(-e.memory());
+    e.release();
+  }
+
+  private int beginWrite(long keyPtr, int keySize) {
+    int hash = Utils.murmurHash(keyPtr, keySize, 0);
+    versions.incrementAndGet(hash & (STRIPES - 1));
+    return hash;
+  }
+
+  private void endWrite(long keyPtr, int keySize, int hash) {
+    versions.incrementAndGet(hash & (STRIPES - 1));
+    Entry e = map.remove(probes.get().set(keyPtr, keySize, hash));
+    if (e != null) {
+      removed(e);
+    }
+  }
+
+  @Override
+  public Record get(byte[] key, int off, int size) {
+    return delegate.get(key, off, size);
+  }
+
+  @Override
+  public Record gets(long keyPtr, int keySize) {
+    return delegate.gets(keyPtr, keySize);
+  }
+
+  @Override
+  public Record gat(long keyPtr, int keySize, long expTime) {
+    int hash = beginWrite(keyPtr, keySize);
+    try {
+      return delegate.gat(keyPtr, keySize, expTime);
+    } finally {
+      endWrite(keyPtr, keySize, hash);
+    }
+  }
+
+  @Override
+  public Record gats(long keyPtr, int keySize, long expTime) {
+    int hash = beginWrite(keyPtr, keySize);
+    try {
+      return delegate.gats(keyPtr, keySize, expTime);
+    } finally {
+      endWrite(keyPtr, keySize, hash);
+    }
+  }
+
+  @Override
+  public OpResult set(long keyPtr, int keySize, long valPtr, int valSize, int flags,
+      long expTime) {
+    int hash = beginWrite(keyPtr, keySize);
+    try {
+      return delegate.set(keyPtr, keySize, valPtr, valSize, flags, expTime);
+    } finally {
+      endWrite(keyPtr, keySize, hash);
+    }
+  }
+
+  @Override
+  public OpResult add(long keyPtr, int keySize, long valPtr, int valSize, int flags,
+      long expTime) {
+    int hash = beginWrite(keyPtr, keySize);
+    try {
+      return delegate.add(keyPtr, keySize, valPtr, valSize, flags, expTime);
+    } finally {
+      endWrite(keyPtr, keySize, hash);
+    }
+  }
+
+  @Override
+  public OpResult replace(long keyPtr, int keySize, long valPtr, int valSize, int flags,
+      long expTime) {
+    int hash = beginWrite(keyPtr, keySize);
+    try {
+      return delegate.replace(keyPtr, keySize, valPtr, valSize, flags, expTime);
+    } finally {
+      endWrite(keyPtr, keySize, hash);
+    }
+  }
+
+  @Override
+  public OpResult append(long keyPtr, int keySize, long valPtr, int valSize, int flags,
+      long expTime) {
+    int hash = beginWrite(keyPtr, keySize);
+    try {
+      return delegate.append(keyPtr, keySize, valPtr, valSize, flags, expTime);
+    } finally {
+      endWrite(keyPtr, keySize, hash);
+    }
+  }
+
+  @Override
+  public OpResult prepend(long keyPtr, int keySize, long valPtr, int valSize, int flags,
+      long expTime) {
+    int hash = beginWrite(keyPtr, keySize);
+    try {
+      return delegate.prepend(keyPtr, keySize, valPtr, valSize, flags, expTime);
+    } finally {
+      endWrite(keyPtr, keySize, hash);
+    }
+  }
+
+  @Override
+  public OpResult cas(long keyPtr, int keySize, long valPtr, int valSize, int flags,
+      long expTime, long cas) {
+    int hash = beginWrite(keyPtr, keySize);
+    try {
+      return delegate.cas(keyPtr, keySize, valPtr, valSize, flags, expTime, cas);
+    } finally {
+      endWrite(keyPtr, keySize, hash);
+    }
+  }
+
+  @Override
+  public long touch(long keyPtr, int keySize, long expTime) {
+    int hash = beginWrite(keyPtr, keySize);
+    try {
+      return delegate.touch(keyPtr, keySize, expTime);
+    } finally {
+      endWrite(keyPtr, keySize, hash);
+    }
+  }
+
+  @Override
+  public long incr(long keyPtr, int keySize, long v) {
+    int hash = beginWrite(keyPtr, keySize);
+    try {
+      return delegate.incr(keyPtr, keySize, v);
+    } finally {
+      endWrite(keyPtr, keySize, hash);
+    }
+  }
+
+  @Override
+  public long decr(long keyPtr, int keySize, long v) {
+    int hash = beginWrite(keyPtr, keySize);
+    try {
+      return delegate.decr(keyPtr, keySize, v);
+    } finally {
+      endWrite(keyPtr, keySize, hash);
+    }
+  }
+
+  @Override
+  public OpResult delete(long keyPtr, int keySize) {
+    int hash = beginWrite(keyPtr, keySize);
+    try {
+      return delegate.delete(keyPtr, keySize);
+    } finally {
+      endWrite(keyPtr, keySize, hash);
+    }
+  }
+
+  @Override
+  public void flushAll(int delay) {
+    delegate.flushAll(delay);
+    clear();
+  }
+
+  /** Removes all hot entries */
+  public void clear() {
+    for (int i = 0; i < STRIPES; i++) {
+      versions.incrementAndGet(i);
+    }
+    for (Map.Entry<HotKey, Entry> me : map.entrySet()) {
+      if (map.remove(me.getKey(), me.getValue())) {
+        removed(me.getValue());
+      }
+    }
+  }
+
+  /**
+   * Storage statistics followed by the hot key cache statistics
+   */
+  @Override
+  public List<String> stats() {
+    List<String> list = new ArrayList<String>(delegate.stats());
+    long h = hits.get();
+    long m = misses.get();
+    list.add("hotkey_cache_hits");
+    list.add(Long.toString(h));
+    list.add("hotkey_cache_misses");
+    list.add(Long.toString(m));
+    list.add("hotkey_cache_hit_ratio");
+    list.add(String.format("%.4f", h + m == 0 ? 0d : (double) h / (h + m)));
+    list.add("hotkey_cache_items");
+    list.add(Integer.toString(map.size()));
+    list.add("hotkey_cache_bytes");
+    list.add(Long.toString(memory.get()));
+    list.add("hotkey_cache_limit_maxbytes");
+    list.add(Long.toString(maxMemory));
+    list.add("hotkey_cache_evictions");
+    list.add(Long.toString(evictions.get()));
+    return list;
+  }
+
+  /**
+   * Number of hot cache hits
+   * @return hits
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Number of hot cache misses
+   * @return misses
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Memory used by hot values
+   * @return memory
+   */
+  public long getMemoryUsed() {
+    return memory.get();
+  }
+
+  @Override
+  public void dispose() {
+    clear();
+    delegate.dispose();
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.support;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.carrotdata.cache.Cache;
+import com.carrotdata.cache.support.Memcached;
+import com.carrotdata.cache.support.Memcached.Record;
+
+/**
+ * Batched multi-get support. Resolves all keys of a multi-key retrieval command against the RAM
+ * tier index first, then reads the keys which reside in the file tier concurrently, so that the
+ * command latency approaches a single SSD round trip instead of N sequential reads. RAM tier hits
+ * are served by the calling thread as usual.
+ */
+public class MultiGetExecutor {
+  private static final Logger log = LogManager.getLogger(MultiGetExecutor.class);
+
+  private static volatile MultiGetExecutor instance;
+
+  private final ExecutorService pool;
+
+  private final AtomicLong batches = new AtomicLong();
+
+  private final AtomicLong reads = new AtomicLong();
+
+  private MultiGetExecutor(int parallelism) {
+    AtomicInteger counter = new AtomicInteger();
+    this.pool = Executors.newFixedThreadPool(parallelism, r -> {
+      Thread t = new Thread(r, "mc-mget-thread-" + counter.getAndIncrement());
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  /**
+   * Initializes global instance
+   * @param parallelism maximum number of concurrent file tier reads, 0 - disables batching
+   */
+  public static synchronized void init(int parallelism) {
+    shutdown();
+    if (parallelism > 0) {
+      instance = new MultiGetExecutor(parallelism);
+      log.info("Batched multi-get enabled, parallelism={}", parallelism);
+    }
+  }
+
+  /**
+   * Get global instance
+   * @return instance or null if disabled
+   */
+  public static MultiGetExecutor get() {
+    return instance;
+  }
+
+  /** Shuts down global instance */
+  public static synchronized void shutdown() {
+    if (instance != null) {
+      instance.pool.shutdownNow();
+      instance = null;
+    }
+  }
+
+  /**
+   * Checks if key is not in RAM tier, but is in the file (victim) tier
+   * @param storage data store
+   * @param keyPtr key address
+   * @param keySize key size
+   * @return true - if reading the key requires file I/O
+   */
+  public static boolean inFileTier(Memcached storage, long keyPtr, int keySize) {
+    storage = HotKeyMemcached.unwrap(storage);
+    Memcached m = storage instanceof PartitionedMemcached
+        ? ((PartitionedMemcached) storage).partition(keyPtr, keySize)
+        : storage;
+    Cache cache = m.getCache();
+    Cache victim = cache.getVictimCache();
+    if (victim == null) {
+      return false;
+    }
+    return !cache.exists(keyPtr, keySize) && victim.exists(keyPtr, keySize);
+  }
+
+  /**
+   * Reads file tier keys concurrently. Key memory must stay valid until this method returns.
+   * @param storage data store
+   * @param keys keys addresses
+   * @param keySizes keys sizes
+   * @param withCAS true - for gets
+   * @return records (detached from thread-local buffers) for file tier keys, null elements for
+   *         keys which must be read by the caller, or null if there is nothing to batch
+   */
+  public Record[] prefetch(Memcached storage, long[] keys, int[] keySizes, boolean withCAS) {
+    List<Integer> indexes = null;
+    for (int i = 0; i < keys.length; i++) {
+      if (inFileTier(storage, keys[i], keySizes[i])) {
+        if (indexes == null) {
+          indexes = new ArrayList<>();
+        }
+        indexes.add(i);
+      }
+    }
+    if (indexes == null || indexes.size() < 2) {
+      return null;
+    }
+    List<Callable<Record>> tasks = new ArrayList<>(indexes.size());
+    for (int i : indexes) {
+      final long keyPtr = keys[i];
+      final int keySize = keySizes[i];
+      tasks.add(() -> copy(withCAS ? storage.gets(keyPtr, keySize) : storage.get(keyPtr, keySize)));
+    }
+    Record[] records = new Record[keys.length];
+    try {
+      List<Future<Record>> results = pool.invokeAll(tasks);
+      for (int i = 0; i < results.size(); i++) {
+        records[indexes.get(i)] = results.get(i).get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (ExecutionException e) {
+      log.error("Multi-get error:", e.getCause());
+      return null;
+    }
+    batches.incrementAndGet();
+    reads.addAndGet(indexes.size());
+    return records;
+  }
+
+  /**
+   * Number of batched multi-get commands
+   * @return number of batches
+   */
+  public long getBatches() {
+    return batches.get();
+  }
+
+  /**
+   * Number of concurrent file tier reads
+   * @return number of reads
+   */
+  public long getReads() {
+    return reads.get();
+  }
+
+  /**
+   * Copies record, because returned value buffer is thread-local to a pool thread
+   */
+  private static Record copy(Record r) {
+    Record c = new Record();
+    if (r.value != null) {
+      c.value = Arrays.copyOfRange(r.value, r.offset, r.offset + r.size);
+      c.offset = 0;
+      c.size = r.size;
+    }
+    c.flags = r.flags;
+    c.expire = r.expire;
+    c.cas = r.cas;
+    c.error = r.error;
+    return c;
+  }
+}
@@ -0,0 +1,361 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.support;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.carrotdata.cache.Cache;
+import com.carrotdata.cache.support.Memcached;
+import com.carrotdata.cache.util.CacheConfig;
+import com.carrotdata.cache.util.Utils;
+
+/**
+ * Shared-nothing partitioned Memcached support. Keeps N independent Memcached instances, each
+ * with its own cache (and victim cache) of 1/N of the configured maximum size, and routes every
+ * key to a partition by its hash. Worker threads operating on different keys rarely touch the
+ * same partition, which removes most of the contention inside the cache under write-heavy load.
+ */
+public class PartitionedMemcached extends Memcached {
+  private static final Logger log = LogManager.getLogger(PartitionedMemcached.class);
+
+  /*
+   * Hash seed, differs from the ones used by cache internally to keep partition choice and
+   * index slots independent
+   */
+  private static final int SEED = 0x5bd1e995;
+
+  private static final String CACHE_NAMES = "cache.names";
+  private static final String CACHE_TYPES = "cache.types";
+
+  private final Memcached[] partitions;
+
+  /**
+   * Constructor
+   * @param partitions partitions
+   */
+  public PartitionedMemcached(Memcached[] partitions) {
+    super(partitions[0].getCache());
+    this.partitions = partitions;
+  }
+
+  /**
+   * Creates partitioned support from the cache configuration. Every cache (tier) defined in
+   * configuration is replicated per partition with the name "name_N" and 1/N of its maximum size
+   * @param config cache configuration
+   * @param n number of partitions
+   * @return partitioned Memcached support
+   * @throws IOException
+   */
+  public static PartitionedMemcached create(CacheConfig config, int n) throws IOException {
+    if (n < 2) {
+      throw new IllegalArgumentException("number of partitions must be greater than 1");
+    }
+    String[] names = config.getCacheNames();
+    Properties props = config.getProperties();
+    String types = props.getProperty(CACHE_TYPES, "memory");
+    // Register partitions names and types, so cache configuration can resolve them
+    StringBuilder allNames = new StringBuilder(props.getProperty(CACHE_NAMES, names[0]));
+    StringBuilder allTypes = new StringBuilder(types);
+    for (int p = 0; p < n; p++) {
+      for (String name : names) {
+        String pname = partitionName(name, p);
+        copyCacheProperties(props, name, pname);
+        config.setCacheMaximumSize(pname, config.getCacheMaximumSize(name) / n);
+        allNames.append(',').append(pname);
+      }
+      allTypes.append(',').append(types);
+    }
+    props.setProperty(CACHE_NAMES, allNames.toString());
+    props.setProperty(CACHE_TYPES, allTypes.toString());
+
+    Memcached[] partitions = new Memcached[n];
+    for (int p = 0; p < n; p++) {
+      Cache parent = null;
+      Cache root = null;
+      for (String name : names) {
+        Cache c = new Cache(partitionName(name, p));
+        if (parent != null) {
+          parent.setVictimCache(c);
+        } else {
+          root = c;
+        }
+        parent = c;
+      }
+      partitions[p] = new Memcached(root);
+    }
+    log.info("Created {} partitions, maximum size per partition: {}", n,
+      config.getCacheMaximumSize(partitionName(names[0], 0)));
+    return new PartitionedMemcached(partitions);
+  }
+
+  private static String partitionName(String name, int p) {
+    return name + "_" + p;
+  }
+
+  /**
+   * Copies cache - specific properties ("name.property") to a partition
+   */
+  private static void copyCacheProperties(Properties props, String name, String pname) {
+    String prefix = name + ".";
+    for (String key : props.stringPropertyNames()) {
+      if (key.startsWith(prefix)) {
+        props.setProperty(pname + "." + key.substring(prefix.length()), props.getProperty(key));
+      }
+    }
+  }
+
+  /**
+   * Number of partitions
+   * @return number of partitions
+   */
+  public int getNumberOfPartitions() {
+    return partitions.length;
+  }
+
+  /**
+   * Get partitions
+   * @return partitions
+   */
+  public Memcached[] getPartitions() {
+    return partitions;
+  }
+
+  /**
+   * Get partition for a key
+   * @param keyPtr key address
+   * @param keySize key size
+   * @return partition
+   */
+  public Memcached partition(long keyPtr, int keySize) {
+    int h = Utils.murmurHash(keyPtr, keySize, SEED);
+    return partitions[(h & 0x7fffffff) % partitions.length];
+  }
+
+  private Memcached partition(byte[] key, int off, int size) {
+    int h = Utils.murmurHash(key, off, size, SEED);
+    return partitions[(h & 0x7fffffff) % partitions.length];
+  }
+
+  @Override
+  public Record get(long keyPtr, int keySize) {
+    return partition(keyPtr, keySize).get(keyPtr, keySize);
+  }
+
+  @Override
+  public Record get(byte[] key, int off, int size) {
+    return partition(key, off, size).get(key, off, size);
+  }
+
+  @Override
+  public Record gets(long keyPtr, int keySize) {
+    return partition(keyPtr, keySize).gets(keyPtr, keySize);
+  }
+
+  @Override
+  public Record gat(long keyPtr, int keySize, long expTime) {
+    return partition(keyPtr, keySize).gat(keyPtr, keySize, expTime);
+  }
+
+  @Override
+  public Record gats(long keyPtr, int keySize, long expTime) {
+    return partition(keyPtr, keySize).gats(keyPtr, keySize, expTime);
+  }
+
+  @Override
+  public OpResult set(long keyPtr, int keySize, long valPtr, int valSize, int flags,
+      long expTime) {
+    return partition(keyPtr, keySize).set(keyPtr, keySize, valPtr, valSize, flags, expTime);
+  }
+
+  @Override
+  public OpResult add(long keyPtr, int keySize, long valPtr, int valSize, int flags,
+      long expTime) {
+    return partition(keyPtr, keySize).add(keyPtr, keySize, valPtr, valSize, flags, expTime);
+  }
+
+  @Override
+  public OpResult replace(long keyPtr, int keySize, long valPtr, int valSize, int flags,
+      long expTime) {
+    return partition(keyPtr, keySize).replace(keyPtr, keySize, valPtr, valSize, flags, expTime);
+  }
+
+  @Override
+  public OpResult append(long keyPtr, int keySize, long valPtr, int valSize, int flags,
+      long expTime) {
+    return partition(keyPtr, keySize).append(keyPtr, keySize, valPtr, valSize, flags, expTime);
+  }
+
+  @Override
+  public OpResult prepend(long keyPtr, int keySize, long valPtr, int valSize, int flags,
+      long expTime) {
+    return partition(keyPtr, keySize).prepend(keyPtr, keySize, valPtr, valSize, flags, expTime);
+  }
+
+  @Override
+  public OpResult cas(long keyPtr, int keySize, long valPtr, int valSize, int flags,
+      long expTime, long cas) {
+    return partition(keyPtr, keySize).cas(keyPtr, keySize, valPtr, valSize, flags, expTime,
+      cas);
+  }
+
+  @Override
+  public long touch(long keyPtr, int keySize, long expTime) {
+    return partition(keyPtr, keySize).touch(keyPtr, keySize, expTime);
+  }
+
+  @Override
+  public long incr(long keyPtr, int keySize, long v) {
+    return partition(keyPtr, keySize).incr(keyPtr, keySize, v);
+  }
+
+  @Override
+  public long decr(long keyPtr, int keySize, long v) {
+    return partition(keyPtr, keySize).decr(keyPtr, keySize, v);
+  }
+
+  @Override
+  public OpResult delete(long keyPtr, int keySize) {
+    return partition(keyPtr, keySize).delete(keyPtr, keySize);
+  }
+
+  @Override
+  public void flushAll(int delay) {
+    for (Memcached m : partitions) {
+      m.flushAll(delay);
+    }
+  }
+
+  /**
+   * Statistics of all partitions, integer values are summed up. Other values (ratios, averages)
+   * can not be summed up, they are reported once if they are the same in all partitions and per
+   * partition as "partition:name" otherwise.
+   */
+  @Override
+  public List<String> stats() {
+    List<List<String>> stats = new ArrayList<List<String>>(partitions.length);
+    for (Memcached m : partitions) {
+      stats.add(m.stats());
+    }
+    List<String> merged = merge(stats);
+    List<String> result = new ArrayList<String>(merged.size() + 2);
+    result.add("partitions");
+    result.add(Integer.toString(partitions.length));
+    result.addAll(merged);
+    return result;
+  }
+
+  /**
+   * Merges statistics of partitions
+   * @param stats name-value lists of all partitions
+   * @return merged name-value list
+   */
+  static List<String> merge(List<List<String>> stats) {
+    int n = stats.size();
+    Map<String, String[]> values = new LinkedHashMap<String, String[]>();
+    for (int i = 0; i < n; i++) {
+      List<String> list = stats.get(i);
+      for (int j = 0; j < list.size() - 1; j += 2) {
+        values.computeIfAbsent(list.get(j), k -> new String[n])[i] = list.get(j + 1);
+      }
+    }
+    List<String> result = new ArrayList<String>(values.size() * 2);
+    for (Map.Entry<String, String[]> e : values.entrySet()) {
+      String name = e.getKey();
+      String[] v = e.getValue();
+      String merged = sum(v);
+      if (merged == null) {
+        merged = common(v);
+      }
+      if (merged != null) {
+        result.add(name);
+        result.add(merged);
+      } else {
+        for (int i = 0; i < n; i++) {
+          if (v[i] != null) {
+            result.add(i + ":" + name);
+            result.add(v[i]);
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Sum of integer values
+   * @return sum or null if any of values is not an integer
+   */
+  private static String sum(String[] values) {
+    long sum = 0;
+    for (String v : values) {
+      if (v == null) {
+        continue;
+      }
+      try {
+        sum += Long.parseLong(v);
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+    return Long.toString(sum);
+  }
+
+  /**
+   * Value which is the same in all partitions
+   * @return value or null if values differ
+   */
+  private static String common(String[] values) {
+    String first = null;
+    for (String v : values) {
+      if (v == null) {
+        continue;
+      }
+      if (first == null) {
+        first = v;
+      } else if (!first.equals(v)) {
+        return null;
+      }
+    }
+    return first;
+  }
+
+  /**
+   * Shuts down all partitions (saves data if configured)
+   * @throws IOException
+   */
+  public void shutdown() throws IOException {
+    for (Memcached m : partitions) {
+      m.getCache().shutdown();
+    }
+  }
+
+  @Override
+  public void dispose() {
+    for (Memcached m : partitions) {
+      m.dispose();
+    }
+  }
+}
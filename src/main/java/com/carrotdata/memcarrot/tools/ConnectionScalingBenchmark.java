@@ -0,0 +1,343 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.tools;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.carrotdata.memcarrot.SimpleClient;
+
+/**
+ * Connection scaling benchmark. For every step the total number of open connections is raised to
+ * the step count: a small, fixed number of hot connections runs {@link LoadGenerator} load, all
+ * others are mostly idle and send a single get every idle interval. Reports throughput and p99
+ * latency of the hot connections, selector thread CPU and worker utilization, and server memory
+ * (I/O buffers and JVM heap) per connection, taken from server statistics.
+ * <p>
+ * Usage: ConnectionScalingBenchmark [--steps=10,100,1000,10000,20000,50000] [--hot=50]
+ * [--idle-interval=10000 (ms, 0 - never)] [--step-duration=20 (s)] [LoadGenerator options]
+ * <p>
+ * Both server and client need an open files limit above the largest step (ulimit -n), and for
+ * many local connections a wide ephemeral port range (net.ipv4.ip_local_port_range).
+ */
+public class ConnectionScalingBenchmark {
+  private static final Logger log = LogManager.getLogger(ConnectionScalingBenchmark.class);
+
+  /* Idle connections ticker period */
+  private static final long TICK_MS = 10;
+
+  int[] steps = { 10, 100, 1000, 10000, 20000, 50000 };
+
+  int hot = 50;
+
+  long idleIntervalMs = 10_000;
+
+  int stepDuration = 20;
+
+  LoadGenerator.Options load;
+
+  /** Step results */
+  static class Step {
+    int connections;
+    double throughput;
+    long p99;
+    double selectorCpu;
+    double workerUtilization;
+    long ioBuffersPerConnection;
+    long heapPerConnection;
+  }
+
+  public static void main(String[] args) throws Exception {
+    ConnectionScalingBenchmark b;
+    try {
+      b = parse(args);
+    } catch (IllegalArgumentException e) {
+      log.error(e.getMessage());
+      log.info("Usage: ConnectionScalingBenchmark [--steps=10,100,1000,10000,20000,50000]"
+          + " [--hot=50] [--idle-interval=10000 (ms)] [--step-duration=20 (s)]"
+          + " [LoadGenerator options]");
+      System.exit(-1);
+      return;
+    }
+    List<Step> results = b.run();
+    log.info(String.format("%12s %14s %10s %14s %12s %16s %12s", "connections", "requests/s",
+      "p99(us)", "selector_cpu%", "worker_util", "io_buffers/conn", "heap/conn"));
+    for (Step s : results) {
+      log.info(String.format("%12d %14d %10.1f %14.2f %12.3f %16d %12d", s.connections,
+        (long) s.throughput, s.p99 / 1000.0, s.selectorCpu * 100, s.workerUtilization,
+        s.ioBuffersPerConnection, s.heapPerConnection));
+    }
+  }
+
+  static ConnectionScalingBenchmark parse(String[] args) {
+    ConnectionScalingBenchmark b = new ConnectionScalingBenchmark();
+    List<String> rest = new ArrayList<String>();
+    for (String arg : args) {
+      int eq = arg.indexOf('=');
+      String value = eq > 0 ? arg.substring(eq + 1) : null;
+      if (arg.startsWith("--steps=")) {
+        String[] parts = value.split(",");
+        b.steps = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+          b.steps[i] = Integer.parseInt(parts[i].trim());
+        }
+      } else if (arg.startsWith("--hot=")) {
+        b.hot = Integer.parseInt(value);
+      } else if (arg.startsWith("--idle-interval=")) {
+        b.idleIntervalMs = Long.parseLong(value);
+      } else if (arg.startsWith("--step-duration=")) {
+        b.stepDuration = Integer.parseInt(value);
+      } else {
+        rest.add(arg);
+      }
+    }
+    if (b.hot <= 0) {
+      throw new IllegalArgumentException("number of hot connections must be positive");
+    }
+    b.load = LoadGenerator.Options.parse(rest.toArray(new String[0]));
+    b.load.duration = b.stepDuration;
+    return b;
+  }
+
+  List<Step> run() throws IOException, InterruptedException {
+    String[] hostPort = load.server.split(":");
+    String host = hostPort[0];
+    int port = Integer.parseInt(hostPort[1]);
+    SimpleClient admin = new SimpleClient(host, port);
+    if (load.populate) {
+      log.info("Populating {} keys", load.keys);
+      LoadGenerator.populate(load);
+    }
+    IdleConnections idle = new IdleConnections(host, port, idleIntervalMs, load);
+    idle.start();
+    List<Step> results = new ArrayList<Step>();
+    try {
+      // memory per connection is measured against the baseline with no benchmark connections
+      Map<String, String> baseMem = admin.stats("memory");
+      long baseConns = connections(admin);
+      for (int n : steps) {
+        int hotConnections = Math.min(hot, n);
+        // hot and admin connections are counted
+        idle.open(n - hotConnections - 1);
+        Map<String, String> mem = admin.stats("memory");
+        long conns = Math.max(1, connections(admin) - baseConns);
+        Map<String, String> workersBefore = admin.stats("workers");
+
+        LoadGenerator.Options o = hotOptions(hotConnections);
+        log.info("Step: {} connections ({} hot, {} threads)", n, o.threads * o.connections,
+          o.threads);
+        long start = System.nanoTime();
+        LoadGenerator.Result r = LoadGenerator.run(o);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        Map<String, String> workersAfter = admin.stats("workers");
+        Step s = new Step();
+        s.connections = n;
+        s.throughput = r.getThroughput();
+        s.p99 = r.getLatency().getValueAtPercentile(99);
+        s.selectorCpu =
+            (double) delta(workersBefore, workersAfter, "selector:cpu_ms") / elapsedMs;
+        long busy = delta(workersBefore, workersAfter, "total:busy_ms");
+        long all = busy + delta(workersBefore, workersAfter, "total:spin_ms")
+            + delta(workersBefore, workersAfter, "total:park_ms");
+        s.workerUtilization = all == 0 ? 0 : (double) busy / all;
+        s.ioBuffersPerConnection = delta(baseMem, mem, "io_buffers_bytes") / conns;
+        // approximate: includes garbage not collected yet
+        s.heapPerConnection = delta(baseMem, mem, "heap_used_bytes") / conns;
+        results.add(s);
+        log.info("connections={} requests/s={} p99={}us selector cpu={}% idle requests={}", n,
+          (long) s.throughput, s.p99 / 1000, String.format("%.2f", s.selectorCpu * 100),
+          idle.getRequests());
+      }
+    } finally {
+      idle.shutdown();
+      admin.close();
+    }
+    return results;
+  }
+
+  private LoadGenerator.Options hotOptions(int hotConnections) {
+    LoadGenerator.Options o = new LoadGenerator.Options();
+    o.server = load.server;
+    o.threads = Math.min(load.threads, hotConnections);
+    o.connections = (hotConnections + o.threads - 1) / o.threads;
+    o.pipeline = load.pipeline;
+    o.setRatio = load.setRatio;
+    o.getRatio = load.getRatio;
+    o.keys = load.keys;
+    o.keyPrefix = load.keyPrefix;
+    o.keyDistribution = load.keyDistribution;
+    o.valueSize = load.valueSize;
+    o.rate = load.rate;
+    o.duration = load.duration;
+    o.warmup = load.warmup;
+    return o;
+  }
+
+  private static long connections(SimpleClient admin) throws IOException {
+    return value(admin.stats("commands"), "curr_connections");
+  }
+
+  private static long value(Map<String, String> stats, String name) {
+    String v = stats.get(name);
+    return v == null ? 0 : (long) Double.parseDouble(v);
+  }
+
+  private static long delta(Map<String, String> before, Map<String, String> after, String name) {
+    return value(after, name) - value(before, name);
+  }
+
+  /**
+   * Mostly idle connections driven by a single thread: every connection sends a get once per idle
+   * interval, connections take turns so the load is spread evenly over the interval
+   */
+  static class IdleConnections extends Thread {
+    final String host;
+    final int port;
+    final long intervalMs;
+    final byte[] prefix;
+    final long keys;
+    final Selector selector;
+    final List<SocketChannel> channels = new ArrayList<SocketChannel>();
+    final List<SocketChannel> pending = new ArrayList<SocketChannel>();
+    final ByteBuffer in = ByteBuffer.allocateDirect(64 * 1024);
+    final ByteBuffer out = ByteBuffer.allocateDirect(256);
+    final Random r = new Random();
+    volatile boolean stopped;
+    volatile long requests;
+
+    IdleConnections(String host, int port, long intervalMs, LoadGenerator.Options o)
+        throws IOException {
+      super("idle-connections");
+      this.host = host;
+      this.port = port;
+      this.intervalMs = intervalMs;
+      this.prefix = o.keyPrefix.getBytes();
+      this.keys = o.keys;
+      this.selector = Selector.open();
+    }
+
+    /**
+     * Opens connections until there are n of them
+     * @param n number of idle connections
+     */
+    void open(int n) throws IOException {
+      List<SocketChannel> opened = new ArrayList<SocketChannel>();
+      int current;
+      synchronized (this) {
+        current = channels.size() + pending.size();
+      }
+      for (int i = current; i < n; i++) {
+        opened.add(SimpleClient.openConnection(host, port));
+      }
+      synchronized (this) {
+        pending.addAll(opened);
+      }
+      selector.wakeup();
+      if (opened.size() > 0) {
+        log.info("Opened {} idle connections, total {}", opened.size(), n);
+      }
+    }
+
+    long getRequests() {
+      return requests;
+    }
+
+    void shutdown() throws InterruptedException {
+      stopped = true;
+      selector.wakeup();
+      join();
+    }
+
+    @Override
+    public void run() {
+      int next = 0;
+      double credit = 0;
+      long last = System.nanoTime();
+      try {
+        while (!stopped) {
+          synchronized (this) {
+            for (SocketChannel ch : pending) {
+              ch.register(selector, SelectionKey.OP_READ);
+              channels.add(ch);
+            }
+            pending.clear();
+          }
+          selector.select(TICK_MS);
+          Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+          while (it.hasNext()) {
+            SelectionKey key = it.next();
+            it.remove();
+            in.clear();
+            // responses are discarded
+            if (((SocketChannel) key.channel()).read(in) < 0) {
+              key.cancel();
+            }
+          }
+          if (intervalMs == 0 || channels.isEmpty()) {
+            continue;
+          }
+          long now = System.nanoTime();
+          credit += (double) channels.size() * (now - last) / (intervalMs * 1_000_000);
+          last = now;
+          for (; credit >= 1; credit--) {
+            next = next >= channels.size() ? 0 : next;
+            send(channels.get(next++));
+          }
+        }
+      } catch (IOException e) {
+        log.error("Idle connections thread failed", e);
+      } finally {
+        for (SocketChannel ch : channels) {
+          try {
+            ch.close();
+          } catch (IOException e) {
+            // ignore
+          }
+        }
+        try {
+          selector.close();
+        } catch (IOException e) {
+          // ignore
+        }
+      }
+    }
+
+    private void send(SocketChannel ch) throws IOException {
+      out.clear();
+      out.put("get ".getBytes()).put(prefix)
+          .put(Long.toString((long) (r.nextDouble() * keys)).getBytes()).put((byte) '\r')
+          .put((byte) '\n');
+      out.flip();
+      // tiny request, socket buffer is never full for an idle connection
+      ch.write(out);
+      requests++;
+    }
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.tools;
+
+import java.util.Random;
+
+/**
+ * Key index distribution over [0, n). Distributions are immutable and can be shared by threads,
+ * the caller provides the source of randomness.
+ */
+public abstract class KeyDistribution {
+
+  protected final long n;
+
+  protected KeyDistribution(long n) {
+    if (n <= 0) {
+      throw new IllegalArgumentException("number of keys must be positive: " + n);
+    }
+    this.n = n;
+  }
+
+  /**
+   * Number of keys
+   * @return number of keys
+   */
+  public long getKeys() {
+    return n;
+  }
+
+  /**
+   * Next key index
+   * @param r random
+   * @return key index in [0, n)
+   */
+  public abstract long next(Random r);
+
+  /**
+   * Uniform distribution
+   * @param n number of keys
+   * @return distribution
+   */
+  public static KeyDistribution uniform(long n) {
+    return new KeyDistribution(n) {
+      @Override
+      public long next(Random r) {
+        return (long) (r.nextDouble() * this.n);
+      }
+    };
+  }
+
+  /**
+   * Zipfian distribution (Gray et al., "Quickly generating billion-record synthetic databases",
+   * as in YCSB). Item popularity rank is scrambled with a hash, so the hottest keys are spread over
+   * the key space instead of being the smallest key indexes.
+   * @param n number of keys
+   * @param theta skew (0 < theta < 1), 0.99 is the YCSB default
+   * @return distribution
+   */
+  public static KeyDistribution zipfian(long n, double theta) {
+    return new Zipfian(n, theta);
+  }
+
+  /**
+   * Parses distribution: "uniform", "zipfian" or "zipfian:theta"
+   * @param spec distribution specification
+   * @param n number of keys
+   * @return distribution
+   */
+  public static KeyDistribution parse(String spec, long n) {
+    if (spec.equals("uniform")) {
+      return uniform(n);
+    } else if (spec.equals("zipfian")) {
+      return zipfian(n, Zipfian.DEFAULT_THETA);
+    } else if (spec.startsWith("zipfian:")) {
+      return zipfian(n, Double.parseDouble(spec.substring(8)));
+    }
+    throw new IllegalArgumentException("unknown key distribution: " + spec);
+  }
+
+  static class Zipfian extends KeyDistribution {
+
+    static final double DEFAULT_THETA = 0.99;
+
+    final double theta;
+
+    final double zetan;
+
+    final double alpha;
+
+    final double eta;
+
+    Zipfian(long n, double theta) {
+      super(n);
+      if (theta <= 0 || theta >= 1) {
+        throw new IllegalArgumentException("zipfian theta must be in (0, 1): " + theta);
+      }
+      this.theta = theta;
+      this.zetan = zeta(n, theta);
+      this.alpha = 1 / (1 - theta);
+      this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta(2, theta) / zetan);
+    }
+
+    static double zeta(long n, double theta) {
+      double sum = 0;
+      for (long i = 1; i <= n; i++) {
+        sum += 1 / Math.pow(i, theta);
+      }
+      return sum;
+    }
+
+    /**
+     * Popularity rank: 0 is the most popular key
+     * @param r random
+     * @return rank
+     */
+    long rank(Random r) {
+      double u = r.nextDouble();
+      double uz = u * zetan;
+      if (uz < 1) {
+        return 0;
+      }
+      if (uz < 1 + Math.pow(0.5, theta)) {
+        return Math.min(1, n - 1);
+      }
+      long rank = (long) (n * Math.pow(eta * u - eta + 1, alpha));
+      return Math.min(rank, n - 1);
+    }
+
+    @Override
+    public long next(Random r) {
+      return Long.remainderUnsigned(mix(rank(r)), n);
+    }
+
+    /* Stafford variant 13 of the MurmurHash3 finalizer */
+    static long mix(long z) {
+      z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+      z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+      return z ^ (z >>> 31);
+    }
+  }
+}
@@ -0,0 +1,740 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.tools;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.carrotdata.memcarrot.SimpleClient;
+import com.carrotdata.memcarrot.util.Histogram;
+
+/**
+ * Memcached text protocol load generator. Every thread drives its connections from a single
+ * selector, requests are pipelined up to a configured depth.
+ * <p>
+ * Closed-loop mode (default) sends a new request as soon as a response arrives, latency is
+ * measured from the actual send time. Open-loop mode (--rate) sends requests on a fixed schedule
+ * regardless of responses, latency is measured from the intended send time, so it is corrected for
+ * coordinated omission: a stalled server is charged for all requests which should have been sent
+ * while it was stalled.
+ * <p>
+ * Usage: LoadGenerator [--option=value ...], see {@link Options} for options and defaults.
+ */
+public class LoadGenerator {
+  private static final Logger log = LogManager.getLogger(LoadGenerator.class);
+
+  /** Response parser result: response is not complete yet */
+  static final int INCOMPLETE = -1;
+
+  /** Response parser result: error response */
+  static final int ERROR = -2;
+
+  private static final byte[] GET = "get ".getBytes();
+
+  private static final byte[] SET = "set ".getBytes();
+
+  private static final byte[] VALUE = "VALUE ".getBytes();
+
+  private static final byte[] STAT = "STAT ".getBytes();
+
+  private static final byte[] CRLF = "\r\n".getBytes();
+
+  private static final byte[][] ERRORS =
+      { "ERROR".getBytes(), "CLIENT_ERROR".getBytes(), "SERVER_ERROR".getBytes() };
+
+  private static final double[] PERCENTILES = { 50, 90, 99, 99.9, 99.99 };
+
+  /** Load generator options */
+  public static class Options {
+    /* Server address host:port */
+    String server = "localhost:11211";
+    /* Server Unix domain socket path, if set - used instead of TCP */
+    String socket;
+    /* Number of threads */
+    int threads = 4;
+    /* Connections per thread */
+    int connections = 50;
+    /* Maximum number of outstanding requests per connection */
+    int pipeline = 1;
+    /* Set:Get ratio */
+    int setRatio = 1;
+    int getRatio = 10;
+    /* Number of keys */
+    long keys = 1_000_000;
+    String keyPrefix = "key:";
+    String keyDistribution = "uniform";
+    String valueSize = "100";
+    /* Total request rate (per second), 0 - closed loop */
+    long rate = 0;
+    /* Test and warm up duration in seconds */
+    int duration = 30;
+    int warmup = 5;
+    /* Set all keys before the test */
+    boolean populate = false;
+    /* File to write latency percentile distribution (HdrHistogram .hgrm format) to */
+    String hgrm;
+
+    /**
+     * Parses command line options
+     * @param args arguments in "--name=value" format
+     * @return options
+     */
+    public static Options parse(String[] args) {
+      Options o = new Options();
+      for (String arg : args) {
+        int eq = arg.indexOf('=');
+        if (!arg.startsWith("--")) {
+          throw new IllegalArgumentException("invalid option: " + arg);
+        }
+        String name = eq > 0 ? arg.substring(2, eq) : arg.substring(2);
+        String value = eq > 0 ? arg.substring(eq + 1) : "true";
+        switch (name) {
+          case "server":
+            o.server = value;
+            break;
+          case "socket":
+            o.socket = value;
+            break;
+          case "threads":
+            o.threads = Integer.parseInt(value);
+            break;
+          case "connections":
+            o.connections = Integer.parseInt(value);
+            break;
+          case "pipeline":
+            o.pipeline = Integer.parseInt(value);
+            break;
+          case "ratio": {
+            String[] parts = value.split(":");
+            o.setRatio = Integer.parseInt(parts[0]);
+            o.getRatio = Integer.parseInt(parts[1]);
+            break;
+          }
+          case "keys":
+            o.keys = Long.parseLong(value);
+            break;
+          case "key-prefix":
+            o.keyPrefix = value;
+            break;
+          case "key-distribution":
+            o.keyDistribution = value;
+            break;
+          case "value-size":
+            o.valueSize = value;
+            break;
+          case "rate":
+            o.rate = Long.parseLong(value);
+            break;
+          case "duration":
+            o.duration = Integer.parseInt(value);
+            break;
+          case "warmup":
+            o.warmup = Integer.parseInt(value);
+            break;
+          case "populate":
+            o.populate = Boolean.parseBoolean(value);
+            break;
+          case "hgrm":
+            o.hgrm = value;
+            break;
+          default:
+            throw new IllegalArgumentException("unknown option: " + arg);
+        }
+      }
+      if (o.threads <= 0 || o.connections <= 0 || o.pipeline <= 0) {
+        throw new IllegalArgumentException("threads, connections and pipeline must be positive");
+      }
+      if (o.setRatio < 0 || o.getRatio < 0 || o.setRatio + o.getRatio == 0) {
+        throw new IllegalArgumentException("invalid set:get ratio");
+      }
+      return o;
+    }
+  }
+
+  /** Test results */
+  public static class Result {
+    final Histogram latency = new Histogram();
+    long gets;
+    long hits;
+    long sets;
+    long errors;
+    double seconds;
+
+    void add(Worker w) {
+      latency.add(w.latency);
+      gets += w.gets;
+      hits += w.hits;
+      sets += w.sets;
+      errors += w.errors;
+    }
+
+    /**
+     * Total number of completed requests
+     * @return requests
+     */
+    public long getRequests() {
+      return gets + sets;
+    }
+
+    /**
+     * Requests per second
+     * @return throughput
+     */
+    public double getThroughput() {
+      return seconds == 0 ? 0 : getRequests() / seconds;
+    }
+
+    /**
+     * Get hit ratio
+     * @return hit ratio
+     */
+    public double getHitRatio() {
+      return gets == 0 ? 0 : (double) hits / gets;
+    }
+
+    /**
+     * Latency histogram (ns)
+     * @return histogram
+     */
+    public Histogram getLatency() {
+      return latency;
+    }
+
+    /**
+     * Number of error responses
+     * @return errors
+     */
+    public long getErrors() {
+      return errors;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options o;
+    try {
+      o = Options.parse(args);
+    } catch (IllegalArgumentException e) {
+      log.error(e.getMessage());
+      usage();
+      return;
+    }
+    if (o.populate) {
+      log.info("Populating {} keys", o.keys);
+      Result r = populate(o);
+      log.info("Populated in {}s, {} errors", String.format("%.1f", r.seconds), r.errors);
+    }
+    log.info("Running {} threads, {} connections, pipeline={}, ratio={}:{}, keys={} ({}), "
+        + "value size={}, rate={}, duration={}s", o.threads, o.threads * o.connections,
+      o.pipeline, o.setRatio, o.getRatio, o.keys, o.keyDistribution, o.valueSize,
+      o.rate == 0 ? "closed loop" : o.rate + "/s", o.duration);
+    Result r = run(o);
+    report(r);
+    if (o.hgrm != null) {
+      try (PrintStream ps = new PrintStream(o.hgrm)) {
+        writePercentiles(r.latency, ps);
+      }
+      log.info("Latency distribution written to {}", o.hgrm);
+    }
+  }
+
+  private static void usage() {
+    log.info("Usage: LoadGenerator [--server=host:port] [--socket=path (Unix domain socket)]"
+        + " [--threads=4] [--connections=50 (per thread)]"
+        + " [--pipeline=1] [--ratio=1:10 (set:get)] [--keys=1000000] [--key-prefix=key:]"
+        + " [--key-distribution=uniform|zipfian[:theta]] [--value-size=100|100-1000|100:80,1000:20]"
+        + " [--rate=0 (requests/s, 0 - closed loop)] [--duration=30] [--warmup=5]"
+        + " [--populate] [--hgrm=file]");
+    System.exit(-1);
+  }
+
+  /**
+   * Runs the test
+   * @param o options
+   * @return results collected after warm up
+   */
+  public static Result run(Options o) throws IOException, InterruptedException {
+    KeyDistribution keys = KeyDistribution.parse(o.keyDistribution, o.keys);
+    ValueSizeDistribution sizes = ValueSizeDistribution.parse(o.valueSize);
+    long start = System.nanoTime();
+    long measureStart = start + TimeUnit.SECONDS.toNanos(o.warmup);
+    long end = measureStart + TimeUnit.SECONDS.toNanos(o.duration);
+    // interval between requests on a connection, open loop
+    long interval = o.rate == 0 ? 0 : o.threads * o.connections * 1_000_000_000L / o.rate;
+    Worker[] workers = new Worker[o.threads];
+    for (int i = 0; i < o.threads; i++) {
+      workers[i] = new Worker(i, o, keys, sizes, interval, measureStart, end);
+    }
+    for (Worker w : workers) {
+      w.start();
+    }
+    long last = 0;
+    while (System.nanoTime() < end) {
+      Thread.sleep(1000);
+      long completed = 0;
+      for (Worker w : workers) {
+        completed += w.completed;
+      }
+      log.info("{} requests/s", completed - last);
+      last = completed;
+    }
+    Result r = new Result();
+    for (Worker w : workers) {
+      w.join();
+      r.add(w);
+    }
+    r.seconds = o.duration;
+    return r;
+  }
+
+  /**
+   * Opens connection to the server: Unix domain socket, if set, or TCP
+   * @param o options
+   * @return non-blocking channel
+   * @throws IOException
+   */
+  static SocketChannel connect(Options o) throws IOException {
+    if (o.socket != null) {
+      return SimpleClient.openUnixConnection(o.socket);
+    }
+    String[] hostPort = o.server.split(":");
+    return SimpleClient.openConnection(hostPort[0], Integer.parseInt(hostPort[1]));
+  }
+
+  /**
+   * Sets all keys, closed loop
+   * @param o options
+   * @return results
+   */
+  static Result populate(Options o) throws IOException, InterruptedException {
+    ValueSizeDistribution sizes = ValueSizeDistribution.parse(o.valueSize);
+    long start = System.nanoTime();
+    Worker[] workers = new Worker[o.threads];
+    long perThread = (o.keys + o.threads - 1) / o.threads;
+    for (int i = 0; i < o.threads; i++) {
+      workers[i] = new Worker(i, o, null, sizes, 0, start, Long.MAX_VALUE);
+      workers[i].nextKey = i * perThread;
+      workers[i].lastKey = Math.min(o.keys, (i + 1) * perThread);
+    }
+    Result r = new Result();
+    for (Worker w : workers) {
+      w.start();
+    }
+    for (Worker w : workers) {
+      w.join();
+      r.add(w);
+    }
+    r.seconds = (System.nanoTime() - start) / 1e9;
+    return r;
+  }
+
+  static void report(Result r) {
+    Histogram h = r.latency;
+    log.info("Requests: {} ({} gets, {} sets), {} errors", r.getRequests(), r.gets, r.sets,
+      r.errors);
+    log.info("Throughput: {} requests/s, hit ratio: {}", (long) r.getThroughput(),
+      String.format("%.4f", r.getHitRatio()));
+    StringBuilder sb = new StringBuilder("Latency (us): mean=")
+        .append(String.format("%.1f", h.getMean() / 1000));
+    for (double p : PERCENTILES) {
+      sb.append(" p").append(p == (long) p ? Long.toString((long) p) : Double.toString(p))
+          .append('=').append(String.format("%.1f", h.getValueAtPercentile(p) / 1000.0));
+    }
+    sb.append(" max=").append(String.format("%.1f", h.getMax() / 1000.0));
+    log.info(sb.toString());
+  }
+
+  /**
+   * Writes latency percentile distribution in HdrHistogram .hgrm format, values in microseconds,
+   * so output can be plotted with the HdrHistogram plotter
+   * @param h histogram (ns)
+   * @param ps output
+   */
+  static void writePercentiles(Histogram h, PrintStream ps) {
+    ps.println(String.format("%12s %14s %10s %14s", "Value", "Percentile", "TotalCount",
+      "1/(1-Percentile)"));
+    ps.println();
+    long total = h.getCount();
+    long[] count = new long[1];
+    h.forEachBucket((from, to, n) -> {
+      count[0] += n;
+      double p = (double) count[0] / total;
+      String inv = p < 1 ? String.format("%14.2f", 1 / (1 - p)) : "";
+      ps.println(String.format("%12.3f %2.12f %10d %s", Math.min(to, h.getMax()) / 1000.0, p,
+        count[0], inv));
+    });
+    ps.println(String.format("#[Mean    = %12.3f, Max            = %12.3f]", h.getMean() / 1000,
+      h.getMax() / 1000.0));
+    ps.println(String.format("#[Total count    = %12d]", total));
+  }
+
+  /**
+   * Parses one response
+   * @param in buffer in read mode, position is advanced past the response if it is complete
+   * @return number of values in a retrieval response (0 for other responses, including multi-line
+   *         stats), {@link #INCOMPLETE} or {@link #ERROR}
+   */
+  static int nextResponse(ByteBuffer in) {
+    int pos = in.position();
+    int limit = in.limit();
+    int values = 0;
+    while (true) {
+      int eol = indexOfCRLF(in, pos, limit);
+      if (eol < 0) {
+        return INCOMPLETE;
+      }
+      if (startsWith(in, pos, eol, STAT)) {
+        pos = eol + 2;
+        continue;
+      }
+      if (!startsWith(in, pos, eol, VALUE)) {
+        in.position(eol + 2);
+        for (byte[] err : ERRORS) {
+          if (startsWith(in, pos, eol, err)) {
+            return ERROR;
+          }
+        }
+        return values;
+      }
+      // VALUE <key> <flags> <bytes> [<cas unique>]
+      long size = field(in, pos, eol, 3);
+      if (size < 0) {
+        in.position(eol + 2);
+        return ERROR;
+      }
+      long next = eol + 2 + size + 2;
+      if (next > limit) {
+        return INCOMPLETE;
+      }
+      pos = (int) next;
+      values++;
+    }
+  }
+
+  private static int indexOfCRLF(ByteBuffer in, int from, int limit) {
+    for (int i = from; i < limit - 1; i++) {
+      if (in.get(i) == '\r' && in.get(i + 1) == '\n') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean startsWith(ByteBuffer in, int from, int to, byte[] prefix) {
+    if (to - from < prefix.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (in.get(from + i) != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /* Numeric value of a space separated field of a line, -1 if not found or not a number */
+  private static long field(ByteBuffer in, int from, int to, int index) {
+    int i = from;
+    for (int f = 0; f < index; f++) {
+      while (i < to && in.get(i) != ' ') {
+        i++;
+      }
+      i++;
+    }
+    if (i >= to) {
+      return -1;
+    }
+    long v = 0;
+    for (; i < to && in.get(i) != ' '; i++) {
+      byte b = in.get(i);
+      if (b < '0' || b > '9') {
+        return -1;
+      }
+      v = v * 10 + b - '0';
+    }
+    return v;
+  }
+
+  static final class Connection {
+    final SocketChannel channel;
+    final ByteBuffer out;
+    final ByteBuffer in;
+    /* Outstanding requests: (intended) send time and type, ring buffer */
+    final long[] times;
+    final boolean[] gets;
+    int head;
+    int inflight;
+    /* Next intended send time, open loop */
+    long next;
+
+    Connection(SocketChannel channel, int pipeline, int maxValueSize) {
+      this.channel = channel;
+      this.out = ByteBuffer.allocateDirect(pipeline * (maxValueSize + 512));
+      this.in = ByteBuffer.allocateDirect(Math.max(64 * 1024, pipeline * (maxValueSize + 512)));
+      this.out.flip();
+      this.times = new long[pipeline];
+      this.gets = new boolean[pipeline];
+    }
+  }
+
+  static final class Worker extends Thread {
+    final Options o;
+    final KeyDistribution keys;
+    final ValueSizeDistribution sizes;
+    final long interval;
+    final long measureStart;
+    final long end;
+    final Random r;
+    final byte[] prefix;
+    final byte[] value;
+    final byte[] digits = new byte[20];
+    final Connection[] conns;
+    final Selector selector;
+    /* Populate: key range to set, closed loop */
+    long nextKey = -1;
+    long lastKey;
+
+    final Histogram latency = new Histogram();
+    long gets;
+    long hits;
+    long sets;
+    long errors;
+    volatile long completed;
+
+    Worker(int id, Options o, KeyDistribution keys, ValueSizeDistribution sizes, long interval,
+        long measureStart, long end) throws IOException {
+      super("load-generator-" + id);
+      this.o = o;
+      this.keys = keys;
+      this.sizes = sizes;
+      this.interval = interval;
+      this.measureStart = measureStart;
+      this.end = end;
+      this.r = new Random(id);
+      this.prefix = o.keyPrefix.getBytes();
+      this.value = new byte[sizes.getMaxSize()];
+      for (int i = 0; i < value.length; i++) {
+        value[i] = (byte) ('a' + r.nextInt(26));
+      }
+      this.selector = Selector.open();
+      this.conns = new Connection[o.connections];
+      long now = System.nanoTime();
+      for (int i = 0; i < conns.length; i++) {
+        SocketChannel ch = connect(o);
+        Connection c = new Connection(ch, o.pipeline, value.length);
+        // spread connection schedules over the first interval
+        c.next = now + (interval == 0 ? 0 : (long) (r.nextDouble() * interval));
+        ch.register(selector, SelectionKey.OP_READ, c);
+        conns[i] = c;
+      }
+    }
+
+    boolean populating() {
+      return nextKey >= 0;
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          long now = System.nanoTime();
+          boolean sending = now < end && (!populating() || nextKey < lastKey);
+          if (!sending && (!populating() || drained())) {
+            break;
+          }
+          long wait = Long.MAX_VALUE;
+          if (sending) {
+            for (Connection c : conns) {
+              send(c, now);
+              if (interval > 0 && c.inflight < o.pipeline) {
+                wait = Math.min(wait, c.next - now);
+              }
+            }
+          }
+          if (wait <= 0) {
+            selector.selectNow();
+          } else {
+            long ms = wait == Long.MAX_VALUE ? 100 : Math.max(1, wait / 1_000_000);
+            selector.select(Math.min(ms, Math.max(1, (end - now) / 1_000_000)));
+          }
+          Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+          while (it.hasNext()) {
+            SelectionKey key = it.next();
+            it.remove();
+            Connection c = (Connection) key.attachment();
+            if (key.isWritable()) {
+              flush(c, key);
+            }
+            if (key.isReadable()) {
+              receive(c);
+            }
+          }
+        }
+      } catch (IOException e) {
+        log.error("Load generator thread failed", e);
+      } finally {
+        for (Connection c : conns) {
+          try {
+            c.channel.close();
+          } catch (IOException e) {
+            // ignore
+          }
+        }
+        try {
+          selector.close();
+        } catch (IOException e) {
+          // ignore
+        }
+      }
+    }
+
+    private boolean drained() {
+      for (Connection c : conns) {
+        if (c.inflight > 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void send(Connection c, long now) throws IOException {
+      ByteBuffer out = c.out;
+      int sent = 0;
+      out.compact();
+      while (c.inflight < o.pipeline) {
+        long time;
+        if (interval > 0) {
+          if (c.next > now) {
+            break;
+          }
+          time = c.next;
+          c.next += interval;
+        } else {
+          time = now;
+        }
+        boolean get;
+        long key;
+        if (populating()) {
+          if (nextKey >= lastKey) {
+            break;
+          }
+          key = nextKey++;
+          get = false;
+        } else {
+          key = keys.next(r);
+          get = r.nextInt(o.setRatio + o.getRatio) >= o.setRatio;
+        }
+        if (get) {
+          out.put(GET);
+          putKey(out, key);
+          out.put(CRLF);
+        } else {
+          int size = sizes.next(r);
+          out.put(SET);
+          putKey(out, key);
+          out.put((byte) ' ').put((byte) '0').put((byte) ' ').put((byte) '0').put((byte) ' ');
+          putNumber(out, size);
+          out.put(CRLF);
+          out.put(value, 0, size);
+          out.put(CRLF);
+        }
+        int idx = (c.head + c.inflight) % o.pipeline;
+        c.times[idx] = time;
+        c.gets[idx] = get;
+        c.inflight++;
+        sent++;
+      }
+      out.flip();
+      if (sent > 0) {
+        flush(c, c.channel.keyFor(selector));
+      }
+    }
+
+    private void flush(Connection c, SelectionKey key) throws IOException {
+      c.channel.write(c.out);
+      key.interestOps(c.out.hasRemaining() ? SelectionKey.OP_READ | SelectionKey.OP_WRITE
+          : SelectionKey.OP_READ);
+    }
+
+    private void receive(Connection c) throws IOException {
+      ByteBuffer in = c.in;
+      if (c.channel.read(in) < 0) {
+        throw new IOException("connection closed by server");
+      }
+      in.flip();
+      long now = System.nanoTime();
+      int n = 0;
+      int res;
+      while (c.inflight > 0 && (res = nextResponse(in)) != INCOMPLETE) {
+        long time = c.times[c.head];
+        boolean get = c.gets[c.head];
+        c.head = (c.head + 1) % o.pipeline;
+        c.inflight--;
+        n++;
+        if (time < measureStart) {
+          continue;
+        }
+        latency.record(now - time);
+        if (res == ERROR) {
+          errors++;
+        }
+        if (get) {
+          gets++;
+          if (res > 0) {
+            hits++;
+          }
+        } else {
+          sets++;
+        }
+      }
+      in.compact();
+      if (!in.hasRemaining()) {
+        throw new IOException("response is too large");
+      }
+      if (n > 0) {
+        completed += n;
+        if (interval == 0) {
+          send(c, now);
+        }
+      }
+    }
+
+    private void putKey(ByteBuffer out, long key) {
+      out.put(prefix);
+      putNumber(out, key);
+    }
+
+    private void putNumber(ByteBuffer out, long v) {
+      int i = digits.length;
+      do {
+        digits[--i] = (byte) ('0' + v % 10);
+        v /= 10;
+      } while (v > 0);
+      out.put(digits, i, digits.length - i);
+    }
+  }
+}
@@ -0,0 +1,291 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.tools;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.carrotdata.cache.Builder;
+import com.carrotdata.cache.Cache;
+import com.carrotdata.cache.support.Memcached;
+import com.carrotdata.cache.util.UnsafeAccess;
+
+/**
+ * Memory efficiency benchmark: loads N items of configurable key and value size distributions
+ * into an embedded in-memory Memcached, once for every index format and compression setting, and
+ * reports RAM per item - off-heap (UnsafeAccess.mallocStats), index, data and heap - and load
+ * throughput.
+ * <p>
+ * Usage: MemoryEfficiencyBenchmark [--items=10000000] [--key-size=16-32] [--value-size=100-1000]
+ * [--value-data=text|random] [--index-formats=BaseIndexFormat,...] [--compression=false,true]
+ * [--segment-size=4194304]
+ * <p>
+ * Key and value sizes use {@link ValueSizeDistribution} format. Index format names without a
+ * package are in com.carrotdata.cache.index. Run with enough -XX:MaxDirectMemorySize and heap for
+ * the largest configuration, every configuration gets a cache large enough to avoid evictions.
+ */
+public class MemoryEfficiencyBenchmark {
+  private static final Logger log = LogManager.getLogger(MemoryEfficiencyBenchmark.class);
+
+  static final String INDEX_PACKAGE = "com.carrotdata.cache.index.";
+
+  /* Source of value bytes, values are copied from random offsets */
+  static final int VALUE_DATA_SIZE = 1 << 20;
+
+  long items = 10_000_000;
+
+  String keySize = "16-32";
+
+  String valueSize = "100-1000";
+
+  boolean randomValues = false;
+
+  String[] indexFormats = { "BaseIndexFormat", "CompactBaseWithExpireIndexFormat",
+      "SubCompactBaseNoSizeWithExpireIndexFormat", "SuperCompactBaseNoSizeWithExpireIndexFormat" };
+
+  boolean[] compression = { false, true };
+
+  long segmentSize = 4 << 20;
+
+  /** Configuration results */
+  static class Result {
+    String indexFormat;
+    boolean compression;
+    long items;
+    /* Raw key and value bytes of all loaded items */
+    long payload;
+    double loadSeconds;
+    long offHeap;
+    long index;
+    long data;
+    long heap;
+
+    double perItem(long bytes) {
+      return items == 0 ? 0 : (double) bytes / items;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    MemoryEfficiencyBenchmark b;
+    try {
+      b = parse(args);
+    } catch (IllegalArgumentException e) {
+      log.error(e.getMessage());
+      log.info("Usage: MemoryEfficiencyBenchmark [--items=10000000] [--key-size=16-32]"
+          + " [--value-size=100-1000] [--value-data=text|random]"
+          + " [--index-formats=BaseIndexFormat,...] [--compression=false,true]"
+          + " [--segment-size=4194304]");
+      System.exit(-1);
+      return;
+    }
+    List<Result> results = new ArrayList<Result>();
+    for (String format : b.indexFormats) {
+      for (boolean c : b.compression) {
+        Result r = b.run(format, c);
+        results.add(r);
+        log.info("{} compression={}: {} items in {}s", r.indexFormat, r.compression, r.items,
+          String.format("%.1f", r.loadSeconds));
+      }
+    }
+    log.info(String.format("%-45s %11s %12s %12s %12s %12s %12s %12s %12s", "index_format",
+      "compression", "items/s", "payload/item", "offheap/item", "overhead/item", "index/item",
+      "data/item", "heap/item"));
+    for (Result r : results) {
+      log.info(String.format("%-45s %11s %12d %12.1f %12.1f %12.1f %12.1f %12.1f %12.1f",
+        r.indexFormat, r.compression, (long) (r.items / r.loadSeconds), r.perItem(r.payload),
+        r.perItem(r.offHeap), r.perItem(r.offHeap - r.payload), r.perItem(r.index),
+        r.perItem(r.data), r.perItem(r.heap)));
+    }
+  }
+
+  static MemoryEfficiencyBenchmark parse(String[] args) {
+    MemoryEfficiencyBenchmark b = new MemoryEfficiencyBenchmark();
+    for (String arg : args) {
+      int eq = arg.indexOf('=');
+      if (!arg.startsWith("--") || eq < 0) {
+        throw new IllegalArgumentException("invalid option: " + arg);
+      }
+      String name = arg.substring(2, eq);
+      String value = arg.substring(eq + 1);
+      switch (name) {
+        case "items":
+          b.items = Long.parseLong(value);
+          break;
+        case "key-size":
+          b.keySize = value;
+          break;
+        case "value-size":
+          b.valueSize = value;
+          break;
+        case "value-data":
+          if (!value.equals("text") && !value.equals("random")) {
+            throw new IllegalArgumentException("invalid value data: " + value);
+          }
+          b.randomValues = value.equals("random");
+          break;
+        case "index-formats":
+          b.indexFormats = value.split(",");
+          break;
+        case "compression": {
+          String[] parts = value.split(",");
+          b.compression = new boolean[parts.length];
+          for (int i = 0; i < parts.length; i++) {
+            b.compression[i] = Boolean.parseBoolean(parts[i].trim());
+          }
+          break;
+        }
+        case "segment-size":
+          b.segmentSize = Long.parseLong(value);
+          break;
+        default:
+          throw new IllegalArgumentException("unknown option: " + arg);
+      }
+    }
+    // validate
+    ValueSizeDistribution.parse(b.keySize);
+    ValueSizeDistribution.parse(b.valueSize);
+    return b;
+  }
+
+  /**
+   * Full index format class name
+   * @param name class name, simple names are in com.carrotdata.cache.index package
+   * @return class name
+   */
+  static String indexFormatClass(String name) {
+    name = name.trim();
+    return name.indexOf('.') < 0 ? INDEX_PACKAGE + name : name;
+  }
+
+  /**
+   * Loads all items with a given configuration
+   * @param format index format
+   * @param compression compression enabled
+   * @return result
+   */
+  Result run(String format, boolean compression) throws IOException {
+    ValueSizeDistribution keys = ValueSizeDistribution.parse(keySize);
+    ValueSizeDistribution values = ValueSizeDistribution.parse(valueSize);
+    Random r = new Random(1);
+    byte[] data = valueData(r, randomValues, Math.max(VALUE_DATA_SIZE, 2 * values.getMaxSize()));
+    long dataPtr = UnsafeAccess.allocAndCopy(data, 0, data.length);
+    byte[] key = new byte[keys.getMaxSize()];
+    long keyPtr = UnsafeAccess.malloc(key.length);
+
+    Result res = new Result();
+    res.indexFormat = format;
+    res.compression = compression;
+    long heapBefore = usedHeap();
+    long offHeapBefore = UnsafeAccess.mallocStats.getAllocatedMemory();
+    // twice the payload upper bound - no evictions
+    long maxSize = 2 * items * (keys.getMaxSize() + values.getMaxSize() + 64);
+    Builder builder = new Builder("mem_" + format + "_" + compression);
+    builder.withCacheMaximumSize(maxSize).withCacheDataSegmentSize(segmentSize)
+        .withMainQueueIndexFormat(indexFormatClass(format))
+        .withCacheCompressionEnabled(compression).withTLSSupported(true);
+    Cache cache = builder.buildMemoryCache();
+    Memcached support = new Memcached(cache);
+    try {
+      long start = System.nanoTime();
+      for (long i = 0; i < items; i++) {
+        int ks = keys.next(r);
+        int vs = values.next(r);
+        fillKey(key, ks, i);
+        UnsafeAccess.copy(key, 0, keyPtr, ks);
+        long valuePtr = dataPtr + r.nextInt(data.length - vs + 1);
+        support.set(keyPtr, ks, valuePtr, vs, 0, 0);
+        res.payload += ks + vs;
+      }
+      res.loadSeconds = (System.nanoTime() - start) / 1e9;
+      res.items = cache.size();
+      if (res.items < items) {
+        log.warn("{} of {} items were evicted or not stored", items - res.items, items);
+      }
+      res.offHeap = UnsafeAccess.mallocStats.getAllocatedMemory() - offHeapBefore;
+      res.index = cache.getEngine().getMemoryIndex().getAllocatedMemory();
+      res.data = cache.getStorageAllocated();
+      res.heap = Math.max(0, usedHeap() - heapBefore);
+    } finally {
+      support.dispose();
+      UnsafeAccess.free(dataPtr);
+      UnsafeAccess.free(keyPtr);
+    }
+    return res;
+  }
+
+  /**
+   * Fills key of a given size: item number, left padded with '0' (truncated to key size)
+   * @param key key buffer
+   * @param size key size
+   * @param n item number
+   */
+  static void fillKey(byte[] key, int size, long n) {
+    for (int i = size - 1; i >= 0; i--) {
+      key[i] = (byte) ('0' + n % 10);
+      n /= 10;
+    }
+  }
+
+  /**
+   * Value bytes source: random bytes (incompressible) or words of lower case letters
+   * (compressible, similar to text and JSON)
+   * @param r random
+   * @param random random bytes
+   * @param size size
+   * @return data
+   */
+  static byte[] valueData(Random r, boolean random, int size) {
+    byte[] data = new byte[size];
+    if (random) {
+      r.nextBytes(data);
+      return data;
+    }
+    String[] words = new String[1024];
+    for (int i = 0; i < words.length; i++) {
+      char[] w = new char[2 + r.nextInt(8)];
+      for (int j = 0; j < w.length; j++) {
+        w[j] = (char) ('a' + r.nextInt(26));
+      }
+      words[i] = new String(w);
+    }
+    int off = 0;
+    while (off < data.length) {
+      String w = words[r.nextInt(words.length)];
+      for (int i = 0; i < w.length() && off < data.length; i++) {
+        data[off++] = (byte) w.charAt(i);
+      }
+      if (off < data.length) {
+        data[off++] = ' ';
+      }
+    }
+    return data;
+  }
+
+  private static long usedHeap() {
+    Runtime rt = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return rt.totalMemory() - rt.freeMemory();
+  }
+}
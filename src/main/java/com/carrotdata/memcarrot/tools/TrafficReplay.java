@@ -0,0 +1,381 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.tools;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.carrotdata.memcarrot.SimpleClient;
+import com.carrotdata.memcarrot.util.Histogram;
+import com.carrotdata.memcarrot.util.TrafficCapture;
+
+/**
+ * Replays a traffic capture (see {@link TrafficCapture}) against a server. Every captured
+ * connection is replayed on its own connection, in the captured order, at the captured pace
+ * multiplied by speed, or as fast as possible ("max"). Request latency is measured from the
+ * scheduled send time (from the actual send time with "max"), responses are matched to requests in
+ * order, requests with noreply are not measured.
+ * <p>
+ * Usage: TrafficReplay --file=capture.bin [--server=localhost:11211] [--speed=1|N|max]
+ */
+public class TrafficReplay {
+  private static final Logger log = LogManager.getLogger(TrafficReplay.class);
+
+  /* "max" speed: maximum number of outstanding requests per connection */
+  static final int MAX_INFLIGHT = 1024;
+
+  /* Wait for responses after the capture is replayed, ms */
+  static final long DRAIN_TIMEOUT_MS = 5000;
+
+  private static final double[] PERCENTILES = { 50, 90, 99, 99.9, 99.99 };
+
+  String file;
+
+  String server = "localhost:11211";
+
+  /* Speed multiplier, 0 - max */
+  double speed = 1;
+
+  /** Replay results */
+  static class Result {
+    final Histogram latency = new Histogram();
+    long connections;
+    long requests;
+    long responses;
+    long errors;
+    long bytes;
+    double seconds;
+    /* Captured traffic duration, s */
+    double captured;
+  }
+
+  public static void main(String[] args) throws Exception {
+    TrafficReplay replay;
+    try {
+      replay = parse(args);
+    } catch (IllegalArgumentException e) {
+      log.error(e.getMessage());
+      log.info("Usage: TrafficReplay --file=capture.bin [--server=localhost:11211]"
+          + " [--speed=1|N|max]");
+      System.exit(-1);
+      return;
+    }
+    Result r = replay.run();
+    Histogram h = r.latency;
+    log.info("Replayed {} connections, {} requests, {} bytes in {}s (captured {}s)",
+      r.connections, r.requests, r.bytes, String.format("%.1f", r.seconds),
+      String.format("%.1f", r.captured));
+    log.info("Responses: {}, errors: {}, throughput: {} requests/s", r.responses, r.errors,
+      (long) (r.seconds == 0 ? 0 : r.requests / r.seconds));
+    StringBuilder sb = new StringBuilder("Latency (us): mean=")
+        .append(String.format("%.1f", h.getMean() / 1000));
+    for (double p : PERCENTILES) {
+      sb.append(" p").append(p == (long) p ? Long.toString((long) p) : Double.toString(p))
+          .append('=').append(String.format("%.1f", h.getValueAtPercentile(p) / 1000.0));
+    }
+    sb.append(" max=").append(String.format("%.1f", h.getMax() / 1000.0));
+    log.info(sb.toString());
+  }
+
+  static TrafficReplay parse(String[] args) {
+    TrafficReplay r = new TrafficReplay();
+    for (String arg : args) {
+      int eq = arg.indexOf('=');
+      if (!arg.startsWith("--") || eq < 0) {
+        throw new IllegalArgumentException("invalid option: " + arg);
+      }
+      String name = arg.substring(2, eq);
+      String value = arg.substring(eq + 1);
+      switch (name) {
+        case "file":
+          r.file = value;
+          break;
+        case "server":
+          r.server = value;
+          break;
+        case "speed":
+          r.speed = value.equals("max") ? 0 : Double.parseDouble(value);
+          if (r.speed < 0) {
+            throw new IllegalArgumentException("invalid speed: " + value);
+          }
+          break;
+        default:
+          throw new IllegalArgumentException("unknown option: " + arg);
+      }
+    }
+    if (r.file == null) {
+      throw new IllegalArgumentException("capture file is not specified");
+    }
+    return r;
+  }
+
+  Result run() throws IOException {
+    String[] hostPort = server.split(":");
+    String host = hostPort[0];
+    int port = Integer.parseInt(hostPort[1]);
+    Result res = new Result();
+    Map<Long, Connection> conns = new HashMap<Long, Connection>();
+    long first = -1;
+    long last = 0;
+    long start = System.nanoTime();
+    try (TrafficCapture.Reader reader = new TrafficCapture.Reader(file);
+        Selector selector = Selector.open()) {
+      while (reader.next()) {
+        if (first < 0) {
+          first = reader.getTime();
+        }
+        last = reader.getTime();
+        long due = speed == 0 ? 0 : start + (long) ((reader.getTime() - first) / speed);
+        Connection c = conns.get(reader.getConnection());
+        if (c == null && reader.getType() == TrafficCapture.DATA) {
+          c = new Connection(SimpleClient.openConnection(host, port));
+          c.channel.register(selector, SelectionKey.OP_READ, c);
+          conns.put(reader.getConnection(), c);
+          res.connections++;
+        }
+        if (c == null) {
+          continue;
+        }
+        // wait for the scheduled time, or for the connection to catch up at max speed
+        while (true) {
+          long now = System.nanoTime();
+          boolean ready = speed == 0 ? c.times.size() < MAX_INFLIGHT && c.pending.isEmpty()
+              : now >= due;
+          if (ready) {
+            break;
+          }
+          poll(selector, res, speed == 0 ? 1 : Math.max(1, (due - now) / 1_000_000));
+        }
+        if (reader.getType() == TrafficCapture.DATA) {
+          byte[] data = reader.getData();
+          long time = speed == 0 ? System.nanoTime() : due;
+          int n = c.counter.add(data);
+          for (int i = 0; i < n; i++) {
+            c.times.add(time);
+          }
+          res.requests += n;
+          res.bytes += data.length;
+          c.pending.add(ByteBuffer.wrap(data));
+          flush(c, c.channel.keyFor(selector));
+        } else {
+          c.closing = true;
+          closeIfDone(c, conns, reader.getConnection());
+        }
+        poll(selector, res, -1);
+      }
+      // wait for outstanding responses
+      long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MS;
+      while (System.currentTimeMillis() < deadline && outstanding(conns)) {
+        poll(selector, res, 10);
+      }
+      for (Connection c : conns.values()) {
+        c.channel.close();
+      }
+    }
+    res.seconds = (System.nanoTime() - start) / 1e9;
+    res.captured = first < 0 ? 0 : (last - first) / 1e9;
+    return res;
+  }
+
+  private static boolean outstanding(Map<Long, Connection> conns) {
+    for (Connection c : conns.values()) {
+      if (c.channel.isOpen() && (!c.times.isEmpty() || !c.pending.isEmpty())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void closeIfDone(Connection c, Map<Long, Connection> conns, long id)
+      throws IOException {
+    if (c.times.isEmpty() && c.pending.isEmpty()) {
+      c.channel.close();
+      conns.remove(id);
+    }
+  }
+
+  /**
+   * Processes ready connections
+   * @param timeoutMs select timeout, -1 - do not wait
+   */
+  private void poll(Selector selector, Result res, long timeoutMs) throws IOException {
+    if (timeoutMs < 0) {
+      selector.selectNow();
+    } else {
+      selector.select(timeoutMs);
+    }
+    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+    while (it.hasNext()) {
+      SelectionKey key = it.next();
+      it.remove();
+      Connection c = (Connection) key.attachment();
+      if (!key.isValid()) {
+        continue;
+      }
+      if (key.isWritable()) {
+        flush(c, key);
+      }
+      if (key.isReadable()) {
+        receive(c, res);
+        if (c.closing && c.times.isEmpty() && c.pending.isEmpty()) {
+          // connection was closed in the capture
+          c.channel.close();
+        }
+      }
+    }
+  }
+
+  private static void flush(Connection c, SelectionKey key) throws IOException {
+    while (!c.pending.isEmpty()) {
+      ByteBuffer b = c.pending.peek();
+      c.channel.write(b);
+      if (b.hasRemaining()) {
+        break;
+      }
+      c.pending.poll();
+    }
+    key.interestOps(c.pending.isEmpty() ? SelectionKey.OP_READ
+        : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+  }
+
+  private static void receive(Connection c, Result res) throws IOException {
+    ByteBuffer in = c.in;
+    if (c.channel.read(in) < 0) {
+      c.channel.close();
+      return;
+    }
+    in.flip();
+    long now = System.nanoTime();
+    int r;
+    while (!c.times.isEmpty() && (r = LoadGenerator.nextResponse(in)) != LoadGenerator.INCOMPLETE) {
+      res.latency.record(now - c.times.poll());
+      res.responses++;
+      if (r == LoadGenerator.ERROR) {
+        res.errors++;
+      }
+    }
+    in.compact();
+    if (!in.hasRemaining()) {
+      // response does not fit, grow the buffer
+      ByteBuffer b = ByteBuffer.allocateDirect(in.capacity() * 2);
+      in.flip();
+      b.put(in);
+      c.in = b;
+    }
+  }
+
+  static final class Connection {
+    final SocketChannel channel;
+    final ArrayDeque<ByteBuffer> pending = new ArrayDeque<ByteBuffer>();
+    /* Send times of requests waiting for response */
+    final ArrayDeque<Long> times = new ArrayDeque<Long>();
+    final RequestCounter counter = new RequestCounter();
+    ByteBuffer in = ByteBuffer.allocateDirect(64 * 1024);
+    boolean closing;
+
+    Connection(SocketChannel channel) {
+      this.channel = channel;
+    }
+  }
+
+  /**
+   * Counts requests which expect a response in a request stream: storage commands skip their data
+   * block, "noreply" requests and "quit" expect no response. Incomplete requests are kept until the
+   * rest arrives.
+   */
+  static final class RequestCounter {
+    private byte[] buf = new byte[1024];
+    private int len;
+
+    /**
+     * Adds stream data
+     * @param data data
+     * @return number of requests completed by the data which expect a response
+     */
+    int add(byte[] data) {
+      if (len + data.length > buf.length) {
+        byte[] b = new byte[Math.max(buf.length * 2, len + data.length)];
+        System.arraycopy(buf, 0, b, 0, len);
+        buf = b;
+      }
+      System.arraycopy(data, 0, buf, len, data.length);
+      len += data.length;
+      int count = 0;
+      int pos = 0;
+      while (pos < len) {
+        int eol = -1;
+        for (int i = pos; i < len - 1; i++) {
+          if (buf[i] == '\r' && buf[i + 1] == '\n') {
+            eol = i;
+            break;
+          }
+        }
+        if (eol < 0) {
+          break;
+        }
+        String[] tokens = new String(buf, pos, eol - pos).trim().split(" +");
+        int next = eol + 2;
+        String cmd = tokens[0];
+        if (isStorage(cmd) && tokens.length >= 5) {
+          try {
+            next += Integer.parseInt(tokens[4]) + 2;
+          } catch (NumberFormatException e) {
+            // error response, no data block
+          }
+          if (next > len) {
+            break;
+          }
+        }
+        pos = next;
+        if (cmd.isEmpty() || cmd.equals("quit")) {
+          continue;
+        }
+        if (!tokens[tokens.length - 1].equals("noreply")) {
+          count++;
+        }
+      }
+      System.arraycopy(buf, pos, buf, 0, len - pos);
+      len -= pos;
+      return count;
+    }
+
+    private static boolean isStorage(String cmd) {
+      switch (cmd) {
+        case "set":
+        case "add":
+        case "replace":
+        case "append":
+        case "prepend":
+        case "cas":
+          return true;
+        default:
+          return false;
+      }
+    }
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.tools;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.carrotdata.memcarrot.SimpleClient;
+
+/**
+ * Unix domain socket vs loopback TCP benchmark. Runs the same {@link LoadGenerator} load over both
+ * transports of a server which listens on both (server.unix.socket), alternating them for a
+ * number of rounds. Reports throughput, latency percentiles, server time per request (worker busy
+ * time and selector CPU, from server statistics) and client CPU time per request.
+ * <p>
+ * Usage: UnixSocketBenchmark --socket=path [--rounds=3] [LoadGenerator options]
+ */
+public class UnixSocketBenchmark {
+  private static final Logger log = LogManager.getLogger(UnixSocketBenchmark.class);
+
+  int rounds = 3;
+
+  LoadGenerator.Options load;
+
+  /** Run results */
+  static class Run {
+    String transport;
+    double throughput;
+    long p50;
+    long p99;
+    long p999;
+    double serverUs;
+    double clientUs;
+  }
+
+  public static void main(String[] args) throws Exception {
+    UnixSocketBenchmark b;
+    try {
+      b = parse(args);
+    } catch (IllegalArgumentException e) {
+      log.error(e.getMessage());
+      log.info("Usage: UnixSocketBenchmark --socket=path [--rounds=3] [LoadGenerator options]");
+      System.exit(-1);
+      return;
+    }
+    List<Run> runs = b.run();
+    log.info(String.format("%10s %14s %10s %10s %10s %18s %18s", "transport", "requests/s",
+      "p50(us)", "p99(us)", "p99.9(us)", "server_us/request", "client_us/request"));
+    for (Run r : runs) {
+      log.info(String.format("%10s %14d %10.1f %10.1f %10.1f %18.2f %18.2f", r.transport,
+        (long) r.throughput, r.p50 / 1000.0, r.p99 / 1000.0, r.p999 / 1000.0, r.serverUs,
+        r.clientUs));
+    }
+    Run tcp = average(runs, "tcp");
+    Run unix = average(runs, "unix");
+    log.info(String.format(
+      "unix/tcp: throughput %.2fx, p99 %.2fx, server time %.2fx, client CPU %.2fx",
+      unix.throughput / tcp.throughput, (double) unix.p99 / tcp.p99, unix.serverUs / tcp.serverUs,
+      unix.clientUs / tcp.clientUs));
+  }
+
+  static UnixSocketBenchmark parse(String[] args) {
+    UnixSocketBenchmark b = new UnixSocketBenchmark();
+    List<String> rest = new ArrayList<String>();
+    for (String arg : args) {
+      if (arg.startsWith("--rounds=")) {
+        b.rounds = Integer.parseInt(arg.substring("--rounds=".length()));
+      } else {
+        rest.add(arg);
+      }
+    }
+    b.load = LoadGenerator.Options.parse(rest.toArray(new String[0]));
+    if (b.load.socket == null) {
+      throw new IllegalArgumentException("--socket is required");
+    }
+    if (b.rounds <= 0) {
+      throw new IllegalArgumentException("number of rounds must be positive");
+    }
+    return b;
+  }
+
+  List<Run> run() throws IOException, InterruptedException {
+    String socket = load.socket;
+    List<Run> runs = new ArrayList<Run>();
+    try {
+      if (load.populate) {
+        log.info("Populating {} keys", load.keys);
+        LoadGenerator.populate(load);
+      }
+      for (int i = 0; i < rounds; i++) {
+        for (boolean unix : new boolean[] { false, true }) {
+          load.socket = unix ? socket : null;
+          Run r = run(unix ? "unix" : "tcp");
+          runs.add(r);
+          log.info("round={} transport={} requests/s={} p99={}us", i, r.transport,
+            (long) r.throughput, r.p99 / 1000);
+        }
+      }
+    } finally {
+      load.socket = socket;
+    }
+    return runs;
+  }
+
+  private Run run(String transport) throws IOException, InterruptedException {
+    Map<String, String> before = stats("workers");
+    long commands = value(stats("commands"), "cmd_total");
+    long clientCpu = processCpuNanos();
+    LoadGenerator.Result result = LoadGenerator.run(load);
+    clientCpu = processCpuNanos() - clientCpu;
+    Map<String, String> after = stats("workers");
+
+    // Times include warm up, so they are divided by all commands served
+    long requests = Math.max(1, value(stats("commands"), "cmd_total") - commands);
+    Run r = new Run();
+    r.transport = transport;
+    r.throughput = result.getThroughput();
+    r.p50 = result.getLatency().getValueAtPercentile(50);
+    r.p99 = result.getLatency().getValueAtPercentile(99);
+    r.p999 = result.getLatency().getValueAtPercentile(99.9);
+    long serverMs = delta(before, after, "total:busy_ms") + delta(before, after, "selector:cpu_ms");
+    r.serverUs = serverMs * 1000.0 / requests;
+    r.clientUs = clientCpu < 0 ? 0 : clientCpu / 1000.0 / requests;
+    return r;
+  }
+
+  static Run average(List<Run> runs, String transport) {
+    Run a = new Run();
+    a.transport = transport;
+    int n = 0;
+    for (Run r : runs) {
+      if (!r.transport.equals(transport)) {
+        continue;
+      }
+      a.throughput += r.throughput;
+      a.p50 += r.p50;
+      a.p99 += r.p99;
+      a.p999 += r.p999;
+      a.serverUs += r.serverUs;
+      a.clientUs += r.clientUs;
+      n++;
+    }
+    if (n > 0) {
+      a.throughput /= n;
+      a.p50 /= n;
+      a.p99 /= n;
+      a.p999 /= n;
+      a.serverUs /= n;
+      a.clientUs /= n;
+    }
+    return a;
+  }
+
+  /* Server statistics over a short-lived TCP connection, which stays out of the measured load */
+  private Map<String, String> stats(String group) throws IOException {
+    String[] hostPort = load.server.split(":");
+    SimpleClient admin = new SimpleClient(hostPort[0], Integer.parseInt(hostPort[1]));
+    try {
+      return admin.stats(group);
+    } finally {
+      admin.close();
+    }
+  }
+
+  /* CPU time of this (client) process, -1 if not available */
+  private static long processCpuNanos() {
+    OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    if (os instanceof com.sun.management.OperatingSystemMXBean) {
+      return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+    }
+    return -1;
+  }
+
+  private static long value(Map<String, String> stats, String name) {
+    String v = stats.get(name);
+    return v == null ? 0 : (long) Double.parseDouble(v);
+  }
+
+  private static long delta(Map<String, String> before, Map<String, String> after, String name) {
+    return value(after, name) - value(before, name);
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.tools;
+
+import java.util.Random;
+
+/**
+ * Value size distribution. Specification formats:
+ * <ul>
+ * <li>"100" - fixed size</li>
+ * <li>"100-1000" - uniform in range (inclusive)</li>
+ * <li>"100:80,1000:15,10000:5" - weighted sizes</li>
+ * </ul>
+ */
+public class ValueSizeDistribution {
+
+  private final int[] sizes;
+
+  /* Cumulative weights, null for uniform range */
+  private final long[] weights;
+
+  private final boolean range;
+
+  private ValueSizeDistribution(int[] sizes, long[] weights, boolean range) {
+    this.sizes = sizes;
+    this.weights = weights;
+    this.range = range;
+  }
+
+  /**
+   * Parses distribution specification
+   * @param spec specification
+   * @return distribution
+   */
+  public static ValueSizeDistribution parse(String spec) {
+    try {
+      if (spec.indexOf(':') > 0) {
+        String[] parts = spec.split(",");
+        int[] sizes = new int[parts.length];
+        long[] weights = new long[parts.length];
+        long total = 0;
+        for (int i = 0; i < parts.length; i++) {
+          String[] p = parts[i].trim().split(":");
+          sizes[i] = positive(Integer.parseInt(p[0]));
+          total += positive(Integer.parseInt(p[1]));
+          weights[i] = total;
+        }
+        return new ValueSizeDistribution(sizes, weights, false);
+      }
+      int dash = spec.indexOf('-');
+      if (dash > 0) {
+        int min = positive(Integer.parseInt(spec.substring(0, dash)));
+        int max = positive(Integer.parseInt(spec.substring(dash + 1)));
+        if (max < min) {
+          throw new IllegalArgumentException("invalid value size range: " + spec);
+        }
+        return new ValueSizeDistribution(new int[] { min, max }, null, true);
+      }
+      return new ValueSizeDistribution(new int[] { positive(Integer.parseInt(spec)) }, null,
+          false);
+    } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+      throw new IllegalArgumentException("invalid value size distribution: " + spec);
+    }
+  }
+
+  private static int positive(int v) {
+    if (v <= 0) {
+      throw new IllegalArgumentException("value size and weight must be positive: " + v);
+    }
+    return v;
+  }
+
+  /**
+   * Maximum value size
+   * @return maximum size
+   */
+  public int getMaxSize() {
+    int max = 0;
+    for (int s : sizes) {
+      max = Math.max(max, s);
+    }
+    return max;
+  }
+
+  /**
+   * Next value size
+   * @param r random
+   * @return size
+   */
+  public int next(Random r) {
+    if (range) {
+      return sizes[0] + r.nextInt(sizes[1] - sizes[0] + 1);
+    }
+    if (weights == null) {
+      return sizes[0];
+    }
+    long w = (long) (r.nextDouble() * weights[weights.length - 1]);
+    for (int i = 0; i < weights.length; i++) {
+      if (w < weights[i]) {
+        return sizes[i];
+      }
+    }
+    return sizes[sizes.length - 1];
+  }
+}
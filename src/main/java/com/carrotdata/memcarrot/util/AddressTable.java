@@ -0,0 +1,277 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.util;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded open-addressing table of IP addresses with expiration time. An address (IPv4 or IPv6)
+ * is kept as two longs, IPv4 addresses are mapped to IPv6 (::ffff:a.b.c.d). Lookups are lock-free
+ * and allocation-free, updates are serialized. Expired entries are reused by later additions, so
+ * memory stays fixed. Slots never become empty again, therefore an address is kept within
+ * {@link #MAX_PROBE} slots from its hash position, which bounds a lookup miss once all slots have
+ * been used.
+ */
+public class AddressTable {
+
+  /* Slot has never been used, ends a probe sequence */
+  private static final long EMPTY = 0;
+
+  /* Slot is being reused, entry is treated as expired */
+  private static final long REUSED = 1;
+
+  /* Slot: expiration time (ms), address high and low words */
+  private static final int SLOT = 3;
+
+  /* Maximum probe sequence length */
+  static final int MAX_PROBE = 64;
+
+  private static final long IPV4_MAPPED = 0xffffL << 32;
+
+  private final AtomicLongArray slots;
+
+  private final int mask;
+
+  private final long ttl;
+
+  /**
+   * Constructor
+   * @param maxSize maximum number of addresses
+   * @param ttl entry time to live in ms, 0 - entries never expire
+   */
+  public AddressTable(int maxSize, long ttl) {
+    int capacity = Integer.highestOneBit(Math.max(maxSize, 8) * 2 - 1) << 1;
+    this.slots = new AtomicLongArray(capacity * SLOT);
+    this.mask = capacity - 1;
+    this.ttl = ttl;
+  }
+
+  /**
+   * Get table capacity (number of slots)
+   * @return capacity
+   */
+  public int capacity() {
+    return mask + 1;
+  }
+
+  /**
+   * Is address in the table and not expired
+   * @param high address high word
+   * @param low address low word
+   * @return true or false
+   */
+  public boolean contains(long high, long low) {
+    return contains(high, low, System.currentTimeMillis());
+  }
+
+  /**
+   * Is address in the table and not expired at a given time
+   * @param high address high word
+   * @param low address low word
+   * @param now current time (ms)
+   * @return true or false
+   */
+  public boolean contains(long high, long low, long now) {
+    int i = index(high, low);
+    int probe = Math.min(MAX_PROBE, mask + 1);
+    for (int n = 0; n < probe;) {
+      int base = i * SLOT;
+      long expire = slots.get(base);
+      if (expire == EMPTY) {
+        return false;
+      }
+      if (slots.get(base + 1) == high && slots.get(base + 2) == low) {
+        if (slots.get(base) != expire) {
+          // Slot was updated concurrently, read it again
+          continue;
+        }
+        return expire > now;
+      }
+      i = (i + 1) & mask;
+      n++;
+    }
+    return false;
+  }
+
+  /**
+   * Adds address or extends its expiration time
+   * @param high address high word
+   * @param low address low word
+   * @return false if table is full
+   */
+  public boolean add(long high, long low) {
+    return add(high, low, System.currentTimeMillis());
+  }
+
+  /**
+   * Adds address or extends its expiration time
+   * @param high address high word
+   * @param low address low word
+   * @param now current time (ms)
+   * @return false if table is full (no free slot within a probe sequence)
+   */
+  public synchronized boolean add(long high, long low, long now) {
+    long expire = ttl > 0 ? now + ttl : Long.MAX_VALUE;
+    int i = index(high, low);
+    int free = -1;
+    int probe = Math.min(MAX_PROBE, mask + 1);
+    for (int n = 0; n < probe; n++) {
+      int base = i * SLOT;
+      long e = slots.get(base);
+      if (e == EMPTY) {
+        if (free < 0) {
+          free = i;
+        }
+        break;
+      }
+      if (slots.get(base + 1) == high && slots.get(base + 2) == low) {
+        slots.set(base, expire);
+        return true;
+      }
+      if (e <= now && free < 0) {
+        free = i;
+      }
+      i = (i + 1) & mask;
+    }
+    if (free < 0) {
+      return false;
+    }
+    int base = free * SLOT;
+    if (slots.get(base) != EMPTY) {
+      slots.set(base, REUSED);
+    }
+    slots.set(base + 1, high);
+    slots.set(base + 2, low);
+    slots.set(base, expire);
+    return true;
+  }
+
+  /**
+   * Number of addresses which are not expired
+   * @param now current time (ms)
+   * @return number of addresses
+   */
+  public int size(long now) {
+    int size = 0;
+    for (int i = 0; i <= mask; i++) {
+      if (slots.get(i * SLOT) > now) {
+        size++;
+      }
+    }
+    return size;
+  }
+
+  /** Removes all addresses */
+  public synchronized void clear() {
+    for (int i = 0; i < slots.length(); i++) {
+      slots.set(i, 0);
+    }
+  }
+
+  private int index(long high, long low) {
+    long h = (high * 0x9e3779b97f4a7c15L) ^ low;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    return (int) h & mask;
+  }
+
+  /**
+   * High word of an address
+   * @param addr IPv4 (4 bytes) or IPv6 (16 bytes) address
+   * @return high word
+   */
+  public static long high(byte[] addr) {
+    return addr.length == 4 ? 0 : word(addr, 0);
+  }
+
+  /**
+   * Low word of an address
+   * @param addr IPv4 (4 bytes) or IPv6 (16 bytes) address
+   * @return low word
+   */
+  public static long low(byte[] addr) {
+    if (addr.length == 4) {
+      return IPV4_MAPPED | ((addr[0] & 0xffL) << 24) | ((addr[1] & 0xffL) << 16)
+          | ((addr[2] & 0xffL) << 8) | (addr[3] & 0xffL);
+    }
+    return word(addr, 8);
+  }
+
+  private static long word(byte[] addr, int off) {
+    long w = 0;
+    for (int i = off; i < off + 8; i++) {
+      w = (w << 8) | (addr[i] & 0xffL);
+    }
+    return w;
+  }
+
+  /**
+   * Converts address words back to an InetAddress
+   * @param high high word
+   * @param low low word
+   * @return address
+   */
+  public static InetAddress toInetAddress(long high, long low) {
+    byte[] addr;
+    if (high == 0 && (low >>> 32) == 0xffff) {
+      addr = new byte[] { (byte) (low >>> 24), (byte) (low >>> 16), (byte) (low >>> 8),
+          (byte) low };
+    } else {
+      addr = new byte[16];
+      for (int i = 0; i < 8; i++) {
+        addr[i] = (byte) (high >>> (56 - 8 * i));
+        addr[i + 8] = (byte) (low >>> (56 - 8 * i));
+      }
+    }
+    try {
+      return InetAddress.getByAddress(addr);
+    } catch (UnknownHostException e) {
+      // never happens for 4 or 16 bytes
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  /**
+   * Parses IP address literal, host names are never resolved
+   * @param s IPv4 or IPv6 address literal
+   * @return address bytes or null, if it is not a valid literal
+   */
+  public static byte[] parseAddress(String s) {
+    boolean v6 = s.indexOf(':') >= 0;
+    if (!v6 && s.indexOf('.') < 0) {
+      return null;
+    }
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      // IPv4 literal must be all digits, otherwise it could be resolved as a host name
+      boolean valid = v6 ? Character.digit(c, 16) >= 0 || c == '.' || c == ':'
+          : (c >= '0' && c <= '9') || c == '.';
+      if (!valid) {
+        return null;
+      }
+    }
+    try {
+      return InetAddress.getByName(s).getAddress();
+    } catch (UnknownHostException e) {
+      return null;
+    }
+  }
+}
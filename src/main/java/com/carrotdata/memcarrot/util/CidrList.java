@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.util;
+
+/**
+ * List of networks in CIDR notation (10.0.0.0/8, fd00::/8), a plain address is a single host
+ * network. Addresses are represented as high and low words, as in {@link AddressTable}.
+ */
+public class CidrList {
+
+  /* Network high, low words and mask high, low words */
+  private final long[] networks;
+
+  private CidrList(long[] networks) {
+    this.networks = networks;
+  }
+
+  /**
+   * Parses comma-separated list of networks
+   * @param s list, can be null or empty
+   * @return list
+   * @throws IllegalArgumentException if a network is not valid
+   */
+  public static CidrList parse(String s) {
+    if (s == null || s.trim().isEmpty()) {
+      return new CidrList(new long[0]);
+    }
+    String[] parts = s.split(",");
+    long[] networks = new long[parts.length * 4];
+    for (int i = 0; i < parts.length; i++) {
+      String part = parts[i].trim();
+      int slash = part.indexOf('/');
+      byte[] addr = AddressTable.parseAddress(slash < 0 ? part : part.substring(0, slash));
+      if (addr == null) {
+        throw new IllegalArgumentException("Invalid network: " + part);
+      }
+      int bits = addr.length * 8;
+      int prefix = bits;
+      if (slash >= 0) {
+        try {
+          prefix = Integer.parseInt(part.substring(slash + 1));
+        } catch (NumberFormatException e) {
+          prefix = -1;
+        }
+        if (prefix < 0 || prefix > bits) {
+          throw new IllegalArgumentException("Invalid network: " + part);
+        }
+      }
+      // IPv4 addresses are mapped to ::ffff:0:0/96
+      if (addr.length == 4) {
+        prefix += 96;
+      }
+      long maskHigh = prefix >= 64 ? -1L : prefix == 0 ? 0 : -1L << (64 - prefix);
+      long maskLow = prefix <= 64 ? 0 : prefix == 128 ? -1L : -1L << (128 - prefix);
+      networks[i * 4] = AddressTable.high(addr) & maskHigh;
+      networks[i * 4 + 1] = AddressTable.low(addr) & maskLow;
+      networks[i * 4 + 2] = maskHigh;
+      networks[i * 4 + 3] = maskLow;
+    }
+    return new CidrList(networks);
+  }
+
+  /**
+   * Number of networks
+   * @return size
+   */
+  public int size() {
+    return networks.length / 4;
+  }
+
+  /**
+   * Does any network contain the address
+   * @param high address high word
+   * @param low address low word
+   * @return true or false
+   */
+  public boolean contains(long high, long low) {
+    long[] n = networks;
+    for (int i = 0; i < n.length; i += 4) {
+      if ((high & n[i + 2]) == n[i] && (low & n[i + 3]) == n[i + 1]) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
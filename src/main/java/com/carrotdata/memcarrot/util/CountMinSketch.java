@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.util;
+
+import java.util.Arrays;
+
+/**
+ * Count-Min sketch with periodic aging (all counters are halved after a sample of increments),
+ * so that the estimates reflect recent access frequency. Updates are not synchronized: concurrent
+ * increments may be lost, which is acceptable for an approximate frequency estimator.
+ */
+public class CountMinSketch {
+
+  private static final int DEPTH = 4;
+
+  private static final long[] SEEDS =
+      { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+  private final int[][] table;
+
+  private final int mask;
+
+  private final int sampleSize;
+
+  private int additions;
+
+  /**
+   * Constructor
+   * @param width number of counters per row (rounded up to a power of 2)
+   * @param sampleSize number of increments after which counters are halved, 0 - no aging
+   */
+  public CountMinSketch(int width, int sampleSize) {
+    int w = Integer.highestOneBit(Math.max(width, 16) - 1) << 1;
+    this.table = new int[DEPTH][w];
+    this.mask = w - 1;
+    this.sampleSize = sampleSize;
+  }
+
+  /**
+   * Increments frequency of a hash
+   * @param hash item hash
+   * @return new frequency estimate
+   */
+  public int increment(long hash) {
+    int min = Integer.MAX_VALUE;
+    for (int i = 0; i < DEPTH; i++) {
+      int idx = index(hash, i);
+      int v = table[i][idx];
+      if (v < Integer.MAX_VALUE) {
+        table[i][idx] = ++v;
+      }
+      min = Math.min(min, v);
+    }
+    if (sampleSize > 0 && ++additions >= sampleSize) {
+      age();
+    }
+    return min;
+  }
+
+  /**
+   * Frequency estimate of a hash
+   * @param hash item hash
+   * @return estimate
+   */
+  public int estimate(long hash) {
+    int min = Integer.MAX_VALUE;
+    for (int i = 0; i < DEPTH; i++) {
+      min = Math.min(min, table[i][index(hash, i)]);
+    }
+    return min;
+  }
+
+  /** Halves all counters */
+  public void age() {
+    additions = 0;
+    for (int[] row : table) {
+      for (int i = 0; i < row.length; i++) {
+        row[i] >>>= 1;
+      }
+    }
+  }
+
+  /** Resets all counters */
+  public void clear() {
+    additions = 0;
+    for (int[] row : table) {
+      Arrays.fill(row, 0);
+    }
+  }
+
+  /**
+   * Width of a row
+   * @return width
+   */
+  public int width() {
+    return mask + 1;
+  }
+
+  private int index(long hash, int row) {
+    long h = (hash + SEEDS[row]) * SEEDS[row];
+    h ^= h >>> 32;
+    return (int) h & mask;
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.util;
+
+/**
+ * Log-linear histogram of non-negative long values (HdrHistogram-style): every power of 2 range is
+ * split into 32 linear sub-buckets, so the relative error of a reported value is below ~3%.
+ * Recording is not synchronized, a histogram must have a single writer. Values above the maximum
+ * trackable value are recorded into the last bucket.
+ */
+public class Histogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  /*
+   * Maximum trackable value: 2^40 - 1 (~18 min in ns)
+   */
+  private static final int MAX_BITS = 40;
+
+  private static final int NUM_BUCKETS = (MAX_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+  private final long[] counts = new long[NUM_BUCKETS];
+
+  private long totalCount;
+
+  private long max;
+
+  private long sum;
+
+  /**
+   * Records value
+   * @param value value
+   */
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    counts[index(value)]++;
+    totalCount++;
+    sum += value;
+    if (value > max) {
+      max = value;
+    }
+  }
+
+  /**
+   * Adds all values of other histogram to this one
+   * @param other histogram
+   */
+  public void add(Histogram other) {
+    long[] c = other.counts;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      counts[i] += c[i];
+    }
+    totalCount += other.totalCount;
+    sum += other.sum;
+    max = Math.max(max, other.max);
+  }
+
+  /** Resets histogram */
+  public void reset() {
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      counts[i] = 0;
+    }
+    totalCount = 0;
+    sum = 0;
+    max = 0;
+  }
+
+  /**
+   * Number of recorded values
+   * @return count
+   */
+  public long getCount() {
+    return totalCount;
+  }
+
+  /**
+   * Maximum recorded value
+   * @return maximum
+   */
+  public long getMax() {
+    return max;
+  }
+
+  /**
+   * Mean of recorded values
+   * @return mean
+   */
+  public double getMean() {
+    return totalCount == 0 ? 0 : (double) sum / totalCount;
+  }
+
+  /**
+   * Value at a given percentile
+   * @param percentile percentile (0 - 100)
+   * @return the highest value equivalent to the value at percentile (not above maximum)
+   */
+  public long getValueAtPercentile(double percentile) {
+    if (totalCount == 0) {
+      return 0;
+    }
+    long target = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+    long count = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      count += counts[i];
+      if (count >= target) {
+        return Math.min(highestEquivalentValue(i), max);
+      }
+    }
+    return max;
+  }
+
+  /**
+   * Visits all non-empty buckets
+   * @param visitor visitor
+   */
+  public void forEachBucket(BucketVisitor visitor) {
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      if (counts[i] > 0) {
+        visitor.visit(lowestEquivalentValue(i), highestEquivalentValue(i), counts[i]);
+      }
+    }
+  }
+
+  public static interface BucketVisitor {
+    /**
+     * Visit bucket
+     * @param from lowest value (inclusive)
+     * @param to highest value (inclusive)
+     * @param count number of values
+     */
+    public void visit(long from, long to, long count);
+  }
+
+  static int index(long value) {
+    if (value < 2 * SUB_BUCKETS) {
+      return (int) value;
+    }
+    int msb = 63 - Long.numberOfLeadingZeros(value);
+    if (msb >= MAX_BITS) {
+      return NUM_BUCKETS - 1;
+    }
+    int shift = msb - SUB_BUCKET_BITS;
+    return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+  }
+
+  static long lowestEquivalentValue(int index) {
+    if (index < 2 * SUB_BUCKETS) {
+      return index;
+    }
+    int shift = index / SUB_BUCKETS - 1;
+    return ((long) (index % SUB_BUCKETS + SUB_BUCKETS)) << shift;
+  }
+
+  static long highestEquivalentValue(int index) {
+    if (index < 2 * SUB_BUCKETS) {
+      return index;
+    }
+    int shift = index / SUB_BUCKETS - 1;
+    return lowestEquivalentValue(index) + (1L << shift) - 1;
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import com.carrotdata.cache.util.UnsafeAccess;
+
+/**
+ * Ketama consistent hash ring, compatible with libketama and most memcached clients configured
+ * with KETAMA/MD5 hashing. Every node contributes 160 points to the ring: 40 MD5 digests of
+ * "host:port-i", each digest split into four little-endian 32-bit points. A key maps to the first
+ * point which is greater or equal to the first four bytes of MD5(key), wrapping around to the
+ * beginning of the ring.
+ * <p>
+ * This class is not thread-safe: it keeps a message digest and a key scratch buffer. Use one
+ * instance per thread.
+ */
+public class KetamaRing {
+
+  /** Number of MD5 digests per node */
+  static final int DIGESTS_PER_NODE = 40;
+
+  /** Number of points per node */
+  static final int POINTS_PER_NODE = DIGESTS_PER_NODE * 4;
+
+  /** Sorted ring points (unsigned 32-bit values) */
+  private final long[] points;
+
+  /** Node index for every ring point */
+  private final int[] nodes;
+
+  private final MessageDigest md5;
+
+  private byte[] scratch = new byte[256];
+
+  /**
+   * Constructor
+   * @param nodeNames node names in the "host:port" form
+   */
+  public KetamaRing(String[] nodeNames) {
+    if (nodeNames == null || nodeNames.length == 0) {
+      throw new IllegalArgumentException("node list is empty");
+    } else if (nodeNames.length > 0xffff) {
+      throw new IllegalArgumentException("too many nodes: " + nodeNames.length);
+    }
+    this.md5 = newDigest();
+    int total = nodeNames.length * POINTS_PER_NODE;
+    long[] keys = new long[total];
+    int n = 0;
+    for (int i = 0; i < nodeNames.length; i++) {
+      for (int j = 0; j < DIGESTS_PER_NODE; j++) {
+        byte[] d = md5.digest((nodeNames[i] + "-" + j).getBytes(StandardCharsets.US_ASCII));
+        for (int h = 0; h < 4; h++) {
+          // point value in the upper bits, node index in the lower 16 ones - sorts by point
+          keys[n++] = (point(d, h) << 16) | i;
+        }
+      }
+    }
+    Arrays.sort(keys);
+    this.points = new long[total];
+    this.nodes = new int[total];
+    for (int i = 0; i < total; i++) {
+      this.points[i] = keys[i] >>> 16;
+      this.nodes[i] = (int) (keys[i] & 0xffff);
+    }
+  }
+
+  /**
+   * Get node index for a key
+   * @param keyPtr key address
+   * @param keySize key size
+   * @return node index (position in the node list passed to the constructor)
+   */
+  public int getNode(long keyPtr, int keySize) {
+    if (scratch.length < keySize) {
+      scratch = new byte[keySize];
+    }
+    UnsafeAccess.copy(keyPtr, scratch, 0, keySize);
+    return getNode(scratch, 0, keySize);
+  }
+
+  /**
+   * Get node index for a key
+   * @param key key buffer
+   * @param off offset
+   * @param size key size
+   * @return node index
+   */
+  public int getNode(byte[] key, int off, int size) {
+    md5.update(key, off, size);
+    byte[] d = md5.digest();
+    return nodes[search(point(d, 0))];
+  }
+
+  /**
+   * Number of points in the ring
+   * @return number of points
+   */
+  public int size() {
+    return points.length;
+  }
+
+  private int search(long hash) {
+    int index = Arrays.binarySearch(points, hash);
+    if (index < 0) {
+      index = -index - 1;
+    }
+    // Wrap around
+    return index == points.length ? 0 : index;
+  }
+
+  private static long point(byte[] d, int h) {
+    return ((long) (d[3 + h * 4] & 0xff) << 24) | ((long) (d[2 + h * 4] & 0xff) << 16)
+        | ((long) (d[1 + h * 4] & 0xff) << 8) | (d[h * 4] & 0xff);
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      // MD5 is guaranteed to be available in Java
+      throw new RuntimeException("MD5 algorithm not found", e);
+    }
+  }
+}
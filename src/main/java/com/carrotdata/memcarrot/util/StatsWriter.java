@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.util;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+
+import com.carrotdata.cache.util.UnsafeAccess;
+import com.carrotdata.memcarrot.CommandProcessor.OutputConsumer;
+
+/**
+ * Writes "STAT name value\r\n" lines directly into the output buffer. When the buffer is full, its
+ * content is flushed to the output consumer, so listings of any size can be produced.
+ */
+public class StatsWriter {
+
+  private static final byte[] STAT = "STAT ".getBytes();
+  private static final byte[] END = "END\r\n".getBytes();
+
+  private final long buffer;
+  private final int bufferSize;
+  private final OutputConsumer consumer;
+  private int off;
+
+  /**
+   * Constructor
+   * @param buffer output buffer address
+   * @param bufferSize output buffer size
+   * @param consumer output consumer
+   */
+  public StatsWriter(long buffer, int bufferSize, OutputConsumer consumer) {
+    this.buffer = buffer;
+    this.bufferSize = bufferSize;
+    this.consumer = consumer;
+  }
+
+  /**
+   * Writes statistic line
+   * @param name name
+   * @param value value
+   * @return this writer
+   * @throws IOException
+   */
+  public StatsWriter stat(String name, String value) throws IOException {
+    byte[] n = name.getBytes();
+    byte[] v = value.getBytes();
+    ensure(STAT.length + n.length + v.length + 3);
+    put(STAT);
+    put(n);
+    UnsafeAccess.putByte(buffer + off++, (byte) ' ');
+    put(v);
+    UnsafeAccess.putByte(buffer + off++, (byte) '\r');
+    UnsafeAccess.putByte(buffer + off++, (byte) '\n');
+    return this;
+  }
+
+  public StatsWriter stat(String name, long value) throws IOException {
+    return stat(name, Long.toString(value));
+  }
+
+  public StatsWriter stat(String name, double value) throws IOException {
+    return stat(name, String.format("%.4f", value));
+  }
+
+  /**
+   * Writes END
+   * @return total number of bytes in the buffer
+   * @throws IOException
+   */
+  public int end() throws IOException {
+    ensure(END.length);
+    put(END);
+    return off;
+  }
+
+  private void put(byte[] b) {
+    UnsafeAccess.copy(b, 0, buffer + off, b.length);
+    off += b.length;
+  }
+
+  private void ensure(int size) throws IOException {
+    if (off + size <= bufferSize) {
+      return;
+    }
+    if (off == 0 || consumer == null) {
+      throw new BufferOverflowException();
+    }
+    consumer.consume(off);
+    off = 0;
+    if (size > bufferSize) {
+      throw new BufferOverflowException();
+    }
+  }
+}
@@ -0,0 +1,448 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.carrotdata.cache.util.UnsafeAccess;
+
+/**
+ * Sampling capture of raw request streams. A sample of connections (chosen by connection id) is
+ * captured: every read is recorded with its timestamp and connection id, connection close is
+ * recorded too. Workers only copy data into a queue, a background thread writes the file.
+ * <p>
+ * When the queue is over its byte budget, data are dropped for the whole connection (a close
+ * record is written instead), so every captured connection stream is a consistent prefix of the
+ * original one. Capture stops when the file reaches its maximum size.
+ * <p>
+ * File format: magic "MCCAP1", start time (ms since epoch, 8 bytes), then records: type (1 byte),
+ * time since the previous record (ns, zigzag varint), connection id (varint) and, for data
+ * records, length (varint) and data.
+ */
+public final class TrafficCapture {
+  private static final Logger log = LogManager.getLogger(TrafficCapture.class);
+
+  static final byte[] MAGIC = "MCCAP1".getBytes();
+
+  /** Record type: data read from a connection */
+  public static final int DATA = 0;
+
+  /** Record type: connection closed */
+  public static final int CLOSE = 1;
+
+  /* Maximum size of data waiting to be written */
+  static final long QUEUE_BYTES_MAX = 64L << 20;
+
+  private static volatile Writer writer;
+
+  private static double sampleRate;
+
+  private static boolean shutdownHook;
+
+  private TrafficCapture() {
+  }
+
+  /**
+   * Starts capture
+   * @param file capture file path, null or empty - disabled
+   * @param rate connection sample rate (0 - 1], 0 - disabled
+   * @param maxBytes maximum file size
+   * @throws IOException
+   */
+  public static synchronized void init(String file, double rate, long maxBytes)
+      throws IOException {
+    stop();
+    if (file == null || file.isEmpty() || rate <= 0) {
+      return;
+    }
+    sampleRate = Math.min(rate, 1);
+    if (!shutdownHook) {
+      // "shutdown" command exits the JVM
+      Runtime.getRuntime().addShutdownHook(new Thread(TrafficCapture::stop));
+      shutdownHook = true;
+    }
+    Writer w = new Writer(file, new FileOutputStream(file), maxBytes);
+    w.start();
+    writer = w;
+    log.info("Traffic capture to {} started, connection sample rate={}, max size={}", file,
+      sampleRate, maxBytes);
+  }
+
+  /**
+   * Stops capture, waits for queued records to be written
+   */
+  public static synchronized void stop() {
+    Writer w = writer;
+    if (w == null) {
+      return;
+    }
+    writer = null;
+    w.shutdown();
+  }
+
+  public static boolean isEnabled() {
+    return writer != null;
+  }
+
+  /**
+   * Is connection sampled for capture?
+   * @param connection connection id
+   * @return true or false
+   */
+  public static boolean isSampled(long connection) {
+    return sampled(connection, sampleRate);
+  }
+
+  static boolean sampled(long connection, double rate) {
+    return connection > 0 && (mix(connection) >>> 11) * 0x1.0p-53 < rate;
+  }
+
+  /**
+   * Records data read from a connection
+   * @param connection connection id
+   * @param ptr data address
+   * @param size data size
+   */
+  public static void data(long connection, long ptr, int size) {
+    Writer w = writer;
+    if (w == null || !isSampled(connection)) {
+      return;
+    }
+    byte[] data = new byte[size];
+    UnsafeAccess.copy(ptr, data, 0, size);
+    w.add(DATA, connection, data);
+  }
+
+  /**
+   * Records connection close
+   * @param connection connection id
+   */
+  public static void close(long connection) {
+    Writer w = writer;
+    if (w == null || !isSampled(connection)) {
+      return;
+    }
+    w.add(CLOSE, connection, null);
+  }
+
+  public static double getSampleRate() {
+    return isEnabled() ? sampleRate : 0;
+  }
+
+  public static String getFile() {
+    Writer w = writer;
+    return w == null ? null : w.file;
+  }
+
+  public static long getRecords() {
+    Writer w = writer;
+    return w == null ? 0 : w.records.get();
+  }
+
+  public static long getBytes() {
+    Writer w = writer;
+    return w == null ? 0 : w.written;
+  }
+
+  public static long getDropped() {
+    Writer w = writer;
+    return w == null ? 0 : w.dropped.get();
+  }
+
+  /* Stafford variant 13 of the MurmurHash3 finalizer */
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  static final class Record {
+    final int type;
+    final long time;
+    final long connection;
+    final byte[] data;
+
+    Record(int type, long time, long connection, byte[] data) {
+      this.type = type;
+      this.time = time;
+      this.connection = connection;
+      this.data = data;
+    }
+  }
+
+  /**
+   * Capture file writer thread
+   */
+  static final class Writer extends Thread {
+    final String file;
+    final DataOutputStream out;
+    final long maxBytes;
+    final LinkedBlockingQueue<Record> queue = new LinkedBlockingQueue<Record>();
+    final AtomicLong queuedBytes = new AtomicLong();
+    final AtomicLong records = new AtomicLong();
+    final AtomicLong dropped = new AtomicLong();
+    /* Connections whose data were dropped */
+    final Set<Long> truncated = ConcurrentHashMap.newKeySet();
+    volatile boolean stopped;
+    volatile long written;
+    long lastTime;
+
+    Writer(String file, OutputStream os, long maxBytes) throws IOException {
+      super("traffic-capture");
+      setDaemon(true);
+      this.file = file;
+      this.maxBytes = maxBytes;
+      this.out = new DataOutputStream(new BufferedOutputStream(os, 1 << 16));
+      out.write(MAGIC);
+      out.writeLong(System.currentTimeMillis());
+      this.lastTime = System.nanoTime();
+      this.written = MAGIC.length + 8;
+    }
+
+    void add(int type, long connection, byte[] data) {
+      if (truncated.contains(connection)) {
+        if (type == CLOSE) {
+          truncated.remove(connection);
+        }
+        return;
+      }
+      long time = System.nanoTime();
+      if (data != null && queuedBytes.addAndGet(data.length) > QUEUE_BYTES_MAX) {
+        queuedBytes.addAndGet(-data.length);
+        dropped.incrementAndGet();
+        truncated.add(connection);
+        // close records are small and are not counted
+        queue.add(new Record(CLOSE, time, connection, null));
+        return;
+      }
+      queue.add(new Record(type, time, connection, data));
+    }
+
+    void shutdown() {
+      stopped = true;
+      try {
+        join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          Record r = queue.poll(100, TimeUnit.MILLISECONDS);
+          if (r == null) {
+            if (stopped) {
+              break;
+            }
+            out.flush();
+            continue;
+          }
+          write(r);
+          if (written >= maxBytes) {
+            log.info("Traffic capture file {} reached maximum size {}, capture stopped", file,
+              maxBytes);
+            break;
+          }
+        }
+      } catch (IOException e) {
+        log.error("Traffic capture failed", e);
+      } catch (InterruptedException e) {
+        // exit
+      } finally {
+        try {
+          out.close();
+        } catch (IOException e) {
+          log.error("Traffic capture close failed", e);
+        }
+        if (writer == this) {
+          writer = null;
+        }
+      }
+    }
+
+    private void write(Record r) throws IOException {
+      // DataOutputStream.size() is an int, count bytes here
+      long size = 1;
+      out.writeByte(r.type);
+      // records are queued by several threads, time can go slightly backwards
+      size += writeVarLong(out, zigzag(r.time - lastTime));
+      lastTime = r.time;
+      size += writeVarLong(out, r.connection);
+      if (r.data != null) {
+        size += writeVarLong(out, r.data.length);
+        out.write(r.data);
+        size += r.data.length;
+        queuedBytes.addAndGet(-r.data.length);
+      }
+      written += size;
+      records.incrementAndGet();
+    }
+  }
+
+  static long zigzag(long v) {
+    return (v << 1) ^ (v >> 63);
+  }
+
+  static long unzigzag(long v) {
+    return (v >>> 1) ^ -(v & 1);
+  }
+
+  /**
+   * Writes variable length long
+   * @return number of bytes written
+   */
+  static int writeVarLong(DataOutputStream out, long v) throws IOException {
+    int n = 1;
+    while ((v & ~0x7FL) != 0) {
+      out.writeByte((int) ((v & 0x7F) | 0x80));
+      v >>>= 7;
+      n++;
+    }
+    out.writeByte((int) v);
+    return n;
+  }
+
+  static long readVarLong(DataInputStream in) throws IOException {
+    long v = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = in.readUnsignedByte();
+      v |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return v;
+      }
+    }
+    throw new IOException("malformed varint");
+  }
+
+  /**
+   * Capture file reader
+   */
+  public static final class Reader implements Closeable {
+    private final DataInputStream in;
+    private final long startTime;
+    private long time;
+    private int type;
+    private long connection;
+    private byte[] data;
+
+    public Reader(String file) throws IOException {
+      this(new FileInputStream(file));
+    }
+
+    public Reader(InputStream is) throws IOException {
+      this.in = new DataInputStream(new BufferedInputStream(is, 1 << 16));
+      byte[] magic = new byte[MAGIC.length];
+      in.readFully(magic);
+      if (!Arrays.equals(magic, MAGIC)) {
+        throw new IOException("not a traffic capture file");
+      }
+      this.startTime = in.readLong();
+    }
+
+    /**
+     * Reads next record
+     * @return false - end of file
+     * @throws IOException
+     */
+    public boolean next() throws IOException {
+      int t;
+      try {
+        t = in.readByte();
+      } catch (EOFException e) {
+        return false;
+      }
+      try {
+        time += unzigzag(readVarLong(in));
+        connection = readVarLong(in);
+        if (t == DATA) {
+          data = new byte[(int) readVarLong(in)];
+          in.readFully(data);
+        } else {
+          data = null;
+        }
+      } catch (EOFException e) {
+        // last record is incomplete, capture was not stopped cleanly
+        return false;
+      }
+      type = t;
+      return true;
+    }
+
+    /**
+     * Capture start time
+     * @return ms since epoch
+     */
+    public long getStartTime() {
+      return startTime;
+    }
+
+    /**
+     * Current record time
+     * @return ns since capture start (first record time can be above 0)
+     */
+    public long getTime() {
+      return time;
+    }
+
+    /**
+     * Current record type
+     * @return {@link TrafficCapture#DATA} or {@link TrafficCapture#CLOSE}
+     */
+    public int getType() {
+      return type;
+    }
+
+    public long getConnection() {
+      return connection;
+    }
+
+    /**
+     * Current record data
+     * @return data, null for close records
+     */
+    public byte[] getData() {
+      return data;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.util;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Unix domain socket channels (Java 16+), accessed reflectively so that the code still compiles
+ * and runs on Java 11, where they are reported as not supported.
+ */
+public class UnixDomainSockets {
+
+  private static final ProtocolFamily UNIX;
+
+  private static final Method ADDRESS_OF;
+
+  private static final Method OPEN_SERVER;
+
+  private static final Method OPEN_CLIENT;
+
+  static {
+    ProtocolFamily family = null;
+    Method of = null, server = null, client = null;
+    try {
+      family = StandardProtocolFamily.valueOf("UNIX");
+      of = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class);
+      server = ServerSocketChannel.class.getMethod("open", ProtocolFamily.class);
+      client = SocketChannel.class.getMethod("open", ProtocolFamily.class);
+    } catch (IllegalArgumentException | ReflectiveOperationException e) {
+      family = null;
+    }
+    UNIX = family;
+    ADDRESS_OF = of;
+    OPEN_SERVER = server;
+    OPEN_CLIENT = client;
+  }
+
+  /**
+   * Are Unix domain sockets supported by this Java runtime
+   * @return true or false
+   */
+  public static boolean isSupported() {
+    return UNIX != null;
+  }
+
+  /**
+   * Unix domain socket address
+   * @param path socket file path
+   * @return address
+   * @throws IOException if not supported
+   */
+  public static SocketAddress address(String path) throws IOException {
+    return (SocketAddress) invoke(ADDRESS_OF, path);
+  }
+
+  /**
+   * Opens Unix domain server socket channel (not bound)
+   * @return channel
+   * @throws IOException
+   */
+  public static ServerSocketChannel openServer() throws IOException {
+    return (ServerSocketChannel) invoke(OPEN_SERVER, UNIX);
+  }
+
+  /**
+   * Opens Unix domain socket channel connected to a given socket file
+   * @param path socket file path
+   * @return channel (blocking)
+   * @throws IOException
+   */
+  public static SocketChannel connect(String path) throws IOException {
+    SocketChannel channel = (SocketChannel) invoke(OPEN_CLIENT, UNIX);
+    try {
+      channel.connect(address(path));
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    return channel;
+  }
+
+  /**
+   * Is a server listening on a given socket file
+   * @param path socket file path
+   * @return true if connection is accepted, false if the file is stale (nobody listens)
+   */
+  public static boolean isListening(String path) {
+    try (SocketChannel channel = connect(path)) {
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static Object invoke(Method m, Object arg) throws IOException {
+    if (!isSupported()) {
+      throw new IOException("Unix domain sockets require Java 16 or later");
+    }
+    try {
+      return m.invoke(null, arg);
+    } catch (InvocationTargetException e) {
+      Throwable t = e.getCause();
+      if (t instanceof IOException) {
+        throw (IOException) t;
+      }
+      throw new IOException(t);
+    } catch (IllegalAccessException e) {
+      throw new IOException(e);
+    }
+  }
+}
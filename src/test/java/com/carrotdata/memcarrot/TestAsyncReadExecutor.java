@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.carrotdata.cache.Cache;
+import com.carrotdata.cache.support.Memcached;
+import com.carrotdata.memcarrot.commands.CommandParser;
+import com.carrotdata.memcarrot.commands.RetrievalCommand;
+import com.carrotdata.memcarrot.util.TestUtils;
+
+/**
+ * Retrieval commands which hit the file tier are handed off to I/O pool
+ */
+public class TestAsyncReadExecutor {
+
+  MemcarrotServer server;
+
+  Memcached store;
+
+  Memcached victim;
+
+  @Before
+  public void setUp() throws IOException {
+    Properties props = MemcarrotConf.getConf().getCacheConfig().getProperties();
+    props.setProperty(MemcarrotConf.CONF_ASYNC_IO_POOL_SIZE, "2");
+    Cache c = TestUtils.createCache("ram", 100_000_000, 4_000_000, true, true);
+    Cache v = TestUtils.createCache("file", 100_000_000, 4_000_000, false, true);
+    c.setVictimCache(v);
+    store = new Memcached(c);
+    victim = new Memcached(v);
+    server = new MemcarrotServer();
+    server.setMemachedSupport(store);
+    server.start();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    if (server != null) {
+      server.stop();
+    }
+    MemcarrotConf.getConf().getCacheConfig().getProperties()
+        .remove(MemcarrotConf.CONF_ASYNC_IO_POOL_SIZE);
+  }
+
+  @Test
+  public void testNeedsFileIO() throws IOException {
+    set(store, "ram-key", "ram");
+    set(victim, "file-key", "file");
+    assertFalse(CommandProcessor.needsFileIO(store, parse("get ram-key\r\n")));
+    assertTrue(CommandProcessor.needsFileIO(store, parse("get file-key\r\n")));
+    assertTrue(CommandProcessor.needsFileIO(store, parse("get ram-key file-key\r\n")));
+    assertFalse(CommandProcessor.needsFileIO(store, parse("get no-key\r\n")));
+  }
+
+  @Test
+  public void testPipelinedOrder() throws IOException {
+    set(store, "ram-key", "ram");
+    set(victim, "file-key", "file");
+    AsyncReadExecutor async = server.service.async;
+    long submitted = async.getSubmitted();
+    try (SocketChannel ch = SimpleClient.openConnection(server.getHost(), server.getPort())) {
+      // File tier GET first, RAM tier GET and SET must not overtake it
+      String expected = "VALUE file-key 0 4\r\nfile\r\nEND\r\n"
+          + "VALUE ram-key 0 3\r\nram\r\nEND\r\n" + "STORED\r\n";
+      assertEquals(expected,
+        request(ch, "get file-key\r\nget ram-key\r\nset new-key 0 0 3\r\nnew\r\n", expected));
+      assertEquals(submitted + 1, async.getSubmitted());
+      // Connection is released back to the selector after I/O pool is done
+      expected = "VALUE new-key 0 3\r\nnew\r\nEND\r\n";
+      assertEquals(expected, request(ch, "get new-key\r\n", expected));
+    }
+  }
+
+  private static void set(Memcached m, String key, String value) {
+    byte[] k = key.getBytes();
+    byte[] v = value.getBytes();
+    m.set(TestUtils.copyToMemory(k), k.length, TestUtils.copyToMemory(v), v.length, 0, 0);
+  }
+
+  private static RetrievalCommand parse(String cmd) throws IOException {
+    byte[] b = cmd.getBytes();
+    return (RetrievalCommand) CommandParser.parse(TestUtils.copyToMemory(b), b.length);
+  }
+
+  private static String request(SocketChannel ch, String request, String expected)
+      throws IOException {
+    ByteBuffer b = ByteBuffer.wrap(request.getBytes());
+    while (b.hasRemaining()) {
+      ch.write(b);
+    }
+    ByteBuffer in = ByteBuffer.allocate(1024);
+    long deadline = System.currentTimeMillis() + 5000;
+    String s = "";
+    while (System.currentTimeMillis() < deadline && s.length() < expected.length()) {
+      if (ch.read(in) < 0) {
+        break;
+      }
+      s = new String(in.array(), 0, in.position(), StandardCharsets.US_ASCII);
+    }
+    return s;
+  }
+}
@@ -0,0 +1,282 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.carrotdata.cache.Cache;
+import com.carrotdata.cache.support.Memcached;
+import com.carrotdata.cache.util.UnsafeAccess;
+import com.carrotdata.memcarrot.util.AddressTable;
+import com.carrotdata.memcarrot.util.CidrList;
+import com.carrotdata.memcarrot.util.HashUtil;
+import com.carrotdata.memcarrot.util.TestUtils;
+import com.carrotdata.memcarrot.util.TrafficCapture;
+
+public class TestAuthorizationHandler {
+
+  static final String USER = "user";
+  static final String PASSWORD = "password";
+
+  AuthorizationHandler auth = new AuthorizationHandler(USER, HashUtil.hashString(PASSWORD));
+
+  ByteBuffer out = ByteBuffer.allocate(1024);
+
+  MemcarrotServer server;
+
+  @After
+  public void tearDown() {
+    if (server != null) {
+      server.stop();
+    }
+    AuthorizationHandler.init(null, null);
+  }
+
+  private int handshake(RequestHandlers.Attachment att, byte[] input, int size) {
+    long ptr = UnsafeAccess.malloc(input.length);
+    try {
+      UnsafeAccess.copy(input, 0, ptr, input.length);
+      return auth.handshake(att, ptr, size, out);
+    } finally {
+      UnsafeAccess.free(ptr);
+    }
+  }
+
+  private int handshake(RequestHandlers.Attachment att, byte[] input) {
+    return handshake(att, input, input.length);
+  }
+
+  private String output() {
+    String s = new String(out.array(), 0, out.position(), StandardCharsets.US_ASCII);
+    out.clear();
+    return s;
+  }
+
+  private RequestHandlers.Attachment accepted(String address) throws IOException {
+    RequestHandlers.Attachment att = new RequestHandlers.Attachment(null);
+    auth.accepted(att, InetAddress.getByName(address));
+    return att;
+  }
+
+  private void assertClient(String expected, RequestHandlers.Attachment att) throws IOException {
+    assertEquals(InetAddress.getByName(expected),
+      AddressTable.toInetAddress(att.clientHigh(), att.clientLow()));
+  }
+
+  @Test
+  public void testProxyV1() throws IOException {
+    RequestHandlers.Attachment att = accepted("127.0.0.1");
+    assertEquals(AuthorizationHandler.PROXY, att.handshake());
+    byte[] header = "PROXY TCP4 10.0.0.1 10.0.0.2 40000 11211\r\nget a\r\n".getBytes();
+    // Every prefix of the header is incomplete
+    for (int i = 1; i < header.length - 7; i++) {
+      assertEquals(AuthorizationHandler.INCOMPLETE, handshake(att, header, i));
+    }
+    assertEquals(header.length - 7, handshake(att, header));
+    assertClient("10.0.0.1", att);
+    assertEquals(AuthorizationHandler.LOGIN, att.handshake());
+
+    att = accepted("127.0.0.1");
+    assertEquals(AuthorizationHandler.FAILED,
+      handshake(att, "PROXY TCP4 host.example.com 10.0.0.2 1 2\r\n".getBytes()));
+    att = accepted("127.0.0.1");
+    // Header is too long
+    assertEquals(AuthorizationHandler.FAILED,
+      handshake(att, ("PROXY " + "1".repeat(120)).getBytes()));
+  }
+
+  @Test
+  public void testProxyV2() throws IOException {
+    RequestHandlers.Attachment att = accepted("::1");
+    ByteBuffer b = ByteBuffer.allocate(28 + 5);
+    b.put(AuthorizationHandler.PROXY_V2);
+    b.put((byte) 0x21); // version 2, PROXY
+    b.put((byte) 0x11); // TCP over IPv4
+    b.putShort((short) 12);
+    b.put(new byte[] { (byte) 192, (byte) 168, 1, 10 });
+    b.put(new byte[] { (byte) 192, (byte) 168, 1, 1 });
+    b.putShort((short) 40000);
+    b.putShort((short) 11211);
+    b.put("get a".getBytes());
+    byte[] input = b.array();
+    assertEquals(AuthorizationHandler.INCOMPLETE, handshake(att, input, 10));
+    assertEquals(AuthorizationHandler.INCOMPLETE, handshake(att, input, 20));
+    assertEquals(28, handshake(att, input));
+    assertClient("192.168.1.10", att);
+    assertEquals(AuthorizationHandler.LOGIN, att.handshake());
+
+    // LOCAL command keeps the proxy's address
+    att = accepted("127.0.0.1");
+    input[12] = 0x20;
+    assertEquals(28, handshake(att, input));
+    assertClient("127.0.0.1", att);
+  }
+
+  @Test
+  public void testProxyV2Inet6() throws IOException {
+    RequestHandlers.Attachment att = accepted("127.0.0.1");
+    ByteBuffer b = ByteBuffer.allocate(52);
+    b.put(AuthorizationHandler.PROXY_V2);
+    b.put((byte) 0x21); // version 2, PROXY
+    b.put((byte) 0x21); // TCP over IPv6
+    b.putShort((short) 36);
+    b.put(InetAddress.getByName("2001:db8::7").getAddress());
+    b.put(InetAddress.getByName("2001:db8::1").getAddress());
+    b.putShort((short) 40000);
+    b.putShort((short) 11211);
+    assertEquals(52, handshake(att, b.array()));
+    assertClient("2001:db8::7", att);
+  }
+
+  @Test
+  public void testAllowedNetworks() throws IOException {
+    auth = new AuthorizationHandler(null, null, CidrList.parse("10.1.0.0/16, 2001:db8::/32"),
+        16, 0);
+    assertEquals(AuthorizationHandler.READY, accepted("10.1.2.3").handshake());
+    assertEquals(AuthorizationHandler.READY, accepted("2001:db8::7").handshake());
+    RequestHandlers.Attachment att = accepted("10.2.0.1");
+    assertEquals(AuthorizationHandler.LOGIN, att.handshake());
+    // Login is not configured
+    assertEquals(AuthorizationHandler.FAILED,
+      handshake(att, "set user 0 0 8\r\npassword\r\n".getBytes()));
+    assertEquals("CLIENT_ERROR Authorization failed\r\n", output());
+
+    att = accepted("127.0.0.1");
+    assertTrue(handshake(att, "PROXY TCP4 10.1.0.1 127.0.0.1 1 2\r\n".getBytes()) > 0);
+    assertEquals(AuthorizationHandler.READY, att.handshake());
+  }
+
+  @Test
+  public void testDirectLocalConnection() throws IOException {
+    RequestHandlers.Attachment att = accepted("127.0.0.1");
+    assertEquals(0, handshake(att, "get a\r\n".getBytes()));
+    assertEquals(AuthorizationHandler.LOGIN, att.handshake());
+    assertClient("127.0.0.1", att);
+  }
+
+  @Test
+  public void testLogin() throws IOException {
+    RequestHandlers.Attachment att = accepted("10.0.0.1");
+    assertEquals(AuthorizationHandler.LOGIN, att.handshake());
+    byte[] login = "set user 0 0 8\r\npassword\r\nget a\r\n".getBytes();
+    int len = login.length - 7;
+    for (int i = 1; i < len; i++) {
+      assertEquals(AuthorizationHandler.INCOMPLETE, handshake(att, login, i));
+    }
+    assertEquals(len, handshake(att, login));
+    assertEquals("STORED\r\n", output());
+    assertEquals(AuthorizationHandler.READY, att.handshake());
+    assertTrue(auth.isAuthorized(InetAddress.getByName("10.0.0.1")));
+
+    // Authorized host does not need to login again
+    att = accepted("10.0.0.1");
+    assertEquals(AuthorizationHandler.READY, att.handshake());
+
+    att = accepted("10.0.0.2");
+    assertEquals(AuthorizationHandler.FAILED,
+      handshake(att, "set user 0 0 5\r\nwrong\r\n".getBytes()));
+    assertEquals("CLIENT_ERROR Authorization failed\r\n", output());
+    assertFalse(auth.isAuthorized(InetAddress.getByName("10.0.0.2")));
+
+    att = accepted("10.0.0.2");
+    assertEquals(AuthorizationHandler.FAILED, handshake(att, "get a\r\n".getBytes()));
+    assertEquals("CLIENT_ERROR Authorization required\r\n", output());
+
+    att = accepted("10.0.0.3");
+    byte[] noreply = "set user 0 0 8 noreply\r\npassword\r\n".getBytes();
+    assertEquals(noreply.length, handshake(att, noreply));
+    assertEquals("", output());
+    assertEquals(AuthorizationHandler.READY, att.handshake());
+  }
+
+  @Test
+  public void testServer() throws IOException {
+    Cache c = TestUtils.createCache(100_000_000, 4_000_000, true, true);
+    server = new MemcarrotServer();
+    server.setMemachedSupport(new Memcached(c));
+    server.start();
+    AuthorizationHandler.init(USER, HashUtil.hashString(PASSWORD));
+
+    // Not authorized
+    assertEquals("CLIENT_ERROR Authorization required\r\n", session("get a\r\n", true));
+    // Login through local proxy in a single packet with the first command
+    assertEquals("STORED\r\nSTORED\r\n",
+      session("PROXY TCP4 10.0.0.1 127.0.0.1 40000 11211\r\nset user 0 0 8\r\npassword\r\n"
+          + "set a 0 0 1\r\nb\r\n", false));
+    // Client host is authorized now
+    assertEquals("VALUE a 0 1\r\nb\r\nEND\r\n",
+      session("PROXY TCP4 10.0.0.1 127.0.0.1 40001 11211\r\nget a\r\n", false));
+    assertEquals("CLIENT_ERROR Authorization required\r\n",
+      session("PROXY TCP4 10.0.0.2 127.0.0.1 40000 11211\r\nget a\r\n", true));
+  }
+
+  @Test
+  public void testCaptureSkipsLogin() throws IOException {
+    Cache c = TestUtils.createCache(100_000_000, 4_000_000, true, true);
+    server = new MemcarrotServer();
+    server.setMemachedSupport(new Memcached(c));
+    server.start();
+    AuthorizationHandler.init(USER, HashUtil.hashString(PASSWORD));
+    File file = File.createTempFile("capture", ".bin");
+    file.deleteOnExit();
+    TrafficCapture.init(file.getPath(), 1.0, 1 << 20);
+    try {
+      session("set user 0 0 8\r\npassword\r\nset a 0 0 1\r\nb\r\n", false);
+    } finally {
+      TrafficCapture.stop();
+    }
+    StringBuilder sb = new StringBuilder();
+    try (TrafficCapture.Reader r = new TrafficCapture.Reader(file.getPath())) {
+      while (r.next()) {
+        if (r.getType() == TrafficCapture.DATA) {
+          sb.append(new String(r.getData(), StandardCharsets.US_ASCII));
+        }
+      }
+    }
+    // Login is not captured, the request which follows it is
+    assertEquals("set a 0 0 1\r\nb\r\n", sb.toString());
+  }
+
+  private String session(String request, boolean closed) throws IOException {
+    try (Socket s = new Socket(server.getHost(), server.getPort())) {
+      s.setSoTimeout(5000);
+      OutputStream os = s.getOutputStream();
+      os.write(request.getBytes());
+      os.flush();
+      if (!closed) {
+        s.shutdownOutput();
+      }
+      InputStream is = s.getInputStream();
+      return new String(is.readAllBytes(), StandardCharsets.US_ASCII);
+    }
+  }
+}
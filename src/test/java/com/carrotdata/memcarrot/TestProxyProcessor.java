@@ -0,0 +1,240 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.carrotdata.cache.Cache;
+import com.carrotdata.cache.support.Memcached;
+import com.carrotdata.memcarrot.util.KetamaRing;
+import com.carrotdata.memcarrot.util.TestUtils;
+
+public class TestProxyProcessor {
+
+  static final String HOST = "127.0.0.1";
+
+  static final int PROXY_PORT = 11411;
+
+  static final int[] BACKEND_PORTS = { 11412, 11413 };
+
+  MemcarrotServer[] backends = new MemcarrotServer[BACKEND_PORTS.length];
+
+  String[] nodes = new String[BACKEND_PORTS.length];
+
+  MemcarrotServer proxy;
+
+  KetamaRing ring;
+
+  @Before
+  public void setUp() throws IOException {
+    for (int i = 0; i < backends.length; i++) {
+      Cache c = TestUtils.createCache("backend_" + i, 100_000_000, 4_000_000, true, true);
+      backends[i] = new MemcarrotServer(HOST, BACKEND_PORTS[i]);
+      backends[i].setMemachedSupport(new Memcached(c));
+      backends[i].start();
+      nodes[i] = HOST + ":" + BACKEND_PORTS[i];
+    }
+    ring = new KetamaRing(nodes);
+    proxy = new MemcarrotServer(HOST, PROXY_PORT);
+    proxy.setProxyBackends(nodes);
+    proxy.start();
+  }
+
+  @After
+  public void tearDown() {
+    if (proxy != null) {
+      proxy.stop();
+    }
+    for (MemcarrotServer s : backends) {
+      if (s != null) {
+        s.stop();
+      }
+    }
+  }
+
+  @Test
+  public void testSingleKeyRouting() throws IOException {
+    try (SocketChannel ch = SimpleClient.openConnection(HOST, PROXY_PORT)) {
+      for (int i = 0; i < 20; i++) {
+        String key = "key" + i;
+        assertEquals("STORED\r\n", request(ch, "set " + key + " 0 0 2\r\nv" + (i % 10) + "\r\n"));
+        assertEquals(value(key, "v" + (i % 10)) + "END\r\n", request(ch, "get " + key + "\r\n"));
+        // Key is stored on its ring node only
+        int node = ring.getNode(key.getBytes(), 0, key.length());
+        assertEquals(value(key, "v" + (i % 10)) + "END\r\n",
+          direct(node, "get " + key + "\r\n"));
+        assertEquals("END\r\n", direct(1 - node, "get " + key + "\r\n"));
+        assertEquals("DELETED\r\n", request(ch, "delete " + key + "\r\n"));
+        assertEquals("END\r\n", direct(node, "get " + key + "\r\n"));
+      }
+    }
+  }
+
+  @Test
+  public void testMultiGet() throws IOException {
+    StringBuilder get = new StringBuilder("get");
+    StringBuilder expected = new StringBuilder();
+    int[] perNode = new int[nodes.length];
+    try (SocketChannel ch = SimpleClient.openConnection(HOST, PROXY_PORT)) {
+      for (int i = 0; i < 20; i++) {
+        String key = "key" + i;
+        request(ch, "set " + key + " 0 0 2\r\nv" + (i % 10) + "\r\n");
+        get.append(' ').append(key);
+        perNode[ring.getNode(key.getBytes(), 0, key.length())]++;
+      }
+      // Keys are served by both backends
+      assertTrue(perNode[0] > 0 && perNode[1] > 0);
+      // Missing key
+      get.append(" nokey\r\n");
+      String response = request(ch, get.toString());
+      for (int i = 0; i < 20; i++) {
+        String v = value("key" + i, "v" + (i % 10));
+        assertTrue(v, response.contains(v));
+        expected.append(v);
+      }
+      assertEquals(expected.length() + 5, response.length());
+      assertEquals(response.length() - 5, response.indexOf("END\r\n"));
+    }
+  }
+
+  @Test
+  public void testPipelining() throws IOException {
+    StringBuilder requests = new StringBuilder();
+    StringBuilder expected = new StringBuilder();
+    StringBuilder get = new StringBuilder("get");
+    for (int i = 0; i < 20; i++) {
+      String key = "key" + i;
+      requests.append("set " + key + " 0 0 2\r\nv" + (i % 10) + "\r\n");
+      expected.append("STORED\r\n");
+      requests.append("get " + key + "\r\n");
+      expected.append(value(key, "v" + (i % 10)) + "END\r\n");
+      requests.append("incr " + key + " 1 noreply\r\n");
+      get.append(' ').append(key);
+    }
+    requests.append("delete key0\r\n");
+    expected.append("DELETED\r\n");
+    requests.append(get).append("\r\n");
+    for (int i = 1; i < 20; i++) {
+      expected.append(value("key" + i, "v" + (i % 10)));
+    }
+    expected.append("END\r\n");
+    try (SocketChannel ch = SimpleClient.openConnection(HOST, PROXY_PORT)) {
+      // All requests are sent in a single write, responses must follow requests order
+      write(ch, requests.toString());
+      assertEquals(expected.toString(), read(ch, expected.length()));
+    }
+  }
+
+  @Test
+  public void testNoReply() throws IOException {
+    try (SocketChannel ch = SimpleClient.openConnection(HOST, PROXY_PORT)) {
+      assertEquals("STORED\r\n", request(ch, "set key 0 0 3\r\nabc\r\n"));
+      // Backend replies with an error to non-numeric incr even with noreply, it must not be
+      // taken as a response to the next request
+      write(ch, "incr key 1 noreply\r\n");
+      write(ch, "flush_all noreply\r\n");
+      assertEquals("END\r\n", request(ch, "get key\r\n"));
+    }
+  }
+
+  @Test
+  public void testBackendFailure() throws IOException {
+    String down = null;
+    String up = null;
+    for (int i = 0; down == null || up == null; i++) {
+      String key = "key" + i;
+      if (ring.getNode(key.getBytes(), 0, key.length()) == 1) {
+        down = key;
+      } else {
+        up = key;
+      }
+    }
+    try (SocketChannel ch = SimpleClient.openConnection(HOST, PROXY_PORT)) {
+      assertEquals("STORED\r\n", request(ch, "set " + up + " 0 0 1\r\nu\r\n"));
+      assertEquals("STORED\r\n", request(ch, "set " + down + " 0 0 1\r\nd\r\n"));
+      backends[1].stop();
+      backends[1] = null;
+      assertEquals(new String(ProxyProcessor.BACKEND_ERROR),
+        request(ch, "set " + down + " 0 0 1\r\nd\r\n"));
+      // Failed backend keys are reported as misses
+      assertEquals(value(up, "u") + "END\r\n", request(ch, "get " + up + " " + down + "\r\n"));
+    }
+  }
+
+  private String direct(int node, String request) throws IOException {
+    try (SocketChannel ch = SimpleClient.openConnection(HOST, BACKEND_PORTS[node])) {
+      return request(ch, request);
+    }
+  }
+
+  private static String value(String key, String value) {
+    return "VALUE " + key + " 0 " + value.length() + "\r\n" + value + "\r\n";
+  }
+
+  private static void write(SocketChannel ch, String request) throws IOException {
+    ByteBuffer b = ByteBuffer.wrap(request.getBytes());
+    while (b.hasRemaining()) {
+      ch.write(b);
+    }
+  }
+
+  /**
+   * Reads response of a given size
+   */
+  private static String read(SocketChannel ch, int size) throws IOException {
+    ByteBuffer in = ByteBuffer.allocate(size);
+    long deadline = System.currentTimeMillis() + 5000;
+    while (in.hasRemaining() && System.currentTimeMillis() < deadline) {
+      if (ch.read(in) < 0) {
+        break;
+      }
+    }
+    return new String(in.array(), 0, in.position(), StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Sends request, reads response up to the terminating line
+   */
+  private static String request(SocketChannel ch, String request) throws IOException {
+    write(ch, request);
+    boolean retrieval = request.startsWith("get");
+    ByteBuffer in = ByteBuffer.allocate(16 * 1024);
+    long deadline = System.currentTimeMillis() + 5000;
+    String s = "";
+    while (System.currentTimeMillis() < deadline) {
+      if (ch.read(in) < 0) {
+        break;
+      }
+      s = new String(in.array(), 0, in.position(), StandardCharsets.US_ASCII);
+      if (retrieval ? s.endsWith("END\r\n") || s.endsWith("ERROR\r\n") : s.endsWith("\r\n")) {
+        break;
+      }
+    }
+    return s;
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.carrotdata.cache.Cache;
+import com.carrotdata.cache.support.Memcached;
+import com.carrotdata.memcarrot.metrics.UdpMetrics;
+import com.carrotdata.memcarrot.util.HashUtil;
+import com.carrotdata.memcarrot.util.TestUtils;
+
+public class TestUdpServer {
+
+  MemcarrotServer server;
+
+  DatagramChannel client;
+
+  @Before
+  public void setUp() throws IOException {
+    Cache c = TestUtils.createCache(100_000_000, 4_000_000, true, true);
+    server = new MemcarrotServer();
+    server.setMemachedSupport(new Memcached(c));
+    server.setUdpPort(-1);
+    server.start();
+    client = DatagramChannel.open();
+    client.socket().setSoTimeout(5000);
+    client.connect(new InetSocketAddress(server.getHost(), server.getUdpPort()));
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    if (client != null) {
+      client.close();
+    }
+    if (server != null) {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testGetMiss() throws IOException {
+    long requests = UdpMetrics.getRequests();
+    assertEquals("END\r\n", request(7, "get key\r\n"));
+    assertEquals("END\r\nEND\r\n", request(8, "gets key1 key2\r\nget key3\r\n"));
+    assertEquals(requests + 2, UdpMetrics.getRequests());
+  }
+
+  @Test
+  public void testErrors() throws IOException {
+    long errors = UdpMetrics.getErrors();
+    assertEquals(new String(UdpServer.NOT_SUPPORTED), request(1, "set key 0 0 5\r\nvalue\r\n"));
+    assertEquals(new String(UdpServer.INCOMPLETE), request(2, "get key"));
+    assertEquals(errors + 2, UdpMetrics.getErrors());
+    // Request split into several datagrams
+    client.write(frame(3, 0, 2, "get key\r\n"));
+    assertEquals(new String(UdpServer.MULTI_PACKET), receive(3));
+    // Datagram shorter than frame header is dropped
+    long dropped = UdpMetrics.getDropped();
+    client.write(ByteBuffer.wrap(new byte[] { 0, 1, 0 }));
+    assertEquals("END\r\n", request(4, "get key\r\n"));
+    assertEquals(dropped + 1, UdpMetrics.getDropped());
+  }
+
+  @Test
+  public void testMultiDatagramResponse() throws IOException {
+    // Value does not fit into a single datagram
+    byte[] value = new byte[3 * UdpServer.MAX_PAYLOAD];
+    Arrays.fill(value, (byte) 'v');
+    SimpleClient tcp = new SimpleClient(server.getHost(), server.getPort());
+    try {
+      tcp.set("key".getBytes(), value, 0, 0L, false);
+    } finally {
+      tcp.close();
+    }
+    String expected = "VALUE key 0 " + value.length + "\r\n"
+        + new String(value, StandardCharsets.US_ASCII) + "\r\nEND\r\n";
+    long multi = UdpMetrics.getMultiDatagramResponses();
+    assertEquals(expected, request(9, "get key\r\n"));
+    assertEquals(multi + 1, UdpMetrics.getMultiDatagramResponses());
+  }
+
+  @Test
+  public void testPipelinedGets() throws IOException {
+    // Many commands in a single request, responses span several datagrams
+    int n = 1000;
+    StringBuilder req = new StringBuilder();
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < n; i++) {
+      req.append("get key").append(i).append("\r\n");
+      expected.append("END\r\n");
+    }
+    long multi = UdpMetrics.getMultiDatagramResponses();
+    assertEquals(expected.toString(), request(10, req.toString()));
+    assertEquals(multi + 1, UdpMetrics.getMultiDatagramResponses());
+  }
+
+  @Test
+  public void testDisabledWithAuthorization() throws IOException {
+    server.stop();
+    server = null;
+    Properties props = MemcarrotConf.getConf().getCacheConfig().getProperties();
+    props.setProperty(MemcarrotConf.CONF_USER_NAME, "user");
+    props.setProperty(MemcarrotConf.CONF_USER_PASSWORD_SHA256, HashUtil.hashString("password"));
+    try {
+      Cache c = TestUtils.createCache(100_000_000, 4_000_000, true, true);
+      server = new MemcarrotServer();
+      server.setMemachedSupport(new Memcached(c));
+      server.setUdpPort(-1);
+      server.start();
+      assertNotNull(AuthorizationHandler.get());
+      // UDP requests bypass login and allowed networks, listener is not started
+      assertNull(server.udpServer);
+      assertEquals(-1, UdpMetrics.getPort());
+    } finally {
+      props.remove(MemcarrotConf.CONF_USER_NAME);
+      props.remove(MemcarrotConf.CONF_USER_PASSWORD_SHA256);
+      AuthorizationHandler.init(null, null);
+    }
+  }
+
+  @Test
+  public void testDatagrams() {
+    assertEquals(1, UdpServer.datagrams(0));
+    assertEquals(1, UdpServer.datagrams(UdpServer.MAX_PAYLOAD));
+    assertEquals(2, UdpServer.datagrams(UdpServer.MAX_PAYLOAD + 1));
+  }
+
+  private String request(int id, String request) throws IOException {
+    client.write(frame(id, 0, 1, request));
+    return receive(id);
+  }
+
+  /**
+   * Receives all datagrams of a response, which may arrive out of order
+   */
+  private String receive(int id) throws IOException {
+    String[] parts = null;
+    int received = 0;
+    byte[] buf = new byte[UdpServer.MAX_DATAGRAM_SIZE];
+    do {
+      DatagramPacket p = new DatagramPacket(buf, buf.length);
+      try {
+        client.socket().receive(p);
+      } catch (SocketTimeoutException e) {
+        assertNull("response timeout", e);
+      }
+      ByteBuffer b = ByteBuffer.wrap(buf, 0, p.getLength());
+      assertEquals(id, b.getShort(0) & 0xffff);
+      int seq = b.getShort(2) & 0xffff;
+      int total = b.getShort(4) & 0xffff;
+      assertEquals(0, b.getShort(6));
+      if (parts == null) {
+        parts = new String[total];
+      }
+      assertTrue(seq < total && parts[seq] == null);
+      parts[seq] = new String(buf, UdpServer.HEADER_SIZE, p.getLength() - UdpServer.HEADER_SIZE,
+          StandardCharsets.US_ASCII);
+      received++;
+    } while (received < parts.length);
+    return String.join("", parts);
+  }
+
+  private static ByteBuffer frame(int id, int seq, int total, String payload) {
+    byte[] data = payload.getBytes();
+    ByteBuffer b = ByteBuffer.allocate(UdpServer.HEADER_SIZE + data.length);
+    b.putShort((short) id).putShort((short) seq).putShort((short) total).putShort((short) 0);
+    b.put(data);
+    b.flip();
+    return b;
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.carrotdata.cache.Cache;
+import com.carrotdata.cache.support.Memcached;
+import com.carrotdata.memcarrot.util.TestUtils;
+import com.carrotdata.memcarrot.util.UnixDomainSockets;
+
+public class TestUnixDomainSocket {
+
+  MemcarrotServer server;
+
+  File socket;
+
+  @Before
+  public void setUp() throws IOException {
+    assumeTrue(UnixDomainSockets.isSupported());
+    socket = File.createTempFile("memcarrot", ".sock");
+    // Stale regular file must not be deleted by the server, use a fresh path
+    socket.delete();
+    Cache c = TestUtils.createCache(100_000_000, 4_000_000, true, true);
+    server = new MemcarrotServer();
+    server.setMemachedSupport(new Memcached(c));
+    server.setUnixSocketPath(socket.getPath());
+    server.start();
+  }
+
+  @After
+  public void tearDown() {
+    if (server != null) {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testSetGet() throws IOException {
+    assertTrue(socket.exists());
+    try (SocketChannel ch = SimpleClient.openUnixConnection(socket.getPath())) {
+      assertEquals("STORED\r\n", request(ch, "set key 0 0 5\r\nvalue\r\n", "\r\n"));
+      assertEquals("VALUE key 0 5\r\nvalue\r\nEND\r\n", request(ch, "get key\r\n", "END\r\n"));
+    }
+    // Both transports serve the same data
+    SimpleClient tcp = new SimpleClient(server.getHost(), server.getPort());
+    try {
+      assertEquals("value", new String(tcp.get(new byte[][] { "key".getBytes() }).get(0).value));
+    } finally {
+      tcp.close();
+    }
+    server.stop();
+    server = null;
+    assertFalse(socket.exists());
+  }
+
+  @Test
+  public void testSocketInUse() throws IOException {
+    assertTrue(UnixDomainSockets.isListening(socket.getPath()));
+    server.stop();
+    server = null;
+    // Stale socket file: bound, but nobody listens
+    try (ServerSocketChannel ch = UnixDomainSockets.openServer()) {
+      ch.bind(UnixDomainSockets.address(socket.getPath()));
+    }
+    assertTrue(socket.exists());
+    assertFalse(UnixDomainSockets.isListening(socket.getPath()));
+    socket.delete();
+  }
+
+  private static String request(SocketChannel ch, String request, String end)
+      throws IOException {
+    ByteBuffer b = ByteBuffer.wrap(request.getBytes());
+    while (b.hasRemaining()) {
+      ch.write(b);
+    }
+    ByteBuffer in = ByteBuffer.allocate(1024);
+    long deadline = System.currentTimeMillis() + 5000;
+    while (System.currentTimeMillis() < deadline) {
+      if (ch.read(in) < 0) {
+        break;
+      }
+      String s = new String(in.array(), 0, in.position(), StandardCharsets.US_ASCII);
+      if (s.endsWith(end)) {
+        return s;
+      }
+    }
+    return new String(in.array(), 0, in.position(), StandardCharsets.US_ASCII);
+  }
+}
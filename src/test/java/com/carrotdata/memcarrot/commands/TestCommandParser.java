@@ -22,6 +22,7 @@ import java.util.Random;
 import org.junit.Test;
 
 import com.carrotdata.memcarrot.support.IllegalFormatException;
+import com.carrotdata.memcarrot.support.UnsupportedCommand;
 import com.carrotdata.memcarrot.util.TestUtils;
 import static org.junit.Assert.*;
 
@@ -341,6 +342,60 @@ public class TestCommandParser extends TestBase {
     c = CommandParser.parse(inputPtr, inputBuffer.position());
     assertTrue(c == null);
   }
+
+  @Test
+  public void testSTATSGroupCommand() {
+    inputBuffer.clear();
+    byte[] cmd = "stats hotkeys\r\n".getBytes();
+    inputBuffer.put(cmd);
+    MemcachedCommand c = CommandParser.parse(inputPtr, inputBuffer.position());
+    assertTrue(c instanceof STATS);
+    assertEquals(cmd.length, c.inputConsumed());
+    inputBuffer.clear();
+    inputBuffer.put("stats hotkeys\r".getBytes());
+    c = CommandParser.parse(inputPtr, inputBuffer.position());
+    assertTrue(c == null);
+    inputBuffer.clear();
+    cmd = "stats slowlog reset\r\n".getBytes();
+    inputBuffer.put(cmd);
+    c = CommandParser.parse(inputPtr, inputBuffer.position());
+    assertTrue(c instanceof STATS);
+    assertEquals(cmd.length, c.inputConsumed());
+    inputBuffer.clear();
+    cmd = "stats workers\r\n".getBytes();
+    inputBuffer.put(cmd);
+    c = CommandParser.parse(inputPtr, inputBuffer.position());
+    assertTrue(c instanceof STATS);
+    assertEquals(cmd.length, c.inputConsumed());
+    inputBuffer.clear();
+    cmd = "stats capture\r\n".getBytes();
+    inputBuffer.put(cmd);
+    c = CommandParser.parse(inputPtr, inputBuffer.position());
+    assertTrue(c instanceof STATS);
+    assertEquals(cmd.length, c.inputConsumed());
+    inputBuffer.clear();
+    cmd = "stats conns ops\r\n".getBytes();
+    inputBuffer.put(cmd);
+    c = CommandParser.parse(inputPtr, inputBuffer.position());
+    assertTrue(c instanceof STATS);
+    assertEquals(cmd.length, c.inputConsumed());
+    for (String group : new String[] { STATS.SETTINGS, STATS.ITEMS, STATS.SIZES, STATS.COMMANDS,
+        STATS.MEMORY, STATS.MRC, STATS.MRC + " " + STATS.RESET, STATS.UDP }) {
+      inputBuffer.clear();
+      cmd = ("stats " + group + "\r\n").getBytes();
+      inputBuffer.put(cmd);
+      c = CommandParser.parse(inputPtr, inputBuffer.position());
+      assertTrue(c instanceof STATS);
+      assertEquals(cmd.length, c.inputConsumed());
+    }
+    inputBuffer.clear();
+    inputBuffer.put("stats unknown\r\n".getBytes());
+    try {
+      CommandParser.parse(inputPtr, inputBuffer.position());
+      fail();
+    } catch (UnsupportedCommand e) {
+    }
+  }
   
   @Test
   public void testFLUSHALLCommand() {
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.metrics;
+
+import java.util.Random;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.carrotdata.cache.util.UnsafeAccess;
+import com.carrotdata.memcarrot.util.TestUtils;
+
+/**
+ * Measures hot keys tracker overhead per recorded key (ns/op) for different sample rates and
+ * thread counts. Usage: HotKeysBenchmark [ops_per_thread] [max_threads]
+ */
+public class HotKeysBenchmark {
+  private static final Logger log = LogManager.getLogger(HotKeysBenchmark.class);
+
+  static int keySize = 16;
+  static int numKeys = 100_000;
+
+  public static void main(String[] args) throws Exception {
+    int ops = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+    int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+    int[] rates = new int[] { 0, 1, 4, 16, 64 };
+    for (int threads = 1; threads <= maxThreads; threads *= 2) {
+      for (int rate : rates) {
+        HotKeys.init(rate, HotKeys.DEFAULT_TOP_K);
+        HotKeys.clear();
+        // warm up
+        run(threads, ops / 10);
+        double ns = run(threads, ops);
+        log.info("threads={} sample rate={} overhead={} ns/op", threads,
+          rate == 0 ? "disabled" : "1/" + rate, String.format("%.2f", ns));
+      }
+    }
+  }
+
+  private static double run(int numThreads, int ops) throws InterruptedException {
+    Thread[] threads = new Thread[numThreads];
+    long[] times = new long[numThreads];
+    for (int i = 0; i < numThreads; i++) {
+      final int id = i;
+      threads[i] = new Thread(() -> {
+        Random r = new Random(id);
+        // Zipf-like key space: keys are laid out contiguously, low indexes are hot
+        long keys = TestUtils.randomMemory(keySize * numKeys, r);
+        int[] idx = new int[1 << 16];
+        for (int j = 0; j < idx.length; j++) {
+          double u = r.nextDouble();
+          idx[j] = (int) (numKeys * u * u * u);
+        }
+        long start = System.nanoTime();
+        for (int j = 0; j < ops; j++) {
+          HotKeys.read(keys + (long) idx[j & 0xffff] * keySize, keySize);
+        }
+        times[id] = System.nanoTime() - start;
+        UnsafeAccess.free(keys);
+      });
+      threads[i].start();
+    }
+    long total = 0;
+    for (int i = 0; i < numThreads; i++) {
+      threads[i].join();
+      total += times[i];
+    }
+    return (double) total / numThreads / ops;
+  }
+}
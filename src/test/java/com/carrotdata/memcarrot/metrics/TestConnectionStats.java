@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.carrotdata.memcarrot.commands.VERSION;
+
+public class TestConnectionStats {
+
+  @Test
+  public void testCountersAndTop() {
+    ConnectionStats c1 = ConnectionStats.open("/127.0.0.1:1000");
+    ConnectionStats c2 = ConnectionStats.open("/127.0.0.1:1001");
+    try {
+      long before = ServerMetrics.getBytesRead();
+      ServerMetrics.setConnection(c1);
+      for (int i = 0; i < 5; i++) {
+        ServerMetrics.command(new VERSION());
+      }
+      ServerMetrics.bytesRead(10);
+      ServerMetrics.error();
+      ServerMetrics.setConnection(c2);
+      ServerMetrics.command(new VERSION());
+      ServerMetrics.bytesRead(1000);
+      ServerMetrics.bytesWritten(500);
+      ServerMetrics.setConnection(null);
+      // not attributed to any connection
+      ServerMetrics.bytesRead(1);
+
+      assertEquals(before + 1011, ServerMetrics.getBytesRead());
+      assertEquals(5, c1.getTotalCommands());
+      assertEquals(5, c1.getCommands(CommandTypes.id(new VERSION())));
+      assertEquals("version", c1.getLastCommand());
+      assertEquals(1, c1.getErrors());
+      assertEquals(10, c1.getTotalBytes());
+      assertEquals(1500, c2.getTotalBytes());
+      assertEquals(0, c2.getErrors());
+
+      List<ConnectionStats> top = ConnectionStats.top(1, ConnectionStats.BY_OPS);
+      assertEquals(1, top.size());
+      assertSame(c1, top.get(0));
+      top = ConnectionStats.top(2, ConnectionStats.BY_BYTES);
+      assertSame(c2, top.get(0));
+      assertSame(c1, top.get(1));
+      assertTrue(c1.getId() < c2.getId());
+    } finally {
+      ConnectionStats.close(c1);
+      ConnectionStats.close(c2);
+    }
+    assertFalse(ConnectionStats.all().contains(c1));
+  }
+
+  @Test
+  public void testTopUnderUpdates() throws InterruptedException {
+    List<ConnectionStats> conns = new ArrayList<ConnectionStats>();
+    for (int i = 0; i < 256; i++) {
+      conns.add(ConnectionStats.open("/127.0.0.1:" + (2000 + i)));
+    }
+    // Counters change while connections are being sorted
+    Thread updater = new Thread(() -> {
+      Random r = new Random();
+      while (!Thread.currentThread().isInterrupted()) {
+        ConnectionStats c = conns.get(r.nextInt(conns.size()));
+        c.bytesRead = r.nextInt(1000);
+        c.commands[0] = r.nextInt(1000);
+      }
+    });
+    updater.start();
+    try {
+      for (int i = 0; i < 2000; i++) {
+        List<ConnectionStats> top = ConnectionStats.top(10,
+          i % 2 == 0 ? ConnectionStats.BY_OPS : ConnectionStats.BY_BYTES);
+        assertEquals(10, top.size());
+      }
+    } finally {
+      updater.interrupt();
+      updater.join();
+      conns.forEach(ConnectionStats::close);
+    }
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.carrotdata.cache.util.UnsafeAccess;
+import com.carrotdata.memcarrot.util.TestUtils;
+
+public class TestHotKeys {
+
+  @After
+  public void tearDown() {
+    HotKeys.init(HotKeys.DEFAULT_SAMPLE_RATE, HotKeys.DEFAULT_TOP_K);
+    HotKeys.clear();
+  }
+
+  @Test
+  public void testHotKeyDetected() {
+    HotKeys.init(4, 5);
+    HotKeys.clear();
+    Random r = new Random(1);
+    long hot = TestUtils.copyToMemory("hot-key");
+    long cold = UnsafeAccess.malloc(16);
+    int n = 1_000_000;
+    for (int i = 0; i < n; i++) {
+      if (r.nextInt(10) < 4) {
+        // 40% of reads
+        HotKeys.read(hot, 7);
+      } else {
+        UnsafeAccess.copy(TestUtils.randomBytes(16, r), 0, cold, 16);
+        HotKeys.read(cold, 16);
+      }
+      HotKeys.write(cold, 16);
+    }
+    List<HotKeys.Item> top = HotKeys.topReads();
+    assertTrue(top.size() > 0 && top.size() <= 5);
+    assertEquals("hot-key", top.get(0).key);
+    assertTrue(top.get(0).share > 0.3 && top.get(0).share < 0.5);
+    UnsafeAccess.free(hot);
+    UnsafeAccess.free(cold);
+  }
+
+  @Test
+  public void testDisabled() {
+    HotKeys.init(0, 5);
+    HotKeys.clear();
+    long key = TestUtils.copyToMemory("key");
+    for (int i = 0; i < 1000; i++) {
+      HotKeys.read(key, 3);
+    }
+    assertTrue(HotKeys.topReads().isEmpty());
+    UnsafeAccess.free(key);
+  }
+}
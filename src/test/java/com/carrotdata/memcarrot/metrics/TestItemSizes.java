@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.metrics;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.carrotdata.cache.util.UnsafeAccess;
+
+public class TestItemSizes {
+
+  @After
+  public void tearDown() {
+    ItemSizes.init(null, ItemSizes.DEFAULT_MAX_NAMESPACES);
+  }
+
+  @Test
+  public void testBuckets() {
+    assertEquals(0, ItemSizes.bucket(0));
+    assertEquals(0, ItemSizes.bucket(1));
+    assertEquals(1, ItemSizes.bucket(2));
+    assertEquals(2, ItemSizes.bucket(3));
+    assertEquals(2, ItemSizes.bucket(4));
+    assertEquals(3, ItemSizes.bucket(5));
+    assertEquals(10, ItemSizes.bucket(1024));
+    assertEquals(11, ItemSizes.bucket(1025));
+    assertEquals(31, ItemSizes.bucket(Integer.MAX_VALUE));
+    for (int size = 1; size < 100_000; size++) {
+      int b = ItemSizes.bucket(size);
+      assertTrue(size <= ItemSizes.upperBound(b));
+      assertTrue(b == 0 || size > ItemSizes.upperBound(b - 1));
+    }
+  }
+
+  @Test
+  public void testRecord() throws InterruptedException {
+    ItemSizes.init(null, ItemSizes.DEFAULT_MAX_NAMESPACES);
+    long key = key("key-0000000001");
+    ItemSizes.storage(key, 10, 100);
+    ItemSizes.storage(key, 16, 1000);
+    Thread t = new Thread(() -> ItemSizes.storage(key, 12, 100));
+    t.start();
+    t.join();
+    ItemSizes.hit(key, 10, 1000);
+    assertEquals(3, ItemSizes.getCount(ItemSizes.Kind.KEY, ItemSizes.bucket(16)));
+    assertEquals(2, ItemSizes.getCount(ItemSizes.Kind.VALUE, ItemSizes.bucket(100)));
+    assertEquals(1, ItemSizes.getCount(ItemSizes.Kind.VALUE, ItemSizes.bucket(1000)));
+    assertEquals(1, ItemSizes.getCount(ItemSizes.Kind.HIT, ItemSizes.bucket(1000)));
+    assertEquals(0, ItemSizes.namespaces().length);
+    assertEquals(128, ItemSizes.percentile(ItemSizes.histogram(null, ItemSizes.Kind.VALUE), 50));
+    assertEquals(1024, ItemSizes.percentile(ItemSizes.histogram(null, ItemSizes.Kind.VALUE), 99));
+    ItemSizes.reset();
+    assertEquals(0, ItemSizes.getCount(ItemSizes.Kind.KEY, ItemSizes.bucket(16)));
+    UnsafeAccess.free(key);
+  }
+
+  @Test
+  public void testNamespaces() {
+    ItemSizes.init(":", 2);
+    String[] keys = new String[] { "user:1", "user:2", "session:1", "order:1", "plain" };
+    for (String k : keys) {
+      long ptr = key(k);
+      ItemSizes.storage(ptr, k.length(), 100);
+      UnsafeAccess.free(ptr);
+    }
+    assertArrayEquals(new String[] { "user", "session", ItemSizes.OTHER },
+      ItemSizes.namespaces());
+    int b = ItemSizes.bucket(100);
+    assertEquals(5, ItemSizes.histogram(null, ItemSizes.Kind.VALUE)[b]);
+    assertEquals(2, ItemSizes.histogram("user", ItemSizes.Kind.VALUE)[b]);
+    assertEquals(1, ItemSizes.histogram("session", ItemSizes.Kind.VALUE)[b]);
+    // "order" is above the maximum, "plain" has no namespace
+    assertEquals(2, ItemSizes.histogram(ItemSizes.OTHER, ItemSizes.Kind.VALUE)[b]);
+    assertEquals(0, ItemSizes.histogram("order", ItemSizes.Kind.VALUE)[b]);
+  }
+
+  private static long key(String s) {
+    return UnsafeAccess.allocAndCopy(s, 0, s.length());
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.carrotdata.memcarrot.commands.VERSION;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class TestJfrEvents {
+
+  @Test
+  public void testCommandEvent() throws IOException {
+    assertFalse(CommandEvent.enabled());
+    VERSION cmd = new VERSION();
+    // disabled - nothing is recorded
+    CommandEvent.start();
+    CommandEvent.executed(cmd, 1000, 2000, 10);
+    CommandEvent.written(3000);
+
+    Path file = Files.createTempFile("memcarrot", ".jfr");
+    try (Recording recording = new Recording()) {
+      recording.enable(CommandEvent.class);
+      recording.start();
+      assertTrue(CommandEvent.enabled());
+      CommandEvent.start();
+      CommandEvent.executed(cmd, 1000, 2000, 10);
+      CommandEvent.written(3000);
+      // not executed (incomplete) - discarded
+      CommandEvent.start();
+      CommandEvent.written(0);
+      recording.stop();
+      recording.dump(file);
+      List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+      assertEquals(1, events.size());
+      RecordedEvent e = events.get(0);
+      assertEquals("memcarrot.Command", e.getEventType().getName());
+      assertEquals("version", e.getString("command"));
+      assertEquals(10, e.getInt("responseSize"));
+      assertEquals(2000, e.getDuration("executeTime").toNanos());
+      assertEquals(3000, e.getDuration("writeTime").toNanos());
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+}
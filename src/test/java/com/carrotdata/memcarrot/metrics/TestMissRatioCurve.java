@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TestMissRatioCurve {
+
+  @After
+  public void tearDown() {
+    MissRatioCurve.init(MissRatioCurve.DEFAULT_SAMPLE_RATE, MissRatioCurve.DEFAULT_MAX_KEYS);
+  }
+
+  @Test
+  public void testBuckets() {
+    for (long d = 0; d < 1_000_000; d++) {
+      int b = MissRatioCurve.bucket(d);
+      assertTrue(MissRatioCurve.lowerBound(b) <= d);
+      assertTrue(d < MissRatioCurve.lowerBound(b + 1));
+    }
+  }
+
+  @Test
+  public void testDisabled() {
+    MissRatioCurve.init(0, 100);
+    assertFalse(MissRatioCurve.isEnabled());
+    assertEquals(0, MissRatioCurve.hitRatio(1000), 0);
+  }
+
+  @Test
+  public void testLoop() {
+    // Cyclic access of n keys: LRU cache smaller than n never hits
+    int n = 20000;
+    MissRatioCurve.init(0.1, 100_000);
+    long[] hashes = hashes(n, new Random(1));
+    for (int pass = 0; pass < 10; pass++) {
+      for (long h : hashes) {
+        MissRatioCurve.access(h);
+      }
+    }
+    assertEquals(0, MissRatioCurve.hitRatio(n / 2), 0.01);
+    assertEquals(0.9, MissRatioCurve.hitRatio(2 * n), 0.02);
+  }
+
+  @Test
+  public void testUniform() {
+    // Uniform random access of n keys: LRU hit ratio of cache size c is about c / n
+    int n = 50000;
+    MissRatioCurve.init(1, 1000);
+    long[] hashes = hashes(n, new Random(2));
+    Random r = new Random(3);
+    for (int i = 0; i < 20 * n; i++) {
+      MissRatioCurve.access(hashes[r.nextInt(n)]);
+    }
+    // fixed-size sampling lowered the rate
+    assertTrue(MissRatioCurve.getTrackedKeys() <= 1000);
+    assertTrue(MissRatioCurve.getSampleRate() < 0.05);
+    assertEquals(0.25, MissRatioCurve.hitRatio(n / 4), 0.07);
+    assertEquals(0.5, MissRatioCurve.hitRatio(n / 2), 0.07);
+    assertEquals(0.95, MissRatioCurve.hitRatio(2 * n), 0.03);
+  }
+
+  private static long[] hashes(int n, Random r) {
+    long[] hashes = new long[n];
+    for (int i = 0; i < n; i++) {
+      hashes[i] = r.nextLong();
+    }
+    return hashes;
+  }
+}
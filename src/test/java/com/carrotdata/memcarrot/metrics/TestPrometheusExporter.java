@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import org.junit.Test;
+
+public class TestPrometheusExporter {
+
+  @Test
+  public void testSanitize() {
+    assertEquals("cache_hits", PrometheusExporter.sanitize("cache_hits"));
+    assertEquals("cache_hit_ratio", PrometheusExporter.sanitize("cache.hit-ratio"));
+    assertEquals("_1xx", PrometheusExporter.sanitize("11xx"));
+  }
+
+  @Test
+  public void testScrape() throws IOException {
+    ServerMetrics.connectionOpened();
+    ServerMetrics.bytesRead(100);
+    PrometheusExporter exporter = new PrometheusExporter("127.0.0.1", 0, null, "memcarrot");
+    exporter.start();
+    try {
+      URL url = new URL("http://127.0.0.1:" + exporter.getPort() + PrometheusExporter.PATH);
+      HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+      assertEquals(200, conn.getResponseCode());
+      assertTrue(conn.getContentType().startsWith("text/plain"));
+      String body;
+      try (InputStream is = conn.getInputStream()) {
+        body = new String(is.readAllBytes());
+      }
+      assertTrue(body.contains("# TYPE memcarrot_bytes_read_total counter\n"));
+      assertTrue(body.contains("memcarrot_connections_current "));
+      assertTrue(body.contains("memcarrot_bytes_read_total "));
+    } finally {
+      exporter.stop();
+      ServerMetrics.connectionClosed();
+    }
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.carrotdata.memcarrot.commands.VERSION;
+
+public class TestSlowLog {
+
+  @After
+  public void tearDown() {
+    SlowLog.init(SlowLog.DEFAULT_THRESHOLD_US, SlowLog.DEFAULT_SIZE);
+    SlowLog.reset();
+  }
+
+  @Test
+  public void testLogAndReset() throws InterruptedException {
+    SlowLog.init(100, 4);
+    SlowLog.reset();
+    Thread.sleep(2);
+    SlowLog.Ring ring = SlowLog.newRing();
+    InetSocketAddress client = new InetSocketAddress("127.0.0.1", 12345);
+    VERSION cmd = new VERSION();
+    // below threshold
+    assertTrue(!SlowLog.isSlow(50_000));
+    assertTrue(SlowLog.isSlow(100_000));
+    ring.log(cmd, 50_000, 10, client);
+    assertTrue(SlowLog.records().isEmpty());
+
+    for (int i = 1; i <= 10; i++) {
+      ring.log(cmd, i * 1_000_000, 10, client);
+    }
+    List<SlowLog.Record> records = SlowLog.records();
+    // ring keeps the last 4 entries
+    assertEquals(4, records.size());
+    for (SlowLog.Record r : records) {
+      assertEquals("version", r.command);
+      assertTrue(r.durationNs >= 7_000_000);
+      assertEquals(client.toString(), r.client);
+    }
+    SlowLog.reset();
+    assertTrue(SlowLog.records().isEmpty());
+  }
+
+  @Test
+  public void testDisabled() {
+    SlowLog.init(-1, 4);
+    assertTrue(!SlowLog.isEnabled());
+    assertTrue(!SlowLog.isSlow(Long.MAX_VALUE));
+    SlowLog.Ring ring = SlowLog.newRing();
+    ring.log(new VERSION(), Long.MAX_VALUE, 0, null);
+    assertTrue(SlowLog.records().isEmpty());
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestWorkerStats {
+
+  @Test
+  public void testTotals() {
+    WorkerStats s1 = WorkerStats.register("w1");
+    WorkerStats s2 = WorkerStats.register("w2");
+    try {
+      s1.busyNanos = 300;
+      s1.spinNanos = 100;
+      s1.keys = 2;
+      s1.commands = 10;
+      s1.queueWaitNanos = 2000;
+      s2.busyNanos = 100;
+      s2.parkNanos = 300;
+      s2.keys = 2;
+      s2.commands = 2;
+      assertEquals(0.75, s1.getUtilization(), 1e-9);
+      assertEquals(1000, s1.getAverageQueueWaitNanos(), 1e-9);
+      WorkerStats total = WorkerStats.total();
+      assertEquals(400, total.busyNanos);
+      assertEquals(0.5, total.getUtilization(), 1e-9);
+      assertEquals(3, total.getCommandsPerWakeup(), 1e-9);
+      assertEquals(500, total.getAverageQueueWaitNanos(), 1e-9);
+      assertTrue(WorkerStats.all().contains(s1));
+    } finally {
+      WorkerStats.unregister(s1);
+      WorkerStats.unregister(s2);
+    }
+    assertFalse(WorkerStats.all().contains(s1));
+    assertEquals(0, new WorkerStats.Bean().getCount());
+  }
+
+  @Test
+  public void testSelectorCpu() throws InterruptedException {
+    Thread t = new Thread(() -> {
+      long end = System.nanoTime() + 50_000_000;
+      while (System.nanoTime() < end) {
+        // burn CPU
+      }
+    });
+    WorkerStats.selector(t);
+    t.start();
+    Thread.sleep(20);
+    assertTrue(WorkerStats.getSelectorCpuNanos() > 0);
+    t.join();
+  }
+}
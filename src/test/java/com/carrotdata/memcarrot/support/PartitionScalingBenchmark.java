@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.support;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.carrotdata.cache.Cache;
+import com.carrotdata.cache.support.Memcached;
+import com.carrotdata.cache.util.UnsafeAccess;
+import com.carrotdata.memcarrot.util.TestUtils;
+
+/**
+ * Write-heavy scaling benchmark: shared single cache vs partitioned cache, 1 - 64 threads.
+ * Usage: PartitionScalingBenchmark [partitions] [cache_size] [ops_per_thread] [write_ratio]
+ */
+public class PartitionScalingBenchmark {
+  private static final Logger log = LogManager.getLogger(PartitionScalingBenchmark.class);
+
+  static int keySize = 16;
+  static int valueSize = 100;
+  static int keySpace = 1_000_000;
+  static long segmentSize = 4_000_000;
+
+  public static void main(String[] args) throws Exception {
+    int partitions = args.length > 0 ? Integer.parseInt(args[0])
+        : Runtime.getRuntime().availableProcessors();
+    long cacheSize = args.length > 1 ? Long.parseLong(args[1]) : 1_000_000_000L;
+    int opsPerThread = args.length > 2 ? Integer.parseInt(args[2]) : 1_000_000;
+    double writeRatio = args.length > 3 ? Double.parseDouble(args[3]) : 0.9;
+
+    log.info("partitions={} cache size={} ops/thread={} write ratio={}", partitions, cacheSize,
+      opsPerThread, writeRatio);
+    for (int threads = 1; threads <= 64; threads *= 2) {
+      Memcached single = new Memcached(createCache("single", cacheSize));
+      double singleRps = run(single, threads, opsPerThread, writeRatio);
+      single.dispose();
+
+      Memcached[] parts = new Memcached[partitions];
+      for (int i = 0; i < partitions; i++) {
+        parts[i] = new Memcached(createCache("part_" + i, cacheSize / partitions));
+      }
+      PartitionedMemcached partitioned = new PartitionedMemcached(parts);
+      double partRps = run(partitioned, threads, opsPerThread, writeRatio);
+      partitioned.dispose();
+
+      log.info("threads={} single={} ops/s partitioned={} ops/s speedup={}", threads,
+        (long) singleRps, (long) partRps, String.format("%.2f", partRps / singleRps));
+    }
+  }
+
+  private static Cache createCache(String name, long size) throws IOException {
+    return TestUtils.createCache(name, size, segmentSize, true, true);
+  }
+
+  private static double run(Memcached support, int numThreads, int opsPerThread,
+      double writeRatio) throws InterruptedException {
+    AtomicLong totalOps = new AtomicLong();
+    Thread[] threads = new Thread[numThreads];
+    for (int i = 0; i < numThreads; i++) {
+      final int id = i;
+      threads[i] = new Thread(() -> {
+        Random r = new Random(id);
+        long key = UnsafeAccess.malloc(keySize);
+        long value = TestUtils.randomMemory(valueSize, r);
+        byte[] buf = new byte[keySize];
+        for (int j = 0; j < opsPerThread; j++) {
+          fillKey(buf, r.nextInt(keySpace));
+          UnsafeAccess.copy(buf, 0, key, keySize);
+          if (r.nextDouble() < writeRatio) {
+            support.set(key, keySize, value, valueSize, 0, 0);
+          } else {
+            support.get(key, keySize);
+          }
+        }
+        totalOps.addAndGet(opsPerThread);
+        UnsafeAccess.free(key);
+        UnsafeAccess.free(value);
+      });
+    }
+    long start = System.nanoTime();
+    for (Thread t : threads) {
+      t.start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    long time = System.nanoTime() - start;
+    return totalOps.get() * 1e9 / time;
+  }
+
+  private static void fillKey(byte[] buf, int n) {
+    for (int i = buf.length - 1; i >= 0; i--) {
+      buf[i] = (byte) ('0' + n % 10);
+      n /= 10;
+    }
+  }
+}
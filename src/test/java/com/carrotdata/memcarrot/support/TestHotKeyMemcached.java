@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.carrotdata.cache.support.Memcached;
+import com.carrotdata.cache.support.Memcached.OpResult;
+import com.carrotdata.cache.support.Memcached.Record;
+import com.carrotdata.memcarrot.util.TestUtils;
+
+public class TestHotKeyMemcached {
+
+  static final int ADMIT_FREQUENCY = 4;
+
+  HotKeyMemcached support;
+
+  @Before
+  public void setUp() throws IOException {
+    Memcached storage =
+        new Memcached(TestUtils.createCache("hot", 100_000_000, 4_000_000, true, true));
+    support = new HotKeyMemcached(storage, 1 << 20, ADMIT_FREQUENCY);
+  }
+
+  @After
+  public void tearDown() {
+    if (support != null) {
+      support.dispose();
+    }
+  }
+
+  @Test
+  public void testHitsAndInvalidation() {
+    byte[] key = "hot-key".getBytes();
+    long keyPtr = TestUtils.copyToMemory(key);
+    byte[] value = "value-1".getBytes();
+    long valPtr = TestUtils.copyToMemory(value);
+    assertEquals(OpResult.STORED, support.set(keyPtr, key.length, valPtr, value.length, 1, 0));
+
+    int n = 100;
+    for (int i = 0; i < n; i++) {
+      Record r = support.get(keyPtr, key.length);
+      assertTrue(TestUtils.equals(value, 0, value.length, r.value, r.offset, r.size));
+      assertEquals(1, r.flags);
+    }
+    // Key is admitted after ADMIT_FREQUENCY misses
+    assertEquals(ADMIT_FREQUENCY, support.getMisses());
+    assertEquals(n - ADMIT_FREQUENCY, support.getHits());
+    assertTrue(support.getMemoryUsed() > 0);
+
+    // Write invalidates the key
+    byte[] value2 = "value-2".getBytes();
+    long valPtr2 = TestUtils.copyToMemory(value2);
+    assertEquals(OpResult.STORED, support.set(keyPtr, key.length, valPtr2, value2.length, 2, 0));
+    assertEquals(0, support.getMemoryUsed());
+    Record r = support.get(keyPtr, key.length);
+    assertTrue(TestUtils.equals(value2, 0, value2.length, r.value, r.offset, r.size));
+    assertEquals(2, r.flags);
+
+    // Delete invalidates the key
+    assertEquals(OpResult.DELETED, support.delete(keyPtr, key.length));
+    assertNull(support.get(keyPtr, key.length).value);
+  }
+
+  @Test
+  public void testMemoryLimit() {
+    int valueSize = 10_000;
+    for (int i = 0; i < 1000; i++) {
+      byte[] key = ("key-" + i).getBytes();
+      long keyPtr = TestUtils.copyToMemory(key);
+      long valPtr = TestUtils.randomMemory(valueSize);
+      support.set(keyPtr, key.length, valPtr, valueSize, 0, 0);
+      for (int j = 0; j < 2 * ADMIT_FREQUENCY; j++) {
+        support.get(keyPtr, key.length);
+      }
+    }
+    assertTrue(support.getMemoryUsed() <= 1 << 20);
+    assertTrue(support.getHits() > 0);
+  }
+}
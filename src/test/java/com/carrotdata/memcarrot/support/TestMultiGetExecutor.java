@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.carrotdata.cache.Cache;
+import com.carrotdata.cache.support.Memcached;
+import com.carrotdata.cache.support.Memcached.Record;
+import com.carrotdata.cache.util.UnsafeAccess;
+import com.carrotdata.cache.util.Utils;
+import com.carrotdata.memcarrot.CommandProcessor;
+import com.carrotdata.memcarrot.util.TestUtils;
+
+public class TestMultiGetExecutor {
+
+  /* Keys in request order, RAM tier, file tier and missing keys interleaved */
+  static final String[] KEYS = { "ram-0", "file-0", "missing-0", "ram-1", "file-1", "file-2" };
+
+  Memcached store;
+
+  Memcached victim;
+
+  @Before
+  public void setUp() throws IOException {
+    Cache c = TestUtils.createCache("ram", 100_000_000, 4_000_000, true, true);
+    Cache v = TestUtils.createCache("file", 100_000_000, 4_000_000, false, true);
+    c.setVictimCache(v);
+    store = new Memcached(c);
+    victim = new Memcached(v);
+    for (String key : KEYS) {
+      if (key.startsWith("ram")) {
+        set(store, key);
+      } else if (key.startsWith("file")) {
+        set(victim, key);
+      }
+    }
+    MultiGetExecutor.init(4);
+  }
+
+  @After
+  public void tearDown() {
+    MultiGetExecutor.shutdown();
+    if (store != null) {
+      store.dispose();
+    }
+  }
+
+  @Test
+  public void testInFileTier() {
+    for (String key : KEYS) {
+      long ptr = TestUtils.copyToMemory(key);
+      assertEquals(key, key.startsWith("file"), MultiGetExecutor.inFileTier(store, ptr,
+        key.length()));
+    }
+  }
+
+  @Test
+  public void testPrefetch() {
+    long[] keys = new long[KEYS.length];
+    int[] sizes = new int[KEYS.length];
+    for (int i = 0; i < KEYS.length; i++) {
+      keys[i] = TestUtils.copyToMemory(KEYS[i]);
+      sizes[i] = KEYS[i].length();
+    }
+    MultiGetExecutor executor = MultiGetExecutor.get();
+    long batches = executor.getBatches();
+    Record[] records = executor.prefetch(store, keys, sizes, false);
+    assertNotNull(records);
+    for (int i = 0; i < KEYS.length; i++) {
+      if (KEYS[i].startsWith("file")) {
+        Record r = records[i];
+        assertNotNull(KEYS[i], r.value);
+        assertEquals(value(KEYS[i]), new String(r.value, r.offset, r.size));
+      } else {
+        // RAM tier keys and misses are read by the caller
+        assertNull(KEYS[i], records[i]);
+      }
+    }
+    assertEquals(batches + 1, executor.getBatches());
+    // Single file tier key is not batched
+    assertNull(executor.prefetch(store, new long[] { keys[0], keys[1] },
+      new int[] { sizes[0], sizes[1] }, false));
+  }
+
+  @Test
+  public void testMultiGet() throws IOException {
+    StringBuilder request = new StringBuilder("get");
+    StringBuilder expected = new StringBuilder();
+    for (String key : KEYS) {
+      request.append(' ').append(key);
+      if (!key.startsWith("missing")) {
+        String v = value(key);
+        expected.append("VALUE ").append(key).append(" 0 ").append(v.length()).append("\r\n")
+            .append(v).append("\r\n");
+      }
+    }
+    request.append("\r\n");
+    expected.append("END\r\n");
+    long in = TestUtils.copyToMemory(request.toString());
+    int outSize = 64 * 1024;
+    long out = UnsafeAccess.malloc(outSize);
+    long batches = MultiGetExecutor.get().getBatches();
+    int len = CommandProcessor.process(store, in, request.length(), out, outSize, null);
+    assertTrue(len > 0);
+    // Values in request order, misses are skipped
+    assertEquals(expected.toString(), new String(Utils.toBytes(out, len)));
+    assertEquals(batches + 1, MultiGetExecutor.get().getBatches());
+    UnsafeAccess.free(out);
+  }
+
+  private static String value(String key) {
+    return "value-of-" + key;
+  }
+
+  private static void set(Memcached m, String key) {
+    byte[] k = key.getBytes();
+    byte[] v = value(key).getBytes();
+    m.set(TestUtils.copyToMemory(k), k.length, TestUtils.copyToMemory(v), v.length, 0, 0);
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.carrotdata.cache.support.Memcached;
+import com.carrotdata.cache.support.Memcached.OpResult;
+import com.carrotdata.cache.support.Memcached.Record;
+import com.carrotdata.memcarrot.util.TestUtils;
+
+public class TestPartitionedMemcached {
+
+  static final int NUM_PARTITIONS = 4;
+
+  PartitionedMemcached support;
+
+  @Before
+  public void setUp() throws IOException {
+    Memcached[] parts = new Memcached[NUM_PARTITIONS];
+    for (int i = 0; i < NUM_PARTITIONS; i++) {
+      parts[i] = new Memcached(
+          TestUtils.createCache("part_" + i, 100_000_000, 4_000_000, true, true));
+    }
+    support = new PartitionedMemcached(parts);
+  }
+
+  @After
+  public void tearDown() {
+    if (support != null) {
+      support.dispose();
+    }
+  }
+
+  @Test
+  public void testSetGetDelete() {
+    int n = 10000;
+    int[] perPartition = new int[NUM_PARTITIONS];
+    for (int i = 0; i < n; i++) {
+      byte[] key = ("key-" + i).getBytes();
+      byte[] value = ("value-" + i).getBytes();
+      long keyPtr = TestUtils.copyToMemory(key);
+      long valPtr = TestUtils.copyToMemory(value);
+      OpResult res = support.set(keyPtr, key.length, valPtr, value.length, i, 0);
+      assertEquals(OpResult.STORED, res);
+      Memcached p = support.partition(keyPtr, key.length);
+      for (int j = 0; j < NUM_PARTITIONS; j++) {
+        if (support.getPartitions()[j] == p) {
+          perPartition[j]++;
+        }
+      }
+    }
+    for (int c : perPartition) {
+      assertTrue(c > 0);
+    }
+    for (int i = 0; i < n; i++) {
+      byte[] key = ("key-" + i).getBytes();
+      byte[] value = ("value-" + i).getBytes();
+      Record r = support.get(key, 0, key.length);
+      assertNotNull(r.value);
+      assertTrue(TestUtils.equals(value, 0, value.length, r.value, r.offset, r.size));
+      assertEquals(i, r.flags);
+    }
+    for (int i = 0; i < n; i++) {
+      byte[] key = ("key-" + i).getBytes();
+      long keyPtr = TestUtils.copyToMemory(key);
+      assertEquals(OpResult.DELETED, support.delete(keyPtr, key.length));
+      assertNull(support.get(key, 0, key.length).value);
+    }
+  }
+
+  @Test
+  public void testMergeStats() {
+    List<String> p0 = Arrays.asList("gets", "10", "hit_ratio", "0.5", "version", "1.0");
+    List<String> p1 = Arrays.asList("gets", "30", "hit_ratio", "0.25", "version", "1.0");
+    List<String> merged = PartitionedMemcached.merge(Arrays.asList(p0, p1));
+    assertEquals(Arrays.asList("gets", "40", "0:hit_ratio", "0.5", "1:hit_ratio", "0.25",
+      "version", "1.0"), merged);
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestLoadGenerator {
+
+  private static ByteBuffer buffer(String s) {
+    return ByteBuffer.wrap(s.getBytes());
+  }
+
+  @Test
+  public void testNextResponse() {
+    ByteBuffer in = buffer("STORED\r\nEND\r\nVALUE key:1 0 5\r\nab\r\nc\r\n"
+        + "VALUE key:2 0 3 77\r\nxyz\r\nEND\r\nSERVER_ERROR out of memory\r\n"
+        + "STAT pid 1\r\nSTAT uptime 10\r\nEND\r\n");
+    assertEquals(0, LoadGenerator.nextResponse(in));
+    assertEquals(0, LoadGenerator.nextResponse(in));
+    // value contains CRLF
+    assertEquals(2, LoadGenerator.nextResponse(in));
+    assertEquals(LoadGenerator.ERROR, LoadGenerator.nextResponse(in));
+    assertEquals(0, LoadGenerator.nextResponse(in));
+    assertEquals(in.limit(), in.position());
+  }
+
+  @Test
+  public void testIncompleteResponse() {
+    String response = "VALUE key:1 0 10\r\n0123456789\r\nEND\r\n";
+    for (int i = 0; i < response.length(); i++) {
+      ByteBuffer in = buffer(response.substring(0, i));
+      assertEquals(LoadGenerator.INCOMPLETE, LoadGenerator.nextResponse(in));
+      assertEquals(0, in.position());
+    }
+    assertEquals(1, LoadGenerator.nextResponse(buffer(response)));
+  }
+
+  @Test
+  public void testValueSizeDistribution() {
+    Random r = new Random(1);
+    assertEquals(100, ValueSizeDistribution.parse("100").next(r));
+    ValueSizeDistribution range = ValueSizeDistribution.parse("100-200");
+    assertEquals(200, range.getMaxSize());
+    for (int i = 0; i < 1000; i++) {
+      int s = range.next(r);
+      assertTrue(s >= 100 && s <= 200);
+    }
+    ValueSizeDistribution weighted = ValueSizeDistribution.parse("10:90,1000:10");
+    int large = 0;
+    int n = 100000;
+    for (int i = 0; i < n; i++) {
+      if (weighted.next(r) == 1000) {
+        large++;
+      }
+    }
+    assertEquals(0.1, (double) large / n, 0.01);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidValueSize() {
+    ValueSizeDistribution.parse("200-100");
+  }
+
+  @Test
+  public void testZipfianSkew() {
+    Random r = new Random(2);
+    int n = 10000;
+    KeyDistribution zipf = KeyDistribution.parse("zipfian", n);
+    int[] counts = new int[n];
+    int samples = 1_000_000;
+    for (int i = 0; i < samples; i++) {
+      long k = zipf.next(r);
+      assertTrue(k >= 0 && k < n);
+      counts[(int) k]++;
+    }
+    int max = 0;
+    for (int c : counts) {
+      max = Math.max(max, c);
+    }
+    // most popular key gets 1/zeta(n, 0.99) of accesses (~10%), uniform would be 0.01%
+    assertEquals(1 / KeyDistribution.Zipfian.zeta(n, 0.99), (double) max / samples, 0.01);
+  }
+
+  @Test
+  public void testOptions() {
+    LoadGenerator.Options o = LoadGenerator.Options.parse(new String[] { "--threads=2",
+        "--ratio=1:4", "--key-distribution=zipfian:0.9", "--rate=10000", "--populate" });
+    assertEquals(2, o.threads);
+    assertEquals(1, o.setRatio);
+    assertEquals(4, o.getRatio);
+    assertEquals(10000, o.rate);
+    assertTrue(o.populate);
+    assertEquals("zipfian:0.9", o.keyDistribution);
+  }
+
+  @Test
+  public void testScalingOptions() {
+    ConnectionScalingBenchmark b = ConnectionScalingBenchmark.parse(new String[] {
+        "--steps=10,1000", "--hot=20", "--step-duration=5", "--threads=2", "--pipeline=4" });
+    assertEquals(2, b.steps.length);
+    assertEquals(1000, b.steps[1]);
+    assertEquals(20, b.hot);
+    assertEquals(5, b.load.duration);
+    assertEquals(2, b.load.threads);
+    assertEquals(4, b.load.pipeline);
+  }
+
+  @Test
+  public void testUnixSocketOptions() {
+    UnixSocketBenchmark b = UnixSocketBenchmark.parse(new String[] {
+        "--socket=/tmp/mc.sock", "--rounds=2", "--server=localhost:11212" });
+    assertEquals(2, b.rounds);
+    assertEquals("/tmp/mc.sock", b.load.socket);
+    assertEquals("localhost:11212", b.load.server);
+    try {
+      UnixSocketBenchmark.parse(new String[] { "--rounds=2" });
+      fail();
+    } catch (IllegalArgumentException e) {
+      // socket is required
+    }
+  }
+}
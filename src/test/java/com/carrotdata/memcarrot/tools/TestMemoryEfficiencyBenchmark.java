@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.tools;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestMemoryEfficiencyBenchmark {
+
+  @Test
+  public void testOptions() {
+    MemoryEfficiencyBenchmark b = MemoryEfficiencyBenchmark.parse(new String[] { "--items=1000",
+        "--key-size=20", "--index-formats=BaseIndexFormat,org.example.MyIndexFormat",
+        "--compression=true", "--value-data=random" });
+    assertEquals(1000, b.items);
+    assertEquals("20", b.keySize);
+    assertEquals(2, b.indexFormats.length);
+    assertEquals(1, b.compression.length);
+    assertTrue(b.compression[0]);
+    assertTrue(b.randomValues);
+    assertEquals("com.carrotdata.cache.index.BaseIndexFormat",
+      MemoryEfficiencyBenchmark.indexFormatClass(b.indexFormats[0]));
+    assertEquals("org.example.MyIndexFormat",
+      MemoryEfficiencyBenchmark.indexFormatClass(b.indexFormats[1]));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidOption() {
+    MemoryEfficiencyBenchmark.parse(new String[] { "--value-data=json" });
+  }
+
+  @Test
+  public void testFillKey() {
+    byte[] key = new byte[8];
+    MemoryEfficiencyBenchmark.fillKey(key, 6, 1234);
+    assertArrayEquals("001234".getBytes(), Arrays.copyOf(key, 6));
+  }
+
+  @Test
+  public void testTextValueData() {
+    byte[] data = MemoryEfficiencyBenchmark.valueData(new Random(1), false, 10000);
+    assertEquals(10000, data.length);
+    boolean space = false;
+    for (byte b : data) {
+      assertTrue(b == ' ' || (b >= 'a' && b <= 'z'));
+      space |= b == ' ';
+    }
+    assertTrue(space);
+    boolean binary = false;
+    for (byte b : MemoryEfficiencyBenchmark.valueData(new Random(1), true, 10000)) {
+      binary |= b != ' ' && (b < 'a' || b > 'z');
+    }
+    assertTrue(binary);
+  }
+}
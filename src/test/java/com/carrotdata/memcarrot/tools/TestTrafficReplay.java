@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.tools;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class TestTrafficReplay {
+
+  @Test
+  public void testRequestCounter() {
+    TrafficReplay.RequestCounter c = new TrafficReplay.RequestCounter();
+    assertEquals(2, c.add("get a b\r\nset k 0 0 3\r\nabc\r\n".getBytes()));
+    assertEquals(0, c.add("delete k noreply\r\nset k 0 0 5 noreply\r\n12345\r\n".getBytes()));
+    // data block contains CRLF and is split between reads
+    assertEquals(0, c.add("cas k 0 0 6 99\r\n12\r\n".getBytes()));
+    assertEquals(1, c.add("34\r\nin".getBytes()));
+    assertEquals(2, c.add("cr k 1\r\nstats\r\nquit\r\n".getBytes()));
+  }
+
+  @Test
+  public void testOptions() {
+    TrafficReplay r =
+        TrafficReplay.parse(new String[] { "--file=c.bin", "--speed=max", "--server=h:1" });
+    assertEquals("c.bin", r.file);
+    assertEquals(0, r.speed, 0);
+    assertEquals("h:1", r.server);
+    assertEquals(2.5, TrafficReplay.parse(new String[] { "--file=c", "--speed=2.5" }).speed, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNoFile() {
+    TrafficReplay.parse(new String[] { "--speed=2" });
+  }
+}
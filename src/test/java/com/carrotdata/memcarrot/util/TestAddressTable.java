@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class TestAddressTable {
+
+  private static long high(String s) throws IOException {
+    return AddressTable.high(InetAddress.getByName(s).getAddress());
+  }
+
+  private static long low(String s) throws IOException {
+    return AddressTable.low(InetAddress.getByName(s).getAddress());
+  }
+
+  @Test
+  public void testAddressWords() throws IOException {
+    String[] addrs = { "10.0.0.1", "255.255.255.255", "::1", "2001:db8::7", "fe80::1:2:3:4" };
+    for (String a : addrs) {
+      InetAddress addr = InetAddress.getByName(a);
+      assertEquals(addr, AddressTable.toInetAddress(high(a), low(a)));
+    }
+    // IPv4 is mapped to IPv6
+    assertEquals(0, high("10.0.0.1"));
+    assertEquals(0xffff0a000001L, low("10.0.0.1"));
+    assertEquals(low("10.0.0.1"), low("::ffff:10.0.0.1"));
+  }
+
+  @Test
+  public void testParseAddress() {
+    assertEquals(4, AddressTable.parseAddress("192.168.0.1").length);
+    assertEquals(16, AddressTable.parseAddress("2001:db8::1").length);
+    // Never resolved
+    assertNull(AddressTable.parseAddress("localhost"));
+    assertNull(AddressTable.parseAddress("cafe.be"));
+    assertNull(AddressTable.parseAddress("12345"));
+    assertNull(AddressTable.parseAddress(""));
+    assertNull(AddressTable.parseAddress("2001:zz::1"));
+  }
+
+  @Test
+  public void testExpiration() {
+    AddressTable table = new AddressTable(16, 1000);
+    long now = 1_000_000;
+    assertFalse(table.contains(0, 1, now));
+    assertTrue(table.add(0, 1, now));
+    assertTrue(table.contains(0, 1, now + 999));
+    assertFalse(table.contains(0, 1, now + 1000));
+    // Extends expiration
+    assertTrue(table.add(0, 1, now + 500));
+    assertTrue(table.contains(0, 1, now + 1499));
+    assertEquals(1, table.size(now + 1499));
+    assertEquals(0, table.size(now + 1500));
+
+    table = new AddressTable(16, 0);
+    assertTrue(table.add(5, 6, now));
+    assertTrue(table.contains(5, 6, Long.MAX_VALUE - 1));
+  }
+
+  @Test
+  public void testBounded() {
+    AddressTable table = new AddressTable(100, 1000);
+    int capacity = table.capacity();
+    assertEquals(256, capacity);
+    long now = 1_000_000;
+    // At least maximum size fits, the rest is limited by probe sequence length
+    int added = 0;
+    while (table.add(0, added, now)) {
+      added++;
+    }
+    assertTrue(added >= 100 && added <= capacity);
+    for (int i = 0; i < added; i++) {
+      assertTrue(table.contains(0, i, now));
+    }
+    assertFalse(table.contains(0, added, now));
+    // Expired entries are reused
+    now += 1000;
+    for (int i = added; i < added + 100; i++) {
+      assertTrue(table.add(0, i, now));
+    }
+    for (int i = 0; i < added; i++) {
+      assertFalse(table.contains(0, i, now));
+    }
+    for (int i = added; i < added + 100; i++) {
+      assertTrue(table.contains(0, i, now));
+    }
+    assertEquals(100, table.size(now));
+    table.clear();
+    assertEquals(0, table.size(now));
+  }
+
+  @Test
+  public void testChurn() {
+    // Many more distinct clients than slots, all slots get used
+    AddressTable table = new AddressTable(1000, 10);
+    long now = 1_000_000;
+    for (int i = 0; i < 200_000; i++) {
+      if (i % 500 == 0) {
+        now += 10;
+      }
+      assertTrue(table.add(i, i, now));
+      assertTrue(table.contains(i, i, now));
+      assertFalse(table.contains(-1, i, now));
+    }
+    assertEquals(500, table.size(now));
+  }
+
+  @Test
+  public void testConcurrentReuse() throws InterruptedException {
+    AddressTable table = new AddressTable(8, 1);
+    AtomicBoolean stop = new AtomicBoolean();
+    AtomicBoolean failed = new AtomicBoolean();
+    // Slots are reused all the time, readers must never see a torn address (i, -j)
+    Thread writer = new Thread(() -> {
+      long now = 2;
+      while (!stop.get()) {
+        for (int i = 1; i <= 16; i++) {
+          table.add(i, -i, now++);
+        }
+      }
+    });
+    Thread reader = new Thread(() -> {
+      while (!stop.get()) {
+        for (int i = 1; i <= 16; i++) {
+          if (table.contains(i, -(i % 16) - 1, 0)) {
+            failed.set(true);
+          }
+        }
+      }
+    });
+    writer.start();
+    reader.start();
+    Thread.sleep(300);
+    stop.set(true);
+    writer.join();
+    reader.join();
+    assertFalse(failed.get());
+  }
+
+  @Test
+  public void testCidrList() throws IOException {
+    CidrList list = CidrList.parse("10.0.0.0/8, 192.168.1.17, 2001:db8::/32, 0.0.0.0/0");
+    assertEquals(4, list.size());
+    list = CidrList.parse("10.0.0.0/8, 192.168.1.17, 2001:db8::/32, fe80::1/128");
+    assertTrue(list.contains(high("10.255.0.1"), low("10.255.0.1")));
+    assertFalse(list.contains(high("11.0.0.1"), low("11.0.0.1")));
+    assertTrue(list.contains(high("192.168.1.17"), low("192.168.1.17")));
+    assertFalse(list.contains(high("192.168.1.18"), low("192.168.1.18")));
+    assertTrue(list.contains(high("2001:db8:ffff::1"), low("2001:db8:ffff::1")));
+    assertFalse(list.contains(high("2001:db9::1"), low("2001:db9::1")));
+    assertTrue(list.contains(high("fe80::1"), low("fe80::1")));
+    assertFalse(list.contains(high("fe80::2"), low("fe80::2")));
+    // IPv4 network does not match IPv6 addresses
+    list = CidrList.parse("0.0.0.0/0");
+    assertTrue(list.contains(high("1.2.3.4"), low("1.2.3.4")));
+    assertFalse(list.contains(high("::1"), low("::1")));
+    assertEquals(0, CidrList.parse(" ").size());
+    assertEquals(0, CidrList.parse(null).size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidCidr() {
+    CidrList.parse("10.0.0.0/33");
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestCountMinSketch {
+
+  @Test
+  public void testEstimateNeverUnderCounts() {
+    CountMinSketch sketch = new CountMinSketch(4096, 0);
+    Random r = new Random(1);
+    int[] counts = new int[1000];
+    for (int i = 0; i < 100000; i++) {
+      int k = r.nextInt(counts.length);
+      counts[k]++;
+      sketch.increment(k * 0x9E3779B97F4A7C15L);
+    }
+    for (int k = 0; k < counts.length; k++) {
+      assertTrue(sketch.estimate(k * 0x9E3779B97F4A7C15L) >= counts[k]);
+    }
+  }
+
+  @Test
+  public void testHotKeyStandsOut() {
+    CountMinSketch sketch = new CountMinSketch(4096, 0);
+    Random r = new Random(2);
+    for (int i = 0; i < 100000; i++) {
+      sketch.increment(r.nextLong());
+      if (i % 10 == 0) {
+        sketch.increment(42);
+      }
+    }
+    assertTrue(sketch.estimate(42) >= 10000);
+    assertTrue(sketch.estimate(43) < 1000);
+  }
+
+  @Test
+  public void testAging() {
+    CountMinSketch sketch = new CountMinSketch(1024, 100);
+    for (int i = 0; i < 99; i++) {
+      sketch.increment(7);
+    }
+    assertEquals(99, sketch.estimate(7));
+    sketch.increment(7);
+    // counters were halved
+    assertEquals(50, sketch.estimate(7));
+    sketch.clear();
+    assertEquals(0, sketch.estimate(7));
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestHistogram {
+
+  @Test
+  public void testIndexRoundTrip() {
+    Random r = new Random(1);
+    for (int i = 0; i < 100000; i++) {
+      long v = r.nextLong() >>> (24 + r.nextInt(40));
+      int idx = Histogram.index(v);
+      assertTrue(Histogram.lowestEquivalentValue(idx) <= v);
+      assertTrue(Histogram.highestEquivalentValue(idx) >= v);
+    }
+    for (long v = 0; v < 64; v++) {
+      assertEquals(v, Histogram.lowestEquivalentValue(Histogram.index(v)));
+    }
+  }
+
+  @Test
+  public void testPercentiles() {
+    Random r = new Random(2);
+    Histogram h = new Histogram();
+    long[] values = new long[100000];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = (long) (1000 * Math.exp(r.nextGaussian()));
+      h.record(values[i]);
+    }
+    Arrays.sort(values);
+    assertEquals(values.length, h.getCount());
+    assertEquals(values[values.length - 1], h.getMax());
+    for (double p : new double[] { 50, 90, 99, 99.9 }) {
+      long expected = values[(int) Math.ceil(p / 100 * values.length) - 1];
+      long actual = h.getValueAtPercentile(p);
+      // relative error is below ~3%
+      assertTrue(Math.abs(actual - expected) <= expected * 0.04);
+    }
+  }
+
+  @Test
+  public void testMerge() {
+    Histogram a = new Histogram();
+    Histogram b = new Histogram();
+    for (int i = 1; i <= 100; i++) {
+      a.record(i);
+      b.record(i + 100);
+    }
+    a.add(b);
+    assertEquals(200, a.getCount());
+    assertEquals(200, a.getMax());
+    assertEquals(100.5, a.getMean(), 0.001);
+    a.reset();
+    assertEquals(0, a.getCount());
+    assertEquals(0, a.getValueAtPercentile(99));
+  }
+}
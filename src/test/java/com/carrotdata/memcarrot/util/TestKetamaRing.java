@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestKetamaRing {
+
+  private static String[] nodes(int n) {
+    String[] nodes = new String[n];
+    for (int i = 0; i < n; i++) {
+      nodes[i] = "10.0.0." + (i + 1) + ":11211";
+    }
+    return nodes;
+  }
+
+  @Test
+  public void testRingSize() {
+    KetamaRing ring = new KetamaRing(nodes(5));
+    assertEquals(5 * KetamaRing.POINTS_PER_NODE, ring.size());
+  }
+
+  @Test
+  public void testDistribution() {
+    int numNodes = 4;
+    int numKeys = 100000;
+    KetamaRing ring = new KetamaRing(nodes(numNodes));
+    int[] counts = new int[numNodes];
+    for (int i = 0; i < numKeys; i++) {
+      byte[] key = ("key:" + i).getBytes();
+      counts[ring.getNode(key, 0, key.length)]++;
+    }
+    for (int c : counts) {
+      // every node gets its fair share +/- 25%
+      assertTrue(c > numKeys / numNodes * 0.75 && c < numKeys / numNodes * 1.25);
+    }
+  }
+
+  @Test
+  public void testStability() {
+    String[] all = nodes(5);
+    String[] less = new String[4];
+    System.arraycopy(all, 0, less, 0, 4);
+    KetamaRing ring1 = new KetamaRing(all);
+    KetamaRing ring2 = new KetamaRing(less);
+    Random r = new Random();
+    int moved = 0;
+    int numKeys = 10000;
+    for (int i = 0; i < numKeys; i++) {
+      byte[] key = TestUtils.randomBytes(20, r);
+      int n1 = ring1.getNode(key, 0, key.length);
+      int n2 = ring2.getNode(key, 0, key.length);
+      if (n1 != 4) {
+        // Only keys of the removed node can be re-mapped
+        assertEquals(n1, n2);
+      } else {
+        moved++;
+      }
+    }
+    assertTrue(moved > 0 && moved < numKeys / 3);
+  }
+
+  @Test
+  public void testSameResultForSameKey() {
+    KetamaRing ring = new KetamaRing(nodes(3));
+    byte[] key = "some-key".getBytes();
+    int n = ring.getNode(key, 0, key.length);
+    for (int i = 0; i < 10; i++) {
+      assertEquals(n, ring.getNode(key, 0, key.length));
+    }
+  }
+}
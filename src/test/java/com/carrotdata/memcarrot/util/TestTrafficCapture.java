@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.carrotdata.memcarrot.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class TestTrafficCapture {
+
+  @Test
+  public void testWriteRead() throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    TrafficCapture.Writer w = new TrafficCapture.Writer("test", bos, Long.MAX_VALUE);
+    w.start();
+    w.add(TrafficCapture.DATA, 1, "get key:1\r\n".getBytes());
+    w.add(TrafficCapture.DATA, 2, "set k 0 0 1\r\nv\r\n".getBytes());
+    w.add(TrafficCapture.CLOSE, 1, null);
+    w.shutdown();
+    assertEquals(3, w.records.get());
+    assertEquals(bos.size(), w.written);
+
+    TrafficCapture.Reader r =
+        new TrafficCapture.Reader(new ByteArrayInputStream(bos.toByteArray()));
+    assertTrue(r.getStartTime() > 0);
+    long time = 0;
+    assertTrue(r.next());
+    assertEquals(TrafficCapture.DATA, r.getType());
+    assertEquals(1, r.getConnection());
+    assertArrayEquals("get key:1\r\n".getBytes(), r.getData());
+    time = r.getTime();
+    assertTrue(r.next());
+    assertEquals(2, r.getConnection());
+    assertEquals("set k 0 0 1\r\nv\r\n", new String(r.getData()));
+    assertTrue(r.getTime() >= time);
+    assertTrue(r.next());
+    assertEquals(TrafficCapture.CLOSE, r.getType());
+    assertEquals(1, r.getConnection());
+    assertNull(r.getData());
+    assertFalse(r.next());
+    r.close();
+  }
+
+  @Test
+  public void testTruncatedConnection() throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    TrafficCapture.Writer w = new TrafficCapture.Writer("test", bos, Long.MAX_VALUE);
+    // writer is not started: queue fills up
+    w.add(TrafficCapture.DATA, 1, new byte[(int) (TrafficCapture.QUEUE_BYTES_MAX / 2)]);
+    w.add(TrafficCapture.DATA, 1, new byte[(int) (TrafficCapture.QUEUE_BYTES_MAX / 2) + 1]);
+    // dropped: connection was truncated
+    w.add(TrafficCapture.DATA, 1, new byte[1]);
+    w.add(TrafficCapture.CLOSE, 1, null);
+    assertEquals(1, w.dropped.get());
+    w.start();
+    w.shutdown();
+    TrafficCapture.Reader r =
+        new TrafficCapture.Reader(new ByteArrayInputStream(bos.toByteArray()));
+    assertTrue(r.next());
+    assertEquals(TrafficCapture.DATA, r.getType());
+    assertTrue(r.next());
+    assertEquals(TrafficCapture.CLOSE, r.getType());
+    assertFalse(r.next());
+  }
+
+  @Test
+  public void testVarLong() throws IOException {
+    long[] values = { 0, 1, 127, 128, 300, Integer.MAX_VALUE, Long.MAX_VALUE, -1, Long.MIN_VALUE };
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bos);
+    for (long v : values) {
+      TrafficCapture.writeVarLong(out, TrafficCapture.zigzag(v));
+    }
+    DataInputStream in =
+        new DataInputStream(new ByteArrayInputStream(bos.toByteArray()));
+    for (long v : values) {
+      assertEquals(v, TrafficCapture.unzigzag(TrafficCapture.readVarLong(in)));
+    }
+  }
+
+  @Test
+  public void testSampling() {
+    int sampled = 0;
+    int n = 100000;
+    for (long id = 1; id <= n; id++) {
+      if (TrafficCapture.sampled(id, 0.1)) {
+        sampled++;
+      }
+      assertTrue(TrafficCapture.sampled(id, 1));
+    }
+    assertEquals(0.1, (double) sampled / n, 0.01);
+    assertFalse(TrafficCapture.sampled(0, 1));
+  }
+}
@@ -53,8 +53,13 @@ public class TestUtils {
 
   public static Cache createCache(long maxSize, long segmentSize, boolean memory,
       boolean withExpireSupport) throws IOException {
+    return createCache("cache", maxSize, segmentSize, memory, withExpireSupport);
+  }
+
+  public static Cache createCache(String name, long maxSize, long segmentSize, boolean memory,
+      boolean withExpireSupport) throws IOException {
 
-    Builder b = new Builder("cache");
+    Builder b = new Builder(name);
     b.withCacheMaximumSize(maxSize).withCacheDataSegmentSize(segmentSize).withTLSSupported(true);
     if (withExpireSupport) {
       b.withMainQueueIndexFormat(CompactBaseWithExpireIndexFormat.class.getName());